@@ -34,6 +34,7 @@ android {
 
 dependencies {
 
+    implementation(project(":dsp"))
     implementation(libs.appcompat)
     implementation(libs.material)
     implementation(libs.activity)
@@ -42,4 +43,45 @@ dependencies {
     testImplementation(libs.junit)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
-}
\ No newline at end of file
+}
+
+// Capture load harness against the simulated device: ./gradlew :app:loadTest
+// (-Pmoodproject.loadTest.speeds=1,10,50 -Pmoodproject.loadTest.clients=1,4 to vary it)
+val loadTest = tasks.register("loadTest") {
+    description = "Streams simulated ESP32 audio through the capture path and reports latency and allocation."
+    group = "verification"
+    dependsOn("testDebugUnitTest")
+}
+
+gradle.taskGraph.whenReady {
+    if (hasTask(loadTest.get())) {
+        tasks.withType<Test>().configureEach {
+            systemProperty("moodproject.loadTest", "true")
+            project.properties.filterKeys { it.startsWith("moodproject.loadTest.") }
+                .forEach { (key, value) -> systemProperty(key, value.toString()) }
+            filter.includeTestsMatching("*.CaptureLoadTest")
+            outputs.upToDateWhen { false }
+            testLogging.showStandardStreams = true
+        }
+    }
+}
+
+// Throughput of the capture path's building blocks on a plain JVM: ./gradlew :app:benchmark
+tasks.register<JavaExec>("benchmark") {
+    description = "Runs the capture path throughput benchmarks."
+    group = "verification"
+    dependsOn("compileDebugUnitTestJavaWithJavac")
+    classpath = files(java.util.concurrent.Callable { tasks.getByName<Test>("testDebugUnitTest").classpath })
+    mainClass.set("com.example.moodproject.sim.CaptureBenchmark")
+}
+
+// Re-score every stored recording on a plain JVM, e.g. after a new model ships:
+// ./gradlew :app:reanalyze --args="<recordings dir> <mood model> [threads]"
+// The app's JVM classes run from the unit test classpath; nothing Android is loaded.
+tasks.register<JavaExec>("reanalyze") {
+    description = "Re-analyses the recording archive in parallel and stores the new moods."
+    group = "application"
+    dependsOn("compileDebugUnitTestJavaWithJavac")
+    classpath = files(java.util.concurrent.Callable { tasks.getByName<Test>("testDebugUnitTest").classpath })
+    mainClass.set("com.example.moodproject.batch.BatchAnalysisJob")
+}
@@ -12,25 +12,61 @@ import android.media.AudioAttributes;
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioTrack;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ProgressBar;
+import android.widget.SeekBar;
+import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.moodproject.audio.AudioChunk;
+import com.example.moodproject.audio.CaptureSession;
+import com.example.moodproject.audio.ChunkConsumer;
+import com.example.moodproject.audio.ConnectionSupervisor;
+import com.example.moodproject.audio.DatagramIngest;
+import com.example.moodproject.audio.FeatureAnalyzer;
+import com.example.moodproject.audio.IngestSource;
+import com.example.moodproject.audio.JitterBuffer;
+import com.example.moodproject.audio.LiveMonitor;
+import com.example.moodproject.audio.StreamIngest;
+import com.example.moodproject.dsp.FeatureExtractor;
+import com.example.moodproject.dsp.MfccExtractor;
+import com.example.moodproject.dsp.MoodClassifier;
+import com.example.moodproject.dsp.MoodFeatures;
+import com.example.moodproject.dsp.MoodModel;
+import com.example.moodproject.dsp.MoodWindow;
+import com.example.moodproject.dsp.PolyphaseResampler;
+import com.example.moodproject.dsp.VoiceActivityDetector;
+import com.example.moodproject.metrics.Gauge;
+import com.example.moodproject.metrics.MetricsRegistry;
+import com.example.moodproject.pipeline.DropPolicy;
+import com.example.moodproject.pipeline.Pipeline;
+import com.example.moodproject.protocol.Concealment;
+import com.example.moodproject.protocol.FrameDecoder;
+import com.example.moodproject.protocol.ReorderWindow;
+import com.example.moodproject.store.FeatureCache;
+import com.example.moodproject.store.MoodSeries;
+import com.example.moodproject.store.RecordingAudio;
+import com.example.moodproject.store.RecordingEntry;
+import com.example.moodproject.store.RecordingPlayer;
+import com.example.moodproject.store.RecordingStore;
+import com.example.moodproject.store.RecordingWriter;
+import com.example.moodproject.viz.AudioScope;
+import com.example.moodproject.viz.AudioScopeView;
+
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.ShortBuffer;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Dashboard extends AppCompatActivity {
 
@@ -46,22 +82,121 @@ public class Dashboard extends AppCompatActivity {
     private static final String ESP32_IP = "192.168.4.1";
     private static final int ESP32_PORT = 80;
     private static final int CONNECTION_TIMEOUT = 5000; // 5 seconds
+    // Newer firmware sends its audio in frames (see FrameCodec), older firmware raw PCM;
+    // the capture session tells which from the first bytes of each recording. Up to
+    // MAX_CONCEAL_MS of audio lost from a framed stream is filled in by interpolation.
+    private static final int MAX_CONCEAL_MS = 1000;
+    // With the UDP switch on at connect time the audio comes as datagrams instead (see
+    // DatagramIngest), always framed: a lost packet costs only its own frame, concealed,
+    // rather than stalling the stream behind it. Frames out of order are held for up to
+    // DATAGRAM_REORDER_MS, and at most DATAGRAM_REORDER_FRAMES of them.
+    private static final int ESP32_DATAGRAM_PORT = 5004;
+    private static final int DATAGRAM_REORDER_FRAMES = 8; // ~90 ms of 512 sample frames
+    private static final int DATAGRAM_REORDER_MS = 30;
+
+    // Ingest settings: socket reads block for at most READ_TIMEOUT_MS (counted as a stall),
+    // and recording gives up once no audio has arrived for STALL_TIMEOUT_MS
+    private static final int INGEST_BUFFER_BYTES = 64 * 1024; // ~0.75 s of audio
+    private static final int READ_TIMEOUT_MS = 500;
+    private static final int STALL_TIMEOUT_MS = 5000;
+
+    // A dropped connection is re-established in the background, backing off from
+    // RECONNECT_INITIAL_MS to RECONNECT_MAX_MS between attempts and giving up after
+    // RECONNECT_GIVE_UP_MS without one; a connection silent for STALE_CONNECTION_MS
+    // counts as dropped. A recording carries on across the outage, stored as silence.
+    private static final int STALE_CONNECTION_MS = 2000;
+    private static final long RECONNECT_INITIAL_MS = ConnectionSupervisor.DEFAULT_INITIAL_DELAY_MS;
+    private static final long RECONNECT_MAX_MS = ConnectionSupervisor.DEFAULT_MAX_DELAY_MS;
+    private static final long RECONNECT_GIVE_UP_MS = ConnectionSupervisor.DEFAULT_GIVE_UP_MS;
 
     // 10 seconds of audio at 44.1kHz, 16-bit, mono
     private static final int RECORDING_DURATION_MS = 10000;
     private static final int BYTES_PER_SAMPLE = 2; // 16-bit = 2 bytes
     private static final int TOTAL_BYTES = (SAMPLE_RATE * RECORDING_DURATION_MS / 1000) * BYTES_PER_SAMPLE;
 
+    // Capture runs as a pipeline of chunks. Disk gets every chunk and holds capture
+    // back if it falls behind; analysis and the live monitor drop their
+    // oldest chunks instead, so they catch up rather than delay recording
+    private static final int CAPTURE_CHUNK_BYTES = 4096; // ~46 ms of audio
+    private static final int CAPTURE_CHUNK_COUNT = 32;
+    private static final int ANALYZER_QUEUE_CHUNKS = 16;
+    private static final int MONITOR_QUEUE_CHUNKS = 4;
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    // On destroy, a recording in progress gets this long to drain and close
+    private static final long SHUTDOWN_TIMEOUT_MS = 2000;
+
+    // Live monitor: the jitter buffer adapts its depth between these bounds,
+    // and the AudioTrack is fed in 10 ms periods
+    private static final int MONITOR_MIN_DEPTH_MS = 40;
+    private static final int MONITOR_MAX_DEPTH_MS = 500;
+    private static final int MONITOR_PERIOD_BYTES = SAMPLE_RATE / 100 * BYTES_PER_SAMPLE;
+
+    // Playback streams the latest stored recording from its mapped segment in AudioTrack
+    // buffer sized periods, with PLAYBACK_READ_AHEAD_PERIODS decoded ahead of the track
+    private static final int PLAYBACK_READ_AHEAD_PERIODS = 8;
+    private static final int SEEK_BAR_STEPS = 1000;
+
+    // Scope of the audio being recorded: the last 10 s across 512 columns, a column
+    // per 861 samples, drawn on its own pipeline thread that may drop chunks
+    private static final long SCOPE_VISIBLE_MS = 10_000;
+    private static final int SCOPE_COLUMNS = 512;
+    private static final int SCOPE_WAVEFORM_ROWS = 96;
+    private static final int SCOPE_SPECTRUM_ROWS = 64;
+    private static final int SCOPE_QUEUE_CHUNKS = 4;
+
+    // Voice activity detection in ~12 ms frames: analysis only sees chunks with voice,
+    // and the recording keeps the rest as silence markers. Speech is held for
+    // VAD_HANGOVER_MS after it stops so pauses between words are kept.
+    private static final int VAD_FRAME_SIZE = 512;
+    private static final int VAD_HANGOVER_MS = 300;
+
+    // Analysis runs on audio resampled to ANALYSIS_RATE, which keeps the speech band
+    // at a third of the work; recordings and playback stay at SAMPLE_RATE. Feature
+    // frames are 32 ms with 50% overlap.
+    private static final int ANALYSIS_RATE = 16000;
+    private static final int FEATURE_FRAME_SIZE = 512;
+    private static final int FEATURE_HOP_SIZE = 256;
+
+    // Metrics: shown in a debug overlay by long-pressing the status line, and written
+    // to METRICS_FILE in app storage every METRICS_SNAPSHOT_MS
+    private static final String METRICS_FILE = "metrics.txt";
+    private static final long METRICS_SNAPSHOT_MS = 10_000;
+    private static final long OVERLAY_REFRESH_MS = 500;
+
+    // Mood is scored once per second of audio when a model file is installed
+    private static final String MOOD_MODEL_FILE = "mood_model.bin";
+    private static final int MOOD_WINDOW_MS = 1000;
+
     private Button connectButton;
     private Button recordButton;
     private Button playButton;
+    private Switch datagramSwitch;
+    private Switch continuousSwitch;
+    private Switch monitorSwitch;
     private TextView statusText;
+    private TextView metricsText;
     private ProgressBar progressBar;
+    private AudioScopeView scopeView;
+    private SeekBar seekBar;
 
-    private Socket socket;
-    private byte[] audioData;
-    private boolean isRecording = false;
-    private AudioTrack audioTrack;
+    // Connect, record, playback and import each run on a worker of their own, so one
+    // never waits behind another. Fields they share with the UI thread are volatile.
+    private ExecutorService workers;
+    private volatile ConnectionSupervisor connection;
+    // Set instead of connection when connected over UDP
+    private volatile DatagramIngest datagrams;
+    private volatile CaptureSession capture;
+    // Set while a stored recording plays, for seeking from the UI thread
+    private volatile RecordingPlayer player;
+    private volatile boolean isRecording = false;
+    private volatile AudioTrack audioTrack;
+    private MoodModel moodModel;
+    private DataBase dataBase;
+    // Recordings made over one connection share a session, named by its connect time
+    private long sessionId;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private ScheduledExecutorService metricsReporter;
 
     private static final int PERMISSION_REQUEST_CODE = 200;
     private String[] requiredPermissions = {
@@ -82,15 +217,21 @@ public class Dashboard extends AppCompatActivity {
         connectButton = findViewById(R.id.connectButton);
         recordButton = findViewById(R.id.recordButton);
         playButton = findViewById(R.id.playButton);
+        datagramSwitch = findViewById(R.id.datagramSwitch);
+        continuousSwitch = findViewById(R.id.continuousSwitch);
+        monitorSwitch = findViewById(R.id.monitorSwitch);
         statusText = findViewById(R.id.statusText);
+        metricsText = findViewById(R.id.metricsText);
         progressBar = findViewById(R.id.progressBar);
+        seekBar = findViewById(R.id.seekBar);
+        scopeView = findViewById(R.id.scopeView);
+        scopeView.setFrameTimer(metrics.histogram("viz.frame.ns"));
 
         // Disable buttons initially
         recordButton.setEnabled(false);
         playButton.setEnabled(false);
 
-        // Setup audio buffer
-        audioData = new byte[TOTAL_BYTES];
+        workers = Executors.newCachedThreadPool();
 
         // Setup AudioTrack for playback
         audioTrack = new AudioTrack.Builder()
@@ -112,6 +253,25 @@ public class Dashboard extends AppCompatActivity {
             requestPermissions();
         }
 
+        dataBase = openDataBase();
+
+        // Move recordings left as loose files by older versions into the store
+        new ImportRecordingsTask().execute();
+
+        moodModel = loadMoodModel();
+
+        registerMetrics();
+        metricsReporter = Executors.newSingleThreadScheduledExecutor();
+        metricsReporter.scheduleWithFixedDelay(writeMetrics, METRICS_SNAPSHOT_MS, METRICS_SNAPSHOT_MS,
+                TimeUnit.MILLISECONDS);
+        statusText.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                toggleMetricsOverlay();
+                return true;
+            }
+        });
+
         // Set button click listeners
         connectButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -126,7 +286,7 @@ public class Dashboard extends AppCompatActivity {
                 if (!isRecording) {
                     new RecordTask().execute();
                 } else {
-                    isRecording = false;
+                    stopRecording();
                     statusText.setText("Recording stopped");
                 }
             }
@@ -138,16 +298,282 @@ public class Dashboard extends AppCompatActivity {
                 new PlayAudioTask().execute();
             }
         });
+
+        seekBar.setMax(SEEK_BAR_STEPS);
+        seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar bar, int progress, boolean fromUser) {
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar bar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar bar) {
+                RecordingPlayer current = player;
+                if (current != null) {
+                    current.seek(current.getSampleCount() * bar.getProgress() / SEEK_BAR_STEPS);
+                }
+            }
+        });
+    }
+
+    // Debug overlay with every metric, refreshed while it is visible
+    private void toggleMetricsOverlay() {
+        if (metricsText.getVisibility() == View.VISIBLE) {
+            metricsText.removeCallbacks(refreshMetrics);
+            metricsText.setVisibility(View.GONE);
+        } else {
+            metricsText.setVisibility(View.VISIBLE);
+            refreshMetrics.run();
+        }
+    }
+
+    private final Runnable refreshMetrics = new Runnable() {
+        @Override
+        public void run() {
+            metricsText.setText(metrics.snapshot());
+            metricsText.postDelayed(this, OVERLAY_REFRESH_MS);
+        }
+    };
+
+    private final Runnable writeMetrics = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                metrics.writeSnapshot(new File(getFilesDir(), METRICS_FILE));
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing metrics: " + e.getMessage());
+            }
+        }
+    };
+
+    // Metrics that outlive a recording. Gauges read the values components already
+    // keep, so nothing is added to the ingest or playback paths.
+    private void registerMetrics() {
+        metrics.gauge("ingest.bytes_per_s", new Gauge.Reader() {
+            @Override
+            public long read() {
+                StreamIngest current = currentIngest();
+                DatagramIngest udp = datagrams;
+                return current != null ? Math.round(current.getBytesPerSecond())
+                        : udp != null ? Math.round(udp.getBytesPerSecond()) : 0;
+            }
+        });
+        metrics.gauge("ingest.buffered_bytes", new Gauge.Reader() {
+            @Override
+            public long read() {
+                StreamIngest current = currentIngest();
+                DatagramIngest udp = datagrams;
+                return current != null ? current.getBufferedBytes() : udp != null ? udp.getBufferedBytes() : 0;
+            }
+        });
+        metrics.gauge("ingest.stalls", new Gauge.Reader() {
+            @Override
+            public long read() {
+                StreamIngest current = currentIngest();
+                DatagramIngest udp = datagrams;
+                return current != null ? current.getStallCount() : udp != null ? udp.getStallCount() : 0;
+            }
+        });
+        metrics.gauge("datagram.reordered", new Gauge.Reader() {
+            @Override
+            public long read() {
+                DatagramIngest udp = datagrams;
+                return udp != null ? udp.getReorderWindow().getReorderedFrames() : 0;
+            }
+        });
+        metrics.gauge("datagram.skipped", new Gauge.Reader() {
+            @Override
+            public long read() {
+                DatagramIngest udp = datagrams;
+                return udp != null ? udp.getReorderWindow().getSkippedFrames() : 0;
+            }
+        });
+        metrics.gauge("datagram.late", new Gauge.Reader() {
+            @Override
+            public long read() {
+                DatagramIngest udp = datagrams;
+                return udp != null ? udp.getReorderWindow().getLateFrames() : 0;
+            }
+        });
+        metrics.gauge("datagram.overflow", new Gauge.Reader() {
+            @Override
+            public long read() {
+                DatagramIngest udp = datagrams;
+                return udp != null ? udp.getOverflowFrames() : 0;
+            }
+        });
+        metrics.gauge("connection.reconnects", new Gauge.Reader() {
+            @Override
+            public long read() {
+                ConnectionSupervisor current = connection;
+                return current != null ? current.getReconnectCount() : 0;
+            }
+        });
+        metrics.gauge("connection.failed_attempts", new Gauge.Reader() {
+            @Override
+            public long read() {
+                ConnectionSupervisor current = connection;
+                return current != null ? current.getFailedAttempts() : 0;
+            }
+        });
+        metrics.gauge("playback.track_underruns", new Gauge.Reader() {
+            @Override
+            public long read() {
+                AudioTrack track = audioTrack;
+                return track != null ? track.getUnderrunCount() : 0;
+            }
+        });
+        DataBase db = dataBase;
+        if (db != null) {
+            final FeatureCache cache = db.getFeatureCache();
+            metrics.gauge("features.cache.hit_permille", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return Math.round(cache.getHitRate() * 1000);
+                }
+            });
+            metrics.gauge("features.cache.memory_bytes", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return cache.getMemoryBytes();
+                }
+            });
+            metrics.gauge("features.cache.disk_bytes", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return cache.getDiskBytes();
+                }
+            });
+        }
+    }
+
+    // The socket stream of the current connection, null while not connected
+    private StreamIngest currentIngest() {
+        ConnectionSupervisor current = connection;
+        return current != null ? current.getIngest() : null;
+    }
+
+    // Queue depth, drops and per-chunk time of every capture stage, plus frame loss and
+    // the live monitor, replacing those of the previous recording
+    private void registerCaptureMetrics(CaptureSession session, final LiveMonitor monitor) {
+        for (final Pipeline.Node<?> node : session.getPipeline().getNodes()) {
+            String prefix = "capture." + node.getName();
+            metrics.register(prefix + ".ns", node.getServiceTime());
+            metrics.gauge(prefix + ".queued", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return node.getQueued();
+                }
+            });
+            metrics.gauge(prefix + ".dropped", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return node.getDropped();
+                }
+            });
+        }
+        final VoiceActivityDetector voiceActivity = session.getVoiceActivity();
+        if (voiceActivity != null) {
+            metrics.gauge("vad.active_permille", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return Math.round(voiceActivity.getActiveFraction() * 1000);
+                }
+            });
+            metrics.gauge("vad.noise_floor_db", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return Math.round(voiceActivity.getNoiseFloorDb());
+                }
+            });
+        }
+        final FrameDecoder frames = session.getFrameDecoder();
+        if (frames != null) {
+            metrics.gauge("frames.lost", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return frames.getLostFrames();
+                }
+            });
+            metrics.gauge("frames.reordered", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return frames.getReorderedFrames();
+                }
+            });
+            metrics.gauge("frames.corrupt", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return frames.getCorruptFrames();
+                }
+            });
+        }
+        if (monitor != null) {
+            metrics.gauge("monitor.underruns", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return monitor.getJitterBuffer().getUnderruns();
+                }
+            });
+            metrics.gauge("monitor.latency_ms", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return Math.round(monitor.getLatencyMs());
+                }
+            });
+        }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (metricsText != null) {
+            metricsText.removeCallbacks(refreshMetrics);
+        }
+        // Let a recording in progress drain and close before its store goes away.
+        // Closing the connection ends the stream, so capture stops waiting for audio.
+        stopRecording();
+        closeConnection();
+        RecordingPlayer playing = player;
+        if (playing != null) {
+            playing.stop();
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                CaptureSession session = capture;
+                if (session != null) {
+                    session.cancel();
+                }
+                workers.shutdownNow();
+                Log.w(TAG, "Workers still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // One last snapshot with the final counts, taken before what it reads is released
+        metricsReporter.execute(writeMetrics);
+        metricsReporter.shutdown();
+        try {
+            metricsReporter.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         if (audioTrack != null) {
             audioTrack.release();
             audioTrack = null;
         }
-        closeConnection();
+        if (dataBase != null) {
+            try {
+                dataBase.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing database: " + e.getMessage());
+            }
+            dataBase = null;
+        }
     }
 
     // Check if we have the required permissions
@@ -165,52 +591,171 @@ public class Dashboard extends AppCompatActivity {
         ActivityCompat.requestPermissions(this, requiredPermissions, PERMISSION_REQUEST_CODE);
     }
 
-    // Close socket connection
-    private void closeConnection() {
-        if (socket != null && socket.isConnected()) {
-            try {
-                socket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Error closing socket: " + e.getMessage());
-            }
-            socket = null;
+    // Ask the current recording to stop; it keeps what was captured so far
+    private void stopRecording() {
+        isRecording = false;
+        CaptureSession session = capture;
+        if (session != null) {
+            session.stop();
+        }
+        // Capture may be waiting out a dropped connection
+        ConnectionSupervisor current = connection;
+        if (current != null) {
+            current.interruptRead();
+        }
+    }
+
+    // Close the connection and stop reconnecting, or stop receiving datagrams
+    private synchronized void closeConnection() {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+        if (datagrams != null) {
+            datagrams.stop();
+            datagrams = null;
+        }
+    }
+
+    // Background work on the worker pool: onPreExecute() runs on the UI thread, then
+    // doInBackground() on a worker; progress and the result are posted back to the UI
+    private abstract class UiTask<P, R> implements Runnable {
+
+        protected void onPreExecute() {
+        }
+
+        protected abstract R doInBackground();
+
+        protected void onProgressUpdate(P progress) {
+        }
+
+        protected void onPostExecute(R result) {
+        }
+
+        final void execute() {
+            onPreExecute();
+            workers.execute(this);
+        }
+
+        final void publishProgress(final P progress) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    onProgressUpdate(progress);
+                }
+            });
+        }
+
+        @Override
+        public final void run() {
+            final R result = doInBackground();
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    onPostExecute(result);
+                }
+            });
         }
     }
 
     // Task to connect to ESP32
-    private class ConnectTask extends AsyncTask<Void, String, Boolean> {
+    private class ConnectTask extends UiTask<String, Boolean> {
+        private boolean useDatagrams;
+
         @Override
         protected void onPreExecute() {
+            useDatagrams = datagramSwitch.isChecked();
             statusText.setText("Connecting to ESP32...");
             progressBar.setVisibility(View.VISIBLE);
             connectButton.setEnabled(false);
+            datagramSwitch.setEnabled(false);
         }
 
         @Override
-        protected Boolean doInBackground(Void... voids) {
+        protected Boolean doInBackground() {
             try {
-                publishProgress("Connecting to " + ESP32_IP + ":" + ESP32_PORT);
                 closeConnection(); // Close any existing connection
+                if (useDatagrams) {
+                    return connectDatagrams();
+                }
+                publishProgress("Connecting to " + ESP32_IP + ":" + ESP32_PORT);
 
-                socket = new Socket();
-                socket.connect(new InetSocketAddress(ESP32_IP, ESP32_PORT), CONNECTION_TIMEOUT);
+                // Start pulling the stream into the ingest ring right away, and keep
+                // reconnecting from here on
+                ConnectionSupervisor supervisor = new ConnectionSupervisor(new ConnectionSupervisor.Connector() {
+                    @Override
+                    public Socket connect() throws IOException {
+                        Socket socket = new Socket();
+                        try {
+                            socket.connect(new InetSocketAddress(ESP32_IP, ESP32_PORT), CONNECTION_TIMEOUT);
+                        } catch (IOException e) {
+                            socket.close();
+                            throw e;
+                        }
+                        return socket;
+                    }
+                }, INGEST_BUFFER_BYTES, READ_TIMEOUT_MS, STALE_CONNECTION_MS, SAMPLE_RATE);
+                supervisor.setBackoff(RECONNECT_INITIAL_MS, RECONNECT_MAX_MS, RECONNECT_GIVE_UP_MS);
+                supervisor.start();
+                if (!supervisor.awaitConnection(CONNECTION_TIMEOUT)) {
+                    IOException error = supervisor.getLastError();
+                    supervisor.close();
+                    String message = error != null ? error.getMessage() : "timed out";
+                    publishProgress("Connection failed: " + message);
+                    Log.e(TAG, "Connection error: " + message);
+                    return false;
+                }
+                sessionId = System.currentTimeMillis();
+                synchronized (Dashboard.this) {
+                    connection = supervisor;
+                }
+                metrics.register("connection.reconnect.ns", supervisor.getReconnectTimes());
+                metrics.register("connection.first_byte.ns", supervisor.getFirstByteTimes());
                 return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        // Subscribe to the device's datagrams; connected once its first audio arrives.
+        // There is nothing to reconnect: the subscription is repeated as a keepalive.
+        private boolean connectDatagrams() throws InterruptedException {
+            publishProgress("Connecting to " + ESP32_IP + ":" + ESP32_DATAGRAM_PORT + " (UDP)");
+            DatagramIngest ingest = new DatagramIngest(new InetSocketAddress(ESP32_IP, ESP32_DATAGRAM_PORT),
+                    INGEST_BUFFER_BYTES, READ_TIMEOUT_MS, DATAGRAM_REORDER_FRAMES, DATAGRAM_REORDER_MS);
+            String error = null;
+            try {
+                ingest.start();
+                if (!ingest.awaitData(CONNECTION_TIMEOUT)) {
+                    error = ingest.getFailure() != null ? ingest.getFailure().getMessage() : "no audio received";
+                    ingest.stop();
+                }
             } catch (IOException e) {
-                publishProgress("Connection failed: " + e.getMessage());
-                Log.e(TAG, "Connection error: " + e.getMessage());
+                error = e.getMessage();
+            }
+            if (error != null) {
+                publishProgress("Connection failed: " + error);
+                Log.e(TAG, "Connection error: " + error);
                 return false;
             }
+            sessionId = System.currentTimeMillis();
+            synchronized (Dashboard.this) {
+                datagrams = ingest;
+            }
+            return true;
         }
 
         @Override
-        protected void onProgressUpdate(String... values) {
-            statusText.setText(values[0]);
+        protected void onProgressUpdate(String message) {
+            statusText.setText(message);
         }
 
         @Override
         protected void onPostExecute(Boolean success) {
             progressBar.setVisibility(View.GONE);
             connectButton.setEnabled(true);
+            datagramSwitch.setEnabled(true);
 
             if (success) {
                 statusText.setText("Connected to ESP32");
@@ -225,84 +770,255 @@ public class Dashboard extends AppCompatActivity {
     }
 
     // Task to record audio from ESP32
-    private class RecordTask extends AsyncTask<Void, Integer, Boolean> {
-        private long startTime;
+    private class RecordTask extends UiTask<Integer, Boolean> {
+        private boolean continuous;
+        private LiveMonitor monitor;
+        private FeatureAnalyzer analyzer;
+        private AudioScope scope;
+        private final MoodFeatures features = new MoodFeatures();
+        // Why capture failed, e.g. the recording could not be written
+        private volatile Exception captureFailure;
 
         @Override
         protected void onPreExecute() {
             isRecording = true;
+            continuous = continuousSwitch.isChecked();
+            monitor = monitorSwitch.isChecked() ? createLiveMonitor() : null;
+            analyzer = createFeatureAnalyzer();
+            analyzer.setFrameTimer(metrics.histogram("dsp.frame.ns"));
+            storeMoods(analyzer);
+            scope = new AudioScope(SAMPLE_RATE, SCOPE_VISIBLE_MS, SCOPE_COLUMNS, SCOPE_WAVEFORM_ROWS,
+                    SCOPE_SPECTRUM_ROWS);
+            scope.setDecimateTimer(metrics.histogram("viz.decimate.ns"));
+            scopeView.setScope(scope);
+            scopeView.setVisibility(View.VISIBLE);
             recordButton.setText("Stop");
             playButton.setEnabled(false);
+            continuousSwitch.setEnabled(false);
+            monitorSwitch.setEnabled(false);
             statusText.setText("Recording...");
             progressBar.setVisibility(View.VISIBLE);
+            progressBar.setIndeterminate(continuous);
             progressBar.setProgress(0);
-            startTime = System.currentTimeMillis();
         }
 
         @Override
-        protected Boolean doInBackground(Void... voids) {
+        protected Boolean doInBackground() {
             try {
-                if (socket == null || !socket.isConnected()) {
+                DatagramIngest udp = datagrams;
+                if (udp != null && udp.isRunning()) {
+                    return recordDatagrams(udp);
+                }
+                ConnectionSupervisor source = connection;
+                if (source == null || !source.isRunning()) {
                     publishProgress(-1);
                     return false;
                 }
+                // Record from the live stream, not what queued up since the last recording
+                source.discardBuffered();
 
-                int totalBytesRead = 0;
-                InputStream inputStream = socket.getInputStream();
+                if (monitor != null) {
+                    monitor.start();
+                }
+                int startReconnects = source.getReconnectCount();
+                boolean success = record(source, false);
+                StreamIngest ingest = source.getIngest();
+                Log.i(TAG, "Ingest: " + (ingest != null ? Math.round(ingest.getBytesPerSecond()) : 0) + " B/s, "
+                        + (source.getReconnectCount() - startReconnects) + " reconnects");
+                return success;
 
-                // Calculate time intervals for progress updates (every 5%)
-                int progressInterval = TOTAL_BYTES / 20;
-                int nextProgressUpdate = progressInterval;
+            } catch (Exception e) {
+                Log.e(TAG, "Recording error: " + e.getMessage());
+                return false;
+            } finally {
+                capture = null;
+                stopMonitor();
+            }
+        }
 
-                while (isRecording && totalBytesRead < TOTAL_BYTES) {
-                    int availableBytes = inputStream.available();
-                    if (availableBytes > 0) {
-                        int bytesToRead = Math.min(availableBytes, TOTAL_BYTES - totalBytesRead);
-                        int bytesRead = inputStream.read(audioData, totalBytesRead, bytesToRead);
+        // Record from the datagram stream, which is always framed; the counters of its
+        // reorder window cover the whole connection
+        private boolean recordDatagrams(DatagramIngest ingest) throws IOException, InterruptedException {
+            ingest.discardBuffered();
+            if (monitor != null) {
+                monitor.start();
+            }
+            boolean success = record(ingest, true);
+            ReorderWindow window = ingest.getReorderWindow();
+            Log.i(TAG, "Ingest: " + Math.round(ingest.getBytesPerSecond()) + " B/s over UDP, "
+                    + window.getReorderedFrames() + " reordered, " + window.getSkippedFrames() + " skipped, "
+                    + window.getLateFrames() + " late, " + ingest.getOverflowFrames() + " overflowed");
+            return success;
+        }
 
-                        if (bytesRead > 0) {
-                            totalBytesRead += bytesRead;
+        private void stopMonitor() {
+            if (monitor == null) {
+                return;
+            }
+            monitor.stop();
+            try {
+                monitor.awaitTermination(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            JitterBuffer jitterBuffer = monitor.getJitterBuffer();
+            Log.i(TAG, "Monitor: " + jitterBuffer.getUnderruns() + " underruns, "
+                    + jitterBuffer.getOverruns() + " overruns, "
+                    + audioTrack.getUnderrunCount() + " AudioTrack underruns");
+        }
 
-                            // Update progress
-                            if (totalBytesRead >= nextProgressUpdate) {
-                                int progress = (totalBytesRead * 100) / TOTAL_BYTES;
-                                publishProgress(progress);
-                                nextProgressUpdate += progressInterval;
-                            }
+        // Live monitor latency and glitch counters for the status line
+        private String monitorStatus() {
+            if (monitor == null) {
+                return "";
+            }
+            return " | monitor " + Math.round(monitor.getLatencyMs()) + " ms, "
+                    + monitor.getJitterBuffer().getUnderruns() + " underruns";
+        }
 
-                            // Check if we've recorded enough data
-                            if (totalBytesRead >= TOTAL_BYTES) {
-                                break;
-                            }
-                        }
-                    } else {
-                        // Small delay to prevent CPU hogging
-                        Thread.sleep(10);
+        // Add each mood scored to the history as it comes, timed by when it was scored;
+        // analysis keeps up with capture, so that is within a queue's length of the audio
+        private void storeMoods(FeatureAnalyzer analyzer) {
+            final DataBase db = dataBase;
+            if (db == null || moodModel == null || moodModel.getLabelCount() > MoodSeries.MAX_MOODS) {
+                return;
+            }
+            analyzer.setMoodListener(new FeatureAnalyzer.MoodListener() {
+                @Override
+                public void onMood(int mood, float[] probabilities) {
+                    try {
+                        db.addMood(System.currentTimeMillis(), mood, probabilities[mood]);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Error storing mood: " + e.getMessage());
                     }
+                }
+            });
+        }
 
-                    // Check for timeout (15 seconds max)
-                    if (System.currentTimeMillis() - startTime > 15000) {
-                        publishProgress(-2);
-                        return false;
-                    }
+        // Latest level and pitch for the status line
+        private String featureStatus() {
+            if (!analyzer.copyLatest(features)) {
+                return "";
+            }
+            String mood = analyzer.getLatestMood();
+            return " | level " + Math.round(features.rms * 100) + "%, pitch " + Math.round(features.pitch) + " Hz"
+                    + (mood != null ? ", mood " + mood : "");
+        }
+
+        // Store the recording with the mood summary of what was analysed
+        private void closeRecording(RecordingWriter writer) throws IOException {
+            writer.setMood(analyzer.getDominantMood(), analyzer.getDominantMoodShare());
+            writer.close();
+            dataBase.flushMoods();
+            Log.i(TAG, "Stored " + writer.getDataBytes() + (writer.isCompressed() ? " compressed" : "")
+                    + " bytes in segment " + writer.getSegment() + ", " + dataBase.getRecordingCount() + " recordings");
+        }
+
+        // Capture through the pipeline until stopped, or for RECORDING_DURATION_MS unless
+        // continuous. Audio is saved as it arrives, so a failure keeps what was captured
+        // so far, and playback streams it back from the store. The stream is framed if
+        // alwaysFramed, otherwise framed or raw PCM as its first bytes show.
+        private boolean record(IngestSource source, boolean alwaysFramed) throws IOException, InterruptedException {
+            final RecordingWriter writer = openRecordingWriter();
+            writer.setWriteTimer(metrics.histogram("store.write.ns"));
+
+            CaptureSession session = new CaptureSession(source, CAPTURE_CHUNK_COUNT, CAPTURE_CHUNK_BYTES,
+                    STALL_TIMEOUT_MS, continuous ? Long.MAX_VALUE : TOTAL_BYTES);
+            // The recording is closed here once the analyzer is done, so its mood can be stored with it
+            session.addConsumer("persist", new ChunkConsumer() {
+                @Override
+                public void accept(AudioChunk chunk) throws IOException {
+                    writer.accept(chunk);
                 }
 
-                // Save the audio file
-                saveAudioToFile();
-                return true;
+                @Override
+                public void close() throws IOException {
+                    writer.flush();
+                }
+            });
+            session.addConsumer("analyze", analyzer, ANALYZER_QUEUE_CHUNKS, DropPolicy.DROP_OLDEST, true);
+            session.useVoiceActivity(new VoiceActivityDetector(SAMPLE_RATE, VAD_FRAME_SIZE, VAD_HANGOVER_MS));
+            if (monitor != null) {
+                session.addConsumer("play", monitor, MONITOR_QUEUE_CHUNKS, DropPolicy.DROP_OLDEST);
+            }
+            session.addConsumer("visualize", scope, SCOPE_QUEUE_CHUNKS, DropPolicy.DROP_OLDEST);
+            long maxConcealSamples = (long) SAMPLE_RATE * MAX_CONCEAL_MS / 1000;
+            if (alwaysFramed) {
+                session.useFraming(Concealment.INTERPOLATE, maxConcealSamples);
+            } else {
+                session.detectFraming(Concealment.INTERPOLATE, maxConcealSamples);
+            }
+            registerCaptureMetrics(session, monitor);
+            metrics.counter("capture.recordings").increment();
+            capture = session;
+            if (!isRecording) {
+                session.stop(); // stopped before capture began
+            }
+            session.start();
 
-            } catch (Exception e) {
-                Log.e(TAG, "Recording error: " + e.getMessage());
+            while (!session.awaitTermination(PROGRESS_INTERVAL_MS)) {
+                if (continuous) {
+                    publishProgress((int) (session.getElapsedMs() / 1000));
+                } else {
+                    publishProgress((int) (session.getBytesCaptured() * 100 / TOTAL_BYTES));
+                }
+            }
+            // Set as soon as a consumer that must see every chunk fails, which ends the capture
+            captureFailure = session.getFailure();
+            closeRecording(writer);
+            metrics.counter("capture.bytes").add(session.getBytesCaptured());
+
+            Log.i(TAG, "Captured " + session.getBytesCaptured() + " bytes ("
+                    + session.getProducerWaits() + " producer waits, "
+                    + session.getDroppedChunks() + " chunks dropped, "
+                    + session.getPoolWaits() + " pool waits)");
+            if (session.getGapCount() > 0) {
+                Log.i(TAG, "Connection lost " + session.getGapCount() + " times, "
+                        + session.getGapBytes() * 1000 / (SAMPLE_RATE * BYTES_PER_SAMPLE) + " ms stored as silence");
+                metrics.counter("capture.gaps").add(session.getGapCount());
+            }
+            if (session.getBytesCaptured() > 0) {
+                Log.i(TAG, "Voice activity: " + session.getSilentChunks() + " chunks without voice ("
+                        + session.getSilentBytes() * 100 / session.getBytesCaptured() + "% of audio not analysed), "
+                        + writer.getDataBytes() + " bytes stored for " + session.getBytesCaptured());
+                metrics.counter("vad.silent_chunks").add(session.getSilentChunks());
+                metrics.counter("vad.silent_bytes").add(session.getSilentBytes());
+            }
+            FrameDecoder frames = session.getFrameDecoder();
+            if (frames == null) {
+                Log.i(TAG, "Raw PCM stream, no framing");
+            } else {
+                Log.i(TAG, "Frames: " + frames.getFrames() + " received, " + frames.getLostFrames() + " lost ("
+                        + String.format(Locale.US, "%.2f%%", frames.getLossRate() * 100) + "), "
+                        + frames.getReorderedFrames() + " reordered, " + frames.getDuplicateFrames() + " duplicate, "
+                        + frames.getCorruptFrames() + " corrupt, "
+                        + frames.getConcealedSamples() * 1000 / SAMPLE_RATE + " ms concealed, "
+                        + frames.getDiscontinuities() + " discontinuities");
+            }
+
+            if (captureFailure != null) {
+                Log.e(TAG, "Capture error: " + captureFailure.getMessage());
                 return false;
             }
+            if (session.isTimedOut()) {
+                publishProgress(-2);
+                return false;
+            }
+            if (!continuous && isRecording && session.getBytesCaptured() < TOTAL_BYTES) {
+                // ESP32 closed the stream
+                publishProgress(-1);
+                return false;
+            }
+            return true;
         }
 
         @Override
-        protected void onProgressUpdate(Integer... values) {
-            int progress = values[0];
-            if (progress >= 0) {
+        protected void onProgressUpdate(Integer progress) {
+            if (progress >= 0 && continuous) {
+                statusText.setText("Recording... " + progress + " s" + featureStatus() + monitorStatus());
+            } else if (progress >= 0) {
                 progressBar.setProgress(progress);
-                statusText.setText("Recording... " + progress + "%");
+                statusText.setText("Recording... " + progress + "%" + featureStatus() + monitorStatus());
             } else if (progress == -1) {
                 statusText.setText("Error: Not connected");
             } else if (progress == -2) {
@@ -314,108 +1030,260 @@ public class Dashboard extends AppCompatActivity {
         protected void onPostExecute(Boolean success) {
             isRecording = false;
             recordButton.setText("Record");
+            continuousSwitch.setEnabled(true);
+            monitorSwitch.setEnabled(true);
+            progressBar.setIndeterminate(false);
             progressBar.setVisibility(View.GONE);
 
             if (success) {
                 statusText.setText("Recording complete");
-                playButton.setEnabled(true);
+                playButton.setEnabled(hasRecordings());
+            } else if (captureFailure != null) {
+                // What was captured up to the failure is kept
+                String message = "Recording error: " + captureFailure.getMessage();
+                statusText.setText(message);
+                playButton.setEnabled(hasRecordings());
+                Toast.makeText(Dashboard.this, message, Toast.LENGTH_LONG).show();
             } else {
                 statusText.setText("Recording failed");
             }
         }
     }
 
-    // Task to play recorded audio
-    private class PlayAudioTask extends AsyncTask<Void, Integer, Void> {
-        @Override
-        protected void onPreExecute() {
-            statusText.setText("Playing audio...");
-            progressBar.setVisibility(View.VISIBLE);
-            progressBar.setProgress(0);
-            connectButton.setEnabled(false);
-            recordButton.setEnabled(false);
-            playButton.setEnabled(false);
+    // Feature extraction for a recording, with per-second mood scoring when a model is loaded
+    private FeatureAnalyzer createFeatureAnalyzer() {
+        FeatureAnalyzer analyzer = createFeatureAnalyzer(
+                new FeatureExtractor(ANALYSIS_RATE, FEATURE_FRAME_SIZE, FEATURE_HOP_SIZE),
+                new MfccExtractor(ANALYSIS_RATE, FEATURE_FRAME_SIZE, FEATURE_HOP_SIZE));
+        analyzer.useResampler(new PolyphaseResampler(SAMPLE_RATE, ANALYSIS_RATE));
+        return analyzer;
+    }
+
+    private FeatureAnalyzer createFeatureAnalyzer(FeatureExtractor extractor, MfccExtractor mfccExtractor) {
+        if (moodModel == null) {
+            return new FeatureAnalyzer(extractor, mfccExtractor);
         }
+        int framesPerWindow = MoodWindow.framesFor(ANALYSIS_RATE, FEATURE_HOP_SIZE, MOOD_WINDOW_MS);
+        try {
+            return new FeatureAnalyzer(extractor, mfccExtractor, new MoodClassifier(moodModel, 1), framesPerWindow);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Mood model does not match the feature layout: " + e.getMessage());
+            return new FeatureAnalyzer(extractor, mfccExtractor);
+        }
+    }
 
-        @Override
-        protected Void doInBackground(Void... voids) {
-            try {
+    // Map the mood model from app storage; returns null when none is installed
+    private MoodModel loadMoodModel() {
+        File file = new File(getFilesDir(), MOOD_MODEL_FILE);
+        if (!file.exists()) {
+            Log.i(TAG, "No mood model at " + file.getAbsolutePath());
+            return null;
+        }
+        try {
+            MoodModel model = MoodModel.load(file);
+            Log.i(TAG, "Loaded mood model with " + model.getLabelCount() + " labels");
+            return model;
+        } catch (IOException e) {
+            Log.e(TAG, "Error loading mood model: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Live monitor that plays through the shared streaming AudioTrack
+    private LiveMonitor createLiveMonitor() {
+        JitterBuffer jitterBuffer = new JitterBuffer(SAMPLE_RATE, BYTES_PER_SAMPLE, MONITOR_MIN_DEPTH_MS, MONITOR_MAX_DEPTH_MS);
+        return new LiveMonitor(jitterBuffer, new LiveMonitor.AudioOutput() {
+            @Override
+            public void start() {
                 audioTrack.play();
+            }
 
-                // Calculate chunks for smoother playback
-                int chunkSize = BUFFER_SIZE;
-                int totalChunks = TOTAL_BYTES / chunkSize;
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                int written = audioTrack.write(data, offset, length);
+                if (written < 0) {
+                    throw new IOException("AudioTrack write failed: " + written);
+                }
+            }
 
-                for (int i = 0; i < totalChunks; i++) {
-                    int offset = i * chunkSize;
-                    int length = Math.min(chunkSize, TOTAL_BYTES - offset);
+            @Override
+            public void stop() {
+                audioTrack.pause();
+                audioTrack.flush();
+            }
+
+            @Override
+            public double getLatencyMs() {
+                return BUFFER_SIZE * 1000.0 / (SAMPLE_RATE * BYTES_PER_SAMPLE);
+            }
+        }, MONITOR_PERIOD_BYTES);
+    }
 
-                    audioTrack.write(audioData, offset, length);
+    // True once the store holds a recording to play
+    private boolean hasRecordings() {
+        return dataBase != null && dataBase.getRecordingCount() > 0;
+    }
 
-                    // Update progress
-                    int progress = (i * 100) / totalChunks;
-                    publishProgress(progress);
-                }
+    // Output for stored playback through the shared streaming AudioTrack; stopping lets
+    // the track play out what it holds
+    private LiveMonitor.AudioOutput createPlaybackOutput() {
+        return new LiveMonitor.AudioOutput() {
+            @Override
+            public void start() {
+                audioTrack.play();
+            }
 
-                // Play any remaining data
-                int remainingBytes = TOTAL_BYTES % chunkSize;
-                if (remainingBytes > 0) {
-                    audioTrack.write(audioData, TOTAL_BYTES - remainingBytes, remainingBytes);
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                int written = audioTrack.write(data, offset, length);
+                if (written < 0) {
+                    throw new IOException("AudioTrack write failed: " + written);
                 }
+            }
 
-                // Wait for playback to complete
+            @Override
+            public void stop() {
                 audioTrack.stop();
+            }
 
-            } catch (Exception e) {
+            @Override
+            public double getLatencyMs() {
+                return BUFFER_SIZE * 1000.0 / (SAMPLE_RATE * BYTES_PER_SAMPLE);
+            }
+        };
+    }
+
+    // Task to play the latest stored recording, streamed from the store; the seek bar
+    // moves playback while it runs
+    private class PlayAudioTask extends UiTask<Integer, Boolean> {
+        @Override
+        protected void onPreExecute() {
+            statusText.setText("Playing audio...");
+            seekBar.setVisibility(View.VISIBLE);
+            seekBar.setProgress(0);
+            connectButton.setEnabled(false);
+            recordButton.setEnabled(false);
+            playButton.setEnabled(false);
+        }
+
+        @Override
+        protected Boolean doInBackground() {
+            RecordingEntry entry = dataBase.getLatestRecording();
+            if (entry == null) {
+                return false;
+            }
+            try {
+                RecordingAudio audio = dataBase.openAudio(entry);
+                RecordingPlayer current = new RecordingPlayer(audio, createPlaybackOutput(),
+                        BUFFER_SIZE / BYTES_PER_SAMPLE, PLAYBACK_READ_AHEAD_PERIODS);
+                current.setStartTimer(metrics.histogram("playback.start.ns"));
+                player = current;
+                current.start(0);
+                while (!current.awaitCompletion(PROGRESS_INTERVAL_MS)) {
+                    publishProgress((int) (current.getPosition() * SEEK_BAR_STEPS / Math.max(1, audio.getSampleCount())));
+                }
+                player = null;
+                metrics.counter("playback.underruns").add(current.getUnderruns());
+                Log.i(TAG, "Played " + audio.getSampleCount() * 1000 / audio.getSampleRate() + " ms"
+                        + (audio.isCompressed() ? " (compressed)" : "") + ", started in "
+                        + current.getStartLatencyNs() / 1000 + " us, " + current.getUnderruns() + " underruns, "
+                        + current.getBufferBytes() + " bytes buffered");
+                if (current.getFailure() != null) {
+                    throw current.getFailure();
+                }
+                return true;
+            } catch (IOException e) {
+                player = null;
                 Log.e(TAG, "Playback error: " + e.getMessage());
+                return false;
             }
-            return null;
         }
 
         @Override
-        protected void onProgressUpdate(Integer... values) {
-            progressBar.setProgress(values[0]);
+        protected void onProgressUpdate(Integer progress) {
+            if (!seekBar.isPressed()) {
+                seekBar.setProgress(progress);
+            }
         }
 
         @Override
-        protected void onPostExecute(Void aVoid) {
-            statusText.setText("Playback complete");
-            progressBar.setVisibility(View.GONE);
+        protected void onPostExecute(Boolean success) {
+            statusText.setText(success ? "Playback complete" : "Playback failed");
+            seekBar.setVisibility(View.GONE);
             connectButton.setEnabled(true);
             recordButton.setEnabled(true);
-            playButton.setEnabled(true);
+            playButton.setEnabled(hasRecordings());
         }
     }
 
-    // Save audio data to file
-    private void saveAudioToFile() {
-        try {
-            File directory = new File(getExternalFilesDir(null), "AudioRecordings");
-            if (!directory.exists()) {
-                directory.mkdirs();
+    // Task to move the loose .pcm recordings of older versions into the store; originals
+    // are deleted once stored. A recording started meanwhile waits for the file being
+    // copied, and the files left wait for the next start, as the store writes one
+    // recording at a time.
+    private class ImportRecordingsTask extends UiTask<Void, Integer> {
+        private boolean deferred;
+
+        @Override
+        protected Integer doInBackground() {
+            File[] files = getRecordingsDirectory().listFiles();
+            if (files == null || dataBase == null) {
+                return 0;
             }
+            int imported = 0;
+            for (File file : files) {
+                try {
+                    if (dataBase.importLegacyRecording(file, SAMPLE_RATE)) {
+                        imported++;
+                        if (!file.delete()) {
+                            Log.w(TAG, "Could not delete imported " + file.getAbsolutePath());
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Error importing " + file.getName() + ": " + e.getMessage());
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "Recording in progress, leaving " + file.getName() + " and the rest for later");
+                    deferred = true;
+                    break;
+                }
+            }
+            return imported;
+        }
 
-            String timeStamp = String.valueOf(System.currentTimeMillis());
-            File file = new File(directory, "ESP32_Recording_" + timeStamp + ".pcm");
+        @Override
+        protected void onPostExecute(Integer imported) {
+            playButton.setEnabled(!isRecording && hasRecordings());
+            if (imported > 0 || deferred) {
+                Toast.makeText(Dashboard.this, "Imported " + imported + " recording(s)"
+                        + (deferred ? ", more on next start" : ""), Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
 
-            FileOutputStream fos = new FileOutputStream(file);
-            fos.write(audioData);
-            fos.close();
+    // Legacy location of loose recording files
+    private File getRecordingsDirectory() {
+        return new File(getExternalFilesDir(null), "AudioRecordings");
+    }
 
-            Log.i(TAG, "Audio saved to " + file.getAbsolutePath());
+    private DataBase openDataBase() {
+        try {
+            DataBase db = new DataBase(getExternalFilesDir(null));
+            RecordingStore store = db.getRecordingStore();
+            if (store.getRecoveredCount() > 0 || store.wasRebuilt()) {
+                Log.i(TAG, "Recording store: recovered " + store.getRecoveredCount()
+                        + " interrupted recording(s), index rebuilt: " + store.wasRebuilt());
+            }
+            return db;
         } catch (IOException e) {
-            Log.e(TAG, "Error saving audio file: " + e.getMessage());
+            Log.e(TAG, "Error opening database: " + e.getMessage());
+            return null;
         }
     }
 
-    // Simple helper for converting byte array of PCM data to 16-bit shorts
-    // (Useful for processing audio data if needed)
-    private short[] byteToShortArray(byte[] bytes) {
-        ShortBuffer shortBuffer = ByteBuffer.wrap(bytes)
-                .order(ByteOrder.LITTLE_ENDIAN)
-                .asShortBuffer();
-        short[] shorts = new short[shortBuffer.capacity()];
-        shortBuffer.get(shorts);
-        return shorts;
+    // Start a new recording in the store for the current session
+    private RecordingWriter openRecordingWriter() throws IOException {
+        if (dataBase == null) {
+            throw new IOException("Recording store unavailable");
+        }
+        return dataBase.startRecording(sessionId, System.currentTimeMillis(), SAMPLE_RATE);
     }
 }
\ No newline at end of file
@@ -1,4 +1,158 @@
 package com.example.moodproject;
 
+import com.example.moodproject.store.FeatureCache;
+import com.example.moodproject.store.MoodBucket;
+import com.example.moodproject.store.MoodSeries;
+import com.example.moodproject.store.RecordingAudio;
+import com.example.moodproject.store.RecordingEntry;
+import com.example.moodproject.store.RecordingStore;
+import com.example.moodproject.store.RecordingWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Local database of everything the app keeps: recordings live in an append-only
+// RecordingStore with a memory-mapped time index, so listing history never touches
+// the audio itself. Window features analysed from stored recordings are kept in a
+// FeatureCache next to them, so scoring a recording again skips the analysis. The
+// mood of every analysis window goes to a MoodSeries with per minute, hour and day
+// rollups, so history charts over weeks read a few hundred buckets.
 public class DataBase {
+
+    // Recordings saved as loose files by earlier versions of the app
+    private static final Pattern LEGACY_NAME = Pattern.compile("ESP32_Recording_(\\d+)\\.pcm");
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+    private static final long FEATURE_CACHE_MEMORY_BYTES = 4 * 1024 * 1024;
+    private static final long FEATURE_CACHE_DISK_BYTES = 64 * 1024 * 1024;
+
+    private final RecordingStore recordings;
+    private final FeatureCache featureCache;
+    private final MoodSeries moods;
+    // Held while a legacy file is copied into the store, which takes its only writer
+    private final Object importLock = new Object();
+
+    public DataBase(File directory) throws IOException {
+        recordings = RecordingStore.open(new File(directory, "recordings"));
+        featureCache = FeatureCache.open(new File(recordings.getDirectory(), FeatureCache.DIRECTORY),
+                FEATURE_CACHE_MEMORY_BYTES, FEATURE_CACHE_DISK_BYTES);
+        moods = MoodSeries.open(new File(directory, "moods"));
+    }
+
+    // Start storing a new recording; close the writer to add it to the index. Waits
+    // for a legacy file being imported, so that import does not fail the recording.
+    public RecordingWriter startRecording(long sessionId, long startMillis, int sampleRate) throws IOException {
+        synchronized (importLock) {
+            return recordings.begin(sessionId, startMillis, sampleRate);
+        }
+    }
+
+    // Recordings overlapping [fromMillis, toMillis), oldest first
+    public List<RecordingEntry> getRecordings(long fromMillis, long toMillis) {
+        return recordings.query(fromMillis, toMillis);
+    }
+
+    public int getRecordingCount() {
+        return recordings.getCount();
+    }
+
+    // The most recently started recording, or null when there are none
+    public RecordingEntry getLatestRecording() {
+        int count = recordings.getCount();
+        return count == 0 ? null : recordings.get(count - 1);
+    }
+
+    // Reader for a recording's samples, decoding compressed audio on demand
+    public RecordingAudio openAudio(RecordingEntry entry) throws IOException {
+        return recordings.openAudio(entry);
+    }
+
+    public RecordingStore getRecordingStore() {
+        return recordings;
+    }
+
+    public FeatureCache getFeatureCache() {
+        return featureCache;
+    }
+
+    // Add the mood scored for a window ending at millis, with its probability
+    public void addMood(long millis, int mood, float score) throws IOException {
+        moods.append(millis, mood, score);
+    }
+
+    // Write the moods added so far through to storage, e.g. when a recording ends
+    public void flushMoods() throws IOException {
+        moods.flush();
+    }
+
+    // Moods in [fromMillis, toMillis) for a chart of up to maxBuckets points, at the
+    // finest resolution that fits: single windows, or per minute, hour or day
+    public List<MoodBucket> getMoodHistory(long fromMillis, long toMillis, int maxBuckets) throws IOException {
+        return moods.query(fromMillis, toMillis, maxBuckets);
+    }
+
+    public MoodSeries getMoodSeries() {
+        return moods;
+    }
+
+    // Copy a legacy ESP32_Recording_<millis>.pcm file into the store. The files carry
+    // no header and are taken to be at pcmSampleRate. Returns false if
+    // the file is not a legacy recording. Importing the same file twice is harmless,
+    // so the caller can delete the original afterwards at its own pace.
+    // Throws IllegalStateException while a recording is open, as the store takes one
+    // writer at a time; the file is left for a later import.
+    public boolean importLegacyRecording(File file, int pcmSampleRate) throws IOException {
+        synchronized (importLock) {
+            return importLocked(file, pcmSampleRate);
+        }
+    }
+
+    private boolean importLocked(File file, int pcmSampleRate) throws IOException {
+        Matcher matcher = LEGACY_NAME.matcher(file.getName());
+        if (!matcher.matches()) {
+            return false;
+        }
+        long startMillis = Long.parseLong(matcher.group(1));
+        if (recordings.find(startMillis, startMillis) != null) {
+            return true;
+        }
+
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            long dataBytes = channel.size();
+
+            // A session per legacy file, identified by its start time
+            RecordingWriter writer = recordings.begin(startMillis, startMillis, pcmSampleRate);
+            try {
+                byte[] buffer = new byte[COPY_BUFFER_BYTES];
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                while (dataBytes > 0) {
+                    wrapped.clear();
+                    wrapped.limit((int) Math.min(buffer.length, dataBytes));
+                    int read = channel.read(wrapped);
+                    if (read < 0) {
+                        break;
+                    }
+                    writer.write(buffer, 0, read);
+                    dataBytes -= read;
+                }
+            } finally {
+                writer.close();
+            }
+        }
+        return true;
+    }
+
+    public void close() throws IOException {
+        try {
+            moods.close();
+        } finally {
+            recordings.close();
+        }
+    }
 }
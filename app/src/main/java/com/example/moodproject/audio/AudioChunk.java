@@ -0,0 +1,154 @@
+package com.example.moodproject.audio;
+
+import com.example.moodproject.dsp.Pcm16;
+import com.example.moodproject.pipeline.RefCounted;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One chunk of captured audio. A chunk is handed to every consumer of a capture
+// session at once, so it must not be changed after it was published. Chunks from a
+// ChunkPool are reference counted and go back to the pool on the last release();
+// the capture pipeline does the counting, so a consumer only calls retain() to
+// keep a chunk after accept() returns.
+public class AudioChunk implements RefCounted {
+
+    final byte[] data;
+    final ChunkPool pool;
+    final int index;
+    private final AtomicInteger references = new AtomicInteger(1);
+    // Little endian 16-bit view of data, made once; its limit is set on publish
+    private final ShortBuffer samples;
+    int length;
+    long sequence;
+    long startByte;
+    long captureTimeNs;
+    // Silence standing in for audio lost to a gap in the stream, counted in bytes: the
+    // part of this chunk that is such silence, or, for a chunk still to be decoded, the
+    // gap before its data
+    long gapBytes;
+    // Where in a decoded chunk its gap silence starts; the first gap's, in the rare
+    // chunk that spans two
+    int gapOffset;
+    // False when voice activity detection found nothing worth analysing or storing
+    boolean voiced = true;
+
+    AudioChunk(int capacity, ChunkPool pool, int index) {
+        this.data = new byte[capacity];
+        this.pool = pool;
+        this.index = index;
+        this.samples = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().asReadOnlyBuffer();
+    }
+
+    // Back to a single reference and no data, for reuse from the pool
+    void reset() {
+        references.set(1);
+        length = 0;
+        sequence = 0;
+        startByte = 0;
+        captureTimeNs = 0;
+        gapBytes = 0;
+        gapOffset = 0;
+        voiced = true;
+        samples.clear();
+    }
+
+    // Fix the sample view to the data written; called before the chunk is shared
+    void seal() {
+        samples.limit(length / Pcm16.BYTES_PER_SAMPLE);
+    }
+
+    @Override
+    public void retain() {
+        if (references.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Chunk retained after release");
+        }
+    }
+
+    @Override
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0) {
+            pool.recycle(this);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Chunk released too often");
+        }
+    }
+
+    // Raw 16-bit little endian PCM, valid up to getLength()
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getSampleCount() {
+        return length / Pcm16.BYTES_PER_SAMPLE;
+    }
+
+    // Zero-copy read-only view of the samples. It is shared by every consumer, so use
+    // absolute get(index), or duplicate() it for relative reads.
+    public ShortBuffer getSamples() {
+        return samples;
+    }
+
+    // Convert count samples starting at sample `from` into dst; returns the number copied
+    public int copySamples(int from, short[] dst, int offset, int count) {
+        count = Math.max(0, Math.min(count, getSampleCount() - from));
+        Pcm16.toShort(data, from * Pcm16.BYTES_PER_SAMPLE, dst, offset, count);
+        return count;
+    }
+
+    // As copySamples(), scaled to floats in [-1, 1)
+    public int copySamples(int from, float[] dst, int offset, int count) {
+        count = Math.max(0, Math.min(count, getSampleCount() - from));
+        Pcm16.toFloat(data, from * Pcm16.BYTES_PER_SAMPLE, dst, offset, count);
+        return count;
+    }
+
+    // As copySamples() into a caller-owned buffer, from its position
+    public int copySamples(int from, FloatBuffer dst, int count) {
+        count = Math.max(0, Math.min(Math.min(count, getSampleCount() - from), dst.remaining()));
+        for (int i = 0; i < count; i++) {
+            dst.put(samples.get(from + i) * Pcm16.SCALE);
+        }
+        return count;
+    }
+
+    // Position of this chunk in the session, starting at 0
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Byte offset of the first sample since the session started
+    public long getStartByte() {
+        return startByte;
+    }
+
+    // System.nanoTime() when the chunk was filled
+    public long getCaptureTimeNs() {
+        return captureTimeNs;
+    }
+
+    // Bytes of this chunk that are silence filling a gap in the stream, e.g. while the
+    // connection was lost; 0 for most chunks
+    public int getGapBytes() {
+        return (int) gapBytes;
+    }
+
+    // Byte offset in the data where the gap silence starts, if there is any
+    public int getGapOffset() {
+        return gapOffset;
+    }
+
+    // False if the session runs voice activity detection and found only silence or
+    // background noise in this chunk; true otherwise
+    public boolean isVoiced() {
+        return voiced;
+    }
+}
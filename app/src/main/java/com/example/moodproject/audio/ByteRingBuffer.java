@@ -0,0 +1,192 @@
+package com.example.moodproject.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
+
+// Fixed-size byte ring for one producer thread and one consumer thread.
+// The backing array is allocated once, and the producer can read from a stream
+// straight into the free region so no intermediate copy is needed.
+public class ByteRingBuffer {
+
+    private final byte[] buffer;
+    private final int mask;
+    private final Object lock = new Object();
+
+    // Views of buffer for channel reads, made on the first one; only the producer uses them
+    private ByteBuffer[] views;
+
+    // Monotonic positions, the array index is (position & mask)
+    private long writePosition;
+    private long readPosition;
+    private boolean closed;
+
+    public ByteRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        buffer = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    // Number of bytes waiting to be read
+    public int available() {
+        synchronized (lock) {
+            return (int) (writePosition - readPosition);
+        }
+    }
+
+    // Number of bytes that can be written without overwriting unread data
+    public int remaining() {
+        synchronized (lock) {
+            return buffer.length - (int) (writePosition - readPosition);
+        }
+    }
+
+    // Read from the stream into the free region of the ring.
+    // Returns the bytes read, 0 if the ring is full, or -1 at end of stream.
+    // Blocks only as long as the stream's own read blocks.
+    public int readFrom(InputStream in) throws IOException {
+        int offset;
+        int length;
+        synchronized (lock) {
+            int free = buffer.length - (int) (writePosition - readPosition);
+            if (free == 0) {
+                return 0;
+            }
+            offset = (int) (writePosition & mask);
+            length = Math.min(free, buffer.length - offset);
+        }
+
+        // Only the producer touches the free region, so the read happens outside the lock
+        int bytesRead = in.read(buffer, offset, length);
+        if (bytesRead > 0) {
+            synchronized (lock) {
+                writePosition += bytesRead;
+                lock.notifyAll();
+            }
+        }
+        return bytesRead;
+    }
+
+    // Read whatever a non-blocking channel has waiting into the free region, both parts
+    // of it when it wraps around the end of the array, in a single read.
+    // Returns the bytes read, 0 if the ring is full or nothing was waiting, or -1 at end of stream.
+    public int readFrom(ScatteringByteChannel channel) throws IOException {
+        int offset;
+        int free;
+        synchronized (lock) {
+            free = buffer.length - (int) (writePosition - readPosition);
+            if (free == 0) {
+                return 0;
+            }
+            offset = (int) (writePosition & mask);
+        }
+        if (views == null) {
+            views = new ByteBuffer[] {ByteBuffer.wrap(buffer), ByteBuffer.wrap(buffer)};
+        }
+        int first = Math.min(free, buffer.length - offset);
+        // Called through Buffer, which every Android version has these on; ByteBuffer's
+        // own overrides only came with Java 9
+        ((Buffer) views[0]).limit(offset + first);
+        ((Buffer) views[0]).position(offset);
+        ((Buffer) views[1]).limit(free - first);
+        ((Buffer) views[1]).position(0);
+
+        long bytesRead = channel.read(views, 0, first < free ? 2 : 1);
+        if (bytesRead > 0) {
+            synchronized (lock) {
+                writePosition += bytesRead;
+                lock.notifyAll();
+            }
+        }
+        return (int) bytesRead;
+    }
+
+    // Copy as much of src as fits. Returns the number of bytes written.
+    public int write(byte[] src, int offset, int length) {
+        synchronized (lock) {
+            int free = buffer.length - (int) (writePosition - readPosition);
+            int toWrite = Math.min(free, length);
+            int index = (int) (writePosition & mask);
+            int first = Math.min(toWrite, buffer.length - index);
+            System.arraycopy(src, offset, buffer, index, first);
+            System.arraycopy(src, offset + first, buffer, 0, toWrite - first);
+            writePosition += toWrite;
+            if (toWrite > 0) {
+                lock.notifyAll();
+            }
+            return toWrite;
+        }
+    }
+
+    // Read up to length bytes, waiting at most timeoutMs for data to arrive.
+    // Returns the bytes copied, 0 on timeout, or -1 once closed and drained.
+    public int read(byte[] dst, int offset, int length, long timeoutMs) throws InterruptedException {
+        synchronized (lock) {
+            long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+            while (writePosition == readPosition) {
+                if (closed) {
+                    return -1;
+                }
+                long waitNs = deadline - System.nanoTime();
+                if (waitNs <= 0) {
+                    return 0;
+                }
+                lock.wait(waitNs / 1_000_000L, (int) (waitNs % 1_000_000L));
+            }
+
+            int toRead = Math.min((int) (writePosition - readPosition), length);
+            int index = (int) (readPosition & mask);
+            int first = Math.min(toRead, buffer.length - index);
+            System.arraycopy(buffer, index, dst, offset, first);
+            System.arraycopy(buffer, 0, dst, offset + first, toRead - first);
+            readPosition += toRead;
+            lock.notifyAll();
+            return toRead;
+        }
+    }
+
+    // Wait until there is free space, the ring is closed, or the timeout expires
+    public boolean awaitSpace(long timeoutMs) throws InterruptedException {
+        synchronized (lock) {
+            long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+            while (writePosition - readPosition == buffer.length && !closed) {
+                long waitNs = deadline - System.nanoTime();
+                if (waitNs <= 0) {
+                    return false;
+                }
+                lock.wait(waitNs / 1_000_000L, (int) (waitNs % 1_000_000L));
+            }
+            return !closed;
+        }
+    }
+
+    // Drop everything that has not been read yet
+    public void clear() {
+        synchronized (lock) {
+            readPosition = writePosition;
+            lock.notifyAll();
+        }
+    }
+
+    // No more data will be written; readers drain what is left and then get -1
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isClosed() {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+}
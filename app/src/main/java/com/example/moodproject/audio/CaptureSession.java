@@ -0,0 +1,460 @@
+package com.example.moodproject.audio;
+
+import com.example.moodproject.dsp.VoiceActivityDetector;
+import com.example.moodproject.pipeline.DropPolicy;
+import com.example.moodproject.pipeline.Pipeline;
+import com.example.moodproject.protocol.Concealment;
+import com.example.moodproject.protocol.FrameCodec;
+import com.example.moodproject.protocol.FrameDecoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Capture as a Pipeline: the ingest stage takes whatever the socket delivered from
+// the IngestSource, decode cuts it into sequenced chunks of a fixed size, and every
+// consumer is a sink with its own queue and thread. A consumer's DropPolicy says what
+// happens when it falls behind: BLOCK holds capture back (the ingest ring absorbs
+// the delay), the drop policies keep capture going and count what it missed. A BLOCK
+// consumer that fails ends the capture, with getFailure() set, since from then on it
+// would miss everything; a failing consumer with a drop policy only stops itself.
+// Runs until stop(), the stream ends or maxBytes have been captured.
+//
+// With a FrameDecoder the stream is framed (see FrameCodec): decode takes the audio out
+// of the frames, with lost audio concealed, before cutting it into chunks. With
+// detectFraming() decode first holds back the start of the stream until it either
+// finds a valid frame or has seen more than a frame's worth without one, and then
+// treats the stream as framed or as raw PCM.
+//
+// A source that reconnects reports the audio it missed as a gap (IngestSource.takeGapBytes);
+// decode fills it with silence, marked in the chunks that carry it, so the recording
+// keeps its timeline, and restarts the frame decoder for the new connection.
+//
+// With a VoiceActivityDetector every chunk is classified before it is published, and
+// consumers added as voicedOnly never see the chunks without voice; the others still
+// get every chunk and can check AudioChunk.isVoiced(), e.g. to store silence compactly.
+//
+// Chunks come from a ChunkPool sized at start() to cover every queue, so steady-state
+// capture allocates nothing; the pipeline returns each chunk to the pool once every
+// consumer is done with it.
+public class CaptureSession {
+
+    // Wherever the stream starts, a whole frame lies within this many bytes
+    static final int PROBE_BYTES = 2 * (FrameCodec.HEADER_BYTES + FrameCodec.MAX_PAYLOAD_BYTES);
+
+    private final IngestSource ingest;
+    private final int chunkBytes;
+    private final int queueChunks;
+    private final int stallTimeoutMs;
+    private final long maxBytes;
+    private final Pipeline pipeline = new Pipeline("CaptureSession");
+    private final Decoder decoder = new Decoder();
+    private final Pipeline.Node<AudioChunk> decoded;
+    private final List<Pipeline.Node<?>> consumers = new ArrayList<>();
+    private ChunkPool pool;
+    private volatile FrameDecoder frames;
+    private volatile VoiceActivityDetector voiceActivity;
+
+    private volatile boolean timedOut;
+    private volatile long bytesReceived;
+    private volatile long bytesCaptured;
+    private volatile int gapCount;
+    private volatile long gapBytes;
+    private volatile long silentChunks;
+    private volatile long silentBytes;
+    private volatile long startTimeNs;
+
+    public CaptureSession(IngestSource ingest, int queueChunks, int chunkBytes, int stallTimeoutMs) {
+        this(ingest, queueChunks, chunkBytes, stallTimeoutMs, Long.MAX_VALUE);
+    }
+
+    // queueChunks is the default queue length of each consumer
+    public CaptureSession(IngestSource ingest, int queueChunks, int chunkBytes, int stallTimeoutMs, long maxBytes) {
+        this.ingest = ingest;
+        this.chunkBytes = chunkBytes;
+        this.queueChunks = queueChunks;
+        this.stallTimeoutMs = stallTimeoutMs;
+        this.maxBytes = maxBytes;
+
+        Pipeline.Node<AudioChunk> raw = pipeline.source("ingest", new Pipeline.Source<AudioChunk>() {
+            @Override
+            public boolean produce(Pipeline.Outlet<AudioChunk> out) throws Exception {
+                return readIngest(out);
+            }
+        });
+        decoded = pipeline.stage("decode", raw, decoder, queueChunks, DropPolicy.BLOCK);
+    }
+
+    // Every chunk reaches the consumer; a slow one holds back capture
+    public void addConsumer(String name, ChunkConsumer consumer) {
+        addConsumer(name, consumer, queueChunks, DropPolicy.BLOCK);
+    }
+
+    // Consumers must be added before start()
+    public void addConsumer(String name, ChunkConsumer consumer, int queueChunks, DropPolicy policy) {
+        addConsumer(name, consumer, queueChunks, policy, false);
+    }
+
+    // A voicedOnly consumer only gets chunks with voice in them, once useVoiceActivity()
+    // is set; its sequence numbers then have holes where the silence was
+    public synchronized void addConsumer(String name, final ChunkConsumer consumer, int queueChunks, DropPolicy policy,
+                                         final boolean voicedOnly) {
+        consumers.add(pipeline.sink(name, decoded, new Pipeline.Sink<AudioChunk>() {
+            @Override
+            public void accept(AudioChunk chunk) throws Exception {
+                if (chunk.length > 0 && (chunk.voiced || !voicedOnly)) {
+                    consumer.accept(chunk);
+                }
+            }
+
+            @Override
+            public void close() throws Exception {
+                consumer.close();
+            }
+        }, queueChunks, policy));
+    }
+
+    // Expect a framed stream; must be called before start(). The returned decoder
+    // keeps the loss and reorder statistics.
+    public synchronized FrameDecoder useFraming(Concealment concealment, long maxGapSamples) {
+        if (pipeline.isRunning()) {
+            throw new IllegalStateException("Session already started");
+        }
+        frames = new FrameDecoder(decoder, concealment, maxGapSamples);
+        return frames;
+    }
+
+    // Decode frames if the stream turns out to be framed and take it as raw PCM if not,
+    // e.g. for firmware that may predate framing; must be called before start().
+    // getFrameDecoder() returns null again once the stream turned out raw.
+    public synchronized FrameDecoder detectFraming(Concealment concealment, long maxGapSamples) {
+        FrameDecoder framing = useFraming(concealment, maxGapSamples);
+        decoder.probe = new byte[PROBE_BYTES];
+        return framing;
+    }
+
+    // Classify chunks with the detector before they are published; must be called
+    // before start(). The detector belongs to the decode stage from then on.
+    public synchronized void useVoiceActivity(VoiceActivityDetector detector) {
+        if (pipeline.isRunning()) {
+            throw new IllegalStateException("Session already started");
+        }
+        voiceActivity = detector;
+    }
+
+    public synchronized void start() {
+        // Enough chunks for full queues plus one being handled by every stage
+        int chunks = decoded.getCapacity() + 3;
+        for (Pipeline.Node<?> consumer : consumers) {
+            chunks += consumer.getCapacity() + 1;
+        }
+        pool = new ChunkPool(chunks, chunkBytes);
+        startTimeNs = System.nanoTime();
+        pipeline.start();
+    }
+
+    // Stop capturing; consumers finish the chunks already captured
+    public void stop() {
+        pipeline.stop();
+    }
+
+    // Stop capturing and drop queued chunks, e.g. when the app is shutting down
+    public void cancel() {
+        pipeline.cancel();
+    }
+
+    // Wait for every stage to finish
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        return pipeline.awaitTermination(timeoutMs);
+    }
+
+    // Ingest stage: one read of whatever has arrived, up to a chunk. Raw audio is read up
+    // to maxBytes exactly; a framed stream is read until decode has seen enough audio.
+    private boolean readIngest(Pipeline.Outlet<AudioChunk> out) throws Exception {
+        int length = frames != null ? chunkBytes : (int) Math.min(chunkBytes, maxBytes - bytesReceived);
+        if (length <= 0 || bytesCaptured >= maxBytes) {
+            return false;
+        }
+        AudioChunk chunk = acquireChunk();
+        try {
+            int bytesRead = ingest.read(chunk.data, 0, length, stallTimeoutMs);
+            if (bytesRead < 0) {
+                return false;
+            }
+            if (bytesRead == 0) {
+                timedOut = true;
+                return false;
+            }
+            chunk.length = bytesRead;
+            chunk.gapBytes = ingest.takeGapBytes();
+            chunk.captureTimeNs = System.nanoTime();
+            bytesReceived += bytesRead;
+            out.emit(chunk);
+            return true;
+        } finally {
+            chunk.release();
+        }
+    }
+
+    // Wait for consumers to hand back a chunk; this is where a consumer that keeps
+    // chunks beyond accept() holds capture back
+    private AudioChunk acquireChunk() throws InterruptedException {
+        AudioChunk chunk;
+        while ((chunk = pool.acquire(stallTimeoutMs)) == null) {
+            if (pipeline.isCancelled()) {
+                throw new InterruptedException("Capture cancelled");
+            }
+        }
+        return chunk;
+    }
+
+    // Decode stage: reads of any size in, full chunks numbered from 0 out. A chunk is
+    // stamped with the arrival time of its last byte. Audio past maxBytes is dropped.
+    private class Decoder implements Pipeline.Stage<AudioChunk, AudioChunk>, FrameDecoder.PayloadSink {
+
+        private AudioChunk current;
+        private long sequence;
+        private long startByte;
+        // The start of the stream while it is not yet known to be framed, see detectFraming()
+        private byte[] probe;
+        private int probeBytes;
+        // Arrival time of the latest read
+        private long captureTimeNs;
+        // Valid during process()
+        private Pipeline.Outlet<AudioChunk> out;
+
+        @Override
+        public void process(AudioChunk raw, Pipeline.Outlet<AudioChunk> out) throws Exception {
+            captureTimeNs = raw.captureTimeNs;
+            this.out = out;
+            try {
+                if (raw.gapBytes > 0) {
+                    if (probe != null) {
+                        endProbe();
+                    }
+                    if (frames != null) {
+                        frames.restart();
+                    }
+                    writeGap(raw.gapBytes);
+                }
+                int offset = probe != null ? probe(raw.data, 0, raw.length) : 0;
+                passOn(raw.data, offset, raw.length - offset);
+                if (current != null) {
+                    current.captureTimeNs = raw.captureTimeNs;
+                }
+            } finally {
+                this.out = null;
+            }
+        }
+
+        // Take bytes into the probe until they show whether the stream is framed.
+        // Returns the bytes of src taken.
+        private int probe(byte[] src, int offset, int length) throws Exception {
+            int count = Math.min(length, probe.length - probeBytes);
+            System.arraycopy(src, offset, probe, probeBytes, count);
+            probeBytes += count;
+            if (probeBytes == probe.length || FrameDecoder.findFrame(probe, 0, probeBytes) >= 0) {
+                endProbe();
+            }
+            return count;
+        }
+
+        // Settle on framed or raw by what the probe holds, and pass that on
+        private void endProbe() throws Exception {
+            byte[] held = probe;
+            probe = null;
+            if (FrameDecoder.findFrame(held, 0, probeBytes) < 0) {
+                frames = null;
+            }
+            passOn(held, 0, probeBytes);
+        }
+
+        private void passOn(byte[] src, int offset, int length) throws Exception {
+            FrameDecoder framing = frames;
+            if (framing != null) {
+                framing.decode(src, offset, length);
+            } else {
+                write(src, offset, length);
+            }
+        }
+
+        // Audio for the chunks, straight from a read or out of its frames
+        @Override
+        public void write(byte[] src, int offset, int length) throws InterruptedException {
+            length = (int) Math.min(length, maxBytes - bytesCaptured);
+            int end = offset + length;
+            while (offset < end) {
+                if (current == null) {
+                    current = acquireChunk();
+                }
+                int count = Math.min(end - offset, chunkBytes - current.length);
+                System.arraycopy(src, offset, current.data, current.length, count);
+                current.length += count;
+                offset += count;
+                bytesCaptured += count;
+                if (current.length == chunkBytes) {
+                    current.captureTimeNs = captureTimeNs;
+                    publish(out);
+                }
+            }
+        }
+
+        // Silence for audio the stream lost, marked as such in the chunks
+        private void writeGap(long length) throws InterruptedException {
+            length = Math.min(length, maxBytes - bytesCaptured);
+            if (length <= 0) {
+                return;
+            }
+            gapCount++;
+            gapBytes += length;
+            while (length > 0) {
+                if (current == null) {
+                    current = acquireChunk();
+                }
+                int count = (int) Math.min(length, chunkBytes - current.length);
+                if (current.gapBytes == 0) {
+                    current.gapOffset = current.length;
+                }
+                Arrays.fill(current.data, current.length, current.length + count, (byte) 0);
+                current.length += count;
+                current.gapBytes += count;
+                length -= count;
+                bytesCaptured += count;
+                if (current.length == chunkBytes) {
+                    current.captureTimeNs = captureTimeNs;
+                    publish(out);
+                }
+            }
+        }
+
+        @Override
+        public void finish(Pipeline.Outlet<AudioChunk> out) throws Exception {
+            if (probe != null) {
+                // The stream ended before it told
+                this.out = out;
+                try {
+                    endProbe();
+                } finally {
+                    this.out = null;
+                }
+            }
+            if (current != null && current.length > 0) {
+                publish(out);
+            } else if (current != null) {
+                current.release();
+                current = null;
+            }
+        }
+
+        private void publish(Pipeline.Outlet<AudioChunk> out) throws InterruptedException {
+            AudioChunk chunk = current;
+            current = null;
+            chunk.sequence = sequence++;
+            chunk.startByte = startByte;
+            startByte += chunk.length;
+            VoiceActivityDetector detector = voiceActivity;
+            if (detector != null) {
+                chunk.voiced = detector.process(chunk.data, 0, chunk.length);
+                if (!chunk.voiced) {
+                    silentChunks++;
+                    silentBytes += chunk.length;
+                }
+            }
+            chunk.seal();
+            try {
+                out.emit(chunk);
+            } finally {
+                chunk.release();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return pipeline.isRunning();
+    }
+
+    // True if the session ended because no audio arrived for stallTimeoutMs
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    // Audio bytes, without any framing
+    public long getBytesCaptured() {
+        return bytesCaptured;
+    }
+
+    // Gaps in the stream filled with silence, and the bytes of silence written for them
+    public int getGapCount() {
+        return gapCount;
+    }
+
+    public long getGapBytes() {
+        return gapBytes;
+    }
+
+    // Chunks voice activity detection found no voice in, and their bytes
+    public long getSilentChunks() {
+        return silentChunks;
+    }
+
+    public long getSilentBytes() {
+        return silentBytes;
+    }
+
+    // Voice activity statistics, or null without detection
+    public VoiceActivityDetector getVoiceActivity() {
+        return voiceActivity;
+    }
+
+    public long getElapsedMs() {
+        return (System.nanoTime() - startTimeNs) / 1_000_000L;
+    }
+
+    // How often capture had to wait for a consumer using BLOCK
+    public synchronized long getProducerWaits() {
+        long waits = 0;
+        for (Pipeline.Node<?> consumer : consumers) {
+            waits += consumer.getWaits();
+        }
+        return waits + decoded.getWaits();
+    }
+
+    // Framing statistics, or null for a raw stream
+    public FrameDecoder getFrameDecoder() {
+        return frames;
+    }
+
+    // Chunks consumers with a drop policy missed
+    public synchronized long getDroppedChunks() {
+        long dropped = 0;
+        for (Pipeline.Node<?> consumer : consumers) {
+            dropped += consumer.getDropped();
+        }
+        return dropped;
+    }
+
+    // How often capture found every pooled chunk in use and had to wait
+    public synchronized long getPoolWaits() {
+        return pool != null ? pool.getExhaustedCount() : 0;
+    }
+
+    // Chunks in the pool, free or not
+    public synchronized int getPooledChunks() {
+        return pool != null ? pool.getChunkCount() : 0;
+    }
+
+    // Chunks not currently held by any stage
+    public synchronized int getFreeChunks() {
+        return pool != null ? pool.getAvailable() : 0;
+    }
+
+    // Stage counters, e.g. for diagnostics
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    // First error from any stage
+    public Exception getFailure() {
+        return pipeline.getFailure();
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.moodproject.audio;
+
+import java.io.IOException;
+
+// Receives every chunk of a capture session on its own thread.
+// The chunk is only valid until accept() returns; copy anything that must outlive it.
+public interface ChunkConsumer {
+
+    void accept(AudioChunk chunk) throws IOException;
+
+    // Called once after the last chunk, also when the session failed
+    void close() throws IOException;
+}
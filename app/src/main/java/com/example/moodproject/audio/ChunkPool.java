@@ -0,0 +1,135 @@
+package com.example.moodproject.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Fixed set of AudioChunks allocated up front and handed out by reference count,
+// so steady-state capture allocates nothing. Free chunks are tracked in a bitmap
+// claimed with CAS: acquiring and releasing are lock-free from any thread and
+// allocation-free. An exhausted pool means consumers still hold every chunk;
+// acquire() then parks until a chunk comes back, which is what holds capture back.
+public class ChunkPool {
+
+    // Threads that can wait in acquire() at once and be woken by a release; capture
+    // acquires from at most two. Any more poll every PARK_NS.
+    private static final int MAX_WAITING = 4;
+    private static final long PARK_NS = 1_000_000;
+
+    private final AudioChunk[] chunks;
+    // Bit i of word i / 64 is set while chunk i is free
+    private final AtomicLongArray free;
+    private final AtomicReferenceArray<Thread> waiting = new AtomicReferenceArray<>(MAX_WAITING);
+    // Counted from every thread that acquires, e.g. ingest and decode
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    public ChunkPool(int chunkCount, int chunkBytes) {
+        if (chunkCount < 1 || chunkBytes < 1) {
+            throw new IllegalArgumentException("Bad pool size: " + chunkCount + " x " + chunkBytes);
+        }
+        chunks = new AudioChunk[chunkCount];
+        free = new AtomicLongArray((chunkCount + 63) / 64);
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i] = new AudioChunk(chunkBytes, this, i);
+            free.set(i / 64, free.get(i / 64) | 1L << i);
+        }
+    }
+
+    // A free chunk holding one reference, emptied; null if none is free
+    public AudioChunk tryAcquire() {
+        for (int word = 0; word < free.length(); word++) {
+            long bits;
+            while ((bits = free.get(word)) != 0) {
+                long bit = Long.lowestOneBit(bits);
+                if (free.compareAndSet(word, bits, bits & ~bit)) {
+                    AudioChunk chunk = chunks[word * 64 + Long.numberOfTrailingZeros(bit)];
+                    chunk.reset();
+                    return chunk;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Wait up to timeoutMs for a free chunk; null on timeout
+    public AudioChunk acquire(long timeoutMs) throws InterruptedException {
+        AudioChunk chunk = tryAcquire();
+        if (chunk != null) {
+            return chunk;
+        }
+        exhaustedCount.incrementAndGet();
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        // Registered before trying again, so a chunk released after that try unparks us
+        int slot = register(Thread.currentThread());
+        try {
+            while ((chunk = tryAcquire()) == null) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, slot >= 0 ? remaining : Math.min(remaining, PARK_NS));
+            }
+            return chunk;
+        } finally {
+            if (slot >= 0) {
+                waiting.set(slot, null);
+            }
+        }
+    }
+
+    // Slot the waiting thread took, or -1 if all are taken
+    private int register(Thread thread) {
+        for (int slot = 0; slot < MAX_WAITING; slot++) {
+            if (waiting.compareAndSet(slot, null, thread)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // Called by AudioChunk once its last reference is released
+    void recycle(AudioChunk chunk) {
+        int word = chunk.index / 64;
+        long bit = 1L << chunk.index;
+        while (true) {
+            long bits = free.get(word);
+            if ((bits & bit) != 0) {
+                throw new IllegalStateException("Chunk " + chunk.index + " released twice");
+            }
+            if (free.compareAndSet(word, bits, bits | bit)) {
+                break;
+            }
+        }
+        for (int slot = 0; slot < MAX_WAITING; slot++) {
+            Thread thread = waiting.get(slot);
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    public int getChunkCount() {
+        return chunks.length;
+    }
+
+    public int getChunkBytes() {
+        return chunks[0].data.length;
+    }
+
+    public int getAvailable() {
+        int available = 0;
+        for (int word = 0; word < free.length(); word++) {
+            available += Long.bitCount(free.get(word));
+        }
+        return available;
+    }
+
+    // How often acquire() found the pool empty and had to wait
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+}
@@ -0,0 +1,420 @@
+package com.example.moodproject.audio;
+
+import com.example.moodproject.metrics.Histogram;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Random;
+
+// Keeps the ESP32 connection up. When the stream ends, fails, or goes quiet for
+// staleTimeoutMs, the supervisor reconnects with exponential backoff and jitter and
+// carries on with the new connection as one continuous IngestSource, so a capture
+// session reading from it survives the drop. The time from the last byte of the old
+// connection to the first byte of the new one is reported as a gap (takeGapBytes),
+// which the session stores as silence.
+//
+// Reconnecting runs on the supervisor's own thread, whether or not anything is
+// reading. read() drains the old connection first, then waits through the outage for
+// the new one: an outage is not a stall, so it only returns -1 once the supervisor
+// gives up (no connection for giveUpMs), is closed, or interruptRead() is called.
+//
+// The backoff starts at initialDelayMs and doubles up to maxDelayMs, and each wait is
+// drawn between half and all of that, so phones that lost the same access point do
+// not all retry in step. It starts over once a connection delivers data. Reconnect
+// time (stream lost to connected) and time to first byte are kept in histograms.
+public class ConnectionSupervisor implements IngestSource, Runnable {
+
+    public interface Connector {
+        // Open a new connection to the device, blocking at most for its connect timeout
+        Socket connect() throws IOException;
+    }
+
+    public static final long DEFAULT_INITIAL_DELAY_MS = 250;
+    public static final long DEFAULT_MAX_DELAY_MS = 8000;
+    public static final long DEFAULT_GIVE_UP_MS = 60_000;
+
+    private static final long CHECK_INTERVAL_MS = 20;
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final Connector connector;
+    private final int bufferBytes;
+    private final int readTimeoutMs;
+    private final long staleTimeoutNs;
+    private final int sampleRate;
+    private final Random random = new Random();
+    private final Object lock = new Object();
+    private final Histogram reconnectTimes = new Histogram();
+    private final Histogram firstByteTimes = new Histogram();
+    private long initialDelayMs = DEFAULT_INITIAL_DELAY_MS;
+    private long maxDelayMs = DEFAULT_MAX_DELAY_MS;
+    private long giveUpMs = DEFAULT_GIVE_UP_MS;
+
+    private Thread thread;
+    private volatile boolean running;
+    private volatile IOException failure;
+
+    // Guarded by lock: the connection being read, and the newer one that replaces it
+    // once the reader has drained it
+    private Connection current;
+    private Connection next;
+    private boolean readerReleased;
+
+    // Written only by the reading thread
+    private long pendingGapBytes;
+
+    // Written only by the supervisor thread
+    private volatile int connectionCount;
+    private volatile int failedAttempts;
+    private volatile IOException lastError;
+
+    private class Connection {
+        final Socket socket;
+        final StreamIngest ingest;
+        final long connectedNs;
+        // Set by the reader when it moves on to this connection
+        long gapFromNs;
+        int alignBytes;
+        long bytesRead;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.ingest = new StreamIngest(socket, bufferBytes, readTimeoutMs);
+            this.connectedNs = System.nanoTime();
+            try {
+                ingest.start();
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        // Buffered data stays readable
+        void close() {
+            ingest.stop();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+    // sampleRate sizes gaps, for 16-bit mono audio
+    public ConnectionSupervisor(Connector connector, int bufferBytes, int readTimeoutMs,
+                                int staleTimeoutMs, int sampleRate) {
+        this.connector = connector;
+        this.bufferBytes = bufferBytes;
+        this.readTimeoutMs = readTimeoutMs;
+        this.staleTimeoutNs = staleTimeoutMs * 1_000_000L;
+        this.sampleRate = sampleRate;
+    }
+
+    // Must be called before start()
+    public synchronized void setBackoff(long initialDelayMs, long maxDelayMs, long giveUpMs) {
+        if (thread != null) {
+            throw new IllegalStateException("Supervisor already started");
+        }
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.giveUpMs = giveUpMs;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Supervisor already started");
+        }
+        running = true;
+        thread = new Thread(this, "ConnectionSupervisor");
+        thread.start();
+    }
+
+    // Wait for the first connection; false if there is none after timeoutMs
+    public boolean awaitConnection(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        synchronized (lock) {
+            while (current == null && running) {
+                long waitNs = deadline - System.nanoTime();
+                if (waitNs <= 0) {
+                    return false;
+                }
+                lock.wait(waitNs / 1_000_000L, (int) (waitNs % 1_000_000L));
+            }
+            return current != null;
+        }
+    }
+
+    // Stop reconnecting and close the connection; a reader drains what is buffered and then gets -1
+    public void close() {
+        running = false;
+        synchronized (lock) {
+            if (current != null) {
+                current.close();
+            }
+            if (next != null) {
+                next.close();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    // A read() waiting for a new connection returns -1 now, e.g. because the recording
+    // was stopped, and so do later ones until discardBuffered(); the supervisor itself
+    // keeps reconnecting
+    public void interruptRead() {
+        synchronized (lock) {
+            readerReleased = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        long delayMs = initialDelayMs;
+        long lostNs = 0;
+        long outageStartNs = System.nanoTime();
+        try {
+            while (running) {
+                Connection connection;
+                try {
+                    connection = new Connection(connector.connect());
+                } catch (IOException e) {
+                    failedAttempts++;
+                    lastError = e;
+                    if (System.nanoTime() - outageStartNs >= giveUpMs * 1_000_000L) {
+                        failure = new IOException("No connection for " + giveUpMs + " ms", e);
+                        return;
+                    }
+                    pause(jitter(delayMs));
+                    delayMs = Math.min(delayMs * 2, maxDelayMs);
+                    continue;
+                }
+                if (lostNs != 0) {
+                    reconnectTimes.record(connection.connectedNs - lostNs);
+                }
+                connectionCount++;
+                publish(connection);
+
+                boolean delivered = watch(connection);
+                connection.close();
+                long lastDataNs = connection.ingest.getLastDataNs();
+                lostNs = lastDataNs != 0 ? lastDataNs : System.nanoTime();
+                outageStartNs = System.nanoTime();
+                if (delivered) {
+                    delayMs = initialDelayMs;
+                } else {
+                    // Accepted but sent nothing; do not hammer a device in that state
+                    pause(jitter(delayMs));
+                    delayMs = Math.min(delayMs * 2, maxDelayMs);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void publish(Connection connection) {
+        synchronized (lock) {
+            if (!running) {
+                connection.close();
+            } else if (current == null) {
+                current = connection;
+            } else {
+                // The reader has not got to the previous new connection; whatever that
+                // delivered meanwhile counts towards the gap
+                if (next != null) {
+                    next.close();
+                }
+                next = connection;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    // Follow a connection until it ends or goes quiet for staleTimeoutNs, recording its
+    // time to first byte. Returns whether it delivered any data.
+    private boolean watch(Connection connection) throws InterruptedException {
+        boolean delivered = false;
+        while (running && connection.ingest.isRunning()) {
+            long now = System.nanoTime();
+            long lastDataNs = connection.ingest.getLastDataNs();
+            if (!delivered && lastDataNs != 0) {
+                delivered = true;
+                firstByteTimes.record(connection.ingest.getFirstDataNs() - connection.connectedNs);
+            }
+            if (now - (delivered ? lastDataNs : connection.connectedNs) >= staleTimeoutNs) {
+                break; // the device is gone without closing the connection
+            }
+            pause(CHECK_INTERVAL_MS);
+        }
+        return delivered;
+    }
+
+    // Sleep that close() cuts short
+    private void pause(long ms) throws InterruptedException {
+        long deadline = System.nanoTime() + ms * 1_000_000L;
+        synchronized (lock) {
+            long waitNs;
+            while (running && (waitNs = deadline - System.nanoTime()) > 0) {
+                lock.wait(waitNs / 1_000_000L, (int) (waitNs % 1_000_000L));
+            }
+        }
+    }
+
+    // Between half and all of delayMs
+    private long jitter(long delayMs) {
+        long half = delayMs / 2;
+        return half + (long) (random.nextDouble() * (delayMs - half));
+    }
+
+    @Override
+    public int read(byte[] dst, int offset, int length, long timeoutMs) throws IOException, InterruptedException {
+        while (true) {
+            Connection connection = awaitCurrent();
+            if (connection == null) {
+                return end();
+            }
+            int bytesRead;
+            try {
+                bytesRead = connection.ingest.read(dst, offset, length, timeoutMs);
+            } catch (IOException e) {
+                bytesRead = -1; // the supervisor reconnects
+            }
+            if (bytesRead > 0) {
+                if (connection.bytesRead == 0 && connection.gapFromNs != 0) {
+                    long firstDataNs = connection.ingest.getFirstDataNs();
+                    long gapNs = (firstDataNs != 0 ? firstDataNs : System.nanoTime()) - connection.gapFromNs;
+                    long samples = Math.max(0, gapNs) * sampleRate / 1_000_000_000L;
+                    pendingGapBytes += samples * BYTES_PER_SAMPLE + connection.alignBytes;
+                }
+                connection.bytesRead += bytesRead;
+                return bytesRead;
+            }
+            if (bytesRead == 0) {
+                return 0;
+            }
+            if (!advance(connection)) {
+                return end();
+            }
+        }
+    }
+
+    // The connection to read from, waiting for the first one if need be; null at the end
+    private Connection awaitCurrent() throws InterruptedException {
+        synchronized (lock) {
+            while (current == null) {
+                if (!running || readerReleased) {
+                    return null;
+                }
+                lock.wait();
+            }
+            return current;
+        }
+    }
+
+    // The drained connection is over; wait for its replacement and switch to it
+    private boolean advance(Connection drained) throws InterruptedException {
+        synchronized (lock) {
+            while (next == null) {
+                if (!running || readerReleased) {
+                    return false;
+                }
+                lock.wait();
+            }
+            current = next;
+            next = null;
+            long lastDataNs = drained.ingest.getLastDataNs();
+            current.gapFromNs = lastDataNs != 0 ? lastDataNs : drained.connectedNs;
+            // A raw stream cut mid-sample would otherwise stay a byte out of step
+            current.alignBytes = (int) (drained.bytesRead % BYTES_PER_SAMPLE);
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    private int end() throws IOException {
+        synchronized (lock) {
+            if (failure != null && !readerReleased) {
+                throw failure;
+            }
+            return -1;
+        }
+    }
+
+    // Start from the live stream: skip to the newest connection and drop buffered audio,
+    // along with any gap from before the caller was interested in the stream. Undoes
+    // interruptRead().
+    public void discardBuffered() {
+        synchronized (lock) {
+            readerReleased = false;
+            if (next != null) {
+                current.close();
+                current = next;
+                next = null;
+            }
+            if (current != null) {
+                current.ingest.discardBuffered();
+                current.gapFromNs = 0;
+            }
+        }
+        pendingGapBytes = 0;
+    }
+
+    @Override
+    public long takeGapBytes() {
+        long gap = pendingGapBytes;
+        pendingGapBytes = 0;
+        return gap;
+    }
+
+    // False once the supervisor gave up or was closed
+    public boolean isRunning() {
+        return running;
+    }
+
+    // The newest connection, for its throughput and stall counters; null before the first
+    public StreamIngest getIngest() {
+        synchronized (lock) {
+            Connection newest = next != null ? next : current;
+            return newest != null ? newest.ingest : null;
+        }
+    }
+
+    // Connections made, the first one included
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    public int getReconnectCount() {
+        return Math.max(0, connectionCount - 1);
+    }
+
+    // Connection attempts that failed
+    public int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    // Error of the latest failed attempt, for diagnostics
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    // Nanoseconds from losing the stream to the next connection
+    public Histogram getReconnectTimes() {
+        return reconnectTimes;
+    }
+
+    // Nanoseconds from connecting to the first byte of audio
+    public Histogram getFirstByteTimes() {
+        return firstByteTimes;
+    }
+
+    // Set once the supervisor gave up
+    public IOException getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,295 @@
+package com.example.moodproject.audio;
+
+import com.example.moodproject.protocol.ReorderWindow;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Receives the ESP32 audio as UDP datagrams instead of a TCP stream. Over TCP one lost
+// packet holds back everything behind it until it is retransmitted; here a lost frame
+// costs only its own audio, which the FrameDecoder conceals, and the frames after it
+// go on without waiting longer than the reorder window allows.
+//
+// The device sends every frame (FrameCodec, one or more per datagram, each datagram
+// within one WiFi MTU: 512 samples fit) to whoever subscribed last. Subscribing is a
+// datagram holding just SUBSCRIBE_MAGIC, repeated every SUBSCRIBE_INTERVAL_MS as a
+// keepalive, so a device that restarted or dropped the phone picks it up again.
+//
+// Frames come out in sequence order through a ReorderWindow into a preallocated ring,
+// read like a StreamIngest with the FrameDecoder behind it (CaptureSession.useFraming).
+// There is no flow control: frames that do not fit the ring are dropped. A read timeout
+// without datagrams counts a stall, as with StreamIngest.
+public class DatagramIngest implements Runnable, IngestSource {
+
+    public static final int SUBSCRIBE_MAGIC = 0x42555341; // "ASUB" read little endian
+    public static final long SUBSCRIBE_INTERVAL_MS = 1000;
+
+    private static final long RATE_WINDOW_NS = 1_000_000_000L;
+    private static final int MAX_DATAGRAM_BYTES = 65_507;
+
+    private final InetSocketAddress device;
+    private final ByteRingBuffer ring;
+    private final long readTimeoutNs;
+    private final ReorderWindow window;
+    private final byte[] datagram = new byte[MAX_DATAGRAM_BYTES];
+    private final ByteBuffer received = ByteBuffer.wrap(datagram);
+    private final ByteBuffer subscribe = ByteBuffer.allocate(4);
+    private final CountDownLatch dataArrived = new CountDownLatch(1);
+
+    private DatagramChannel channel;
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile IOException failure;
+
+    // Written only by the ingest thread
+    private volatile long totalBytes;
+    private volatile long datagrams;
+    private volatile long overflowFrames;
+    private volatile int unreachableCount;
+    private volatile int stallCount;
+    private volatile double bytesPerSecond;
+    private volatile long firstDataNs;
+    private volatile long lastDataNs;
+    private long windowStartNs;
+    private long windowBytes;
+
+    // Frames missing from the sequence are waited for up to maxReorderDelayMs, with at
+    // most reorderFrames frames held behind them
+    public DatagramIngest(InetSocketAddress device, int bufferBytes, int readTimeoutMs,
+                          int reorderFrames, int maxReorderDelayMs) {
+        this.device = device;
+        this.ring = new ByteRingBuffer(bufferBytes);
+        this.readTimeoutNs = readTimeoutMs * 1_000_000L;
+        this.window = new ReorderWindow(new ReorderWindow.FrameSink() {
+            @Override
+            public void write(byte[] src, int offset, int length) {
+                // Only this thread writes, so the room cannot shrink in between
+                if (ring.remaining() < length) {
+                    overflowFrames++;
+                } else {
+                    ring.write(src, offset, length);
+                }
+            }
+        }, reorderFrames, maxReorderDelayMs * 1_000_000L);
+        subscribe.put(0, (byte) SUBSCRIBE_MAGIC).put(1, (byte) (SUBSCRIBE_MAGIC >>> 8))
+                .put(2, (byte) (SUBSCRIBE_MAGIC >>> 16)).put(3, (byte) (SUBSCRIBE_MAGIC >>> 24));
+    }
+
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("Ingest already started");
+        }
+        channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            // Only the device's datagrams are received
+            channel.connect(device);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        running = true;
+        thread = new Thread(this, "DatagramIngest");
+        thread.start();
+    }
+
+    // Ask the ingest thread to finish; data already in the ring can still be drained
+    public synchronized void stop() {
+        running = false;
+        ring.close();
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        windowStartNs = now;
+        long nextSubscribeNs = now;
+        long quietSinceNs = now;
+        try {
+            while (running) {
+                if (now - nextSubscribeNs >= 0) {
+                    sendSubscribe();
+                    nextSubscribeNs = now + SUBSCRIBE_INTERVAL_MS * 1_000_000L;
+                }
+                long wakeNs = Math.min(Math.min(nextSubscribeNs, quietSinceNs + readTimeoutNs),
+                        window.nextDeadlineNs());
+                long waitMs = Math.max(1, (wakeNs - now + 999_999) / 1_000_000L);
+                selector.select(waitMs);
+                selector.selectedKeys().clear();
+
+                now = System.nanoTime();
+                int bytes = receiveAll(now);
+                window.expire(now);
+                if (bytes > 0) {
+                    lastDataNs = now;
+                    if (totalBytes == 0) {
+                        firstDataNs = now;
+                    }
+                    totalBytes += bytes;
+                    dataArrived.countDown();
+                    quietSinceNs = now;
+                    updateRate(bytes, now);
+                } else if (now - quietSinceNs >= readTimeoutNs) {
+                    stallCount++;
+                    quietSinceNs = now;
+                    updateRate(0, now);
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                failure = e;
+            }
+        } catch (Exception e) {
+            if (running) {
+                failure = new IOException(e);
+            }
+        } finally {
+            running = false;
+            ring.close();
+            dataArrived.countDown();
+            try {
+                selector.close();
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+    // Every datagram waiting, into the reorder window; returns the bytes received
+    private int receiveAll(long now) throws Exception {
+        int bytes = 0;
+        while (true) {
+            ((Buffer) received).clear();
+            try {
+                if (channel.receive(received) == null) {
+                    return bytes;
+                }
+            } catch (PortUnreachableException e) {
+                // Nothing listening on the device yet; the next subscribe tries again
+                unreachableCount++;
+                return bytes;
+            }
+            int length = received.position();
+            datagrams++;
+            bytes += length;
+            window.accept(datagram, 0, length, now);
+        }
+    }
+
+    private void sendSubscribe() throws IOException {
+        ((Buffer) subscribe).clear();
+        try {
+            channel.write(subscribe);
+        } catch (PortUnreachableException e) {
+            unreachableCount++;
+        }
+    }
+
+    // Wait for the device's first datagram: there is no connection to tell whether it
+    // is there. False on timeout, or if the ingest stopped first.
+    public boolean awaitData(long timeoutMs) throws InterruptedException {
+        return dataArrived.await(timeoutMs, TimeUnit.MILLISECONDS) && totalBytes > 0;
+    }
+
+    // Read buffered audio, waiting at most timeoutMs for some to arrive.
+    // Returns the bytes copied, 0 on timeout, or -1 once the ingest has stopped.
+    @Override
+    public int read(byte[] dst, int offset, int length, long timeoutMs) throws IOException, InterruptedException {
+        int bytesRead = ring.read(dst, offset, length, timeoutMs);
+        if (bytesRead < 0 && failure != null) {
+            throw failure;
+        }
+        return bytesRead;
+    }
+
+    // Lost datagrams show up as lost frames, concealed by the FrameDecoder
+    @Override
+    public long takeGapBytes() {
+        return 0;
+    }
+
+    // Drop audio that was buffered before the caller was interested in it. Frames go
+    // into the ring whole, so the stream still starts on a frame afterwards.
+    public void discardBuffered() {
+        ring.clear();
+    }
+
+    private void updateRate(int bytesRead, long now) {
+        windowBytes += bytesRead;
+        long elapsed = now - windowStartNs;
+        if (elapsed >= RATE_WINDOW_NS) {
+            bytesPerSecond = windowBytes * 1e9 / elapsed;
+            windowBytes = 0;
+            windowStartNs = now;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // The sequence counters of the datagrams; read them from another thread as gauges
+    public ReorderWindow getReorderWindow() {
+        return window;
+    }
+
+    // Datagram bytes received, frame headers included
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getDatagrams() {
+        return datagrams;
+    }
+
+    // Frames dropped because the reader fell behind and the ring was full
+    public long getOverflowFrames() {
+        return overflowFrames;
+    }
+
+    // Times the device port was found closed, e.g. before its firmware started listening
+    public int getUnreachableCount() {
+        return unreachableCount;
+    }
+
+    // System.nanoTime() when the first and the latest datagram arrived, 0 before any did
+    public long getFirstDataNs() {
+        return firstDataNs;
+    }
+
+    public long getLastDataNs() {
+        return lastDataNs;
+    }
+
+    public int getStallCount() {
+        return stallCount;
+    }
+
+    // Throughput over the last completed one second window
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public int getBufferedBytes() {
+        return ring.available();
+    }
+
+    public IOException getFailure() {
+        return failure;
+    }
+}
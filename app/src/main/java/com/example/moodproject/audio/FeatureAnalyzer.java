@@ -0,0 +1,332 @@
+package com.example.moodproject.audio;
+
+import com.example.moodproject.dsp.FeatureExtractor;
+import com.example.moodproject.dsp.FeatureListener;
+import com.example.moodproject.dsp.MfccExtractor;
+import com.example.moodproject.dsp.MfccListener;
+import com.example.moodproject.dsp.MoodClassifier;
+import com.example.moodproject.dsp.MoodFeatures;
+import com.example.moodproject.dsp.MoodWindow;
+import com.example.moodproject.dsp.PolyphaseResampler;
+import com.example.moodproject.metrics.Histogram;
+
+// Runs the mood feature extractor (and optionally the MFCC stage) over captured
+// audio and keeps the latest frame of each. With a classifier, frames are also
+// summarised per window and each completed window is scored, keeping the latest
+// mood. Extraction happens on the caller's (or consumer) thread.
+//
+// While windowing, both extractors are fed one hop of audio at a time, so each
+// window is scored as soon as its last frame arrives and no frame spills past a full
+// window. Windows are the same however the audio is split into chunks.
+//
+// With a resampler, audio is brought down to the analysis rate before extraction;
+// the extractors must then be built for the resampler's output rate. Captured audio
+// itself is not changed, so storage and playback keep the full rate.
+//
+// Window vectors can be handed to a listener as they are scored, e.g. to cache them,
+// and scored again later with scoreWindows() instead of analysing the audio again;
+// those are scored as many at a time as the classifier's batch allows.
+public class FeatureAnalyzer implements ChunkConsumer, FeatureListener, MfccListener {
+
+    // Receives each window vector before it is scored, on the analysis thread. The
+    // array is reused, so copy what should be kept.
+    public interface WindowListener {
+        void onWindow(float[] vector, int offset, int length);
+    }
+
+    // Receives the mood scored for each window, on the analysis thread. The array is
+    // reused, so copy what should be kept.
+    public interface MoodListener {
+        void onMood(int mood, float[] probabilities);
+    }
+
+    // Bump whenever the way frames are gathered into windows changes, like
+    // FeatureExtractor.VERSION for the frames themselves
+    public static final int WINDOW_VERSION = 2;
+
+    // Input bytes resampled per step, which bounds the resampled buffer
+    private static final int RESAMPLE_STEP_BYTES = 4096;
+
+    private final FeatureExtractor extractor;
+    private final MfccExtractor mfccExtractor;
+    private final MoodFeatures latest = new MoodFeatures();
+    private final float[] latestMfcc;
+    private final MoodWindow window;
+    private final MoodClassifier classifier;
+    private final float[] windowVector;
+    private final float[] windowProbabilities;
+    // Probabilities of a batch of windows scored together
+    private final float[] batchProbabilities;
+    private final float[] latestProbabilities;
+    private final int[] moodCounts;
+    // Bytes fed to the extractors at a time: one hop while windowing, so each step
+    // completes at most one frame of each
+    private final int stepBytes;
+    private long frames;
+    private long mfccFrames;
+    private long windows;
+    private int latestMood = -1;
+    private Histogram frameTimer;
+    private PolyphaseResampler resampler;
+    private byte[] resampled;
+    private WindowListener windowListener;
+    private MoodListener moodListener;
+
+    public FeatureAnalyzer(FeatureExtractor extractor) {
+        this(extractor, null);
+    }
+
+    public FeatureAnalyzer(FeatureExtractor extractor, MfccExtractor mfccExtractor) {
+        this(extractor, mfccExtractor, null, 0);
+    }
+
+    // Score every framesPerWindow frames; the classifier's model must take
+    // MoodWindow vectors built from mfccExtractor's coefficients
+    public FeatureAnalyzer(FeatureExtractor extractor, MfccExtractor mfccExtractor,
+                           MoodClassifier classifier, int framesPerWindow) {
+        this.extractor = extractor;
+        this.mfccExtractor = mfccExtractor;
+        this.latestMfcc = new float[mfccExtractor != null ? mfccExtractor.getCoefficients() : 0];
+        this.classifier = classifier;
+        if (classifier != null) {
+            if (mfccExtractor == null) {
+                throw new IllegalArgumentException("Mood classification needs the MFCC stage");
+            }
+            if (mfccExtractor.getFrameSize() != extractor.getFrameSize()
+                    || mfccExtractor.getHopSize() != extractor.getHopSize()) {
+                throw new IllegalArgumentException("Windowed extractors need the same frames, got "
+                        + extractor.getFrameSize() + "/" + extractor.getHopSize() + " and "
+                        + mfccExtractor.getFrameSize() + "/" + mfccExtractor.getHopSize());
+            }
+            window = new MoodWindow(framesPerWindow, mfccExtractor.getCoefficients());
+            stepBytes = extractor.getHopSize() * 2;
+            if (classifier.getModel().getInputs() != window.getVectorSize()) {
+                throw new IllegalArgumentException("Model takes " + classifier.getModel().getInputs()
+                        + " inputs, windows have " + window.getVectorSize());
+            }
+            windowVector = new float[window.getVectorSize()];
+            windowProbabilities = new float[classifier.getModel().getLabelCount()];
+            batchProbabilities = new float[classifier.getMaxBatch() * windowProbabilities.length];
+        } else {
+            window = null;
+            stepBytes = Integer.MAX_VALUE;
+            windowVector = null;
+            windowProbabilities = new float[0];
+            batchProbabilities = null;
+        }
+        latestProbabilities = new float[windowProbabilities.length];
+        moodCounts = new int[windowProbabilities.length];
+    }
+
+    // Record the average DSP time per feature frame of every offer(); set before use
+    public void setFrameTimer(Histogram frameTimer) {
+        this.frameTimer = frameTimer;
+    }
+
+    // Analyse at the resampler's output rate; set before use
+    public void useResampler(PolyphaseResampler resampler) {
+        this.resampler = resampler;
+        resampled = new byte[2 * resampler.maxOutput(RESAMPLE_STEP_BYTES / 2 + 1)];
+    }
+
+    // Hand every window vector to listener; set before use
+    public void setWindowListener(WindowListener listener) {
+        this.windowListener = listener;
+    }
+
+    // Hand every mood scored to listener; set before use
+    public void setMoodListener(MoodListener listener) {
+        this.moodListener = listener;
+    }
+
+    public void offer(byte[] data, int offset, int length) {
+        long startNs = System.nanoTime();
+        long framesBefore = getFrameCount();
+        if (resampler != null) {
+            while (length > 0) {
+                int step = Math.min(length, RESAMPLE_STEP_BYTES);
+                extract(resampled, 0, resampler.process(data, offset, step, resampled, 0));
+                offset += step;
+                length -= step;
+            }
+        } else {
+            extract(data, offset, length);
+        }
+        long produced = getFrameCount() - framesBefore;
+        if (frameTimer != null && produced > 0) {
+            frameTimer.record((System.nanoTime() - startNs) / produced, produced);
+        }
+    }
+
+    // Score count window vectors stored back to back from offset, computed earlier by
+    // this configuration (see getConfigKey()), counting them as if their audio had been
+    // analysed here
+    public void scoreWindows(float[] vectors, int offset, int count) {
+        if (window == null) {
+            throw new IllegalStateException("No classifier to score windows with");
+        }
+        int labels = windowProbabilities.length;
+        int batchSize = batchProbabilities.length / labels;
+        for (int done = 0; done < count; done += batchSize) {
+            int batch = Math.min(batchSize, count - done);
+            classifier.classify(vectors, offset + done * windowVector.length, batch, batchProbabilities, 0);
+            for (int b = 0; b < batch; b++) {
+                System.arraycopy(batchProbabilities, b * labels, windowProbabilities, 0, labels);
+                record(MoodClassifier.argMax(windowProbabilities, 0, labels));
+            }
+        }
+    }
+
+    private void score() {
+        record(classifier.classify(windowVector, windowProbabilities));
+    }
+
+    // Count the mood of a window whose probabilities are in windowProbabilities
+    private void record(int mood) {
+        synchronized (this) {
+            System.arraycopy(windowProbabilities, 0, latestProbabilities, 0, latestProbabilities.length);
+            latestMood = mood;
+            moodCounts[mood]++;
+            windows++;
+        }
+        if (moodListener != null) {
+            moodListener.onMood(mood, windowProbabilities);
+        }
+    }
+
+    private void extract(byte[] data, int offset, int length) {
+        while (length > 0) {
+            int step = Math.min(length, stepBytes);
+            extractor.process(data, offset, step, this);
+            if (mfccExtractor != null) {
+                mfccExtractor.process(data, offset, step, this);
+            }
+            if (window != null && window.isComplete()) {
+                window.drainTo(windowVector, 0);
+                if (windowListener != null) {
+                    windowListener.onWindow(windowVector, 0, windowVector.length);
+                }
+                score();
+            }
+            offset += step;
+            length -= step;
+        }
+    }
+
+    @Override
+    public void accept(AudioChunk chunk) {
+        offer(chunk.getData(), 0, chunk.getLength());
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public synchronized void onFeatures(MoodFeatures features) {
+        latest.copyFrom(features);
+        frames++;
+        if (window != null) {
+            window.onFeatures(features);
+        }
+    }
+
+    @Override
+    public synchronized void onMfcc(long frameIndex, float[] logMel, float[] mfcc) {
+        System.arraycopy(mfcc, 0, latestMfcc, 0, latestMfcc.length);
+        mfccFrames++;
+        if (window != null) {
+            window.onMfcc(frameIndex, logMel, mfcc);
+        }
+    }
+
+    // Copy the most recent frame's features into dst; returns false before the first frame
+    public synchronized boolean copyLatest(MoodFeatures dst) {
+        if (frames == 0) {
+            return false;
+        }
+        dst.copyFrom(latest);
+        return true;
+    }
+
+    // Copy the most recent MFCC vector into dst; returns false before the first frame
+    public synchronized boolean copyLatestMfcc(float[] dst) {
+        if (mfccFrames == 0) {
+            return false;
+        }
+        System.arraycopy(latestMfcc, 0, dst, 0, latestMfcc.length);
+        return true;
+    }
+
+    // Label of the most recently scored window, or null before the first one
+    public synchronized String getLatestMood() {
+        return latestMood < 0 ? null : classifier.getModel().getLabel(latestMood);
+    }
+
+    // Copy the latest window's label probabilities into dst; returns false before the first window
+    public synchronized boolean copyLatestProbabilities(float[] dst) {
+        if (latestMood < 0) {
+            return false;
+        }
+        System.arraycopy(latestProbabilities, 0, dst, 0, latestProbabilities.length);
+        return true;
+    }
+
+    // Label index scored most often so far, or -1 before the first window
+    public synchronized int getDominantMood() {
+        if (windows == 0) {
+            return -1;
+        }
+        int best = 0;
+        for (int i = 1; i < moodCounts.length; i++) {
+            if (moodCounts[i] > moodCounts[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    // Share of windows that had the dominant mood, in per mille
+    public synchronized int getDominantMoodShare() {
+        int mood = getDominantMood();
+        return mood < 0 ? 0 : (int) (moodCounts[mood] * 1000L / windows);
+    }
+
+    // Length of the window vectors scored, 0 without a classifier
+    public int getWindowVectorSize() {
+        return windowVector != null ? windowVector.length : 0;
+    }
+
+    // Everything the window vectors depend on besides the audio: the feature version
+    // and the analysis settings. Results kept under another key no longer apply.
+    public String getConfigKey() {
+        StringBuilder key = new StringBuilder()
+                .append("features v").append(FeatureExtractor.VERSION).append(' ')
+                .append(extractor.getSampleRate()).append('/').append(extractor.getFrameSize())
+                .append('/').append(extractor.getHopSize());
+        if (mfccExtractor != null) {
+            key.append(", mfcc ").append(mfccExtractor.getMelBands()).append('x')
+                    .append(mfccExtractor.getCoefficients());
+        }
+        if (window != null) {
+            key.append(", window v").append(WINDOW_VERSION).append(' ').append(window.getFramesPerWindow());
+        }
+        if (resampler != null) {
+            key.append(", from ").append(resampler.getInputRate()).append(" in ").append(resampler.getTaps())
+                    .append(" taps");
+        }
+        return key.toString();
+    }
+
+    public synchronized long getWindowCount() {
+        return windows;
+    }
+
+    public synchronized long getFrameCount() {
+        return frames;
+    }
+
+    public synchronized long getMfccFrameCount() {
+        return mfccFrames;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.moodproject.audio;
+
+import java.io.IOException;
+
+// Where a CaptureSession reads the device stream from: a StreamIngest for a single
+// device, or one device of a MultiDeviceIngest
+public interface IngestSource {
+
+    // Read buffered bytes, waiting at most timeoutMs for some to arrive.
+    // Returns the bytes copied, 0 on timeout, or -1 once the stream has ended.
+    int read(byte[] dst, int offset, int length, long timeoutMs) throws IOException, InterruptedException;
+
+    // Audio bytes missing just before what the last read() returned, e.g. while a lost
+    // connection was re-established; reported once, 0 if the stream had no gap there
+    long takeGapBytes();
+}
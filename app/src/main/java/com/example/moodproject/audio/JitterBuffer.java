@@ -0,0 +1,254 @@
+package com.example.moodproject.audio;
+
+// Playout buffer between bursty network arrivals and the steady audio output clock.
+// Each arrival is compared against the stream's own sample clock; the target depth
+// covers the 95th percentile of that delay variation (kept in a forgetting histogram)
+// and is pushed up after every underrun. All times are passed in by the caller so
+// the behaviour can be replayed from synthetic arrival timings.
+public class JitterBuffer {
+
+    // Added to the target depth per underrun, and the rate at which that boost decays
+    private static final int UNDERRUN_BOOST_MS = 10;
+    private static final long BOOST_DECAY_NS = 5_000_000_000L;
+    // Delay variation histogram: bucket width, per-arrival forgetting factor, quantile
+    private static final int HISTOGRAM_BUCKET_MS = 5;
+    private static final double HISTOGRAM_FORGET = 0.998;
+    private static final double DELAY_QUANTILE = 0.95;
+    // Allowed sender/receiver clock drift (1 ms per second) before the baseline moves
+    private static final long DRIFT_ALLOWANCE = 1000;
+    // Arrival timestamps kept for latency measurement
+    private static final int MARK_COUNT = 256;
+
+    private final int bytesPerFrame;
+    private final double bytesPerNs;
+    private final int minDepthBytes;
+    private final int maxDepthBytes;
+    private final byte[] buffer;
+
+    private long writePosition;
+    private long readPosition;
+    private boolean playing;
+
+    // End position and arrival time of recent writes
+    private final long[] markPosition = new long[MARK_COUNT];
+    private final long[] markTimeNs = new long[MARK_COUNT];
+    private int markHead;
+    private int markCount;
+
+    private final double[] histogram;
+    private double histogramMass;
+    private long lastArrivalNs;
+    private long lastDurationNs;
+    private long baselineNs;
+    private boolean resetBaseline = true;
+    private long delayNs;
+    private int boostBytes;
+    private long lastBoostChangeNs;
+
+    private long underruns;
+    private long overruns;
+    private long droppedBytes;
+    private long latencyNs;
+
+    public JitterBuffer(int sampleRate, int bytesPerFrame, int minDepthMs, int maxDepthMs) {
+        this.bytesPerFrame = bytesPerFrame;
+        this.bytesPerNs = sampleRate * (double) bytesPerFrame / 1e9;
+        this.minDepthBytes = msToBytes(minDepthMs);
+        this.maxDepthBytes = msToBytes(maxDepthMs);
+        // Room for the deepest target plus a burst of the same size
+        this.buffer = new byte[maxDepthBytes * 2];
+        this.histogram = new double[maxDepthMs / HISTOGRAM_BUCKET_MS + 1];
+    }
+
+    // Add audio that arrived at arrivalNs
+    public synchronized void write(byte[] src, int offset, int length, long arrivalNs) {
+        length -= length % bytesPerFrame;
+        if (length <= 0) {
+            return;
+        }
+        updateDelay(length, arrivalNs);
+
+        if (length > buffer.length) {
+            // Larger than the whole buffer, only the newest part can be kept
+            int skip = length - buffer.length;
+            skip -= skip % bytesPerFrame;
+            offset += skip;
+            length -= skip;
+        }
+        int overflow = (int) (writePosition - readPosition) + length - buffer.length;
+        if (overflow > 0) {
+            overruns++;
+            drop(overflow);
+        }
+
+        int index = (int) (writePosition % buffer.length);
+        int first = Math.min(length, buffer.length - index);
+        System.arraycopy(src, offset, buffer, index, first);
+        System.arraycopy(src, offset + first, buffer, 0, length - first);
+        writePosition += length;
+
+        markPosition[markHead] = writePosition;
+        markTimeNs[markHead] = arrivalNs;
+        markHead = (markHead + 1) % MARK_COUNT;
+        markCount = Math.min(markCount + 1, MARK_COUNT);
+    }
+
+    // Fill dst with length bytes for playback at nowNs, padding with silence
+    // while buffering or after an underrun. Returns the bytes of real audio.
+    public synchronized int read(byte[] dst, int offset, int length, long nowNs) {
+        int target = getTargetDepthBytes();
+        int buffered = (int) (writePosition - readPosition);
+        decayBoost(nowNs);
+
+        if (!playing && buffered >= target) {
+            playing = true;
+        }
+        if (playing && buffered > target + Math.max(target, length)) {
+            // Arrivals caught up after a stall, trim back to the target to bound latency
+            overruns++;
+            drop(buffered - target);
+            buffered = target;
+        }
+
+        int toRead = playing ? Math.min(buffered, length) : 0;
+        toRead -= toRead % bytesPerFrame;
+        if (toRead > 0) {
+            latencyNs = nowNs - arrivalTimeOf(readPosition + toRead);
+            int index = (int) (readPosition % buffer.length);
+            int first = Math.min(toRead, buffer.length - index);
+            System.arraycopy(buffer, index, dst, offset, first);
+            System.arraycopy(buffer, 0, dst, offset + first, toRead - first);
+            readPosition += toRead;
+        }
+        if (playing && toRead < length) {
+            underruns++;
+            playing = false;
+            boostBytes = Math.min(boostBytes + msToBytes(UNDERRUN_BOOST_MS), maxDepthBytes);
+            lastBoostChangeNs = nowNs;
+            // The sender may have paused rather than queued, so re-learn its clock offset
+            resetBaseline = true;
+        }
+        for (int i = offset + toRead; i < offset + length; i++) {
+            dst[i] = 0;
+        }
+        return toRead;
+    }
+
+    // How late this arrival is compared with the earliest arrival seen relative to
+    // the stream's sample clock, folded into the histogram
+    private void updateDelay(int length, long arrivalNs) {
+        long transitNs = arrivalNs - (long) (writePosition / bytesPerNs);
+        if (resetBaseline) {
+            baselineNs = transitNs;
+            resetBaseline = false;
+        } else {
+            baselineNs = Math.min(transitNs, baselineNs + (arrivalNs - lastArrivalNs) / DRIFT_ALLOWANCE);
+        }
+        lastArrivalNs = arrivalNs;
+        lastDurationNs = (long) (length / bytesPerNs);
+
+        long variationNs = transitNs - baselineNs;
+        int bucket = (int) Math.min(histogram.length - 1, variationNs / (HISTOGRAM_BUCKET_MS * 1_000_000L));
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] *= HISTOGRAM_FORGET;
+        }
+        histogram[bucket] += 1 - HISTOGRAM_FORGET;
+        histogramMass = histogramMass * HISTOGRAM_FORGET + (1 - HISTOGRAM_FORGET);
+
+        double limit = histogramMass * DELAY_QUANTILE;
+        double sum = 0;
+        int quantileBucket = 0;
+        while (quantileBucket < histogram.length - 1 && sum + histogram[quantileBucket] < limit) {
+            sum += histogram[quantileBucket];
+            quantileBucket++;
+        }
+        // Upper edge of the bucket, except for on-time arrivals
+        delayNs = quantileBucket == 0 ? 0 : (quantileBucket + 1) * HISTOGRAM_BUCKET_MS * 1_000_000L;
+    }
+
+    private void decayBoost(long nowNs) {
+        if (boostBytes > 0 && nowNs - lastBoostChangeNs >= BOOST_DECAY_NS) {
+            boostBytes = Math.max(0, boostBytes - msToBytes(UNDERRUN_BOOST_MS));
+            lastBoostChangeNs = nowNs;
+        }
+    }
+
+    private void drop(int bytes) {
+        bytes += (bytesPerFrame - bytes % bytesPerFrame) % bytesPerFrame;
+        bytes = Math.min(bytes, (int) (writePosition - readPosition));
+        readPosition += bytes;
+        droppedBytes += bytes;
+    }
+
+    // Arrival time of the write that contained the byte just before position
+    private long arrivalTimeOf(long position) {
+        long time = markTimeNs[(markHead - 1 + MARK_COUNT) % MARK_COUNT];
+        for (int i = 1; i <= markCount; i++) {
+            int index = (markHead - i + MARK_COUNT) % MARK_COUNT;
+            if (markPosition[index] < position) {
+                break;
+            }
+            time = markTimeNs[index];
+        }
+        return time;
+    }
+
+    private int msToBytes(int ms) {
+        int bytes = (int) (ms * 1_000_000L * bytesPerNs);
+        return bytes - bytes % bytesPerFrame;
+    }
+
+    private double bytesToMs(long bytes) {
+        return bytes / bytesPerNs / 1e6;
+    }
+
+    public synchronized int getTargetDepthBytes() {
+        // Enough to cover one arrival plus the usual delay variation, and recent underruns
+        int adaptive = (int) ((lastDurationNs + delayNs) * bytesPerNs);
+        adaptive -= adaptive % bytesPerFrame;
+        return Math.min(maxDepthBytes, Math.max(minDepthBytes, adaptive) + boostBytes);
+    }
+
+    public synchronized double getTargetDepthMs() {
+        return bytesToMs(getTargetDepthBytes());
+    }
+
+    public synchronized double getBufferedMs() {
+        return bytesToMs(writePosition - readPosition);
+    }
+
+    // 95th percentile of how late audio arrives relative to the sender's clock
+    public synchronized double getJitterMs() {
+        return delayNs / 1e6;
+    }
+
+    // Time the most recently played audio spent between arrival and playout
+    public synchronized double getLatencyMs() {
+        return latencyNs / 1e6;
+    }
+
+    // Reads that ran dry while playing
+    public synchronized long getUnderruns() {
+        return underruns;
+    }
+
+    // Times audio was discarded, either because the buffer was full or to trim latency
+    public synchronized long getOverruns() {
+        return overruns;
+    }
+
+    public synchronized long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    public synchronized boolean isPlaying() {
+        return playing;
+    }
+
+    public synchronized void reset() {
+        readPosition = writePosition;
+        playing = false;
+        markCount = 0;
+        resetBaseline = true;
+    }
+}
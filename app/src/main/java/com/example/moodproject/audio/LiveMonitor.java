@@ -0,0 +1,110 @@
+package com.example.moodproject.audio;
+
+import java.io.IOException;
+
+// Plays the incoming stream while it is being recorded. Captured audio goes into a
+// JitterBuffer and a playback thread drains it into the output in fixed periods,
+// paced by the output's blocking write.
+public class LiveMonitor implements ChunkConsumer {
+
+    // Destination for monitor audio, e.g. an AudioTrack in MODE_STREAM
+    public interface AudioOutput {
+        void start();
+
+        // Blocks until the output has room for the data
+        void write(byte[] data, int offset, int length) throws IOException;
+
+        void stop();
+
+        // Audio held inside the output that has not been heard yet
+        double getLatencyMs();
+    }
+
+    private final JitterBuffer jitterBuffer;
+    private final AudioOutput output;
+    private final byte[] period;
+
+    private Thread playbackThread;
+    private volatile boolean running;
+    private volatile IOException failure;
+
+    public LiveMonitor(JitterBuffer jitterBuffer, AudioOutput output, int periodBytes) {
+        this.jitterBuffer = jitterBuffer;
+        this.output = output;
+        this.period = new byte[periodBytes];
+    }
+
+    public synchronized void start() {
+        if (playbackThread != null) {
+            throw new IllegalStateException("Monitor already started");
+        }
+        running = true;
+        output.start();
+        playbackThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                play();
+            }
+        }, "LiveMonitor");
+        playbackThread.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    // Feed audio as it arrives; also usable without a CaptureSession
+    public void offer(byte[] data, int offset, int length) {
+        jitterBuffer.write(data, offset, length, System.nanoTime());
+    }
+
+    @Override
+    public void accept(AudioChunk chunk) {
+        jitterBuffer.write(chunk.getData(), 0, chunk.getLength(), chunk.getCaptureTimeNs());
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    private void play() {
+        try {
+            while (running) {
+                jitterBuffer.read(period, 0, period.length, System.nanoTime());
+                output.write(period, 0, period.length);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            running = false;
+            output.stop();
+            jitterBuffer.reset();
+        }
+    }
+
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = playbackThread;
+        }
+        if (thread != null) {
+            thread.join(timeoutMs);
+            return !thread.isAlive();
+        }
+        return true;
+    }
+
+    // From the moment audio was captured until it leaves the speaker
+    public double getLatencyMs() {
+        return jitterBuffer.getLatencyMs() + output.getLatencyMs();
+    }
+
+    public JitterBuffer getJitterBuffer() {
+        return jitterBuffer;
+    }
+
+    public IOException getFailure() {
+        return failure;
+    }
+}
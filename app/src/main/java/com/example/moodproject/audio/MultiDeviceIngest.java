@@ -0,0 +1,432 @@
+package com.example.moodproject.audio;
+
+import com.example.moodproject.metrics.Gauge;
+import com.example.moodproject.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Reads the streams of several ESP32s on one thread: every device's SocketChannel is
+// non-blocking and registered with a single Selector, and whatever a channel has waiting
+// goes straight into that device's ring. Each Device is an IngestSource of its own, so
+// every stream still gets its own CaptureSession, while ingest costs one thread however
+// many devices there are.
+//
+// A device whose ring is full is no longer read (its interest in OP_READ is dropped)
+// until its reader makes room, so TCP flow control pushes back on that sender alone.
+// A connected device that sends nothing for readTimeoutMs counts a stall, as with
+// StreamIngest.
+public class MultiDeviceIngest implements Runnable {
+
+    private static final long RATE_WINDOW_NS = 1_000_000_000L;
+
+    private final int bufferBytes;
+    private final long readTimeoutNs;
+    private final long connectTimeoutNs;
+    private final int selectTimeoutMs;
+    private final Selector selector;
+    private final List<Device> devices = new CopyOnWriteArrayList<>();
+    // Connected by other threads, registered with the selector by the ingest thread
+    private final Queue<Device> pending = new ConcurrentLinkedQueue<>();
+    private volatile MetricsRegistry metrics;
+
+    private Thread thread;
+    private volatile boolean running;
+    private volatile IOException failure;
+
+    // Written only by the ingest thread
+    private volatile long selectCount;
+
+    public MultiDeviceIngest(int bufferBytes, int readTimeoutMs, int connectTimeoutMs) throws IOException {
+        this.bufferBytes = bufferBytes;
+        this.readTimeoutNs = readTimeoutMs * 1_000_000L;
+        this.connectTimeoutNs = connectTimeoutMs * 1_000_000L;
+        // Often enough to notice stalls and connect timeouts in time when nothing arrives
+        this.selectTimeoutMs = Math.max(1, Math.min(readTimeoutMs, connectTimeoutMs) / 4);
+        this.selector = Selector.open();
+    }
+
+    // Publish per-device gauges, named ingest.<device>.*, for devices connected from now on
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Ingest already started");
+        }
+        running = true;
+        thread = new Thread(this, "MultiDeviceIngest");
+        thread.start();
+    }
+
+    // Start connecting to a device, before or after start(). Its audio can be read from
+    // the returned Device once connected; a failed connection ends it with a failure.
+    public Device connect(String name, InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        Device device;
+        try {
+            channel.configureBlocking(false);
+            device = new Device(name, channel, channel.connect(address));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        devices.add(device);
+        MetricsRegistry registry = metrics;
+        if (registry != null) {
+            device.registerMetrics(registry);
+        }
+        pending.add(device);
+        selector.wakeup();
+        return device;
+    }
+
+    // Stop reading every device; readers drain what is buffered and then get -1
+    public synchronized void stop() {
+        running = false;
+        if (thread == null) {
+            closeAll();
+        } else {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                long now = System.nanoTime();
+                registerPending(now);
+                checkDevices(now);
+                selector.select(selectTimeoutMs);
+                selectCount++;
+
+                now = System.nanoTime();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Device device = (Device) key.attachment();
+                    try {
+                        if (key.isConnectable()) {
+                            device.finishConnect(key, now);
+                        } else if (key.isReadable()) {
+                            device.readAvailable(key, now);
+                        }
+                    } catch (CancelledKeyException e) {
+                        // Closed meanwhile
+                    } catch (IOException e) {
+                        device.end(e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // The selector itself failed, which ends every stream
+            failure = e;
+        } finally {
+            running = false;
+            closeAll();
+        }
+    }
+
+    private void registerPending(long now) {
+        Device device;
+        while ((device = pending.poll()) != null) {
+            try {
+                device.key = device.channel.register(selector,
+                        device.connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, device);
+                device.lastDataNs = now;
+            } catch (IOException e) {
+                device.end(e); // closed before it was registered
+            }
+        }
+    }
+
+    // Resume devices whose reader made room, time out connects, count stalls
+    private void checkDevices(long now) {
+        for (int i = 0; i < devices.size(); i++) {
+            Device device = devices.get(i);
+            if (device.key == null || !device.running) {
+                continue;
+            }
+            try {
+                checkDevice(device, now);
+            } catch (CancelledKeyException e) {
+                // Closed meanwhile
+            }
+        }
+    }
+
+    private void checkDevice(Device device, long now) {
+        if (!device.connected) {
+            if (now - device.connectStartNs >= connectTimeoutNs) {
+                device.end(new SocketTimeoutException("Connecting to " + device.name + " timed out"));
+            }
+        } else if (device.paused) {
+            if (device.ring.remaining() > 0) {
+                device.paused = false;
+                device.key.interestOps(SelectionKey.OP_READ);
+                device.lastDataNs = now;
+            }
+        } else if (now - device.lastDataNs >= readTimeoutNs) {
+            device.stallCount++;
+            device.lastDataNs = now;
+            device.updateRate(0, now);
+        }
+    }
+
+    private void closeAll() {
+        for (Device device : devices) {
+            device.end(null);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public List<Device> getDevices() {
+        return new ArrayList<>(devices);
+    }
+
+    // How often the ingest thread woke up, for comparison with the bytes it read
+    public long getSelectCount() {
+        return selectCount;
+    }
+
+    // Set if the selector failed, which ends every device
+    public IOException getFailure() {
+        return failure;
+    }
+
+    // One device's stream. Reading follows StreamIngest: read() from any one thread.
+    public class Device implements IngestSource {
+
+        private final String name;
+        private final SocketChannel channel;
+        private final ByteRingBuffer ring;
+        private final long connectStartNs;
+        // Set by the ingest thread at registration
+        private SelectionKey key;
+
+        private volatile boolean running = true;
+        private volatile boolean closed;
+        private volatile boolean connected;
+        private volatile boolean paused;
+        private volatile IOException failure;
+
+        // Written only by the ingest thread
+        private volatile long totalBytes;
+        private volatile long readCount;
+        private volatile int stallCount;
+        private volatile int pauseCount;
+        private volatile double bytesPerSecond;
+        private long lastDataNs;
+        private long windowStartNs;
+        private long windowBytes;
+
+        Device(String name, SocketChannel channel, boolean connected) {
+            this.name = name;
+            this.channel = channel;
+            this.connected = connected;
+            this.ring = new ByteRingBuffer(bufferBytes);
+            this.connectStartNs = System.nanoTime();
+            this.windowStartNs = connectStartNs;
+        }
+
+        private void finishConnect(SelectionKey key, long now) throws IOException {
+            if (channel.finishConnect()) {
+                connected = true;
+                lastDataNs = now;
+                windowStartNs = now;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        // Everything the channel has waiting, or as much as the ring takes
+        private void readAvailable(SelectionKey key, long now) throws IOException {
+            int bytesRead;
+            long total = 0;
+            while ((bytesRead = ring.readFrom(channel)) > 0) {
+                total += bytesRead;
+                readCount++;
+            }
+            if (total > 0) {
+                totalBytes += total;
+                lastDataNs = now;
+                updateRate(total, now);
+            }
+            if (bytesRead < 0) {
+                end(null); // ESP32 closed the stream
+            } else if (ring.remaining() == 0) {
+                // A read that makes room wakes the selector; checkDevices() resumes reading
+                paused = true;
+                pauseCount++;
+                key.interestOps(0);
+            }
+        }
+
+        private void updateRate(long bytesRead, long now) {
+            windowBytes += bytesRead;
+            long elapsed = now - windowStartNs;
+            if (elapsed >= RATE_WINDOW_NS) {
+                bytesPerSecond = windowBytes * 1e9 / elapsed;
+                windowBytes = 0;
+                windowStartNs = now;
+            }
+        }
+
+        // No more data from this device; a failure is kept unless the device was closed
+        private void end(IOException e) {
+            if (e != null && !closed && failure == null) {
+                failure = e;
+            }
+            running = false;
+            ring.close();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Nothing left to do with it
+            }
+        }
+
+        // Disconnect and forget this device; buffered audio can still be read
+        public void close() {
+            closed = true;
+            end(null);
+            devices.remove(this);
+            MetricsRegistry registry = metrics;
+            if (registry != null) {
+                unregisterMetrics(registry);
+            }
+            selector.wakeup();
+        }
+
+        @Override
+        public int read(byte[] dst, int offset, int length, long timeoutMs) throws IOException, InterruptedException {
+            int bytesRead = ring.read(dst, offset, length, timeoutMs);
+            if (bytesRead > 0 && paused) {
+                selector.wakeup();
+            }
+            if (bytesRead < 0 && failure != null) {
+                throw failure;
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public long takeGapBytes() {
+            return 0;
+        }
+
+        // Drop audio that was buffered before the caller was interested in it
+        public void discardBuffered() {
+            ring.clear();
+            if (paused) {
+                selector.wakeup();
+            }
+        }
+
+        private void registerMetrics(MetricsRegistry registry) {
+            String prefix = "ingest." + name + ".";
+            registry.gauge(prefix + "bytes", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return totalBytes;
+                }
+            });
+            registry.gauge(prefix + "bytes_per_s", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return Math.round(bytesPerSecond);
+                }
+            });
+            registry.gauge(prefix + "buffered_bytes", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return ring.available();
+                }
+            });
+            registry.gauge(prefix + "stalls", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return stallCount;
+                }
+            });
+            registry.gauge(prefix + "pauses", new Gauge.Reader() {
+                @Override
+                public long read() {
+                    return pauseCount;
+                }
+            });
+        }
+
+        private void unregisterMetrics(MetricsRegistry registry) {
+            String prefix = "ingest." + name + ".";
+            for (String metric : new String[] {"bytes", "bytes_per_s", "buffered_bytes", "stalls", "pauses"}) {
+                registry.remove(prefix + metric);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isConnected() {
+            return connected;
+        }
+
+        // False once the stream ended, failed or the device was closed
+        public boolean isRunning() {
+            return running;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        // Channel reads that returned data
+        public long getReadCount() {
+            return readCount;
+        }
+
+        public int getStallCount() {
+            return stallCount;
+        }
+
+        // How often the ring filled up and reading paused until the reader caught up
+        public int getPauseCount() {
+            return pauseCount;
+        }
+
+        // Throughput over the last completed one second window
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public int getBufferedBytes() {
+            return ring.available();
+        }
+
+        public IOException getFailure() {
+            return failure;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.example.moodproject.audio;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Lines up the audio of several devices on the phone's clock for joint analysis. Every
+// device counts samples from when its stream started, so the aligner estimates for each
+// one the host time at which its sample 0 was recorded: the arrival time of a chunk
+// minus the audio in it. Network delay only ever makes audio arrive later, so the
+// smallest estimate is the best, and taking it over a sliding window of a few seconds
+// also follows slow drift between the device clocks and the phone's.
+//
+// read() hands out windows covering the same span of host time from every device. A
+// window is ready once every device has delivered audio past its end; a device more
+// than maxLagMs behind, stalled or not started yet, gets silence there instead so the
+// others keep going. Within ALIGN_TOLERANCE_MS a device's windows stay contiguous;
+// beyond it (its estimate improved, or the clocks drifted) it is moved to its new
+// position, skipping or repeating that much audio.
+//
+// Writers are the devices' capture consumers, each on its own thread; read() is meant
+// for a single analysis thread.
+public class StreamAligner {
+
+    private static final long OFFSET_WINDOW_NS = 5_000_000_000L;
+    private static final int ALIGN_TOLERANCE_MS = 2;
+
+    private final int sampleRate;
+    private final int windowSamples;
+    private final long maxLagNs;
+    private final int toleranceSamples;
+    private final Input[] inputs;
+    private final Object lock = new Object();
+
+    // Host time of the first window and the number of windows read so far
+    private boolean started;
+    private long firstWindowNs;
+    private long windowCount;
+    private long lastWindowNs;
+
+    // One device: its samples in a ring indexed by device sample position
+    private static class Input {
+        final short[] ring;
+        final int mask;
+        long firstSample = -1;
+        long writeSample;
+        boolean closed;
+
+        // Host time of sample 0: minimum over the current and the previous offset window
+        boolean hasOffset;
+        long offsetNs;
+        long windowMinNs;
+        long previousMinNs;
+        long windowStartNs;
+
+        // Next sample to hand out, once the device has been placed
+        boolean placed;
+        long cursor;
+
+        long missingSamples;
+        long lostSamples;
+        long adjustments;
+
+        Input(int capacity) {
+            ring = new short[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    // bufferSamples per device is a power of two, enough for maxLagMs plus a window
+    // or two; audio older than that is lost if read() falls behind
+    public StreamAligner(int deviceCount, int sampleRate, int windowSamples, int bufferSamples, long maxLagMs) {
+        if (bufferSamples <= 0 || Integer.bitCount(bufferSamples) != 1) {
+            throw new IllegalArgumentException("Buffer must be a power of two: " + bufferSamples);
+        }
+        if (windowSamples > bufferSamples) {
+            throw new IllegalArgumentException("Window larger than the buffer");
+        }
+        this.sampleRate = sampleRate;
+        this.windowSamples = windowSamples;
+        this.maxLagNs = maxLagMs * 1_000_000L;
+        this.toleranceSamples = sampleRate * ALIGN_TOLERANCE_MS / 1000;
+        this.inputs = new Input[deviceCount];
+        for (int i = 0; i < deviceCount; i++) {
+            inputs[i] = new Input(bufferSamples);
+        }
+    }
+
+    // Consumer feeding a capture session's chunks in as the given device
+    public ChunkConsumer input(final int device) {
+        return new ChunkConsumer() {
+            @Override
+            public void accept(AudioChunk chunk) {
+                write(device, chunk.getStartByte() / 2, chunk.getData(), 0, chunk.getLength(),
+                        chunk.getCaptureTimeNs());
+            }
+
+            @Override
+            public void close() throws IOException {
+                finish(device);
+            }
+        };
+    }
+
+    // 16-bit little endian audio of a device starting at its sample startSample, whose
+    // last byte arrived at arrivalNs (System.nanoTime())
+    public void write(int device, long startSample, byte[] pcm, int offset, int length, long arrivalNs) {
+        int samples = length / 2;
+        long endSample = startSample + samples;
+        synchronized (lock) {
+            Input input = inputs[device];
+            updateOffset(input, arrivalNs - Math.round(endSample * 1e9 / sampleRate), arrivalNs);
+            if (input.firstSample < 0) {
+                input.firstSample = startSample;
+                input.writeSample = startSample;
+            }
+            // A gap reads as silence rather than as whatever the ring held before
+            for (long s = input.writeSample; s < startSample && s < input.writeSample + input.ring.length; s++) {
+                input.ring[(int) (s & input.mask)] = 0;
+            }
+            for (int i = 0; i < samples; i++) {
+                int at = offset + 2 * i;
+                input.ring[(int) ((startSample + i) & input.mask)] = (short) ((pcm[at] & 0xFF) | (pcm[at + 1] << 8));
+            }
+            input.writeSample = Math.max(input.writeSample, endSample);
+            lock.notifyAll();
+        }
+    }
+
+    // The device will send no more audio
+    public void finish(int device) {
+        synchronized (lock) {
+            inputs[device].closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    private static void updateOffset(Input input, long estimateNs, long nowNs) {
+        if (!input.hasOffset) {
+            input.hasOffset = true;
+            input.windowMinNs = estimateNs;
+            input.previousMinNs = estimateNs;
+            input.windowStartNs = nowNs;
+        } else if (nowNs - input.windowStartNs >= OFFSET_WINDOW_NS) {
+            input.previousMinNs = input.windowMinNs;
+            input.windowMinNs = estimateNs;
+            input.windowStartNs = nowNs;
+        } else {
+            input.windowMinNs = Math.min(input.windowMinNs, estimateNs);
+        }
+        input.offsetNs = Math.min(input.windowMinNs, input.previousMinNs);
+    }
+
+    // Fill window[device][0, windowSamples) for every device with the next aligned
+    // window, waiting at most timeoutMs. Returns windowSamples, 0 on timeout, or -1 once
+    // every device has finished and its audio has been read.
+    public int read(short[][] window, long timeoutMs) throws InterruptedException {
+        synchronized (lock) {
+            long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+            while (true) {
+                long now = System.nanoTime();
+                long wakeNs = deadline;
+                if (started || start()) {
+                    long startNs = windowStartNs(windowCount);
+                    long endNs = windowStartNs(windowCount + 1);
+                    if (exhausted(startNs)) {
+                        return -1;
+                    }
+                    if (ready(startNs) || now - endNs >= maxLagNs) {
+                        for (int i = 0; i < inputs.length; i++) {
+                            copyWindow(inputs[i], startNs, window[i]);
+                        }
+                        lastWindowNs = startNs;
+                        windowCount++;
+                        return windowSamples;
+                    }
+                    // Not all there yet: wait for audio, but only until the window is overdue
+                    wakeNs = Math.min(deadline, endNs + maxLagNs);
+                } else if (allClosed()) {
+                    return -1;
+                }
+                if (now >= deadline) {
+                    return 0;
+                }
+                long waitNs = Math.max(1, wakeNs - now);
+                lock.wait(waitNs / 1_000_000L, (int) (waitNs % 1_000_000L));
+            }
+        }
+    }
+
+    // The first window starts with the earliest device's first sample
+    private boolean start() {
+        boolean any = false;
+        long earliest = Long.MAX_VALUE;
+        for (Input input : inputs) {
+            if (input.hasOffset) {
+                any = true;
+                earliest = Math.min(earliest, hostTimeNs(input, input.firstSample));
+            }
+        }
+        if (any) {
+            started = true;
+            firstWindowNs = earliest;
+        }
+        return any;
+    }
+
+    private long windowStartNs(long index) {
+        return firstWindowNs + Math.round(index * windowSamples * 1e9 / sampleRate);
+    }
+
+    private long hostTimeNs(Input input, long sample) {
+        return input.offsetNs + Math.round(sample * 1e9 / sampleRate);
+    }
+
+    // Device sample recorded at host time timeNs
+    private long sampleAt(Input input, long timeNs) {
+        return (long) Math.floor((timeNs - input.offsetNs) * (double) sampleRate / 1e9);
+    }
+
+    // Where the device's window starting at startNs begins: its cursor if that is
+    // still close enough, otherwise where its current offset puts it
+    private long windowStart(Input input, long startNs) {
+        long target = sampleAt(input, startNs);
+        if (input.placed && Math.abs(input.cursor - target) <= toleranceSamples) {
+            return input.cursor;
+        }
+        return target;
+    }
+
+    private boolean ready(long startNs) {
+        for (Input input : inputs) {
+            if (input.closed) {
+                continue;
+            }
+            if (!input.hasOffset || windowStart(input, startNs) + windowSamples > input.writeSample) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean allClosed() {
+        for (Input input : inputs) {
+            if (!input.closed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Every device finished and none has audio left from startNs on
+    private boolean exhausted(long startNs) {
+        for (Input input : inputs) {
+            if (!input.closed || (input.hasOffset && windowStart(input, startNs) < input.writeSample)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void copyWindow(Input input, long startNs, short[] dst) {
+        if (!input.hasOffset) {
+            Arrays.fill(dst, 0, windowSamples, (short) 0);
+            input.missingSamples += windowSamples;
+            return;
+        }
+        long start = windowStart(input, startNs);
+        if (input.placed && start != input.cursor) {
+            input.adjustments++;
+        }
+        input.placed = true;
+        long oldest = Math.max(input.firstSample, input.writeSample - input.ring.length);
+        for (int i = 0; i < windowSamples; i++) {
+            long s = start + i;
+            if (s >= input.writeSample || s < input.firstSample) {
+                dst[i] = 0;
+                input.missingSamples++;
+            } else if (s < oldest) {
+                dst[i] = 0;
+                input.lostSamples++;
+            } else {
+                dst[i] = input.ring[(int) (s & input.mask)];
+            }
+        }
+        input.cursor = start + windowSamples;
+    }
+
+    public int getWindowSamples() {
+        return windowSamples;
+    }
+
+    // Host time (System.nanoTime()) of the first sample of the window read last
+    public long getWindowStartNs() {
+        synchronized (lock) {
+            return lastWindowNs;
+        }
+    }
+
+    // Estimated host time of the device's sample 0, or 0 before it sent anything
+    public long getOffsetNs(int device) {
+        synchronized (lock) {
+            return inputs[device].offsetNs;
+        }
+    }
+
+    // Samples filled with silence because the device had not delivered them in time
+    public long getMissingSamples(int device) {
+        synchronized (lock) {
+            return inputs[device].missingSamples;
+        }
+    }
+
+    // Samples overwritten before read() got to them
+    public long getLostSamples(int device) {
+        synchronized (lock) {
+            return inputs[device].lostSamples;
+        }
+    }
+
+    // How often the device was moved to follow its offset estimate
+    public long getAdjustments(int device) {
+        synchronized (lock) {
+            return inputs[device].adjustments;
+        }
+    }
+}
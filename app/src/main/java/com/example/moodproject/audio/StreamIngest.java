@@ -0,0 +1,163 @@
+package com.example.moodproject.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+// Reads the ESP32 audio stream on a dedicated thread into a preallocated ring.
+// Socket reads block with SO_TIMEOUT instead of polling available(); every read
+// that times out without data counts as a stall.
+public class StreamIngest implements Runnable, IngestSource {
+
+    private static final long RATE_WINDOW_NS = 1_000_000_000L;
+
+    private final Socket socket;
+    private final ByteRingBuffer ring;
+    private final int readTimeoutMs;
+
+    private Thread thread;
+    private volatile boolean running;
+    private volatile IOException failure;
+
+    // Written only by the ingest thread
+    private volatile long totalBytes;
+    private volatile int stallCount;
+    private volatile double bytesPerSecond;
+    private volatile long firstDataNs;
+    private volatile long lastDataNs;
+    private long windowStartNs;
+    private long windowBytes;
+
+    public StreamIngest(Socket socket, int bufferBytes, int readTimeoutMs) {
+        this.socket = socket;
+        this.ring = new ByteRingBuffer(bufferBytes);
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("Ingest already started");
+        }
+        socket.setSoTimeout(readTimeoutMs);
+        running = true;
+        thread = new Thread(this, "StreamIngest");
+        thread.start();
+    }
+
+    // Ask the ingest thread to finish; it exits within one read timeout.
+    // Data already in the ring can still be drained with read().
+    public void stop() {
+        running = false;
+        ring.close();
+    }
+
+    @Override
+    public void run() {
+        windowStartNs = System.nanoTime();
+        try {
+            InputStream inputStream = socket.getInputStream();
+            while (running) {
+                int bytesRead;
+                try {
+                    bytesRead = ring.readFrom(inputStream);
+                } catch (SocketTimeoutException e) {
+                    stallCount++;
+                    updateRate(0);
+                    continue;
+                }
+
+                if (bytesRead < 0) {
+                    break; // ESP32 closed the stream
+                }
+                if (bytesRead == 0) {
+                    // Consumer is behind, let TCP flow control push back on the sender
+                    ring.awaitSpace(readTimeoutMs);
+                    continue;
+                }
+                lastDataNs = System.nanoTime();
+                if (totalBytes == 0) {
+                    firstDataNs = lastDataNs;
+                }
+                totalBytes += bytesRead;
+                updateRate(bytesRead);
+            }
+        } catch (IOException e) {
+            if (running) {
+                failure = e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            ring.close();
+        }
+    }
+
+    // Read buffered audio, waiting at most timeoutMs for some to arrive.
+    // Returns the bytes copied, 0 on timeout, or -1 once the stream has ended.
+    @Override
+    public int read(byte[] dst, int offset, int length, long timeoutMs) throws IOException, InterruptedException {
+        int bytesRead = ring.read(dst, offset, length, timeoutMs);
+        if (bytesRead < 0 && failure != null) {
+            throw failure;
+        }
+        return bytesRead;
+    }
+
+    // A single connection has no gaps of its own
+    @Override
+    public long takeGapBytes() {
+        return 0;
+    }
+
+    // Drop audio that was buffered before the caller was interested in it
+    public void discardBuffered() {
+        ring.clear();
+    }
+
+    private void updateRate(int bytesRead) {
+        windowBytes += bytesRead;
+        long now = System.nanoTime();
+        long elapsed = now - windowStartNs;
+        if (elapsed >= RATE_WINDOW_NS) {
+            bytesPerSecond = windowBytes * 1e9 / elapsed;
+            windowBytes = 0;
+            windowStartNs = now;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    // System.nanoTime() when the first and the latest data arrived, 0 before any did
+    public long getFirstDataNs() {
+        return firstDataNs;
+    }
+
+    public long getLastDataNs() {
+        return lastDataNs;
+    }
+
+    public int getStallCount() {
+        return stallCount;
+    }
+
+    // Throughput over the last completed one second window
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public int getBufferedBytes() {
+        return ring.available();
+    }
+
+    public IOException getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.moodproject.batch;
+
+import com.example.moodproject.audio.FeatureAnalyzer;
+import com.example.moodproject.dsp.FeatureExtractor;
+import com.example.moodproject.dsp.MfccExtractor;
+import com.example.moodproject.dsp.MoodClassifier;
+import com.example.moodproject.dsp.MoodModel;
+import com.example.moodproject.dsp.MoodWindow;
+import com.example.moodproject.dsp.PolyphaseResampler;
+import com.example.moodproject.dsp.VoiceActivityDetector;
+import com.example.moodproject.metrics.Histogram;
+import com.example.moodproject.store.FeatureCache;
+import com.example.moodproject.store.RecordingStore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+// Command line entry point for re-scoring the archive on a plain JVM, e.g. a Linux
+// box with a copy of the app's recordings directory:
+//
+//   ./gradlew :app:reanalyze --args="<recordings dir> <mood model> [threads]"
+//
+// Analysis matches the app's live path (Dashboard): voice gated, resampled to 16 kHz,
+// 512/256 frames, one mood per second. The run is keyed by the feature version, this
+// configuration and the model's checksum, so rerunning after an interruption resumes,
+// and rerunning with a new model starts over, scoring the window features cached
+// by earlier runs instead of analysing the audio again.
+public class BatchAnalysisJob {
+
+    static final String CHECKPOINT_FILE = "reanalysis.ckpt";
+
+    private static final int ANALYSIS_RATE = 16000;
+    private static final int FEATURE_FRAME_SIZE = 512;
+    private static final int FEATURE_HOP_SIZE = 256;
+    private static final int MOOD_WINDOW_MS = 1000;
+    private static final int VAD_FRAME_SIZE = 512;
+    private static final int VAD_HANGOVER_MS = 300;
+    // Cached windows the classifier scores at a time
+    private static final int SCORE_BATCH = 32;
+    private static final long CACHE_MEMORY_BYTES = 64L * 1024 * 1024;
+    private static final long CACHE_DISK_BYTES = 1024L * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchAnalysisJob <recordings dir> <mood model> [threads]");
+            System.exit(2);
+        }
+        File directory = new File(args[0]);
+        File modelFile = new File(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        MoodModel model = MoodModel.load(modelFile);
+        RecordingStore store = RecordingStore.open(directory);
+        Checkpoint checkpoint = Checkpoint.open(new File(directory, CHECKPOINT_FILE), runKey(modelFile));
+        final BatchAnalyzer batch = new BatchAnalyzer(store, factory(model), checkpoint, threads);
+        Histogram recordingTimes = new Histogram();
+        batch.setRecordingTimer(recordingTimes);
+        FeatureCache cache = FeatureCache.open(new File(directory, FeatureCache.DIRECTORY),
+                CACHE_MEMORY_BYTES, CACHE_DISK_BYTES);
+        batch.useCache(cache);
+        // Ctrl-C lets the recordings under way finish; the checkpoint has the rest
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                batch.stop();
+            }
+        }));
+
+        System.out.println((checkpoint.isResumed() ? "Resuming " : "Starting ") + checkpoint.getRunKey()
+                + ": " + store.getCount() + " recordings, " + checkpoint.getDoneCount() + " done, "
+                + threads + " threads");
+        boolean complete;
+        try {
+            complete = batch.run();
+        } finally {
+            checkpoint.close();
+            store.close();
+        }
+        System.out.println(String.format(Locale.US,
+                "%s: %d analysed, %d skipped, %d failed in %.1f s; %.1f files/s, %.0fx real time, p50 %d ms, p99 %d ms",
+                complete ? "Done" : "Stopped", batch.getAnalyzedCount(), batch.getSkippedCount(),
+                batch.getFailedCount(), batch.getElapsedNs() / 1e9, batch.getFilesPerSecond(),
+                batch.getRealTimeFactor(), recordingTimes.getPercentile(0.5) / 1_000_000,
+                recordingTimes.getPercentile(0.99) / 1_000_000));
+        System.out.println(String.format(Locale.US,
+                "Feature cache: %d of %d from cache, %.0f%% hit rate, %d MB on disk", batch.getCachedCount(), batch.getAnalyzedCount(), cache.getHitRate() * 100,
+                cache.getDiskBytes() / (1024 * 1024)));
+        if (batch.getFirstFailure() != null) {
+            System.out.println("First failure: " + batch.getFirstFailure());
+        }
+        System.exit(batch.getFailedCount() > 0 ? 1 : 0);
+    }
+
+    static BatchAnalyzer.Factory factory(final MoodModel model) {
+        return new BatchAnalyzer.Factory() {
+            @Override
+            public FeatureAnalyzer createAnalyzer(int sampleRate) {
+                FeatureAnalyzer analyzer = new FeatureAnalyzer(
+                        new FeatureExtractor(ANALYSIS_RATE, FEATURE_FRAME_SIZE, FEATURE_HOP_SIZE),
+                        new MfccExtractor(ANALYSIS_RATE, FEATURE_FRAME_SIZE, FEATURE_HOP_SIZE),
+                        new MoodClassifier(model, SCORE_BATCH),
+                        MoodWindow.framesFor(ANALYSIS_RATE, FEATURE_HOP_SIZE, MOOD_WINDOW_MS));
+                if (sampleRate != ANALYSIS_RATE) {
+                    analyzer.useResampler(new PolyphaseResampler(sampleRate, ANALYSIS_RATE));
+                }
+                return analyzer;
+            }
+
+            @Override
+            public VoiceActivityDetector createDetector(int sampleRate) {
+                return new VoiceActivityDetector(sampleRate, VAD_FRAME_SIZE, VAD_HANGOVER_MS);
+            }
+        };
+    }
+
+    // What the stored moods depend on
+    static String runKey(File modelFile) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(modelFile)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return String.format(Locale.US, "features v%d %d/%d/%d, window v%d, model %08x", FeatureExtractor.VERSION,
+                ANALYSIS_RATE, FEATURE_FRAME_SIZE, FEATURE_HOP_SIZE, FeatureAnalyzer.WINDOW_VERSION, crc.getValue());
+    }
+}
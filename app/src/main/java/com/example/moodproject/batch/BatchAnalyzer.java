@@ -0,0 +1,245 @@
+package com.example.moodproject.batch;
+
+import com.example.moodproject.audio.FeatureAnalyzer;
+import com.example.moodproject.dsp.VoiceActivityDetector;
+import com.example.moodproject.metrics.Histogram;
+import com.example.moodproject.store.FeatureCache;
+import com.example.moodproject.store.RecordingAudio;
+import com.example.moodproject.store.RecordingEntry;
+import com.example.moodproject.store.RecordingStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Re-analyses every recording in a RecordingStore on all cores and stores the mood it
+// scores with each, e.g. after a new feature set or model ships. The recordings are
+// shared out by a ForkJoinPool: the list is halved recursively down to single
+// recordings, so a worker that runs out steals half of what another has left, and a
+// few long recordings don't leave the other cores idle the way a fixed split would.
+//
+// Each recording is read from its memory-mapped segment in capture sized chunks and
+// goes through the same path as live capture: voice activity gating, then the feature
+// analyzer. Workers only share the store and the checkpoint, so the run scales with
+// cores until the disk, not the CPU, is the limit.
+//
+// With a FeatureCache, the window features of each recording are kept, so scoring the
+// archive with a new model only runs the classifier again, over whole batches of
+// windows; a new feature version or setting misses the cache and analyses the audio.
+//
+// Every recording finished is written to the checkpoint, and a run with the same
+// checkpoint skips those, so an interrupted run resumes where it stopped. A recording
+// that fails is counted and left out of the checkpoint, to be retried next run.
+public class BatchAnalyzer {
+
+    // Samples per chunk, as CaptureSession hands them to the analyzer live
+    public static final int CHUNK_SAMPLES = 2048;
+
+    // Analysis for one recording, created on the worker that takes it
+    public interface Factory {
+        FeatureAnalyzer createAnalyzer(int sampleRate);
+
+        // Gate like the live path's, or null to analyse every chunk
+        VoiceActivityDetector createDetector(int sampleRate);
+    }
+
+    private final RecordingStore store;
+    private final Factory factory;
+    private final Checkpoint checkpoint;
+    private final int parallelism;
+    private Histogram recordingTimer;
+    private FeatureCache cache;
+
+    private final AtomicLong analyzed = new AtomicLong();
+    private final AtomicLong cached = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong audioMs = new AtomicLong();
+    private final AtomicReference<Exception> firstFailure = new AtomicReference<>();
+    private volatile boolean stopped;
+    private long elapsedNs;
+
+    public BatchAnalyzer(RecordingStore store, Factory factory, Checkpoint checkpoint, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Bad parallelism " + parallelism);
+        }
+        this.store = store;
+        this.factory = factory;
+        this.checkpoint = checkpoint;
+        this.parallelism = parallelism;
+    }
+
+    // Record the time taken by each recording analysed; set before run()
+    public void setRecordingTimer(Histogram recordingTimer) {
+        this.recordingTimer = recordingTimer;
+    }
+
+    // Reuse and keep window features in cache; set before run()
+    public void useCache(FeatureCache cache) {
+        this.cache = cache;
+    }
+
+    // Analyse every recording in the store not yet in the checkpoint. Returns true if
+    // the run got through all of them, false if it was stopped first.
+    public boolean run() throws IOException {
+        List<RecordingEntry> entries = new ArrayList<>();
+        for (int i = 0; i < store.getCount(); i++) {
+            RecordingEntry entry = store.get(i);
+            if (checkpoint.isDone(entry.sessionId, entry.startMillis)) {
+                skipped.incrementAndGet();
+            } else {
+                entries.add(entry);
+            }
+        }
+
+        long startNs = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Span(entries, 0, entries.size()));
+        } finally {
+            pool.shutdown();
+            elapsedNs = System.nanoTime() - startNs;
+            store.force();
+        }
+        return !stopped;
+    }
+
+    // Finish the recordings under way and skip the rest; callable from any thread
+    public void stop() {
+        stopped = true;
+    }
+
+    // A range of the recordings to analyse, split in half until one is left
+    private final class Span extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<RecordingEntry> entries;
+        private final int from;
+        private final int to;
+
+        Span(List<RecordingEntry> entries, int from, int to) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Span(entries, from, middle), new Span(entries, middle, to));
+            } else if (to > from && !stopped) {
+                RecordingEntry entry = entries.get(from);
+                try {
+                    analyze(entry);
+                } catch (IOException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    firstFailure.compareAndSet(null, e);
+                }
+            }
+        }
+    }
+
+    private void analyze(RecordingEntry entry) throws IOException {
+        long startNs = System.nanoTime();
+        RecordingAudio audio = store.openAudio(entry);
+        FeatureAnalyzer analyzer = factory.createAnalyzer(entry.sampleRate);
+        VoiceActivityDetector detector = factory.createDetector(entry.sampleRate);
+        String key = null;
+        FeatureCache.Collector windows = null;
+        if (cache != null && analyzer.getWindowVectorSize() > 0) {
+            key = FeatureCache.key(store.mapAudio(entry), FeatureCache.configKey(analyzer, detector));
+            float[] features = cache.get(key);
+            if (features != null) {
+                analyzer.scoreWindows(features, 0, features.length / analyzer.getWindowVectorSize());
+                cached.incrementAndGet();
+                finish(entry, analyzer, audio.getSampleCount(), startNs);
+                return;
+            }
+            windows = new FeatureCache.Collector();
+            analyzer.setWindowListener(windows);
+        }
+
+        short[] chunk = new short[CHUNK_SAMPLES];
+        byte[] pcm = new byte[2 * CHUNK_SAMPLES];
+        long position = 0;
+        int count;
+        while ((count = audio.read(position, chunk, 0, chunk.length)) > 0) {
+            for (int i = 0; i < count; i++) {
+                pcm[2 * i] = (byte) chunk[i];
+                pcm[2 * i + 1] = (byte) (chunk[i] >> 8);
+            }
+            if (detector == null || detector.process(pcm, 0, 2 * count)) {
+                analyzer.offer(pcm, 0, 2 * count);
+            }
+            position += count;
+        }
+        if (key != null) {
+            cache.put(key, windows.toArray());
+        }
+        finish(entry, analyzer, position, startNs);
+    }
+
+    private void finish(RecordingEntry entry, FeatureAnalyzer analyzer, long samplesRead, long startNs)
+            throws IOException {
+        int mood = analyzer.getDominantMood();
+        store.setMood(entry, mood < 0 ? RecordingEntry.NO_MOOD : mood, analyzer.getDominantMoodShare());
+        checkpoint.markDone(entry.sessionId, entry.startMillis);
+        analyzed.incrementAndGet();
+        samples.addAndGet(samplesRead);
+        audioMs.addAndGet(entry.durationMs);
+        if (recordingTimer != null) {
+            recordingTimer.recordSince(startNs);
+        }
+    }
+
+    // Recordings analysed by the last run()
+    public long getAnalyzedCount() {
+        return analyzed.get();
+    }
+
+    // Recordings scored from cached features, included in getAnalyzedCount()
+    public long getCachedCount() {
+        return cached.get();
+    }
+
+    // Recordings the checkpoint already had
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    // First failure of the run, or null
+    public Exception getFirstFailure() {
+        return firstFailure.get();
+    }
+
+    public long getSamplesAnalyzed() {
+        return samples.get();
+    }
+
+    public long getElapsedNs() {
+        return elapsedNs;
+    }
+
+    public double getFilesPerSecond() {
+        return elapsedNs == 0 ? 0 : analyzed.get() * 1e9 / elapsedNs;
+    }
+
+    // Seconds of audio analysed per second of run time
+    public double getRealTimeFactor() {
+        return elapsedNs == 0 ? 0 : audioMs.get() * 1e6 / elapsedNs;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+}
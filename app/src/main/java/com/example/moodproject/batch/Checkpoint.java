@@ -0,0 +1,117 @@
+package com.example.moodproject.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.util.HashSet;
+import java.util.Set;
+
+// Progress of a batch run in an append-only file: a header naming the run, then one
+// record (session, start) per recording finished. Opening it again with the same run
+// key resumes the run; any other key means the results no longer apply, and the file
+// is started over. A record cut short by a crash is dropped on open.
+//
+// Layout, big endian: int magic "BCKP", UTF run key, then long session, long start
+// per record. Records are appended and flushed one at a time, from any thread.
+public class Checkpoint {
+
+    static final int MAGIC = 0x42434b50; // "BCKP"
+    private static final int RECORD_BYTES = 16;
+
+    private final File file;
+    private final String runKey;
+    private final Set<String> done = new HashSet<>();
+    private final boolean resumed;
+    private DataOutputStream out;
+
+    public static Checkpoint open(File file, String runKey) throws IOException {
+        return new Checkpoint(file, runKey);
+    }
+
+    private Checkpoint(File file, String runKey) throws IOException {
+        this.file = file;
+        this.runKey = runKey;
+        long validBytes = file.exists() ? load() : -1;
+        resumed = validBytes >= 0;
+        if (resumed) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validBytes);
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        } else {
+            done.clear();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.write(header(runKey));
+            out.flush();
+        }
+    }
+
+    // Read the records of a checkpoint for this run; returns the bytes up to the last
+    // whole record, or -1 if the file belongs to another run or is not a checkpoint
+    private long load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(runKey)) {
+                return -1;
+            }
+            long position = header(runKey).length;
+            long remaining = file.length() - position;
+            for (long i = 0; i < remaining / RECORD_BYTES; i++) {
+                done.add(key(in.readLong(), in.readLong()));
+            }
+            return position + remaining / RECORD_BYTES * RECORD_BYTES;
+        } catch (EOFException | UTFDataFormatException e) {
+            return -1; // header cut short or not ours
+        }
+    }
+
+    public synchronized boolean isDone(long sessionId, long startMillis) {
+        return done.contains(key(sessionId, startMillis));
+    }
+
+    // Record a recording as finished; it is in the file when this returns
+    public synchronized void markDone(long sessionId, long startMillis) throws IOException {
+        if (done.add(key(sessionId, startMillis))) {
+            out.writeLong(sessionId);
+            out.writeLong(startMillis);
+            out.flush();
+        }
+    }
+
+    public synchronized int getDoneCount() {
+        return done.size();
+    }
+
+    // True if an earlier run with this key was picked up rather than started afresh
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public String getRunKey() {
+        return runKey;
+    }
+
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private static byte[] header(String runKey) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeUTF(runKey);
+        return bytes.toByteArray();
+    }
+
+    private static String key(long sessionId, long startMillis) {
+        return sessionId + "/" + startMillis;
+    }
+}
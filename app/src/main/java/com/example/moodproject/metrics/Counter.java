@@ -0,0 +1,22 @@
+package com.example.moodproject.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// A count that only goes up. Increments from many threads do not contend on one
+// memory location, so it is cheap enough for per-read and per-frame events.
+public class Counter {
+
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
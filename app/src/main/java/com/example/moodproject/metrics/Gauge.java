@@ -0,0 +1,33 @@
+package com.example.moodproject.metrics;
+
+// A value that goes up and down. Either set by whoever owns the value, or read on
+// demand from a Reader, which keeps the hot path free of any metrics code at all
+// when the value is already kept somewhere (a queue depth, a rate).
+public class Gauge {
+
+    public interface Reader {
+        long read();
+    }
+
+    private final Reader reader;
+    private volatile long value;
+
+    public Gauge() {
+        this(null);
+    }
+
+    public Gauge(Reader reader) {
+        this.reader = reader;
+    }
+
+    public void set(long value) {
+        if (reader != null) {
+            throw new IllegalStateException("Gauge is read from its source");
+        }
+        this.value = value;
+    }
+
+    public long get() {
+        return reader != null ? reader.read() : value;
+    }
+}
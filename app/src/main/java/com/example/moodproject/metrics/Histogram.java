@@ -0,0 +1,105 @@
+package com.example.moodproject.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Distribution of non-negative values, typically latencies in nanoseconds, in fixed
+// log-linear buckets like HdrHistogram: every power of two is split into 16 buckets,
+// so a percentile is within 1/16 (6.25%) of the true value. Values up to 2^40
+// (about 18 minutes in ns) have buckets of their own, larger ones share the last.
+// Recording is a few atomic adds with no locks and no allocation; reads see a
+// slightly moving picture while recording goes on, which is fine for monitoring.
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SHIFT = 40 - SUB_BUCKET_BITS;
+    static final int BUCKETS = (MAX_SHIFT + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    // Record the same value `times` times, e.g. the average of a batch for each item in it
+    public void record(long value, long times) {
+        if (times <= 0) {
+            return;
+        }
+        value = Math.max(0, value);
+        counts.addAndGet(bucketOf(value), times);
+        count.addAndGet(times);
+        sum.addAndGet(value * times);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Lost a race with another larger value; try again against it
+        }
+    }
+
+    // Time since startNs, from System.nanoTime()
+    public void recordSince(long startNs) {
+        record(System.nanoTime() - startNs);
+    }
+
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Math.min(63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS, MAX_SHIFT);
+        return (shift << SUB_BUCKET_BITS) + (int) Math.min(value >>> shift, 2 * SUB_BUCKETS - 1);
+    }
+
+    // Largest value that falls into bucket
+    static long upperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long mantissa = (bucket & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n > 0 ? sum.get() / (double) n : 0;
+    }
+
+    // Value below which the given fraction (0 to 1) of recorded values fall, as the
+    // upper edge of its bucket but never above the largest value seen
+    public long getPercentile(double fraction) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(upperBound(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(bucket, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
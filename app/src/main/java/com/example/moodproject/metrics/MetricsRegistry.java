@@ -0,0 +1,105 @@
+package com.example.moodproject.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Named counters, gauges and histograms. Components keep a reference to the metric
+// they update, so the registry is only touched when wiring things up and when taking
+// a snapshot, never on the hot path. Names are dotted, e.g. "capture.persist.ns";
+// histograms of names ending in ".ns" are printed in microseconds.
+public class MetricsRegistry {
+
+    private final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+    public Counter counter(String name) {
+        return getOrAdd(name, Counter.class, new Counter());
+    }
+
+    public Gauge gauge(String name) {
+        return getOrAdd(name, Gauge.class, new Gauge());
+    }
+
+    public Histogram histogram(String name) {
+        return getOrAdd(name, Histogram.class, new Histogram());
+    }
+
+    // A gauge read from its source at snapshot time; replaces an earlier one of the same name
+    public Gauge gauge(String name, Gauge.Reader reader) {
+        Gauge gauge = new Gauge(reader);
+        metrics.put(name, gauge);
+        return gauge;
+    }
+
+    // Publish a histogram kept by a component, e.g. a pipeline stage's service times,
+    // replacing an earlier one of the same name
+    public void register(String name, Histogram histogram) {
+        metrics.put(name, histogram);
+    }
+
+    public void remove(String name) {
+        metrics.remove(name);
+    }
+
+    private <T> T getOrAdd(String name, Class<T> type, T created) {
+        Object existing = metrics.get(name);
+        if (existing == null) {
+            existing = metrics.putIfAbsent(name, created);
+            if (existing == null) {
+                return created;
+            }
+        }
+        if (!type.isInstance(existing)) {
+            throw new IllegalArgumentException(name + " is already a " + existing.getClass().getSimpleName());
+        }
+        return type.cast(existing);
+    }
+
+    // Every metric on a line of its own, sorted by name
+    public String snapshot() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            String name = entry.getKey();
+            Object metric = entry.getValue();
+            out.append(name).append(' ');
+            if (metric instanceof Counter) {
+                out.append(((Counter) metric).get());
+            } else if (metric instanceof Gauge) {
+                out.append(((Gauge) metric).get());
+            } else {
+                appendHistogram(out, (Histogram) metric, name.endsWith(".ns"));
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void appendHistogram(StringBuilder out, Histogram histogram, boolean nanos) {
+        double scale = nanos ? 1e-3 : 1;
+        String unit = nanos ? "us" : "";
+        out.append("n=").append(histogram.getCount())
+                .append(String.format(Locale.US, " mean=%.1f%s", histogram.getMean() * scale, unit))
+                .append(" p50=").append(Math.round(histogram.getPercentile(0.5) * scale)).append(unit)
+                .append(" p99=").append(Math.round(histogram.getPercentile(0.99) * scale)).append(unit)
+                .append(" max=").append(Math.round(histogram.getMax() * scale)).append(unit);
+    }
+
+    // Replace file with a timestamped snapshot. It is written next to the file first
+    // and renamed over it, so a reader never sees half a snapshot.
+    public void writeSnapshot(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+            out.write("# " + System.currentTimeMillis() + "\n");
+            out.write(snapshot());
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+}
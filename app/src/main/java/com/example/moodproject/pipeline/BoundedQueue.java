@@ -0,0 +1,120 @@
+package com.example.moodproject.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded lock-free queue between two pipeline stages. One thread offers; items are
+// taken by the consuming thread and, to drop the oldest item when full, by the
+// producer as well. Taking claims a slot by advancing head with a CAS, so the two
+// can race without locks. Capacity is rounded up to a power of two.
+//
+// A side with nothing to do may park instead of polling: it registers its thread with
+// setWaitingConsumer() or setWaitingProducer(), checks the queue once more and parks.
+// offer() unparks a waiting consumer and poll() a waiting producer, so a thread is only
+// woken when the queue went from empty to non-empty or from full to having space.
+public final class BoundedQueue<T> {
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    // Next position to take, and next position to fill
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    // Threads parked, or about to park, until the other side moves
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+
+    public BoundedQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Bad capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    // Producer only. Returns false, leaving the queue unchanged, if it is full.
+    public boolean offer(T item) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        long position = tail.get();
+        if (position - head.get() > mask) {
+            return false;
+        }
+        slots.lazySet((int) (position & mask), item);
+        // Ordered after the slot write, so a taker that sees the new tail sees the item.
+        // A full write, so a consumer that registered before checking the queue once
+        // more is seen below, or sees the item itself.
+        tail.set(position + 1);
+        wakeConsumer();
+        return true;
+    }
+
+    // Oldest item, or null if the queue is empty
+    public T poll() {
+        while (true) {
+            long position = head.get();
+            if (position >= tail.get()) {
+                return null;
+            }
+            int index = (int) (position & mask);
+            T item = slots.get(index);
+            // The slot cannot be refilled before head moves past it, so winning the CAS
+            // means the item read above is the one at this position
+            if (head.compareAndSet(position, position + 1)) {
+                slots.compareAndSet(index, item, null);
+                wakeProducer();
+                return item;
+            }
+        }
+    }
+
+    // Register the thread about to park until an item is offered, or null once it is
+    // running again. Check the queue after registering, before parking.
+    public void setWaitingConsumer(Thread thread) {
+        waitingConsumer = thread;
+    }
+
+    // Register the thread about to park until an item is taken, or null once it is
+    // running again. Try to offer after registering, before parking.
+    public void setWaitingProducer(Thread thread) {
+        waitingProducer = thread;
+    }
+
+    // Unpark a waiting consumer, e.g. because the producer will offer no more
+    public void wakeConsumer() {
+        Thread thread = waitingConsumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // Unpark a waiting producer, e.g. because the consumer will take no more
+    public void wakeProducer() {
+        Thread thread = waitingProducer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    public boolean isFull() {
+        return tail.get() - head.get() > mask;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
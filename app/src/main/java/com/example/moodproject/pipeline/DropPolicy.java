@@ -0,0 +1,11 @@
+package com.example.moodproject.pipeline;
+
+// What a stage's upstream does when the stage's input queue is full
+public enum DropPolicy {
+    // Wait for room: nothing is lost, and a slow stage slows everything before it
+    BLOCK,
+    // Discard the item being offered, keeping what is already queued
+    DROP_NEWEST,
+    // Discard the oldest queued item, so the stage catches up with the latest input
+    DROP_OLDEST
+}
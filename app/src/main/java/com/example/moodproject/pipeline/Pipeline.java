@@ -0,0 +1,564 @@
+package com.example.moodproject.pipeline;
+
+import com.example.moodproject.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+// A graph of stages, each on its own thread, connected by BoundedQueues. Sources
+// produce items; every stage and sink has exactly one upstream, so every queue has a
+// single producer, and any node can fan out to several downstream nodes, each getting
+// every item through its own queue. Items are shared between branches, so treat them
+// as read-only once emitted. What happens when a queue fills is its DropPolicy.
+//
+// stop() lets the sources finish and every stage drain its queue; finish() and close()
+// then run in upstream order, so nothing already accepted is lost. cancel() abandons
+// queued items instead. A failing stage stops taking input and its queue discards from
+// then on, so it never holds back the others. A stage behind a BLOCK queue is one that
+// must see every item, so its failure also stops the sources, as stop() does: the run
+// ends at once with getFailure() set instead of going on without it. Plain Java, so it
+// runs in unit tests.
+//
+// Items that are RefCounted are retained once for each queue they enter and released
+// when the stage is done with them or they are dropped, so pooled buffers go back to
+// their pool without any stage having to track where else they went.
+public class Pipeline {
+
+    // Idle stages spin briefly, then park until their queue wakes them
+    private static final int SPIN_ROUNDS = 16;
+
+    public interface Outlet<T> {
+        // Pass an item to every downstream node, applying their drop policies. The
+        // caller keeps its own reference to a RefCounted item and releases it as usual.
+        void emit(T item) throws InterruptedException;
+    }
+
+    public interface Source<T> {
+        // Emit the next items; returns false once there is nothing more to produce
+        boolean produce(Outlet<T> out) throws Exception;
+    }
+
+    public interface Stage<I, O> {
+        void process(I item, Outlet<O> out) throws Exception;
+
+        // Called once after the last item, also after a failure; may emit what is left
+        void finish(Outlet<O> out) throws Exception;
+    }
+
+    public interface Sink<T> {
+        void accept(T item) throws Exception;
+
+        // Called once after the last item, also after a failure
+        void close() throws Exception;
+    }
+
+    private final String name;
+    private final List<Node<?>> nodes = new ArrayList<>();
+    private volatile boolean producing;
+    private volatile boolean cancelled;
+    private boolean started;
+
+    public Pipeline(String name) {
+        this.name = name;
+    }
+
+    public synchronized <T> Node<T> source(String name, Source<T> source) {
+        checkNotStarted();
+        return add(new SourceNode<>(this, name, source));
+    }
+
+    public synchronized <I, O> Node<O> stage(String name, Node<I> upstream, Stage<I, O> stage,
+                                             int capacity, DropPolicy policy) {
+        return add(new StageNode<>(this, name, connect(upstream, capacity, policy), stage));
+    }
+
+    public synchronized <T> Node<Void> sink(String name, Node<T> upstream, Sink<T> sink,
+                                            int capacity, DropPolicy policy) {
+        return add(new SinkNode<>(this, name, connect(upstream, capacity, policy), sink));
+    }
+
+    private <T> Edge<T> connect(Node<T> upstream, int capacity, DropPolicy policy) {
+        checkNotStarted();
+        if (upstream.pipeline != this) {
+            throw new IllegalArgumentException("Upstream belongs to another pipeline");
+        }
+        Edge<T> edge = new Edge<>(this, new BoundedQueue<T>(capacity), policy);
+        upstream.outputs.add(edge);
+        return edge;
+    }
+
+    private <N extends Node<?>> N add(N node) {
+        if (getNode(node.name) != null) {
+            throw new IllegalArgumentException("Duplicate stage name " + node.name);
+        }
+        nodes.add(node);
+        return node;
+    }
+
+    private void checkNotStarted() {
+        if (started) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+    }
+
+    public synchronized void start() {
+        checkNotStarted();
+        started = true;
+        producing = true;
+        // Downstream nodes first, so nothing waits on a thread that is not there yet
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            final Node<?> node = nodes.get(i);
+            node.thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    node.run();
+                }
+            }, name + "-" + node.name);
+            node.thread.start();
+        }
+    }
+
+    // Stop the sources; everything already produced still flows through
+    public void stop() {
+        producing = false;
+    }
+
+    // Stop the sources and abandon queued items. Stages notice once their current
+    // call returns; finish() and close() still run so resources are released.
+    public void cancel() {
+        producing = false;
+        cancelled = true;
+        for (Node<?> node : getNodes()) {
+            if (node.input != null) {
+                node.input.queue.wakeConsumer();
+                node.input.queue.wakeProducer();
+            }
+        }
+    }
+
+    // Wait for every stage to finish. Returns false on timeout.
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Node<?> node : getNodes()) {
+            Thread thread = node.thread;
+            if (thread == null) {
+                continue;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return !isRunning();
+            }
+            thread.join(remaining);
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isRunning() {
+        for (Node<?> node : getNodes()) {
+            Thread thread = node.thread;
+            if (thread != null && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // First error from any stage, in the order they were added
+    public Exception getFailure() {
+        for (Node<?> node : getNodes()) {
+            if (node.failure != null) {
+                return node.failure;
+            }
+        }
+        return null;
+    }
+
+    public synchronized Node<?> getNode(String name) {
+        for (Node<?> node : nodes) {
+            if (node.name.equals(name)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    public synchronized List<Node<?>> getNodes() {
+        return new ArrayList<>(nodes);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    static void release(Object item) {
+        if (item instanceof RefCounted) {
+            ((RefCounted) item).release();
+        }
+    }
+
+    // Yield for the first rounds of waiting; returns false once the caller should park
+    static boolean spin(int round) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (round < SPIN_ROUNDS) {
+            Thread.yield();
+            return true;
+        }
+        return false;
+    }
+
+    // One stage of the graph with its thread and counters. Counters are written by a
+    // single thread each and may be read from any.
+    public abstract static class Node<T> {
+
+        final Pipeline pipeline;
+        final String name;
+        final Edge<?> input;
+        final List<Edge<T>> outputs = new ArrayList<>();
+        Thread thread;
+
+        volatile Exception failure;
+        volatile long processed;
+        volatile long emitted;
+        // Time each item spent in process() or accept()
+        final Histogram serviceNs = new Histogram();
+
+        final Outlet<T> outlet = new Outlet<T>() {
+            @Override
+            public void emit(T item) throws InterruptedException {
+                for (int i = 0; i < outputs.size(); i++) {
+                    outputs.get(i).push(item);
+                }
+                emitted++;
+            }
+        };
+
+        Node(Pipeline pipeline, String name, Edge<?> input) {
+            this.pipeline = pipeline;
+            this.name = name;
+            this.input = input;
+        }
+
+        abstract void run();
+
+        void fail(Exception e) {
+            if (e instanceof InterruptedException && pipeline.cancelled) {
+                return;
+            }
+            if (failure == null) {
+                failure = e;
+            }
+            if (input != null) {
+                input.detach();
+                if (input.policy == DropPolicy.BLOCK) {
+                    pipeline.stop();
+                }
+            }
+        }
+
+        // Tell every downstream node that no more items will come
+        void closeOutputs() {
+            for (Edge<T> output : outputs) {
+                output.closed = true;
+                output.queue.wakeConsumer();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Items taken from the input queue; for a source, items produced
+        public long getProcessed() {
+            return input != null ? processed : emitted;
+        }
+
+        public long getEmitted() {
+            return emitted;
+        }
+
+        public int getQueued() {
+            return input != null ? input.queue.size() : 0;
+        }
+
+        public int getCapacity() {
+            return input != null ? input.queue.capacity() : 0;
+        }
+
+        // Items discarded on the way into this stage, by its drop policy or after it failed
+        public long getDropped() {
+            return input != null ? input.dropped : 0;
+        }
+
+        // How often the upstream found this stage's queue full and had to wait
+        public long getWaits() {
+            return input != null ? input.waits : 0;
+        }
+
+        public long getBlockedNs() {
+            return input != null ? input.blockedNs : 0;
+        }
+
+        public DropPolicy getPolicy() {
+            return input != null ? input.policy : null;
+        }
+
+        public Exception getFailure() {
+            return failure;
+        }
+
+        // Per-item handling time in ns, including waits on full downstream queues;
+        // empty for a source
+        public Histogram getServiceTime() {
+            return serviceNs;
+        }
+    }
+
+    // Queue from one node to a downstream node. Only the upstream thread pushes.
+    static final class Edge<T> {
+
+        final Pipeline pipeline;
+        final BoundedQueue<T> queue;
+        final DropPolicy policy;
+        // Set by the upstream once it will push no more
+        volatile boolean closed;
+        // Set when the downstream failed and takes nothing more
+        volatile boolean detached;
+
+        volatile long dropped;
+        volatile long waits;
+        volatile long blockedNs;
+
+        Edge(Pipeline pipeline, BoundedQueue<T> queue, DropPolicy policy) {
+            this.pipeline = pipeline;
+            this.queue = queue;
+            this.policy = policy;
+        }
+
+        void push(T item) throws InterruptedException {
+            if (item instanceof RefCounted) {
+                ((RefCounted) item).retain();
+            }
+            if (detached) {
+                drop(item);
+                return;
+            }
+            if (queue.offer(item)) {
+                return;
+            }
+            if (pipeline.cancelled) {
+                drop(item);
+                return;
+            }
+            switch (policy) {
+                case DROP_NEWEST:
+                    drop(item);
+                    break;
+                case DROP_OLDEST:
+                    do {
+                        T oldest = queue.poll();
+                        if (oldest != null) {
+                            drop(oldest);
+                        }
+                    } while (!queue.offer(item));
+                    break;
+                default:
+                    waits++;
+                    long start = System.nanoTime();
+                    int round = 0;
+                    while (!queue.offer(item)) {
+                        if (detached || pipeline.cancelled) {
+                            drop(item);
+                            break;
+                        }
+                        if (!spin(round++)) {
+                            awaitSpace();
+                        }
+                    }
+                    blockedNs += System.nanoTime() - start;
+                    break;
+            }
+        }
+
+        private void drop(T item) {
+            dropped++;
+            release(item);
+        }
+
+        // Park the upstream thread until the queue has space or there is no point waiting
+        private void awaitSpace() {
+            queue.setWaitingProducer(Thread.currentThread());
+            try {
+                if (queue.isFull() && !detached && !pipeline.cancelled) {
+                    LockSupport.park(this);
+                }
+            } finally {
+                queue.setWaitingProducer(null);
+            }
+        }
+
+        // Park the downstream thread until an item arrives or no more will
+        private void awaitItem() {
+            queue.setWaitingConsumer(Thread.currentThread());
+            try {
+                if (queue.isEmpty() && !closed && !pipeline.cancelled) {
+                    LockSupport.park(this);
+                }
+            } finally {
+                queue.setWaitingConsumer(null);
+            }
+        }
+
+        void detach() {
+            detached = true;
+            queue.wakeProducer();
+        }
+
+        // Discard everything still coming after the stage stopped taking input, until
+        // the upstream closes, so pooled items are returned and the upstream never waits
+        void drain() {
+            detach();
+            try {
+                T item;
+                while ((item = take()) != null) {
+                    release(item);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            T item;
+            while ((item = queue.poll()) != null) {
+                release(item);
+            }
+        }
+
+        // Next item, or null once the upstream closed and the queue is drained,
+        // or the pipeline was cancelled
+        T take() throws InterruptedException {
+            int round = 0;
+            while (!pipeline.cancelled) {
+                T item = queue.poll();
+                if (item != null) {
+                    return item;
+                }
+                if (closed) {
+                    // Everything pushed before closing is visible now
+                    return queue.poll();
+                }
+                if (!spin(round++)) {
+                    awaitItem();
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class SourceNode<T> extends Node<T> {
+
+        private final Source<T> source;
+
+        SourceNode(Pipeline pipeline, String name, Source<T> source) {
+            super(pipeline, name, null);
+            this.source = source;
+        }
+
+        @Override
+        void run() {
+            try {
+                while (pipeline.producing && source.produce(outlet)) {
+                    // keep producing
+                }
+            } catch (Exception e) {
+                fail(e);
+            } finally {
+                closeOutputs();
+            }
+        }
+    }
+
+    private static final class StageNode<I, O> extends Node<O> {
+
+        private final Edge<I> in;
+        private final Stage<I, O> stage;
+
+        StageNode(Pipeline pipeline, String name, Edge<I> in, Stage<I, O> stage) {
+            super(pipeline, name, in);
+            this.in = in;
+            this.stage = stage;
+        }
+
+        @Override
+        void run() {
+            try {
+                I item;
+                while ((item = in.take()) != null) {
+                    long startNs = System.nanoTime();
+                    try {
+                        stage.process(item, outlet);
+                    } finally {
+                        release(item);
+                        serviceNs.recordSince(startNs);
+                    }
+                    processed++;
+                }
+            } catch (Exception e) {
+                fail(e);
+            } finally {
+                try {
+                    stage.finish(outlet);
+                } catch (Exception e) {
+                    fail(e);
+                }
+                closeOutputs();
+                in.drain();
+            }
+        }
+    }
+
+    private static final class SinkNode<T> extends Node<Void> {
+
+        private final Edge<T> in;
+        private final Sink<T> sink;
+
+        SinkNode(Pipeline pipeline, String name, Edge<T> in, Sink<T> sink) {
+            super(pipeline, name, in);
+            this.in = in;
+            this.sink = sink;
+        }
+
+        @Override
+        void run() {
+            try {
+                T item;
+                while ((item = in.take()) != null) {
+                    long startNs = System.nanoTime();
+                    try {
+                        sink.accept(item);
+                    } finally {
+                        release(item);
+                        serviceNs.recordSince(startNs);
+                    }
+                    processed++;
+                }
+            } catch (Exception e) {
+                fail(e);
+            } finally {
+                try {
+                    sink.close();
+                } catch (Exception e) {
+                    fail(e);
+                }
+                in.drain();
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.moodproject.pipeline;
+
+// An item holding a pooled resource that goes back to its pool once the last
+// reference is released. The Pipeline takes a reference for every queue the item
+// enters and releases it once the stage is done with the item or drops it, so a
+// stage only calls retain() to keep an item beyond process() or accept().
+public interface RefCounted {
+
+    void retain();
+
+    void release();
+}
@@ -0,0 +1,10 @@
+package com.example.moodproject.protocol;
+
+// What FrameDecoder plays in place of audio that never arrived
+public enum Concealment {
+    // Zeros
+    SILENCE,
+    // A straight line from the last sample before the gap to the first one after it,
+    // which avoids the click of dropping to zero for short gaps
+    INTERPOLATE
+}
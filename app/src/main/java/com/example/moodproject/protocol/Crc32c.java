@@ -0,0 +1,53 @@
+package com.example.moodproject.protocol;
+
+// CRC-32C (Castagnoli), as used by iSCSI and ext4 and cheap to compute on the ESP32.
+// java.util.zip.CRC32C only exists from Android 14, so this is a table-driven
+// version that consumes eight bytes per step (slicing-by-8).
+public final class Crc32c {
+
+    private static final int POLYNOMIAL = 0x82F63B78; // reversed 0x1EDC6F41
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc >>> 1) ^ ((crc & 1) != 0 ? POLYNOMIAL : 0);
+            }
+            TABLES[0][i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int t = 1; t < 8; t++) {
+                int previous = TABLES[t - 1][i];
+                TABLES[t][i] = (previous >>> 8) ^ TABLES[0][previous & 0xff];
+            }
+        }
+    }
+
+    private Crc32c() {
+    }
+
+    public static int compute(byte[] src, int offset, int length) {
+        return update(0, src, offset, length);
+    }
+
+    // Continue a CRC over more bytes; start with 0
+    public static int update(int crc, byte[] src, int offset, int length) {
+        int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        crc = ~crc;
+        int end = offset + length;
+        while (end - offset >= 8) {
+            int low = crc ^ ((src[offset] & 0xff) | (src[offset + 1] & 0xff) << 8
+                    | (src[offset + 2] & 0xff) << 16 | (src[offset + 3] & 0xff) << 24);
+            crc = t7[low & 0xff] ^ t6[(low >>> 8) & 0xff] ^ t5[(low >>> 16) & 0xff] ^ t4[low >>> 24]
+                    ^ t3[src[offset + 4] & 0xff] ^ t2[src[offset + 5] & 0xff]
+                    ^ t1[src[offset + 6] & 0xff] ^ t0[src[offset + 7] & 0xff];
+            offset += 8;
+        }
+        while (offset < end) {
+            crc = (crc >>> 8) ^ t0[(crc ^ src[offset++]) & 0xff];
+        }
+        return ~crc;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.moodproject.protocol;
+
+// Wire format of the ESP32 audio stream: a sequence of frames, each a fixed header
+// followed by 16-bit little endian mono PCM.
+//
+// Frame header, little endian:
+//   int magic "AFRM", int sequence (wraps), long sample clock of the first sample,
+//   short payload bytes, short flags (0), int CRC-32C of the header up to here and the payload
+//
+// The sequence number tells lost, late and duplicate frames apart; the sample clock
+// says exactly how much audio went missing, so a gap can be filled without the
+// timeline drifting.
+public final class FrameCodec {
+
+    public static final int MAGIC = 0x4D524641; // "AFRM" read little endian
+    public static final int HEADER_BYTES = 24;
+    // Larger frames are rejected as corrupt, which bounds the reassembly buffer
+    public static final int MAX_PAYLOAD_BYTES = 8192;
+
+    static final int SEQUENCE_OFFSET = 4;
+    static final int SAMPLE_TIME_OFFSET = 8;
+    static final int LENGTH_OFFSET = 16;
+    static final int FLAGS_OFFSET = 18;
+    static final int CRC_OFFSET = 20;
+
+    private FrameCodec() {
+    }
+
+    // Write one frame for length payload bytes into dst; returns the frame size
+    public static int encode(int sequence, long sampleTime, byte[] payload, int offset, int length,
+                             byte[] dst, int dstOffset) {
+        if (length < 0 || length > MAX_PAYLOAD_BYTES || length % 2 != 0) {
+            throw new IllegalArgumentException("Bad payload length " + length);
+        }
+        putInt(dst, dstOffset, MAGIC);
+        putInt(dst, dstOffset + SEQUENCE_OFFSET, sequence);
+        putLong(dst, dstOffset + SAMPLE_TIME_OFFSET, sampleTime);
+        putShort(dst, dstOffset + LENGTH_OFFSET, length);
+        putShort(dst, dstOffset + FLAGS_OFFSET, 0);
+        int crc = Crc32c.update(Crc32c.compute(dst, dstOffset, CRC_OFFSET), payload, offset, length);
+        putInt(dst, dstOffset + CRC_OFFSET, crc);
+        System.arraycopy(payload, offset, dst, dstOffset + HEADER_BYTES, length);
+        return HEADER_BYTES + length;
+    }
+
+    // Size of the frame starting at src[offset] judging by its header: -1 if these bytes
+    // cannot start a frame, 0 if more bytes are needed to tell
+    static int frameBytes(byte[] src, int offset, int available) {
+        for (int i = 0; i < Math.min(available, 4); i++) {
+            if (src[offset + i] != (byte) (MAGIC >>> (8 * i))) {
+                return -1;
+            }
+        }
+        if (available < HEADER_BYTES) {
+            return 0;
+        }
+        int length = getShort(src, offset + LENGTH_OFFSET);
+        if (length > MAX_PAYLOAD_BYTES || length % 2 != 0 || getShort(src, offset + FLAGS_OFFSET) != 0) {
+            return -1;
+        }
+        return HEADER_BYTES + length;
+    }
+
+    // True if the CRC of a complete frame matches
+    static boolean verify(byte[] src, int offset, int frameBytes) {
+        int crc = Crc32c.compute(src, offset, CRC_OFFSET);
+        crc = Crc32c.update(crc, src, offset + HEADER_BYTES, frameBytes - HEADER_BYTES);
+        return crc == getInt(src, offset + CRC_OFFSET);
+    }
+
+    static int getShort(byte[] src, int offset) {
+        return (src[offset] & 0xff) | (src[offset + 1] & 0xff) << 8;
+    }
+
+    static int getInt(byte[] src, int offset) {
+        return getShort(src, offset) | getShort(src, offset + 2) << 16;
+    }
+
+    static long getLong(byte[] src, int offset) {
+        return (getInt(src, offset) & 0xffffffffL) | (long) getInt(src, offset + 4) << 32;
+    }
+
+    private static void putShort(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) value;
+        dst[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] dst, int offset, int value) {
+        putShort(dst, offset, value);
+        putShort(dst, offset + 2, value >>> 16);
+    }
+
+    private static void putLong(byte[] dst, int offset, long value) {
+        putInt(dst, offset, (int) value);
+        putInt(dst, offset + 4, (int) (value >>> 32));
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.moodproject.protocol;
+
+import com.example.moodproject.dsp.Pcm16;
+
+// Turns the framed ESP32 stream back into continuous audio. Reads may cut frames
+// anywhere; every frame that lies whole in a read is checked and handed to the sink
+// straight from the caller's array, only frames split across reads are put together
+// in a buffer first. Bytes that do not form a valid frame are skipped up to the next
+// magic, so one corrupt frame costs that frame and nothing after it.
+//
+// Frames missing from the sequence are counted as lost and their audio, sized by the
+// sample clock, is concealed so the output keeps the sender's timeline. Frames that
+// arrive after their place was filled are counted as reordered (or duplicate) and
+// dropped. A sequence far behind, or a sample clock going backwards, means the sender
+// restarted; that is counted as a discontinuity and decoding carries on from there.
+// Nothing is allocated per frame.
+public class FrameDecoder {
+
+    // Late frames up to this far behind are told apart from a restarted sender
+    static final int REORDER_WINDOW = 64;
+    private static final int FILL_BYTES = 1024;
+    private static final byte MAGIC_START = (byte) FrameCodec.MAGIC;
+
+    public interface PayloadSink {
+        // Audio in stream order; src may only be read during the call
+        void write(byte[] src, int offset, int length) throws Exception;
+    }
+
+    private final PayloadSink sink;
+    private final Concealment concealment;
+    private final long maxGapSamples;
+
+    // A frame split across reads, and its bytes while looking for a frame inside it
+    private final byte[] pending = new byte[FrameCodec.HEADER_BYTES + FrameCodec.MAX_PAYLOAD_BYTES];
+    private final byte[] rescan = new byte[pending.length];
+    private int pendingBytes;
+    private final byte[] fill = new byte[FILL_BYTES];
+
+    private boolean started;
+    private int expectedSequence;
+    private long nextSampleTime;
+    // Bit i is set if frame expectedSequence - 1 - i arrived
+    private long seen;
+    private int lastSample;
+
+    // Written only by the decoding thread
+    private volatile long frames;
+    private volatile long lostFrames;
+    private volatile long reorderedFrames;
+    private volatile long duplicateFrames;
+    private volatile long corruptFrames;
+    private volatile long skippedBytes;
+    private volatile long concealedSamples;
+    private volatile long discontinuities;
+
+    // Gaps longer than maxGapSamples are not filled in, only counted as discontinuities
+    public FrameDecoder(PayloadSink sink, Concealment concealment, long maxGapSamples) {
+        this.sink = sink;
+        this.concealment = concealment;
+        this.maxGapSamples = maxGapSamples;
+    }
+
+    // Offset of the first whole frame with a valid CRC in src, or -1. Raw PCM all but
+    // never holds one, so this tells a framed stream from raw audio by its first bytes.
+    public static int findFrame(byte[] src, int offset, int length) {
+        int end = offset + length;
+        for (int p = offset; p < end; p++) {
+            if (src[p] != MAGIC_START) {
+                continue;
+            }
+            int frameBytes = FrameCodec.frameBytes(src, p, end - p);
+            if (frameBytes > 0 && frameBytes <= end - p && FrameCodec.verify(src, p, frameBytes)) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    // Decode the next bytes of the stream, in any amount
+    public void decode(byte[] src, int offset, int length) throws Exception {
+        int end = offset + length;
+        while (offset < end) {
+            offset = pendingBytes > 0 ? continuePending(src, offset, end) : scan(src, offset, end);
+        }
+    }
+
+    // Decode whole frames where they are; a frame cut off by end is kept in pending
+    private int scan(byte[] src, int offset, int end) throws Exception {
+        while (offset < end) {
+            int available = end - offset;
+            int frameBytes = FrameCodec.frameBytes(src, offset, available);
+            if (frameBytes < 0) {
+                offset = resync(src, offset, end);
+            } else if (frameBytes == 0 || frameBytes > available) {
+                System.arraycopy(src, offset, pending, 0, available);
+                pendingBytes = available;
+                return end;
+            } else if (!FrameCodec.verify(src, offset, frameBytes)) {
+                corruptFrames++;
+                offset = resync(src, offset, end);
+            } else {
+                accept(src, offset, frameBytes);
+                offset += frameBytes;
+            }
+        }
+        return end;
+    }
+
+    // Add the next bytes to the frame in pending, first up to its header and then up to
+    // its length. Returns where src continues.
+    private int continuePending(byte[] src, int offset, int end) throws Exception {
+        int frameBytes = FrameCodec.frameBytes(pending, 0, pendingBytes);
+        int wanted = frameBytes > 0 ? frameBytes : FrameCodec.HEADER_BYTES;
+        int count = Math.min(wanted - pendingBytes, end - offset);
+        System.arraycopy(src, offset, pending, pendingBytes, count);
+        pendingBytes += count;
+        offset += count;
+
+        frameBytes = FrameCodec.frameBytes(pending, 0, pendingBytes);
+        if (frameBytes == 0 || pendingBytes < frameBytes) {
+            return offset;
+        }
+        if (frameBytes > 0 && FrameCodec.verify(pending, 0, frameBytes)) {
+            pendingBytes = 0;
+            accept(pending, 0, frameBytes);
+            return offset;
+        }
+        if (frameBytes > 0) {
+            corruptFrames++;
+        }
+        // Not a frame after all; one may still start inside what was held back
+        int held = pendingBytes;
+        pendingBytes = 0;
+        System.arraycopy(pending, 0, rescan, 0, held);
+        scan(rescan, resync(rescan, 0, held), held);
+        return offset;
+    }
+
+    // Skip the byte at start and anything after it up to the next possible magic
+    private int resync(byte[] src, int start, int end) {
+        int next = start + 1;
+        while (next < end && src[next] != MAGIC_START) {
+            next++;
+        }
+        skippedBytes += next - start;
+        return next;
+    }
+
+    private void accept(byte[] src, int offset, int frameBytes) throws Exception {
+        int sequence = FrameCodec.getInt(src, offset + FrameCodec.SEQUENCE_OFFSET);
+        long sampleTime = FrameCodec.getLong(src, offset + FrameCodec.SAMPLE_TIME_OFFSET);
+        int payload = offset + FrameCodec.HEADER_BYTES;
+        int length = frameBytes - FrameCodec.HEADER_BYTES;
+        frames++;
+
+        // Differences wrap with the sequence number
+        int ahead = sequence - expectedSequence;
+        if (started && ahead < 0 && ahead > -REORDER_WINDOW) {
+            long bit = 1L << (-ahead - 1);
+            if ((seen & bit) != 0) {
+                duplicateFrames++;
+            } else {
+                // Counted as lost when its successor arrived, and concealed then
+                seen |= bit;
+                reorderedFrames++;
+                lostFrames--;
+            }
+            return;
+        }
+
+        if (!started || ahead < 0 || sampleTime < nextSampleTime) {
+            if (started) {
+                discontinuities++;
+            }
+            started = true;
+            seen = 0;
+        } else {
+            lostFrames += ahead;
+            seen = ahead + 1 >= Long.SIZE ? 0 : seen << (ahead + 1);
+            long gap = sampleTime - nextSampleTime;
+            if (gap > maxGapSamples) {
+                discontinuities++;
+            } else if (gap > 0) {
+                conceal(gap, length > 0 ? Pcm16.sampleAt(src, payload) : lastSample);
+            }
+        }
+        seen |= 1;
+        expectedSequence = sequence + 1;
+        nextSampleTime = sampleTime + length / Pcm16.BYTES_PER_SAMPLE;
+
+        if (length > 0) {
+            sink.write(src, payload, length);
+            lastSample = Pcm16.sampleAt(src, payload + length - Pcm16.BYTES_PER_SAMPLE);
+        }
+    }
+
+    // Write samples of made-up audio leading up to the sample `next`
+    private void conceal(long samples, int next) throws Exception {
+        concealedSamples += samples;
+        long done = 0;
+        while (done < samples) {
+            int count = (int) Math.min(samples - done, FILL_BYTES / Pcm16.BYTES_PER_SAMPLE);
+            for (int i = 0; i < count; i++) {
+                int value = 0;
+                if (concealment == Concealment.INTERPOLATE) {
+                    value = lastSample + (int) ((next - lastSample) * (done + i + 1) / (samples + 1));
+                }
+                fill[2 * i] = (byte) value;
+                fill[2 * i + 1] = (byte) (value >> 8);
+            }
+            sink.write(fill, 0, count * Pcm16.BYTES_PER_SAMPLE);
+            done += count;
+        }
+    }
+
+    // The stream goes on over a new connection: a frame cut off by the old one is
+    // dropped, and the next frame starts afresh instead of being held against the
+    // sequence and sample clock of the old connection
+    public void restart() {
+        skippedBytes += pendingBytes;
+        pendingBytes = 0;
+        started = false;
+    }
+
+    // Sample clock of the next audio expected from the sender
+    public long getNextSampleTime() {
+        return nextSampleTime;
+    }
+
+    // Valid frames received, including reordered and duplicate ones
+    public long getFrames() {
+        return frames;
+    }
+
+    // Frames that never arrived, not counting ones that came late
+    public long getLostFrames() {
+        return lostFrames;
+    }
+
+    public long getReorderedFrames() {
+        return reorderedFrames;
+    }
+
+    public long getDuplicateFrames() {
+        return duplicateFrames;
+    }
+
+    // Frames that failed their CRC
+    public long getCorruptFrames() {
+        return corruptFrames;
+    }
+
+    // Bytes discarded while looking for the next frame
+    public long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    public long getConcealedSamples() {
+        return concealedSamples;
+    }
+
+    // Sender restarts and gaps too long to conceal
+    public long getDiscontinuities() {
+        return discontinuities;
+    }
+
+    // Share of the frames sent that were lost, 0 to 1
+    public double getLossRate() {
+        long lost = lostFrames;
+        long expected = frames - duplicateFrames + lost;
+        return expected > 0 ? lost / (double) expected : 0;
+    }
+}
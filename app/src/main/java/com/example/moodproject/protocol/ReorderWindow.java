@@ -0,0 +1,248 @@
+package com.example.moodproject.protocol;
+
+// Puts frames that arrived as datagrams back into sequence order. A datagram carries
+// one or more whole frames; a frame ahead of the next one expected is held in one of
+// windowFrames slots until the frames before it arrive. The sink gets every frame, in
+// order, as soon as nothing is missing in front of it.
+//
+// A missing frame is waited for at most maxDelayNs, counted from when the first frame
+// behind it arrived, or until a frame arrives too far ahead to hold. Then the frames
+// held behind it go out without it; the FrameDecoder downstream sees the hole in the
+// sequence and conceals it using the sample clock. A frame arriving after its place was
+// given up, or after it was delivered, is dropped as late. A sequence jumping back
+// further than the window means the sender restarted: what is held goes out and
+// ordering starts over from there.
+//
+// Single threaded. Slots grow to the largest frame seen, so nothing is allocated per frame.
+public class ReorderWindow {
+
+    public interface FrameSink {
+        // One whole frame, header included; src may only be read during the call
+        void write(byte[] src, int offset, int length) throws Exception;
+    }
+
+    private final FrameSink sink;
+    private final int windowFrames;
+    private final long maxDelayNs;
+
+    // Slot of sequence s is s % windowFrames, valid while held[slot] is set
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final int[] sequences;
+    private final long[] arrivalNs;
+    private final boolean[] held;
+    private int heldCount;
+
+    private boolean started;
+    private int expectedSequence;
+
+    // Written only by the receiving thread
+    private volatile long frames;
+    private volatile long reorderedFrames;
+    private volatile long skippedFrames;
+    private volatile long lateFrames;
+    private volatile long duplicateFrames;
+    private volatile long corruptFrames;
+    private volatile long restarts;
+    private volatile int maxHeld;
+
+    public ReorderWindow(FrameSink sink, int windowFrames, long maxDelayNs) {
+        if (windowFrames < 1) {
+            throw new IllegalArgumentException("Window must hold a frame");
+        }
+        this.sink = sink;
+        this.windowFrames = windowFrames;
+        this.maxDelayNs = maxDelayNs;
+        this.slots = new byte[windowFrames][];
+        this.lengths = new int[windowFrames];
+        this.sequences = new int[windowFrames];
+        this.arrivalNs = new long[windowFrames];
+        this.held = new boolean[windowFrames];
+    }
+
+    // One datagram received at nowNs (System.nanoTime()). A frame that fails its CRC
+    // ends the datagram: without a stream to resync in, what follows it is dropped too.
+    public void accept(byte[] src, int offset, int length, long nowNs) throws Exception {
+        int end = offset + length;
+        while (offset < end) {
+            int frameBytes = FrameCodec.frameBytes(src, offset, end - offset);
+            if (frameBytes <= 0 || frameBytes > end - offset || !FrameCodec.verify(src, offset, frameBytes)) {
+                corruptFrames++;
+                return;
+            }
+            acceptFrame(src, offset, frameBytes, nowNs);
+            offset += frameBytes;
+        }
+        expire(nowNs);
+    }
+
+    private void acceptFrame(byte[] src, int offset, int frameBytes, long nowNs) throws Exception {
+        int sequence = FrameCodec.getInt(src, offset + FrameCodec.SEQUENCE_OFFSET);
+        if (!started) {
+            started = true;
+            expectedSequence = sequence;
+        }
+        // Differences wrap with the sequence number
+        int ahead = sequence - expectedSequence;
+        if (ahead < 0 && ahead >= -windowFrames) {
+            lateFrames++;
+            return;
+        }
+        if (ahead < 0) {
+            restarts++;
+            releaseAll();
+            expectedSequence = sequence;
+            ahead = 0;
+        } else if (ahead >= windowFrames) {
+            // Too far ahead to hold: whatever is missing before it is not waited for
+            skipTo(sequence - windowFrames + 1);
+            ahead = sequence - expectedSequence;
+        }
+
+        if (ahead == 0) {
+            frames++;
+            if (heldCount > 0) {
+                reorderedFrames++; // it fills the hole frames behind it are held for
+            }
+            sink.write(src, offset, frameBytes);
+            expectedSequence++;
+            releaseReady();
+            return;
+        }
+        int slot = slotOf(sequence);
+        if (held[slot]) {
+            duplicateFrames++;
+            return;
+        }
+        if (slots[slot] == null || slots[slot].length < frameBytes) {
+            slots[slot] = new byte[frameBytes];
+        }
+        System.arraycopy(src, offset, slots[slot], 0, frameBytes);
+        lengths[slot] = frameBytes;
+        sequences[slot] = sequence;
+        arrivalNs[slot] = nowNs;
+        held[slot] = true;
+        heldCount++;
+        maxHeld = Math.max(maxHeld, heldCount);
+    }
+
+    // Give up on missing frames whose successors have waited maxDelayNs by nowNs
+    public void expire(long nowNs) throws Exception {
+        while (heldCount > 0 && nowNs - oldestArrivalNs() >= maxDelayNs) {
+            skipTo(nextHeldSequence());
+        }
+    }
+
+    // System.nanoTime() by which expire() has something to give up on, Long.MAX_VALUE
+    // while nothing is held
+    public long nextDeadlineNs() {
+        return heldCount > 0 ? oldestArrivalNs() + maxDelayNs : Long.MAX_VALUE;
+    }
+
+    // Deliver what is held, in order, skipping whatever is missing in between
+    public void releaseAll() throws Exception {
+        while (heldCount > 0) {
+            skipTo(nextHeldSequence());
+        }
+    }
+
+    // Advance to sequence, skipping missing frames and delivering held ones before it
+    private void skipTo(int sequence) throws Exception {
+        while (sequence - expectedSequence > 0) {
+            int slot = slotOf(expectedSequence);
+            if (held[slot]) {
+                deliver(slot);
+            } else {
+                skippedFrames++;
+            }
+            expectedSequence++;
+        }
+        releaseReady();
+    }
+
+    // Deliver the held frames that now follow on without a hole
+    private void releaseReady() throws Exception {
+        while (heldCount > 0) {
+            int slot = slotOf(expectedSequence);
+            if (!held[slot]) {
+                return;
+            }
+            deliver(slot);
+            expectedSequence++;
+        }
+    }
+
+    private void deliver(int slot) throws Exception {
+        held[slot] = false;
+        heldCount--;
+        frames++;
+        sink.write(slots[slot], 0, lengths[slot]);
+    }
+
+    private int slotOf(int sequence) {
+        return Math.floorMod(sequence, windowFrames);
+    }
+
+    private long oldestArrivalNs() {
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < windowFrames; i++) {
+            if (held[i]) {
+                oldest = Math.min(oldest, arrivalNs[i]);
+            }
+        }
+        return oldest;
+    }
+
+    private int nextHeldSequence() {
+        int next = expectedSequence;
+        int nearest = Integer.MAX_VALUE;
+        for (int i = 0; i < windowFrames; i++) {
+            if (held[i] && sequences[i] - next < nearest) {
+                nearest = sequences[i] - next;
+            }
+        }
+        return next + nearest;
+    }
+
+    // Frames delivered to the sink
+    public long getFrames() {
+        return frames;
+    }
+
+    // Frames that arrived after a later one and were still delivered in order
+    public long getReorderedFrames() {
+        return reorderedFrames;
+    }
+
+    // Missing frames that were given up on and left to concealment
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    // Frames dropped because their place had already been given up or delivered
+    public long getLateFrames() {
+        return lateFrames;
+    }
+
+    public long getDuplicateFrames() {
+        return duplicateFrames;
+    }
+
+    public long getCorruptFrames() {
+        return corruptFrames;
+    }
+
+    // Sender restarts, seen as the sequence jumping back
+    public long getRestarts() {
+        return restarts;
+    }
+
+    // Most frames held at once, i.e. the deepest reordering seen
+    public int getMaxHeld() {
+        return maxHeld;
+    }
+
+    public int getHeldFrames() {
+        return heldCount;
+    }
+}
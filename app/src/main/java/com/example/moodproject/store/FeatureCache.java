@@ -0,0 +1,319 @@
+package com.example.moodproject.store;
+
+import com.example.moodproject.audio.FeatureAnalyzer;
+import com.example.moodproject.dsp.VoiceActivityDetector;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Two-tier cache of the window features computed for recordings, so a recording is
+// analysed once per feature configuration however often it is scored again. Entries
+// are the window vectors of one recording, keyed by key(): a SHA-256 of the analysis
+// config key and the recording's stored bytes. A new feature version or setting
+// changes every key, so stale entries are never found again and age out on disk.
+//
+// An LRU in memory, bounded by bytes, sits in front of one file per entry on disk,
+// which is bounded too: past the limit the files used longest ago (by modification
+// time, touched on every hit) are deleted. Files are written under a temporary name
+// and renamed, so a reader never sees half an entry. Safe for concurrent use.
+//
+// Entry file, little endian: int magic "FCAC", int float count, then the floats.
+public class FeatureCache {
+
+    // Subdirectory of the recording store the cache lives in
+    public static final String DIRECTORY = "features";
+
+    static final int MAGIC = 0x43414346; // "FCAC" read little endian
+    private static final int HEADER_BYTES = 8;
+    private static final String SUFFIX = ".feat";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Estimated heap per memory entry besides its floats: map node, key and array headers
+    private static final int ENTRY_OVERHEAD_BYTES = 200;
+    // Trimming the disk tier goes this far below the limit, so it doesn't run on every put
+    private static final double TRIM_TARGET = 0.9;
+
+    private final File directory;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final LinkedHashMap<String, float[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final Object diskLock = new Object();
+    private long memoryBytes;
+    private long diskBytes;
+
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+    private long memoryEvictions;
+    private long diskEvictions;
+
+    public static FeatureCache open(File directory, long maxMemoryBytes, long maxDiskBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + directory);
+        }
+        return new FeatureCache(directory, maxMemoryBytes, maxDiskBytes);
+    }
+
+    private FeatureCache(File directory, long maxMemoryBytes, long maxDiskBytes) {
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        for (File file : listFiles()) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete(); // left by a crash mid-write
+            } else {
+                diskBytes += file.length();
+            }
+        }
+    }
+
+    // Key for the features of a recording's stored bytes under an analysis config
+    public static String key(ByteBuffer stored, String configKey) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(configKey.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(stored.duplicate());
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    // The config key of analysis by analyzer, gated by detector if not null, as the
+    // live path and the batch job both run it
+    public static String configKey(FeatureAnalyzer analyzer, VoiceActivityDetector detector) {
+        String key = analyzer.getConfigKey();
+        return detector == null ? key
+                : key + ", voice " + detector.getFrameSize() + "+" + detector.getHangoverFrames();
+    }
+
+    // The cached window vectors, or null. The array is shared: don't modify it.
+    public float[] get(String key) throws IOException {
+        synchronized (this) {
+            float[] features = memory.get(key);
+            if (features != null) {
+                memoryHits++;
+                return features;
+            }
+        }
+        float[] features = read(entryFile(key));
+        synchronized (this) {
+            if (features == null) {
+                misses++;
+                return null;
+            }
+            diskHits++;
+            remember(key, features);
+            return features;
+        }
+    }
+
+    // Keep features under key in both tiers; the array must not change afterwards
+    public void put(String key, float[] features) throws IOException {
+        synchronized (this) {
+            remember(key, features);
+        }
+        File file = entryFile(key);
+        File temp = new File(directory, key + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        ByteBuffer bytes = ByteBuffer.allocate(HEADER_BYTES + 4 * features.length).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(MAGIC).putInt(features.length);
+        bytes.asFloatBuffer().put(features);
+        bytes.rewind();
+        try (FileChannel channel = new FileOutputStream(temp).getChannel()) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        synchronized (diskLock) {
+            long replaced = file.length();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Cannot store " + file);
+            }
+            synchronized (this) {
+                diskBytes += bytes.capacity() - replaced;
+            }
+            trimDisk();
+        }
+    }
+
+    private void remember(String key, float[] features) {
+        long bytes = entryBytes(features);
+        if (bytes > maxMemoryBytes) {
+            return;
+        }
+        float[] previous = memory.put(key, features);
+        memoryBytes += bytes - (previous != null ? entryBytes(previous) : 0);
+        Iterator<Map.Entry<String, float[]>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            memoryBytes -= entryBytes(eldest.next().getValue());
+            eldest.remove();
+            memoryEvictions++;
+        }
+    }
+
+    private static long entryBytes(float[] features) {
+        return ENTRY_OVERHEAD_BYTES + 4L * features.length;
+    }
+
+    // Entry read from file, or null if there is none or it is damaged
+    private float[] read(File file) throws IOException {
+        ByteBuffer bytes;
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return discard(file);
+            }
+            bytes = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // keep reading until the entry is complete
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        int count = bytes.getInt(4);
+        if (bytes.getInt(0) != MAGIC || count < 0 || bytes.capacity() != HEADER_BYTES + 4L * count) {
+            return discard(file);
+        }
+        float[] features = new float[count];
+        bytes.position(HEADER_BYTES);
+        bytes.asFloatBuffer().get(features);
+        file.setLastModified(System.currentTimeMillis());
+        return features;
+    }
+
+    private float[] discard(File file) {
+        synchronized (diskLock) {
+            long length = file.length();
+            if (file.delete()) {
+                synchronized (this) {
+                    diskBytes -= length;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Delete the entries used longest ago until the disk tier is back under its limit
+    private void trimDisk() {
+        synchronized (this) {
+            if (diskBytes <= maxDiskBytes) {
+                return;
+            }
+        }
+        File[] files = listFiles();
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(modified[a], modified[b]);
+            }
+        });
+        long target = (long) (maxDiskBytes * TRIM_TARGET);
+        for (Integer i : order) {
+            synchronized (this) {
+                if (diskBytes <= target) {
+                    return;
+                }
+            }
+            File file = files[i];
+            long length = file.length();
+            if (file.getName().endsWith(SUFFIX) && file.delete()) {
+                synchronized (this) {
+                    diskBytes -= length;
+                    diskEvictions++;
+                }
+            }
+        }
+    }
+
+    private File[] listFiles() {
+        File[] files = directory.listFiles();
+        return files != null ? files : new File[0];
+    }
+
+    private File entryFile(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    public synchronized long getMemoryHits() {
+        return memoryHits;
+    }
+
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // Share of lookups answered by either tier, 0 before the first
+    public synchronized double getHitRate() {
+        long lookups = memoryHits + diskHits + misses;
+        return lookups > 0 ? (double) (memoryHits + diskHits) / lookups : 0;
+    }
+
+    public synchronized long getMemoryEvictions() {
+        return memoryEvictions;
+    }
+
+    public synchronized long getDiskEvictions() {
+        return diskEvictions;
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    // Collects the window vectors an analyzer scores, to put() them afterwards
+    public static class Collector implements FeatureAnalyzer.WindowListener {
+        private float[] features = new float[0];
+        private int length;
+
+        @Override
+        public void onWindow(float[] vector, int offset, int count) {
+            if (length + count > features.length) {
+                features = Arrays.copyOf(features, Math.max(2 * features.length, length + count));
+            }
+            System.arraycopy(vector, offset, features, length, count);
+            length += count;
+        }
+
+        public float[] toArray() {
+            return Arrays.copyOf(features, length);
+        }
+    }
+}
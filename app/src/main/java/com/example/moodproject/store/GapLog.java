@@ -0,0 +1,164 @@
+package com.example.moodproject.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Gap marks of the recordings in one segment, kept next to it in an append-only file.
+// Record headers are written before their audio and have no room for a list, so each
+// gap is appended here as it ends, naming the record it belongs to by audio offset.
+// Records only ever follow each other in a segment, so marks are in record order and
+// cutting the segment back cuts a tail of this file. A torn last mark is ignored.
+//
+// A RecordingWriter keeps the file open while it writes and its marks are queued,
+// written along with its audio and forced before the record is committed. Marks are
+// only read back for records in the segment, so ones lost with an uncommitted record
+// cost nothing.
+//
+// Layout, little endian:
+//   header: int magic "RGAP", int version
+//   mark:   long record audio offset, long first sample, int samples
+final class GapLog implements Closeable {
+
+    static final int MAGIC = 0x50414752; // "RGAP" read little endian
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int MARK_BYTES = 20;
+    // Marks queued before they are written whatever the flush
+    private static final int QUEUED_MARKS = 64;
+
+    private final FileChannel channel;
+    private final ByteBuffer queued = ByteBuffer.allocate(HEADER_BYTES + QUEUED_MARKS * MARK_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    // Where the queued bytes go
+    private long position;
+
+    private GapLog(FileChannel channel) throws IOException {
+        this.channel = channel;
+        position = end(channel);
+        if (position < HEADER_BYTES) {
+            channel.truncate(0);
+            queued.putInt(MAGIC).putInt(VERSION);
+            position = 0;
+        }
+    }
+
+    // Open the file for appending marks after those it has
+    static GapLog open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new GapLog(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Queue a mark, written with the next flush() or once the queue is full
+    void append(long recordOffset, long sampleOffset, int samples) throws IOException {
+        if (queued.remaining() < MARK_BYTES) {
+            flush(false);
+        }
+        queued.putLong(recordOffset).putLong(sampleOffset).putInt(samples);
+    }
+
+    // Write the queued marks, and with force make them durable, as before a commit
+    void flush(boolean force) throws IOException {
+        queued.flip();
+        while (queued.hasRemaining()) {
+            position += channel.write(queued, position);
+        }
+        queued.clear();
+        if (force) {
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Add the marks of the record at recordOffset to out, clipped to its first
+    // sampleCount samples; returns the samples they cover
+    static long read(File file, long recordOffset, long sampleCount, List<RecordingGap> out) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        long total = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long end = end(channel);
+            if (end < HEADER_BYTES) {
+                return 0;
+            }
+            ByteBuffer marks = channel.map(FileChannel.MapMode.READ_ONLY, 0, end).order(ByteOrder.LITTLE_ENDIAN);
+            for (int p = HEADER_BYTES; p < end; p += MARK_BYTES) {
+                long offset = marks.getLong(p);
+                if (offset > recordOffset) {
+                    break;
+                }
+                long first = marks.getLong(p + 8);
+                int samples = (int) Math.min(marks.getInt(p + 16), sampleCount - first);
+                if (offset == recordOffset && samples > 0) {
+                    if (out != null) {
+                        RecordingGap gap = new RecordingGap();
+                        gap.sampleOffset = first;
+                        gap.samples = samples;
+                        out.add(gap);
+                    }
+                    total += samples;
+                }
+            }
+        }
+        return total;
+    }
+
+    // Drop the marks of records at or after segment position cut, which is being
+    // truncated away
+    static void cut(File file, long cut) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long end = end(channel);
+            if (end < HEADER_BYTES) {
+                return;
+            }
+            ByteBuffer offset = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            for (long p = HEADER_BYTES; p < end; p += MARK_BYTES) {
+                offset.clear();
+                while (offset.hasRemaining() && channel.read(offset, p + offset.position()) > 0) {
+                    // keep reading until the offset is complete
+                }
+                if (offset.getLong(0) >= cut) {
+                    channel.truncate(p);
+                    channel.force(false);
+                    return;
+                }
+            }
+        }
+    }
+
+    // Where the whole marks end, or 0 if the file has no valid header
+    private static long end(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_BYTES) {
+            return 0;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // keep reading until the header is complete
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            return 0;
+        }
+        return size - (size - HEADER_BYTES) % MARK_BYTES;
+    }
+}
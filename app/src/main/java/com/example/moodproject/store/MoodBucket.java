@@ -0,0 +1,45 @@
+package com.example.moodproject.store;
+
+// Mood scores summed over a span of time, as MoodSeries.query() returns them: a
+// rollup bucket, or a single scored window when durationMillis is 0. Scores are
+// quantized to 0-255 for a probability of 0-1.
+public final class MoodBucket {
+
+    // Wall clock time the span starts at, or of the window
+    public long startMillis;
+    public long durationMillis;
+    // Scored windows in the span
+    public int count;
+    // Sum of their quantized scores
+    public int scoreSum;
+    // Windows per dominant mood, by label index
+    public final int[] moodCounts = new int[MoodSeries.MAX_MOODS];
+
+    // Label index of the mood most windows had, the lowest on a tie, or
+    // RecordingEntry.NO_MOOD for an empty span
+    public int getDominantMood() {
+        int mood = RecordingEntry.NO_MOOD;
+        for (int i = 0; i < moodCounts.length; i++) {
+            if (moodCounts[i] > 0 && (mood < 0 || moodCounts[i] > moodCounts[mood])) {
+                mood = i;
+            }
+        }
+        return mood;
+    }
+
+    // Share of windows with mood, 0-1
+    public float getShare(int mood) {
+        return count == 0 ? 0 : (float) moodCounts[mood] / count;
+    }
+
+    // Mean probability the windows gave their dominant mood, 0-1
+    public float getMeanScore() {
+        return count == 0 ? 0 : scoreSum / (255f * count);
+    }
+
+    @Override
+    public String toString() {
+        return "MoodBucket{start=" + startMillis + ", duration=" + durationMillis + " ms, count=" + count
+                + ", mood=" + getDominantMood() + ", score=" + getMeanScore() + "}";
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.moodproject.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Mood points summed into fixed buckets of one resolution, one fixed-size record per
+// bucket that has points, in time order in a memory-mapped file. Points arrive in
+// time order, so adding one either bumps the counters of the last bucket in place or
+// appends the next; a query binary searches the mapping for its first bucket and
+// costs O(log n) plus the buckets it returns, however many points they hold.
+//
+// Layout, little endian:
+//   header: int magic "MRUP", int version, int count, int resolution in seconds
+//   bucket: long start, int points, int score sum, int points per mood [MAX_MOODS]
+class MoodRollup {
+
+    static final int MAGIC = 0x5055524D; // "MRUP" read little endian
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int BUCKET_BYTES = 16 + 4 * MoodSeries.MAX_MOODS;
+
+    private static final int COUNT_OFFSET = 8;
+    private static final int RESOLUTION_OFFSET = 12;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final FileChannel channel;
+    private final long resolutionMillis;
+    private MappedByteBuffer map;
+    private int capacity;
+    private int count;
+
+    // Opens an existing rollup, or creates an empty one.
+    // Throws IOException if the file exists but is not a rollup of this resolution.
+    MoodRollup(File file, long resolutionMillis) throws IOException {
+        this.resolutionMillis = resolutionMillis;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size == 0) {
+                remap(INITIAL_CAPACITY);
+                map.putInt(0, MAGIC);
+                map.putInt(4, VERSION);
+                map.putInt(COUNT_OFFSET, 0);
+                map.putInt(RESOLUTION_OFFSET, (int) (resolutionMillis / 1000));
+                map.force();
+            } else {
+                if (size < HEADER_BYTES) {
+                    throw new IOException("Rollup too short: " + file);
+                }
+                remap((int) ((size - HEADER_BYTES) / BUCKET_BYTES));
+                if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION
+                        || map.getInt(RESOLUTION_OFFSET) != resolutionMillis / 1000) {
+                    throw new IOException("Not a " + resolutionMillis / 1000 + " s mood rollup: " + file);
+                }
+                count = map.getInt(COUNT_OFFSET);
+                if (count < 0 || count > capacity) {
+                    throw new IOException("Rollup count out of range: " + count);
+                }
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void remap(int newCapacity) throws IOException {
+        capacity = newCapacity;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * BUCKET_BYTES);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    int size() {
+        return count;
+    }
+
+    long getResolutionMillis() {
+        return resolutionMillis;
+    }
+
+    // Start of the bucket millis falls in
+    long bucketStart(long millis) {
+        return millis - Math.floorMod(millis, resolutionMillis);
+    }
+
+    long getStartMillis(int index) {
+        return map.getLong(position(index));
+    }
+
+    // Count a point; millis must not be before the last bucket's start
+    void add(long millis, int mood, int score) throws IOException {
+        long start = bucketStart(millis);
+        if (count == 0 || getStartMillis(count - 1) < start) {
+            if (count == capacity) {
+                remap(capacity * 2);
+            }
+            int p = position(count);
+            map.putLong(p, start);
+            for (int i = 8; i < BUCKET_BYTES; i += 4) {
+                map.putInt(p + i, 0);
+            }
+            // The new bucket is visible once the count covers it
+            count++;
+            map.putInt(COUNT_OFFSET, count);
+        }
+        int p = position(count - 1);
+        map.putInt(p + 8, map.getInt(p + 8) + 1);
+        map.putInt(p + 12, map.getInt(p + 12) + score);
+        map.putInt(p + 16 + 4 * mood, map.getInt(p + 16 + 4 * mood) + 1);
+    }
+
+    void get(int index, MoodBucket dst) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Bucket " + index + " of " + count);
+        }
+        int p = position(index);
+        dst.startMillis = map.getLong(p);
+        dst.durationMillis = resolutionMillis;
+        dst.count = map.getInt(p + 8);
+        dst.scoreSum = map.getInt(p + 12);
+        for (int i = 0; i < MoodSeries.MAX_MOODS; i++) {
+            dst.moodCounts[i] = map.getInt(p + 16 + 4 * i);
+        }
+    }
+
+    // First bucket starting at or after startMillis, or size() if none does
+    int lowerBound(long startMillis) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getStartMillis(mid) < startMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Add every bucket overlapping [fromMillis, toMillis) to out, in time order
+    void query(long fromMillis, long toMillis, List<MoodBucket> out) {
+        for (int i = lowerBound(bucketStart(fromMillis)); i < count && getStartMillis(i) < toMillis; i++) {
+            MoodBucket bucket = new MoodBucket();
+            get(i, bucket);
+            out.add(bucket);
+        }
+    }
+
+    void force() {
+        map.force();
+    }
+
+    private static int position(int index) {
+        return HEADER_BYTES + index * BUCKET_BYTES;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
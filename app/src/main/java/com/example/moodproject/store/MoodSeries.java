@@ -0,0 +1,350 @@
+package com.example.moodproject.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Time series of the mood scored for every analysis window, for history charts over
+// days and weeks. Points are the dominant mood and its probability quantized to a
+// byte, kept in two forms:
+//
+// - Raw, in an append-only file of blocks of up to blockPoints points. A block is
+//   columnar: the times, then the moods, then the scores. Each time is stored as the
+//   change from the previous gap between points, zigzag varint encoded, which for
+//   windows a second apart is 0, so a point costs about three bytes. Blocks are
+//   written when full and on flush(); the time range of each is kept in memory, so
+//   reading a span decodes only the blocks it touches.
+// - Rolled up per minute, hour and day in MoodRollup files, updated in place with
+//   every point, so a chart over any span reads a bounded number of buckets.
+//
+// query() picks the finest resolution that fits the chart. Times must not go back;
+// a point older than the last is stored at the last time (e.g. after a clock change).
+// After a crash the rollups may count points whose raw block was never written, so
+// charts of minutes and up lose nothing; a block cut short is dropped on open.
+//
+// Raw block, little endian: int magic "MPTS", int points, long first time,
+// long last time, int payload bytes, int CRC32 of the payload, then the payload.
+public class MoodSeries {
+
+    // Label indexes the rollups have room for
+    public static final int MAX_MOODS = 16;
+
+    public static final long MINUTE_MILLIS = 60_000;
+    public static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+    public static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+    // Resolution query() reports for raw points
+    public static final long RAW = 0;
+
+    static final int BLOCK_MAGIC = 0x5354504D; // "MPTS" read little endian
+    static final int BLOCK_HEADER_BYTES = 32;
+    static final String RAW_FILE = "moods.pts";
+
+    private static final int DEFAULT_BLOCK_POINTS = 4096;
+    // Spacing of raw points taken when picking a resolution: one per mood window
+    private static final long RAW_SPACING_MILLIS = 1000;
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private final FileChannel channel;
+    private final MoodRollup[] rollups;
+    private final int blockPoints;
+    private final List<Block> blocks = new ArrayList<>();
+    private long fileBytes;
+    private long storedPoints;
+
+    // Points not yet written, in block layout
+    private final byte[] deltas;
+    private final byte[] moods;
+    private final byte[] scores;
+    private int pending;
+    private int deltaBytes;
+    private long pendingGap;
+    private long pendingFirstMillis;
+    private long lastMillis = Long.MIN_VALUE;
+
+    // Time range and place of a block in the raw file
+    private static final class Block {
+        final long offset;
+        final int points;
+        final long firstMillis;
+        final long lastMillis;
+
+        Block(long offset, int points, long firstMillis, long lastMillis) {
+            this.offset = offset;
+            this.points = points;
+            this.firstMillis = firstMillis;
+            this.lastMillis = lastMillis;
+        }
+    }
+
+    public static MoodSeries open(File directory) throws IOException {
+        return open(directory, DEFAULT_BLOCK_POINTS);
+    }
+
+    public static MoodSeries open(File directory, int blockPoints) throws IOException {
+        if (blockPoints <= 0) {
+            throw new IllegalArgumentException("Bad block size " + blockPoints);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create mood series directory " + directory);
+        }
+        return new MoodSeries(directory, blockPoints);
+    }
+
+    private MoodSeries(File directory, int blockPoints) throws IOException {
+        this.blockPoints = blockPoints;
+        deltas = new byte[MAX_VARINT_BYTES * blockPoints];
+        moods = new byte[blockPoints];
+        scores = new byte[blockPoints];
+        rollups = new MoodRollup[3];
+        channel = FileChannel.open(new File(directory, RAW_FILE).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            rollups[0] = new MoodRollup(new File(directory, "moods.minute"), MINUTE_MILLIS);
+            rollups[1] = new MoodRollup(new File(directory, "moods.hour"), HOUR_MILLIS);
+            rollups[2] = new MoodRollup(new File(directory, "moods.day"), DAY_MILLIS);
+            scanBlocks();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        MoodRollup minutes = rollups[0];
+        if (minutes.size() > 0) {
+            lastMillis = Math.max(lastMillis, minutes.getStartMillis(minutes.size() - 1));
+        }
+    }
+
+    // Index the blocks in the raw file; one cut short by a crash is truncated away.
+    // Only the last block's checksum is checked here, as only it can be torn.
+    private void scanBlocks() throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position = 0;
+        while (position < size) {
+            header.clear();
+            while (header.hasRemaining() && channel.read(header, position + header.position()) > 0) {
+                // keep reading until the header is complete
+            }
+            int points = header.getInt(4);
+            int payloadBytes = header.getInt(24);
+            long end = position + BLOCK_HEADER_BYTES + payloadBytes;
+            if (header.hasRemaining() || header.getInt(0) != BLOCK_MAGIC || points <= 0 || payloadBytes < 0
+                    || end > size || (end == size && readPayload(position, header) == null)) {
+                channel.truncate(position);
+                break;
+            }
+            Block block = new Block(position, points, header.getLong(8), header.getLong(16));
+            blocks.add(block);
+            storedPoints += points;
+            lastMillis = Math.max(lastMillis, block.lastMillis);
+            position = end;
+        }
+        fileBytes = position;
+    }
+
+    // Payload of the block at position with header, or null if its checksum fails
+    private ByteBuffer readPayload(long position, ByteBuffer header) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(header.getInt(24));
+        while (payload.hasRemaining()
+                && channel.read(payload, position + BLOCK_HEADER_BYTES + payload.position()) > 0) {
+            // keep reading until the payload is complete
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payload.position());
+        if (payload.hasRemaining() || (int) crc.getValue() != header.getInt(28)) {
+            return null;
+        }
+        payload.flip();
+        return payload;
+    }
+
+    // Add the mood scored for the window ending at millis, with its probability
+    public synchronized void append(long millis, int mood, float score) throws IOException {
+        if (mood < 0 || mood >= MAX_MOODS) {
+            throw new IllegalArgumentException("Mood " + mood + " out of range");
+        }
+        millis = Math.max(millis, lastMillis);
+        int quantized = Math.round(Math.max(0, Math.min(1, score)) * 255);
+        if (pending == 0) {
+            pendingFirstMillis = millis;
+        } else {
+            long gap = millis - lastMillis;
+            long change = gap - pendingGap;
+            long delta = (change << 1) ^ (change >> 63);
+            pendingGap = gap;
+            while ((delta & ~0x7FL) != 0) {
+                deltas[deltaBytes++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            deltas[deltaBytes++] = (byte) delta;
+        }
+        moods[pending] = (byte) mood;
+        scores[pending] = (byte) quantized;
+        pending++;
+        lastMillis = millis;
+        for (MoodRollup rollup : rollups) {
+            rollup.add(millis, mood, quantized);
+        }
+        if (pending == blockPoints) {
+            writeBlock();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        int payloadBytes = deltaBytes + 2 * pending;
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_BYTES + payloadBytes).order(ByteOrder.LITTLE_ENDIAN);
+        block.position(BLOCK_HEADER_BYTES);
+        block.put(deltas, 0, deltaBytes).put(moods, 0, pending).put(scores, 0, pending);
+        CRC32 crc = new CRC32();
+        crc.update(block.array(), BLOCK_HEADER_BYTES, payloadBytes);
+        block.putInt(0, BLOCK_MAGIC).putInt(4, pending).putLong(8, pendingFirstMillis).putLong(16, lastMillis)
+                .putInt(24, payloadBytes).putInt(28, (int) crc.getValue());
+        block.rewind();
+        long position = fileBytes;
+        while (block.hasRemaining()) {
+            position += channel.write(block, position);
+        }
+        blocks.add(new Block(fileBytes, pending, pendingFirstMillis, lastMillis));
+        fileBytes = position;
+        storedPoints += pending;
+        pending = 0;
+        deltaBytes = 0;
+        pendingGap = 0;
+    }
+
+    // Write the points so far as a block and the rollups through to the files,
+    // e.g. when a recording ends
+    public synchronized void flush() throws IOException {
+        if (pending > 0) {
+            writeBlock();
+        }
+        channel.force(false);
+        for (MoodRollup rollup : rollups) {
+            rollup.force();
+        }
+    }
+
+    // Finest resolution that covers [fromMillis, toMillis) in at most maxBuckets
+    // buckets: RAW, MINUTE_MILLIS, HOUR_MILLIS or DAY_MILLIS, which may need more
+    public static long resolutionFor(long fromMillis, long toMillis, int maxBuckets) {
+        long span = toMillis - fromMillis;
+        if (span <= RAW_SPACING_MILLIS * maxBuckets) {
+            return RAW;
+        }
+        if (span <= MINUTE_MILLIS * maxBuckets) {
+            return MINUTE_MILLIS;
+        }
+        return span <= HOUR_MILLIS * maxBuckets ? HOUR_MILLIS : DAY_MILLIS;
+    }
+
+    // Moods in [fromMillis, toMillis) at the resolution resolutionFor() picks, in
+    // time order; only spans that have points are returned
+    public List<MoodBucket> query(long fromMillis, long toMillis, int maxBuckets) throws IOException {
+        return query(fromMillis, toMillis, resolutionFor(fromMillis, toMillis, maxBuckets));
+    }
+
+    // Moods in [fromMillis, toMillis) at resolution: RAW points, or the buckets of
+    // MINUTE_MILLIS, HOUR_MILLIS or DAY_MILLIS that overlap the range
+    public synchronized List<MoodBucket> query(long fromMillis, long toMillis, long resolution) throws IOException {
+        List<MoodBucket> out = new ArrayList<>();
+        if (resolution != RAW) {
+            for (MoodRollup rollup : rollups) {
+                if (rollup.getResolutionMillis() == resolution) {
+                    rollup.query(fromMillis, toMillis, out);
+                    return out;
+                }
+            }
+            throw new IllegalArgumentException("No rollup at " + resolution + " ms");
+        }
+        for (Block block : blocks) {
+            if (block.lastMillis >= fromMillis && block.firstMillis < toMillis) {
+                ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                while (header.hasRemaining() && channel.read(header, block.offset + header.position()) > 0) {
+                    // keep reading until the header is complete
+                }
+                ByteBuffer payload = readPayload(block.offset, header);
+                if (payload == null) {
+                    throw new IOException("Mood block at " + block.offset + " is damaged");
+                }
+                decode(payload.array(), block.points, block.firstMillis, fromMillis, toMillis, out);
+            }
+        }
+        if (pending > 0 && lastMillis >= fromMillis && pendingFirstMillis < toMillis) {
+            byte[] payload = new byte[deltaBytes + 2 * pending];
+            System.arraycopy(deltas, 0, payload, 0, deltaBytes);
+            System.arraycopy(moods, 0, payload, deltaBytes, pending);
+            System.arraycopy(scores, 0, payload, deltaBytes + pending, pending);
+            decode(payload, pending, pendingFirstMillis, fromMillis, toMillis, out);
+        }
+        return out;
+    }
+
+    // Add the points of a block payload that fall in [fromMillis, toMillis) to out
+    private static void decode(byte[] payload, int points, long firstMillis, long fromMillis, long toMillis,
+                               List<MoodBucket> out) {
+        int moodsAt = payload.length - 2 * points;
+        long millis = firstMillis;
+        long gap = 0;
+        int p = 0;
+        for (int i = 0; i < points; i++) {
+            if (i > 0) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = payload[p++];
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                gap += (delta >>> 1) ^ -(delta & 1);
+                millis += gap;
+            }
+            if (millis >= toMillis) {
+                return;
+            }
+            if (millis >= fromMillis) {
+                MoodBucket point = new MoodBucket();
+                point.startMillis = millis;
+                point.count = 1;
+                point.scoreSum = payload[moodsAt + points + i] & 0xFF;
+                point.moodCounts[payload[moodsAt + i]] = 1;
+                out.add(point);
+            }
+        }
+    }
+
+    // Points stored, written or not
+    public synchronized long getPointCount() {
+        return storedPoints + pending;
+    }
+
+    public synchronized int getBlockCount() {
+        return blocks.size();
+    }
+
+    // Size of the raw file, without the rollups
+    public synchronized long getRawBytes() {
+        return fileBytes;
+    }
+
+    // Flushes, then closes the files
+    public synchronized void close() throws IOException {
+        try {
+            if (pending > 0 && channel.isOpen()) {
+                flush();
+            }
+        } finally {
+            channel.close();
+            for (MoodRollup rollup : rollups) {
+                if (rollup != null) {
+                    rollup.close();
+                }
+            }
+        }
+    }
+}
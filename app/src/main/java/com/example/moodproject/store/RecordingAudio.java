@@ -0,0 +1,64 @@
+package com.example.moodproject.store;
+
+import com.example.moodproject.dsp.LosslessDecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+// Sample reader over one stored recording, whatever its codec. PCM is read straight
+// from the mapped segment; compressed audio goes through a LosslessDecoder, which
+// only decodes the blocks a read touches. Not thread safe.
+public class RecordingAudio {
+
+    private final int sampleRate;
+    private final long sampleCount;
+    private final ShortBuffer pcm;
+    private final LosslessDecoder decoder;
+
+    RecordingAudio(RecordingEntry entry, ByteBuffer stored) throws IOException {
+        this.sampleRate = entry.sampleRate;
+        if (entry.codec == RecordingEntry.CODEC_LOSSLESS) {
+            decoder = new LosslessDecoder(stored);
+            pcm = null;
+            sampleCount = decoder.getSampleCount();
+        } else if (entry.codec == RecordingEntry.CODEC_PCM) {
+            pcm = stored.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            decoder = null;
+            sampleCount = pcm.limit();
+        } else {
+            throw new IOException("Unknown codec " + entry.codec);
+        }
+    }
+
+    // Copy up to length samples starting at sample `position`. Returns the number
+    // copied, 0 at or past the end.
+    public int read(long position, short[] dst, int offset, int length) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position " + position);
+        }
+        if (decoder != null) {
+            return decoder.read(position, dst, offset, length);
+        }
+        if (position >= sampleCount) {
+            return 0;
+        }
+        int count = (int) Math.min(length, sampleCount - position);
+        pcm.position((int) position);
+        pcm.get(dst, offset, count);
+        return count;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public boolean isCompressed() {
+        return decoder != null;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.moodproject.store;
+
+// One stored recording as listed in the index. Audio is 16-bit mono, found at
+// `offset` in segment file `segment`: little endian PCM, or lossless blocks when
+// codec is CODEC_LOSSLESS. RecordingStore.openAudio() reads either.
+public final class RecordingEntry {
+
+    public static final int NO_MOOD = -1;
+
+    public static final int CODEC_PCM = 0;
+    public static final int CODEC_LOSSLESS = 1;
+
+    // Connection session the recording belongs to
+    public long sessionId;
+    // Wall clock time of the first sample
+    public long startMillis;
+    public int durationMs;
+    public int sampleRate;
+    public long sampleCount;
+    public int codec = CODEC_PCM;
+    public int segment;
+    // Byte offset of the stored audio within the segment file
+    public long offset;
+    // Stored bytes, after compression
+    public long dataBytes;
+    // Label index of the dominant mood, or NO_MOOD if none was scored
+    public int mood = NO_MOOD;
+    // Share of scored windows that had the dominant mood, in per mille
+    public int moodShare;
+    // Audio lost to connection gaps, stored as silence where it was missing; see
+    // RecordingStore.getGaps() for where
+    public int gapMs;
+
+    public long getEndMillis() {
+        return startMillis + durationMs;
+    }
+
+    public void copyFrom(RecordingEntry other) {
+        sessionId = other.sessionId;
+        startMillis = other.startMillis;
+        durationMs = other.durationMs;
+        sampleRate = other.sampleRate;
+        sampleCount = other.sampleCount;
+        codec = other.codec;
+        segment = other.segment;
+        offset = other.offset;
+        dataBytes = other.dataBytes;
+        mood = other.mood;
+        moodShare = other.moodShare;
+        gapMs = other.gapMs;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingEntry{session=" + sessionId + ", start=" + startMillis + ", duration=" + durationMs
+                + " ms, samples=" + sampleCount + ", codec=" + codec + ", segment=" + segment
+                + ", offset=" + offset + ", bytes=" + dataBytes + ", mood=" + mood + " (" + moodShare + "/1000)"
+                + ", gaps=" + gapMs + " ms}";
+    }
+}
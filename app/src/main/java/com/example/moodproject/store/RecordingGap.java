@@ -0,0 +1,19 @@
+package com.example.moodproject.store;
+
+// A stretch of a recording stored as silence because the stream lost that audio,
+// e.g. while the connection was down, as RecordingStore.getGaps() returns it
+public final class RecordingGap {
+
+    // First sample of the gap within the recording
+    public long sampleOffset;
+    public int samples;
+
+    public long getEndSample() {
+        return sampleOffset + samples;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingGap{offset=" + sampleOffset + ", samples=" + samples + "}";
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.moodproject.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Fixed-size index entries kept sorted by start time in one memory-mapped file.
+// Lookups binary search the mapping directly, so opening costs a header read and a
+// time-range query is O(log n) plus the entries it returns. The entry count in the
+// header is written last and is what makes an append visible after a crash.
+//
+// Published entries are never written in place. A recording older than the last
+// one, which only imports and recovery produce, is inserted by writing the whole
+// index with the entry in place to a temporary file and renaming it over this one,
+// so a crash leaves either the old index or the new.
+//
+// Layout, little endian:
+//   header: int magic "RIDX", int version, int count, int longest duration in ms
+//   entry:  long session, long start, long offset, long bytes, long samples,
+//           int duration, int sample rate, int segment, short mood, short mood share,
+//           int codec, int gap ms
+// The gap field was reserved and zero before gaps were recorded. The record headers
+// in the segments do not keep it; an index rebuilt from them sums each recording's
+// marks in the segment's GapLog instead.
+class RecordingIndex {
+
+    static final int MAGIC = 0x58444952; // "RIDX" read little endian
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 16;
+    static final int ENTRY_BYTES = 64;
+
+    private static final int COUNT_OFFSET = 8;
+    private static final int LONGEST_OFFSET = 12;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File file;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private int capacity;
+    private int count;
+    private int longestMs;
+
+    // Opens an existing index, or creates an empty one.
+    // Throws IOException if the file exists but is not a valid index.
+    RecordingIndex(File file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size == 0) {
+                remap(INITIAL_CAPACITY);
+                map.putInt(0, MAGIC);
+                map.putInt(4, VERSION);
+                map.putInt(COUNT_OFFSET, 0);
+                map.putInt(LONGEST_OFFSET, 0);
+                map.force();
+            } else {
+                if (size < HEADER_BYTES) {
+                    throw new IOException("Index too short: " + file);
+                }
+                remap((int) ((size - HEADER_BYTES) / ENTRY_BYTES));
+                if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                    throw new IOException("Not a recording index: " + file);
+                }
+                count = map.getInt(COUNT_OFFSET);
+                longestMs = map.getInt(LONGEST_OFFSET);
+                if (count < 0 || count > capacity) {
+                    throw new IOException("Index count out of range: " + count);
+                }
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void remap(int newCapacity) throws IOException {
+        capacity = newCapacity;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * ENTRY_BYTES);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    int size() {
+        return count;
+    }
+
+    long getStartMillis(int index) {
+        return map.getLong(position(index) + 8);
+    }
+
+    void get(int index, RecordingEntry dst) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Entry " + index + " of " + count);
+        }
+        int p = position(index);
+        dst.sessionId = map.getLong(p);
+        dst.startMillis = map.getLong(p + 8);
+        dst.offset = map.getLong(p + 16);
+        dst.dataBytes = map.getLong(p + 24);
+        dst.sampleCount = map.getLong(p + 32);
+        dst.durationMs = map.getInt(p + 40);
+        dst.sampleRate = map.getInt(p + 44);
+        dst.segment = map.getInt(p + 48);
+        dst.mood = map.getShort(p + 52);
+        dst.moodShare = map.getShort(p + 54);
+        dst.codec = map.getInt(p + 56);
+        dst.gapMs = map.getInt(p + 60);
+    }
+
+    // First entry starting at or after startMillis, or size() if none does
+    int lowerBound(long startMillis) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getStartMillis(mid) < startMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Add every entry overlapping [fromMillis, toMillis) to out, in start order.
+    // Entries that begin before fromMillis can only reach back by the longest
+    // duration stored, which bounds the search.
+    void query(long fromMillis, long toMillis, List<RecordingEntry> out) {
+        for (int i = lowerBound(fromMillis - longestMs); i < count; i++) {
+            long start = getStartMillis(i);
+            if (start >= toMillis) {
+                break;
+            }
+            if (start + map.getInt(position(i) + 40) > fromMillis || start >= fromMillis) {
+                RecordingEntry entry = new RecordingEntry();
+                get(i, entry);
+                out.add(entry);
+            }
+        }
+    }
+
+    // Insert keeping start order; entries with equal start keep insertion order.
+    // Recordings normally arrive in order and are appended.
+    void add(RecordingEntry entry) throws IOException {
+        int index = count;
+        while (index > 0 && getStartMillis(index - 1) > entry.startMillis) {
+            index--;
+        }
+        if (index < count) {
+            insert(index, entry);
+            return;
+        }
+        if (count == capacity) {
+            remap(capacity * 2);
+        }
+        put(map, position(index), entry);
+        map.force();
+
+        // Publishing the new count is the commit point
+        count++;
+        longestMs = Math.max(longestMs, entry.durationMs);
+        map.putInt(LONGEST_OFFSET, longestMs);
+        map.putInt(COUNT_OFFSET, count);
+        map.force();
+    }
+
+    // Write a copy of the index with entry at index and swap it in
+    private void insert(int index, RecordingEntry entry) throws IOException {
+        int newCapacity = count == capacity ? capacity * 2 : capacity;
+        int newLongest = Math.max(longestMs, entry.durationMs);
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer copy = out.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_BYTES + (long) newCapacity * ENTRY_BYTES);
+            copy.order(ByteOrder.LITTLE_ENDIAN);
+            copy.putInt(0, MAGIC);
+            copy.putInt(4, VERSION);
+            copy.putInt(COUNT_OFFSET, count + 1);
+            copy.putInt(LONGEST_OFFSET, newLongest);
+            ByteBuffer before = map.duplicate();
+            before.position(HEADER_BYTES).limit(position(index));
+            copy.position(HEADER_BYTES);
+            copy.put(before);
+            put(copy, position(index), entry);
+            ByteBuffer after = map.duplicate();
+            after.position(position(index)).limit(position(count));
+            copy.position(position(index + 1));
+            copy.put(after);
+            copy.force();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace index " + file);
+        }
+        channel.close();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        remap(newCapacity);
+        count++;
+        longestMs = newLongest;
+    }
+
+    private static void put(ByteBuffer map, int p, RecordingEntry entry) {
+        map.putLong(p, entry.sessionId);
+        map.putLong(p + 8, entry.startMillis);
+        map.putLong(p + 16, entry.offset);
+        map.putLong(p + 24, entry.dataBytes);
+        map.putLong(p + 32, entry.sampleCount);
+        map.putInt(p + 40, entry.durationMs);
+        map.putInt(p + 44, entry.sampleRate);
+        map.putInt(p + 48, entry.segment);
+        map.putShort(p + 52, (short) entry.mood);
+        map.putShort(p + 54, (short) entry.moodShare);
+        map.putInt(p + 56, entry.codec);
+        map.putInt(p + 60, entry.gapMs);
+    }
+
+    // Change the mood of the entry for the recording at segment/offset; returns false if
+    // it is not indexed. Reaches the file with the next force(), or when the OS writes it.
+    boolean setMood(long startMillis, int segment, long offset, int mood, int moodShare) {
+        for (int i = lowerBound(startMillis); i < count && getStartMillis(i) == startMillis; i++) {
+            int p = position(i);
+            if (map.getInt(p + 48) == segment && map.getLong(p + 16) == offset) {
+                map.putShort(p + 52, (short) mood);
+                map.putShort(p + 54, (short) moodShare);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void force() {
+        map.force();
+    }
+
+    private static int position(int index) {
+        return HEADER_BYTES + index * ENTRY_BYTES;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
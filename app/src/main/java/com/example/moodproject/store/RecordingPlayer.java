@@ -0,0 +1,290 @@
+package com.example.moodproject.store;
+
+import com.example.moodproject.audio.LiveMonitor;
+import com.example.moodproject.metrics.Histogram;
+
+import java.io.IOException;
+
+// Streams one stored recording to an AudioOutput without loading it into memory.
+// The recording stays in its memory-mapped segment (see RecordingStore.openAudio());
+// a reader thread decodes it a period at a time into a ring of read-ahead slots, so
+// page faults and block decoding happen ahead of playback, and the playback thread
+// hands the slots to the output as fast as its blocking write takes them. The heap
+// holds the slots and one period of samples, however long the recording is.
+//
+// seek() may be called at any time. Slots read before it are dropped, and a period the
+// reader was decoding when it came is thrown away, so nothing from the old position
+// is played after the next period. Start latency, from start() or seek() until the
+// first period reaches the output, is kept and recorded in the optional histogram.
+public class RecordingPlayer {
+
+    private final RecordingAudio audio;
+    private final LiveMonitor.AudioOutput output;
+    private final int periodSamples;
+    private final short[] samples;
+    private final byte[] period;
+    private final byte[][] slots;
+    private final int[] slotLengths;
+    private final long[] slotPositions;
+
+    private final Object lock = new Object();
+    // Guarded by lock
+    private int head;
+    private int filled;
+    private long readPosition;
+    private long seekTarget = -1;
+    private int generation;
+    private boolean ended;
+    private long requestNs;
+    private boolean awaitingFirst;
+
+    private Thread reader;
+    private Thread player;
+    private volatile boolean running;
+    private volatile boolean finished;
+    private volatile long position;
+    private volatile long startLatencyNs = -1;
+    private volatile long underruns;
+    private volatile IOException failure;
+    private Histogram startTimer;
+
+    // periodSamples per write to the output, readAheadPeriods decoded ahead of it
+    public RecordingPlayer(RecordingAudio audio, LiveMonitor.AudioOutput output, int periodSamples,
+                           int readAheadPeriods) {
+        if (periodSamples <= 0 || readAheadPeriods <= 0) {
+            throw new IllegalArgumentException("Bad period " + periodSamples + " x " + readAheadPeriods);
+        }
+        this.audio = audio;
+        this.output = output;
+        this.periodSamples = periodSamples;
+        samples = new short[periodSamples];
+        period = new byte[2 * periodSamples];
+        slots = new byte[readAheadPeriods][2 * periodSamples];
+        slotLengths = new int[readAheadPeriods];
+        slotPositions = new long[readAheadPeriods];
+    }
+
+    // Record the start latency of start() and every seek(); set before start()
+    public void setStartTimer(Histogram startTimer) {
+        this.startTimer = startTimer;
+    }
+
+    // Play from sample `from`
+    public synchronized void start(long from) {
+        if (reader != null) {
+            throw new IllegalStateException("Player already started");
+        }
+        synchronized (lock) {
+            readPosition = clamp(from);
+            position = readPosition;
+            requestNs = System.nanoTime();
+            awaitingFirst = true;
+        }
+        running = true;
+        output.start();
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readAhead();
+            }
+        }, "RecordingPlayer-read");
+        player = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                play();
+            }
+        }, "RecordingPlayer-play");
+        reader.start();
+        player.start();
+    }
+
+    // Continue from sample `to`; past the end, playback finishes
+    public void seek(long to) {
+        synchronized (lock) {
+            seekTarget = clamp(to);
+            generation++;
+            head = 0;
+            filled = 0;
+            ended = false;
+            position = seekTarget;
+            requestNs = System.nanoTime();
+            awaitingFirst = true;
+            lock.notifyAll();
+        }
+    }
+
+    // Stop playing; the output is stopped once the period being written is done
+    public void stop() {
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    // Wait for playback to finish or be stopped
+    public boolean awaitCompletion(long timeoutMs) throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = player;
+        }
+        if (thread == null) {
+            return true;
+        }
+        thread.join(timeoutMs);
+        return !thread.isAlive();
+    }
+
+    private long clamp(long sample) {
+        return Math.max(0, Math.min(sample, audio.getSampleCount()));
+    }
+
+    // Reader thread: decode the next period into a free slot, outside the lock
+    private void readAhead() {
+        try {
+            while (true) {
+                long from;
+                int readGeneration;
+                synchronized (lock) {
+                    while (running && seekTarget < 0 && (filled == slots.length || ended)) {
+                        lock.wait();
+                    }
+                    if (!running) {
+                        return;
+                    }
+                    if (seekTarget >= 0) {
+                        readPosition = seekTarget;
+                        seekTarget = -1;
+                    }
+                    from = readPosition;
+                    readGeneration = generation;
+                }
+
+                int count = audio.read(from, samples, 0, periodSamples);
+
+                synchronized (lock) {
+                    if (readGeneration != generation) {
+                        continue; // seeked meanwhile
+                    }
+                    if (count == 0) {
+                        ended = true;
+                    } else {
+                        int slot = (head + filled) % slots.length;
+                        byte[] data = slots[slot];
+                        for (int i = 0; i < count; i++) {
+                            data[2 * i] = (byte) samples[i];
+                            data[2 * i + 1] = (byte) (samples[i] >> 8);
+                        }
+                        slotLengths[slot] = 2 * count;
+                        slotPositions[slot] = from;
+                        filled++;
+                        readPosition = from + count;
+                    }
+                    lock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop();
+        }
+    }
+
+    // Playback thread: take the oldest slot and write it, paced by the output
+    private void play() {
+        try {
+            while (true) {
+                int length;
+                long from;
+                int playGeneration;
+                synchronized (lock) {
+                    boolean waited = false;
+                    while (running && filled == 0 && !ended) {
+                        if (!waited && !awaitingFirst) {
+                            underruns++;
+                        }
+                        waited = true;
+                        lock.wait();
+                    }
+                    if (!running || filled == 0) {
+                        break;
+                    }
+                    length = slotLengths[head];
+                    from = slotPositions[head];
+                    playGeneration = generation;
+                    System.arraycopy(slots[head], 0, period, 0, length);
+                    head = (head + 1) % slots.length;
+                    filled--;
+                    lock.notifyAll();
+                    if (awaitingFirst) {
+                        awaitingFirst = false;
+                        startLatencyNs = System.nanoTime() - requestNs;
+                        if (startTimer != null) {
+                            startTimer.record(startLatencyNs);
+                        }
+                    }
+                }
+                output.write(period, 0, length);
+                synchronized (lock) {
+                    if (playGeneration == generation) {
+                        position = from + length / 2;
+                    }
+                }
+            }
+            finished = running;
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+            output.stop();
+        }
+    }
+
+    // Sample after the last one handed to the output
+    public long getPosition() {
+        return position;
+    }
+
+    public long getSampleCount() {
+        return audio.getSampleCount();
+    }
+
+    public int getSampleRate() {
+        return audio.getSampleRate();
+    }
+
+    // Time from the latest start() or seek() to its first period reaching the output,
+    // or -1 before that
+    public long getStartLatencyNs() {
+        return startLatencyNs;
+    }
+
+    // How often the output had to wait for the reader once playback was under way
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // True once the recording played to its end, rather than being stopped
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public IOException getFailure() {
+        return failure;
+    }
+
+    // Bytes of read-ahead, the player's whole buffer
+    public int getBufferBytes() {
+        return slots.length * period.length;
+    }
+}
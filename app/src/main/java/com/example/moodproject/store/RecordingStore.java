@@ -0,0 +1,416 @@
+package com.example.moodproject.store;
+
+import com.example.moodproject.dsp.LosslessDecoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Local recording store: audio is appended to numbered segment files and described
+// by a sorted, memory-mapped RecordingIndex. Segments are only ever appended to;
+// each recording is a small header followed by its audio, either raw PCM or blocks
+// of the lossless codec. A new segment is started once the current one passes the
+// size limit. One recording can be written at a time.
+//
+// Record header, little endian:
+//   int magic "RREC", int sample rate, long session, long start,
+//   long data bytes (-1 while recording), short mood, short mood share, int codec
+// Segments written before compression have 0 (PCM) in the codec field.
+//
+// Gaps in a recording's stream are marked in a GapLog per segment, as the record
+// header has no room for them; rebuilding the index reads the gap totals back from it.
+public class RecordingStore {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 256L * 1024 * 1024;
+    public static final int DEFAULT_STAGING_BYTES = 64 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+
+    static final String INDEX_FILE = "recordings.idx";
+    static final int RECORD_MAGIC = 0x43455252; // "RREC" read little endian
+    static final int RECORD_HEADER_BYTES = 40;
+
+    private static final long UNCOMMITTED = -1;
+    private static final int DATA_BYTES_OFFSET = 24;
+    private static final int MOOD_OFFSET = 32;
+    private static final int CODEC_OFFSET = 36;
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final File directory;
+    private final long maxSegmentBytes;
+    private final int stagingBytes;
+    private final long flushIntervalMs;
+    private final int codec;
+    private final RecordingIndex index;
+    private int currentSegment;
+    private RecordingWriter activeWriter;
+    // Segments with mood changes not yet forced
+    private final Set<Integer> moodSegments = new HashSet<>();
+    private int recoveredCount;
+    private boolean rebuilt;
+
+    public static RecordingStore open(File directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_STAGING_BYTES, DEFAULT_FLUSH_INTERVAL_MS, true);
+    }
+
+    public static RecordingStore open(File directory, long maxSegmentBytes, int stagingBytes,
+                                      long flushIntervalMs) throws IOException {
+        return open(directory, maxSegmentBytes, stagingBytes, flushIntervalMs, true);
+    }
+
+    // compress selects the codec of new recordings; existing ones are read either way
+    public static RecordingStore open(File directory, long maxSegmentBytes, int stagingBytes,
+                                      long flushIntervalMs, boolean compress) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create store directory " + directory);
+        }
+        return new RecordingStore(directory, maxSegmentBytes, stagingBytes, flushIntervalMs,
+                compress ? RecordingEntry.CODEC_LOSSLESS : RecordingEntry.CODEC_PCM);
+    }
+
+    private RecordingStore(File directory, long maxSegmentBytes, int stagingBytes,
+                           long flushIntervalMs, int codec) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.stagingBytes = stagingBytes;
+        this.flushIntervalMs = flushIntervalMs;
+        this.codec = codec;
+
+        int[] segments = listSegments();
+        currentSegment = segments.length > 0 ? segments[segments.length - 1] : 1;
+
+        File indexFile = new File(directory, INDEX_FILE);
+        boolean rebuild = !indexFile.exists();
+        RecordingIndex opened;
+        try {
+            opened = new RecordingIndex(indexFile);
+        } catch (IOException e) {
+            // The segments hold everything the index does, so start over from them
+            if (!indexFile.delete()) {
+                throw e;
+            }
+            opened = new RecordingIndex(indexFile);
+            rebuild = true;
+        }
+        index = opened;
+
+        if (rebuild && segments.length > 0) {
+            rebuilt = true;
+            for (int segment : segments) {
+                scanSegment(segment, new HashSet<Long>());
+            }
+        } else if (segments.length > 0) {
+            // Only the last segment can have been written when the app stopped
+            scanSegment(currentSegment, indexedOffsets(currentSegment));
+        }
+    }
+
+    // Start a new recording. Fails if another recording is still open.
+    public synchronized RecordingWriter begin(long sessionId, long startMillis, int sampleRate) throws IOException {
+        if (activeWriter != null) {
+            throw new IllegalStateException("Another recording is still open");
+        }
+        if (segmentFile(currentSegment).length() >= maxSegmentBytes) {
+            currentSegment++;
+        }
+        FileChannel channel = FileChannel.open(segmentFile(currentSegment).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            long position = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(RECORD_MAGIC).putInt(sampleRate).putLong(sessionId).putLong(startMillis)
+                    .putLong(UNCOMMITTED).putShort((short) RecordingEntry.NO_MOOD).putShort((short) 0).putInt(codec);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, position + header.position());
+            }
+            channel.position(position + RECORD_HEADER_BYTES);
+
+            RecordingEntry entry = new RecordingEntry();
+            entry.sessionId = sessionId;
+            entry.startMillis = startMillis;
+            entry.sampleRate = sampleRate;
+            entry.codec = codec;
+            entry.segment = currentSegment;
+            entry.offset = position + RECORD_HEADER_BYTES;
+            activeWriter = new RecordingWriter(this, channel, entry, stagingBytes, flushIntervalMs);
+            return activeWriter;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Called by RecordingWriter.close(): seal the record header, then index it.
+    // Empty recordings are cut from the segment and never indexed.
+    synchronized void commit(RecordingWriter writer, FileChannel channel, RecordingEntry entry) throws IOException {
+        try {
+            long headerPosition = entry.offset - RECORD_HEADER_BYTES;
+            if (entry.codec == RecordingEntry.CODEC_PCM) {
+                entry.dataBytes -= entry.dataBytes % BYTES_PER_SAMPLE;
+            }
+            if (entry.dataBytes == 0) {
+                channel.truncate(headerPosition);
+                channel.force(true);
+                return;
+            }
+            channel.truncate(entry.offset + entry.dataBytes);
+            sealRecord(channel, headerPosition, entry);
+            entry.durationMs = durationMs(entry.sampleCount, entry.sampleRate);
+            index.add(entry);
+        } finally {
+            if (activeWriter == writer) {
+                activeWriter = null;
+            }
+        }
+    }
+
+    private static void sealRecord(FileChannel channel, long headerPosition, RecordingEntry entry) throws IOException {
+        channel.force(false);
+        ByteBuffer seal = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        seal.putLong(entry.dataBytes).putShort((short) entry.mood).putShort((short) entry.moodShare);
+        seal.flip();
+        while (seal.hasRemaining()) {
+            channel.write(seal, headerPosition + DATA_BYTES_OFFSET + seal.position());
+        }
+        channel.force(true);
+    }
+
+    // Walk the records of one segment, index any the index is missing and repair
+    // an open record left by a crash. Anything after the last readable record is cut.
+    private void scanSegment(int segment, Set<Long> indexed) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(segment).toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                header.clear();
+                while (header.hasRemaining() && channel.read(header, position + header.position()) > 0) {
+                    // keep reading until the header is complete
+                }
+                if (header.hasRemaining() || header.getInt(0) != RECORD_MAGIC) {
+                    channel.truncate(position);
+                    GapLog.cut(gapFile(segment), position);
+                    break;
+                }
+                RecordingEntry entry = new RecordingEntry();
+                entry.sampleRate = header.getInt(4);
+                entry.sessionId = header.getLong(8);
+                entry.startMillis = header.getLong(16);
+                entry.dataBytes = header.getLong(DATA_BYTES_OFFSET);
+                entry.mood = header.getShort(MOOD_OFFSET);
+                entry.moodShare = header.getShort(MOOD_OFFSET + 2);
+                entry.codec = header.getInt(CODEC_OFFSET);
+                entry.segment = segment;
+                entry.offset = position + RECORD_HEADER_BYTES;
+
+                long available = size - entry.offset;
+                boolean open = entry.dataBytes == UNCOMMITTED || entry.dataBytes > available;
+                boolean missing = !indexed.contains(entry.offset);
+                if (open) {
+                    entry.dataBytes = available;
+                }
+                long next = entry.offset + entry.dataBytes;
+                if (open || missing) {
+                    countSamples(channel, entry);
+                }
+                if (open) {
+                    if (entry.dataBytes == 0) {
+                        channel.truncate(position);
+                        channel.force(true);
+                        GapLog.cut(gapFile(segment), position);
+                        break;
+                    }
+                    channel.truncate(entry.offset + entry.dataBytes);
+                    sealRecord(channel, position, entry);
+                    size = channel.size();
+                    recoveredCount++;
+                    next = entry.offset + entry.dataBytes;
+                }
+                if (missing) {
+                    entry.durationMs = durationMs(entry.sampleCount, entry.sampleRate);
+                    entry.gapMs = durationMs(GapLog.read(gapFile(segment), entry.offset, entry.sampleCount, null),
+                            entry.sampleRate);
+                    index.add(entry);
+                }
+                position = next;
+            }
+        }
+    }
+
+    // Set sampleCount from the stored bytes, first cutting dataBytes back to whole
+    // samples, or to whole blocks for a compressed recording cut short by a crash
+    private static void countSamples(FileChannel channel, RecordingEntry entry) throws IOException {
+        if (entry.codec != RecordingEntry.CODEC_LOSSLESS) {
+            entry.dataBytes -= entry.dataBytes % BYTES_PER_SAMPLE;
+            entry.sampleCount = entry.dataBytes / BYTES_PER_SAMPLE;
+            return;
+        }
+        if (entry.dataBytes == 0) {
+            entry.sampleCount = 0;
+            return;
+        }
+        long[] samples = new long[1];
+        entry.dataBytes = LosslessDecoder.scan(
+                channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.dataBytes), samples);
+        entry.sampleCount = samples[0];
+    }
+
+    private Set<Long> indexedOffsets(int segment) {
+        Set<Long> offsets = new HashSet<>();
+        RecordingEntry entry = new RecordingEntry();
+        for (int i = 0; i < index.size(); i++) {
+            index.get(i, entry);
+            if (entry.segment == segment) {
+                offsets.add(entry.offset);
+            }
+        }
+        return offsets;
+    }
+
+    // Recordings overlapping [fromMillis, toMillis), oldest first
+    public synchronized List<RecordingEntry> query(long fromMillis, long toMillis) {
+        List<RecordingEntry> result = new ArrayList<>();
+        index.query(fromMillis, toMillis, result);
+        return result;
+    }
+
+    // The recording of a session that started at startMillis, or null
+    public synchronized RecordingEntry find(long sessionId, long startMillis) {
+        RecordingEntry entry = new RecordingEntry();
+        for (int i = index.lowerBound(startMillis); i < index.size(); i++) {
+            index.get(i, entry);
+            if (entry.startMillis != startMillis) {
+                break;
+            }
+            if (entry.sessionId == sessionId) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    public synchronized int getCount() {
+        return index.size();
+    }
+
+    // Entry at a position in start order, 0 being the oldest
+    public synchronized RecordingEntry get(int position) {
+        RecordingEntry entry = new RecordingEntry();
+        index.get(position, entry);
+        return entry;
+    }
+
+    // Replace the mood stored with a recording, e.g. after re-scoring it with a new
+    // model. The index and the record header are both updated; call force() to make
+    // a batch of changes durable.
+    public synchronized void setMood(RecordingEntry entry, int mood, int moodShare) throws IOException {
+        if (!index.setMood(entry.startMillis, entry.segment, entry.offset, mood, moodShare)) {
+            throw new IllegalArgumentException("Recording not in the store: " + entry.startMillis);
+        }
+        try (FileChannel channel = FileChannel.open(segmentFile(entry.segment).toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer update = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            update.putShort((short) mood).putShort((short) moodShare);
+            update.flip();
+            long position = entry.offset - RECORD_HEADER_BYTES + MOOD_OFFSET;
+            while (update.hasRemaining()) {
+                channel.write(update, position + update.position());
+            }
+        }
+        moodSegments.add(entry.segment);
+        entry.mood = mood;
+        entry.moodShare = moodShare;
+    }
+
+    // Flush mood changes made with setMood() to disk
+    public synchronized void force() throws IOException {
+        index.force();
+        for (int segment : moodSegments) {
+            try (FileChannel channel = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.WRITE)) {
+                channel.force(false);
+            }
+        }
+        moodSegments.clear();
+    }
+
+    // Where audio was lost in a recording and stored as silence, in recording order
+    public synchronized List<RecordingGap> getGaps(RecordingEntry entry) throws IOException {
+        List<RecordingGap> gaps = new ArrayList<>();
+        GapLog.read(gapFile(entry.segment), entry.offset, entry.sampleCount, gaps);
+        return gaps;
+    }
+
+    // Samples of a recording, decoded if it is compressed
+    public RecordingAudio openAudio(RecordingEntry entry) throws IOException {
+        return new RecordingAudio(entry, mapAudio(entry));
+    }
+
+    // Read-only little endian view of a recording's stored bytes, mapped from its segment
+    public ByteBuffer mapAudio(RecordingEntry entry) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(entry.segment).toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.dataBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    // Open recordings repaired when the store was opened
+    public int getRecoveredCount() {
+        return recoveredCount;
+    }
+
+    // True if the index was rebuilt from the segments when the store was opened
+    public boolean wasRebuilt() {
+        return rebuilt;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized void close() throws IOException {
+        index.close();
+    }
+
+    File segmentFile(int segment) {
+        return new File(directory, String.format(Locale.US, "segment-%06d.seg", segment));
+    }
+
+    File gapFile(int segment) {
+        return new File(directory, String.format(Locale.US, "segment-%06d.gaps", segment));
+    }
+
+    private int[] listSegments() {
+        String[] names = directory.list();
+        if (names == null) {
+            return new int[0];
+        }
+        int[] segments = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith("segment-") && name.endsWith(".seg")) {
+                try {
+                    int segment = Integer.parseInt(name.substring(8, name.length() - 4));
+                    segments[count++] = segment;
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static int durationMs(long sampleCount, int sampleRate) {
+        return (int) (sampleCount * 1000 / Math.max(1, sampleRate));
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.moodproject.store;
+
+import com.example.moodproject.audio.AudioChunk;
+import com.example.moodproject.audio.ChunkConsumer;
+import com.example.moodproject.dsp.LosslessEncoder;
+import com.example.moodproject.metrics.Histogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Appends one recording to the current segment of a RecordingStore. Audio is staged
+// in a direct buffer and written once it fills or the flush interval passes; close()
+// patches the record header and adds the recording to the index. A crash before
+// close() leaves an open record that the store recovers the next time it opens.
+// Methods are synchronized so the recording can be closed from another thread.
+//
+// Compressed recordings go through a LosslessEncoder first, so only whole encoded
+// blocks reach the staging buffer.
+//
+// Chunks voice activity detection marked as without voice are stored as silence: a
+// compressed recording keeps just a run-length marker per run of up to 65535 samples,
+// a PCM one keeps zeros so its samples stay addressable by offset. Either way the
+// recording keeps its length and timeline.
+//
+// Audio lost to gaps in the stream is stored as silence too, and each gap is marked
+// in the segment's GapLog by where it starts and how long it is. Adjacent gaps, as a
+// long outage spread over many chunks gives, make one mark, queued once a chunk shows
+// the gap has ended, or at close(). The log is opened at the first gap and written on
+// every flush; close() forces it before the record is committed.
+public class RecordingWriter implements ChunkConsumer {
+
+    private static final byte[] ZEROS = new byte[4096];
+
+    private final RecordingStore store;
+    private final FileChannel channel;
+    private final RecordingEntry entry;
+    private final ByteBuffer staging;
+    private final long flushIntervalNs;
+    private final LosslessEncoder encoder;
+
+    private long lastFlushNs;
+    // Audio bytes taken so far, before compression
+    private long audioBytes;
+    private long gapBytes;
+    // Gap not yet marked, as it may go on in the next chunk; no gap if pendingGapSamples is 0
+    private long pendingGapStart;
+    private int pendingGapSamples;
+    private long silentSamples;
+    private boolean closed;
+    private Histogram writeTimer;
+    // Opened at the first gap
+    private GapLog gapLog;
+
+    RecordingWriter(RecordingStore store, FileChannel channel, RecordingEntry entry,
+                    int stagingBytes, long flushIntervalMs) {
+        this.store = store;
+        this.channel = channel;
+        this.entry = entry;
+        this.staging = ByteBuffer.allocateDirect(stagingBytes);
+        this.flushIntervalNs = flushIntervalMs * 1_000_000L;
+        this.lastFlushNs = System.nanoTime();
+        if (entry.codec == RecordingEntry.CODEC_LOSSLESS) {
+            encoder = new LosslessEncoder(new LosslessEncoder.BlockSink() {
+                @Override
+                public void onBlock(byte[] data, int length, int samples) throws IOException {
+                    stage(data, 0, length);
+                }
+            });
+        } else {
+            encoder = null;
+        }
+    }
+
+    public synchronized void write(byte[] data, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Recording already closed");
+        }
+        audioBytes += length;
+        if (encoder != null) {
+            encoder.write(data, offset, length);
+        } else {
+            stage(data, offset, length);
+        }
+        if (System.nanoTime() - lastFlushNs >= flushIntervalNs) {
+            flush();
+        }
+    }
+
+    // Append samples of digital silence in place of audio not worth keeping
+    public synchronized void writeSilence(int samples) throws IOException {
+        if (closed) {
+            throw new IOException("Recording already closed");
+        }
+        silentSamples += samples;
+        appendSilence(samples);
+    }
+
+    // Append samples of silence in place of audio the stream lost, marked as a gap
+    public synchronized void writeGap(int samples) throws IOException {
+        if (closed) {
+            throw new IOException("Recording already closed");
+        }
+        markGap(audioBytes / 2, samples);
+        appendSilence(samples);
+    }
+
+    private void appendSilence(int samples) throws IOException {
+        audioBytes += 2L * samples;
+        if (encoder != null) {
+            encoder.writeSilence(samples);
+        } else {
+            long length = 2L * samples;
+            while (length > 0) {
+                int count = (int) Math.min(length, ZEROS.length);
+                stage(ZEROS, 0, count);
+                length -= count;
+            }
+        }
+        if (System.nanoTime() - lastFlushNs >= flushIntervalNs) {
+            flush();
+        }
+    }
+
+    private void stage(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int toCopy = Math.min(length, staging.remaining());
+            staging.put(data, offset, toCopy);
+            offset += toCopy;
+            length -= toCopy;
+            entry.dataBytes += toCopy;
+            if (!staging.hasRemaining()) {
+                flush();
+            }
+        }
+    }
+
+    // Gap silence is stored like any audio, and marked where it lies
+    @Override
+    public synchronized void accept(AudioChunk chunk) throws IOException {
+        long chunkSample = audioBytes / 2;
+        if (chunk.isVoiced()) {
+            write(chunk.getData(), 0, chunk.getLength());
+        } else {
+            writeSilence(chunk.getSampleCount());
+        }
+        if (chunk.getGapBytes() > 0) {
+            markGap(chunkSample + chunk.getGapOffset() / 2, chunk.getGapBytes() / 2);
+        }
+        if (chunk.getGapOffset() + chunk.getGapBytes() < chunk.getLength()) {
+            writePendingGap();
+        }
+    }
+
+    private void markGap(long startSample, int samples) throws IOException {
+        if (samples <= 0) {
+            return;
+        }
+        gapBytes += 2L * samples;
+        if (pendingGapSamples > 0 && pendingGapStart + pendingGapSamples == startSample
+                && pendingGapSamples <= Integer.MAX_VALUE - samples) {
+            pendingGapSamples += samples;
+            return;
+        }
+        writePendingGap();
+        pendingGapStart = startSample;
+        pendingGapSamples = samples;
+    }
+
+    private void writePendingGap() throws IOException {
+        if (pendingGapSamples > 0) {
+            if (gapLog == null) {
+                gapLog = GapLog.open(store.gapFile(entry.segment));
+            }
+            gapLog.append(entry.offset, pendingGapStart, pendingGapSamples);
+            pendingGapSamples = 0;
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        long startNs = System.nanoTime();
+        staging.flip();
+        boolean written = staging.hasRemaining();
+        while (staging.hasRemaining()) {
+            channel.write(staging);
+        }
+        staging.clear();
+        if (gapLog != null) {
+            gapLog.flush(false);
+        }
+        lastFlushNs = System.nanoTime();
+        if (writeTimer != null && written) {
+            writeTimer.record(lastFlushNs - startNs);
+        }
+    }
+
+    // Record how long each write of the staging buffer to the segment takes
+    public synchronized void setWriteTimer(Histogram writeTimer) {
+        this.writeTimer = writeTimer;
+    }
+
+    // Dominant mood label and its share of scored windows in per mille, stored with the recording
+    public synchronized void setMood(int mood, int sharePerMille) {
+        entry.mood = mood;
+        entry.moodShare = sharePerMille;
+    }
+
+    // Finish the recording and make it visible in the index
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (encoder != null) {
+                encoder.finish();
+                entry.sampleCount = encoder.getSamplesIn();
+            } else {
+                entry.sampleCount = entry.dataBytes / 2;
+            }
+            entry.gapMs = (int) (gapBytes / 2 * 1000 / Math.max(1, entry.sampleRate));
+            writePendingGap();
+            flush();
+            if (gapLog != null) {
+                gapLog.flush(true);
+            }
+            closed = true;
+            store.commit(this, channel, entry);
+        } finally {
+            closed = true;
+            try {
+                channel.close();
+            } finally {
+                if (gapLog != null) {
+                    gapLog.close();
+                }
+            }
+        }
+    }
+
+    // Bytes written to the segment so far; smaller than the audio when compressed
+    public long getDataBytes() {
+        return entry.dataBytes;
+    }
+
+    // Samples stored as silence because they held no voice
+    public synchronized long getSilentSamples() {
+        return silentSamples;
+    }
+
+    public long getStartMillis() {
+        return entry.startMillis;
+    }
+
+    public int getSegment() {
+        return entry.segment;
+    }
+
+    public boolean isCompressed() {
+        return encoder != null;
+    }
+}
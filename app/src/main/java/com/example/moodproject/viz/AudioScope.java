@@ -0,0 +1,204 @@
+package com.example.moodproject.viz;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import com.example.moodproject.audio.AudioChunk;
+import com.example.moodproject.audio.ChunkConsumer;
+import com.example.moodproject.dsp.Pcm16;
+import com.example.moodproject.dsp.RealFft;
+import com.example.moodproject.dsp.Spectrogram;
+import com.example.moodproject.dsp.WaveformDecimator;
+import com.example.moodproject.metrics.Histogram;
+
+import java.util.Arrays;
+
+// Draws the live stream as a scrolling waveform above a spectrogram, off the UI
+// thread. As a capture consumer it runs on its own pipeline thread: each chunk is
+// decimated to per-column min/max envelopes and spectrogram columns, and only the new
+// columns are written into a bitmap used as a ring, oldest column at the write
+// position. The UI thread does nothing but blit that bitmap in two pieces, so its
+// cost is the same whether the window holds one second of audio or a minute.
+// Chunks dropped on the way here under load still take their place on the time axis,
+// drawn as gap columns, so the window keeps showing visibleMs of audio.
+//
+// The bitmap is shared by both threads under its own lock, held for one column's
+// pixels at a time while rendering and for the blit while drawing.
+public class AudioScope implements ChunkConsumer {
+
+    // Told when new columns are drawn, on the rendering thread
+    public interface FrameListener {
+        void onFrame();
+    }
+
+    private static final int BACKGROUND_COLOR = 0xFF101010;
+    private static final int WAVEFORM_COLOR = 0xFF4CAF50;
+    private static final int CENTER_COLOR = 0xFF303030;
+    private static final int GAP_COLOR = 0xFF241A2E;
+    private static final float SPECTRUM_FLOOR_DB = -90;
+
+    private final int columns;
+    private final int waveformRows;
+    private final int spectrumRows;
+    private final WaveformDecimator decimator;
+    private final Spectrogram spectrogram;
+    private final Bitmap bitmap;
+    // Pixels of one column of each part, reused
+    private final int[] waveformPixels;
+    private final int[] spectrumPixels;
+    // A whole column of GAP_COLOR
+    private final int[] gapPixels;
+    // Spectrogram level 0-255 to color: black through blue and red to yellow
+    private final int[] palette = new int[256];
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect src = new Rect();
+    private final RectF dst = new RectF();
+
+    private volatile FrameListener frameListener;
+    private Histogram decimateTimer;
+    // Waveform columns drawn; the next goes at drawn % columns
+    private long drawn;
+    // Where the next chunk starts if none were dropped
+    private long nextStartByte;
+
+    private final WaveformDecimator.EnvelopeListener envelopes = new WaveformDecimator.EnvelopeListener() {
+        @Override
+        public void onEnvelope(long column, short min, short max) {
+            int top = row(max);
+            int bottom = row(min);
+            int center = row((short) 0);
+            for (int y = 0; y < waveformRows; y++) {
+                waveformPixels[y] = y >= top && y <= bottom ? WAVEFORM_COLOR
+                        : y == center ? CENTER_COLOR : BACKGROUND_COLOR;
+            }
+            synchronized (bitmap) {
+                bitmap.setPixels(waveformPixels, 0, 1, (int) (column % columns), 0, 1, waveformRows);
+                drawn = column + 1;
+            }
+        }
+    };
+
+    private final Spectrogram.ColumnListener spectrum = new Spectrogram.ColumnListener() {
+        @Override
+        public void onColumn(long column, byte[] levels) {
+            // Lowest frequencies at the bottom
+            for (int r = 0; r < spectrumRows; r++) {
+                spectrumPixels[spectrumRows - 1 - r] = palette[levels[r] & 0xff];
+            }
+            synchronized (bitmap) {
+                bitmap.setPixels(spectrumPixels, 0, 1, (int) (column % columns), waveformRows, 1, spectrumRows);
+            }
+        }
+    };
+
+    // visibleMs of sampleRate audio across columns pixels, with a waveform waveformRows
+    // high over a spectrogram of spectrumRows
+    public AudioScope(int sampleRate, long visibleMs, int columns, int waveformRows, int spectrumRows) {
+        this.columns = columns;
+        this.waveformRows = waveformRows;
+        this.spectrumRows = spectrumRows;
+        int samplesPerColumn = WaveformDecimator.samplesPerColumn(sampleRate, visibleMs, columns);
+        decimator = new WaveformDecimator(samplesPerColumn);
+        // One spectrogram column per waveform column, from the smallest FFT that spans it
+        int fftSize = Math.max(RealFft.MIN_SIZE, Integer.highestOneBit(samplesPerColumn - 1) << 1);
+        spectrogram = new Spectrogram(sampleRate, fftSize, samplesPerColumn, spectrumRows, SPECTRUM_FLOOR_DB);
+        bitmap = Bitmap.createBitmap(columns, waveformRows + spectrumRows, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(BACKGROUND_COLOR);
+        waveformPixels = new int[waveformRows];
+        spectrumPixels = new int[spectrumRows];
+        gapPixels = new int[waveformRows + spectrumRows];
+        Arrays.fill(gapPixels, GAP_COLOR);
+        for (int level = 0; level < palette.length; level++) {
+            float t = level / 255f;
+            int red = Math.round(255 * Math.min(1, Math.max(0, 2 * t - 0.4f)));
+            int green = Math.round(255 * Math.max(0, 2 * t - 1));
+            int blue = Math.round(255 * Math.max(0, Math.min(2 * t, 2 - 3 * t)));
+            palette[level] = 0xFF000000 | red << 16 | green << 8 | blue;
+        }
+    }
+
+    // Time taken to decimate and draw the columns of each chunk; set before use
+    public void setDecimateTimer(Histogram decimateTimer) {
+        this.decimateTimer = decimateTimer;
+    }
+
+    public void setFrameListener(FrameListener listener) {
+        this.frameListener = listener;
+    }
+
+    @Override
+    public void accept(AudioChunk chunk) {
+        long startNs = System.nanoTime();
+        long before = decimator.getColumnCount();
+        if (chunk.getStartByte() > nextStartByte) {
+            skip((chunk.getStartByte() - nextStartByte) / Pcm16.BYTES_PER_SAMPLE);
+        }
+        nextStartByte = chunk.getStartByte() + chunk.getLength();
+        decimator.process(chunk.getData(), 0, chunk.getLength(), envelopes);
+        spectrogram.process(chunk.getData(), 0, chunk.getLength(), spectrum);
+        if (decimateTimer != null) {
+            decimateTimer.recordSince(startNs);
+        }
+        FrameListener listener = frameListener;
+        if (listener != null && decimator.getColumnCount() > before) {
+            listener.onFrame();
+        }
+    }
+
+    // Advance past samples of dropped chunks, marking the columns they covered
+    private void skip(long samples) {
+        long waveformFrom = decimator.getColumnCount();
+        long spectrumFrom = spectrogram.getColumnCount();
+        decimator.skip(samples);
+        spectrogram.skip(samples);
+        long waveformTo = decimator.getColumnCount();
+        long spectrumTo = spectrogram.getColumnCount();
+        // Only the last lap of the ring is still visible
+        waveformFrom = Math.max(waveformFrom, waveformTo - columns);
+        spectrumFrom = Math.max(spectrumFrom, spectrumTo - columns);
+        for (long column = spectrumFrom; column < spectrumTo; column++) {
+            synchronized (bitmap) {
+                bitmap.setPixels(gapPixels, 0, 1, (int) (column % columns), waveformRows, 1, spectrumRows);
+            }
+        }
+        for (long column = waveformFrom; column < waveformTo; column++) {
+            synchronized (bitmap) {
+                bitmap.setPixels(gapPixels, 0, 1, (int) (column % columns), 0, 1, waveformRows);
+                drawn = column + 1;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // Blit the window into width x height of canvas, oldest audio on the left.
+    // Called on the UI thread.
+    public void draw(Canvas canvas, int width, int height) {
+        synchronized (bitmap) {
+            int oldest = (int) (drawn % columns);
+            float split = (float) (columns - oldest) * width / columns;
+            src.set(oldest, 0, columns, bitmap.getHeight());
+            dst.set(0, 0, split, height);
+            canvas.drawBitmap(bitmap, src, dst, paint);
+            if (oldest > 0) {
+                src.set(0, 0, oldest, bitmap.getHeight());
+                dst.set(split, 0, width, height);
+                canvas.drawBitmap(bitmap, src, dst, paint);
+            }
+        }
+    }
+
+    // Waveform row of a sample value, full scale positive at the top
+    private int row(short sample) {
+        return (Short.MAX_VALUE - sample) * (waveformRows - 1) / 65535;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.moodproject.viz;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.example.moodproject.metrics.Histogram;
+
+// Shows an AudioScope. Rendering happens on the scope's thread; a frame here is a
+// blit of its bitmap, requested at most once per display refresh.
+public class AudioScopeView extends View {
+
+    private volatile AudioScope scope;
+    private Histogram frameTimer;
+
+    private final AudioScope.FrameListener invalidator = new AudioScope.FrameListener() {
+        @Override
+        public void onFrame() {
+            postInvalidateOnAnimation();
+        }
+    };
+
+    public AudioScopeView(Context context) {
+        super(context);
+    }
+
+    public AudioScopeView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    // Show scope from now on, in place of the previous one
+    public void setScope(AudioScope scope) {
+        AudioScope previous = this.scope;
+        if (previous != null) {
+            previous.setFrameListener(null);
+        }
+        scope.setFrameListener(invalidator);
+        this.scope = scope;
+        invalidate();
+    }
+
+    // Time taken by each frame drawn; set before use
+    public void setFrameTimer(Histogram frameTimer) {
+        this.frameTimer = frameTimer;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        AudioScope current = scope;
+        if (current == null) {
+            return;
+        }
+        long startNs = System.nanoTime();
+        current.draw(canvas, getWidth(), getHeight());
+        if (frameTimer != null) {
+            frameTimer.recordSince(startNs);
+        }
+    }
+}
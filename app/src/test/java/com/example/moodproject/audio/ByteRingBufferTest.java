@@ -0,0 +1,76 @@
+package com.example.moodproject.audio;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+
+import static org.junit.Assert.*;
+
+public class ByteRingBufferTest {
+
+    @Test
+    public void writeAndRead_wrapAround() throws Exception {
+        ByteRingBuffer ring = new ByteRingBuffer(8);
+        byte[] out = new byte[8];
+
+        assertEquals(6, ring.write(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6));
+        assertEquals(4, ring.read(out, 0, 4, 0));
+        assertEquals(6, ring.write(new byte[]{7, 8, 9, 10, 11, 12, 13}, 0, 7));
+        assertEquals(0, ring.remaining());
+
+        assertEquals(8, ring.read(out, 0, 8, 0));
+        assertArrayEquals(new byte[]{5, 6, 7, 8, 9, 10, 11, 12}, out);
+    }
+
+    @Test
+    public void readFrom_stopsAtEndOfRegion() throws Exception {
+        ByteRingBuffer ring = new ByteRingBuffer(4);
+        ByteArrayInputStream in = new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5});
+
+        assertEquals(4, ring.readFrom(in));
+        assertEquals(0, ring.readFrom(in));
+        assertEquals(2, ring.read(new byte[2], 0, 2, 0));
+        assertEquals(1, ring.readFrom(in));
+        assertEquals(-1, ring.readFrom(in));
+    }
+
+    @Test
+    public void readFromChannel_fillsBothPartsOfAWrappedRegion() throws Exception {
+        ByteRingBuffer ring = new ByteRingBuffer(8);
+        ring.write(new byte[6], 0, 6);
+        ring.read(new byte[6], 0, 6, 0);
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        pipe.sink().write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}));
+
+        assertEquals(8, ring.readFrom(pipe.source()));
+        assertEquals(0, ring.readFrom(pipe.source()));
+        byte[] out = new byte[8];
+        assertEquals(8, ring.read(out, 0, 8, 0));
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, out);
+
+        assertEquals(2, ring.readFrom(pipe.source()));
+        assertEquals(0, ring.readFrom(pipe.source()));
+        pipe.sink().close();
+        assertEquals(-1, ring.readFrom(pipe.source()));
+        pipe.source().close();
+    }
+
+    @Test
+    public void close_drainsThenReportsEnd() throws Exception {
+        ByteRingBuffer ring = new ByteRingBuffer(4);
+        ring.write(new byte[]{9}, 0, 1);
+        ring.close();
+
+        byte[] out = new byte[4];
+        assertEquals(1, ring.read(out, 0, 4, 1000));
+        assertEquals(-1, ring.read(out, 0, 4, 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacity_mustBePowerOfTwo() {
+        new ByteRingBuffer(6);
+    }
+}
@@ -0,0 +1,339 @@
+package com.example.moodproject.audio;
+
+import com.example.moodproject.dsp.VoiceActivityDetector;
+import com.example.moodproject.pipeline.DropPolicy;
+import com.example.moodproject.protocol.Concealment;
+import com.example.moodproject.protocol.FrameCodec;
+import com.example.moodproject.protocol.FrameDecoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CaptureSessionTest {
+
+    private ServerSocket server;
+    private Socket client;
+    private StreamIngest ingest;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        ingest = new StreamIngest(client, 8192, 100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ingest.stop();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void everyConsumer_seesWholeStream() throws Exception {
+        final byte[] sent = new byte[300_000];
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = (byte) (i * 7 + 3);
+        }
+        Thread sender = serve(sent);
+        ingest.start();
+
+        CollectingConsumer disk = new CollectingConsumer(0);
+        CollectingConsumer slow = new CollectingConsumer(1);
+
+        CaptureSession session = new CaptureSession(ingest, 4, 1024, 2000);
+        session.addConsumer("disk", disk);
+        session.addConsumer("slow", slow);
+        session.start();
+
+        assertTrue(session.awaitTermination(20_000));
+        sender.join();
+
+        assertNull(session.getFailure());
+        assertFalse(session.isTimedOut());
+        assertEquals(sent.length, session.getBytesCaptured());
+        assertArrayEquals(sent, disk.bytes.toByteArray());
+        assertArrayEquals(sent, slow.bytes.toByteArray());
+        assertTrue(disk.closed && slow.closed);
+
+        // The slow consumer held back the producer instead of the queues growing
+        assertTrue(session.getProducerWaits() > 0);
+        // Every pooled chunk was handed back once all consumers were done with it
+        assertEquals(session.getPooledChunks(), session.getFreeChunks());
+    }
+
+    @Test
+    public void failingDropConsumer_doesNotBlockOthers() throws Exception {
+        Thread sender = serve(new byte[50_000]);
+        ingest.start();
+
+        CollectingConsumer good = new CollectingConsumer(0);
+        CaptureSession session = new CaptureSession(ingest, 2, 1024, 2000);
+        session.addConsumer("good", good);
+        session.addConsumer("bad", new FailingConsumer(), 2, DropPolicy.DROP_OLDEST);
+        session.start();
+
+        assertTrue(session.awaitTermination(20_000));
+        sender.join();
+
+        assertEquals(50_000, good.bytes.size());
+        assertEquals("disk full", session.getFailure().getMessage());
+        assertEquals(session.getPooledChunks(), session.getFreeChunks());
+    }
+
+    @Test
+    public void failingBlockConsumer_endsTheCapture() throws Exception {
+        // Far more than gets through before the failure stops capture
+        serve(new byte[20_000_000]);
+        ingest.start();
+
+        CollectingConsumer good = new CollectingConsumer(0);
+        CaptureSession session = new CaptureSession(ingest, 2, 1024, 2000);
+        session.addConsumer("good", good);
+        session.addConsumer("persist", new FailingConsumer());
+        session.start();
+
+        assertTrue(session.awaitTermination(20_000));
+        assertEquals("disk full", session.getFailure().getMessage());
+        assertFalse(session.isTimedOut());
+        assertTrue(session.getBytesCaptured() < 20_000_000);
+        assertEquals(session.getBytesCaptured(), good.bytes.size());
+        assertEquals(session.getPooledChunks(), session.getFreeChunks());
+    }
+
+    @Test
+    public void framedStream_reachesConsumersAsAudio() throws Exception {
+        // 100 frames of 300 bytes, the 10th never sent
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        byte[] frame = new byte[FrameCodec.HEADER_BYTES + 300];
+        for (int i = 0; i < 100; i++) {
+            byte[] payload = new byte[300];
+            Arrays.fill(payload, (byte) (i + 1));
+            FrameCodec.encode(i, i * 150L, payload, 0, payload.length, frame, 0);
+            if (i == 10) {
+                payload = new byte[300];
+            } else {
+                wire.write(frame, 0, frame.length);
+            }
+            audio.write(payload, 0, payload.length);
+        }
+        Thread sender = serve(wire.toByteArray());
+        ingest.start();
+
+        CollectingConsumer disk = new CollectingConsumer(0);
+        CaptureSession session = new CaptureSession(ingest, 4, 1024, 2000, 29_000);
+        FrameDecoder frames = session.useFraming(Concealment.SILENCE, 1000);
+        session.addConsumer("disk", disk);
+        session.start();
+
+        assertTrue(session.awaitTermination(20_000));
+        sender.join();
+
+        assertNull(session.getFailure());
+        assertEquals(29_000, session.getBytesCaptured());
+        assertArrayEquals(Arrays.copyOf(audio.toByteArray(), 29_000), disk.bytes.toByteArray());
+        assertSame(frames, session.getFrameDecoder());
+        assertEquals(1, frames.getLostFrames());
+        assertEquals(150, frames.getConcealedSamples());
+    }
+
+    @Test
+    public void detectFraming_findsFramesAfterACutOffFirstFrame() throws Exception {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        byte[] frame = new byte[FrameCodec.HEADER_BYTES + 300];
+        for (int i = 0; i < 50; i++) {
+            byte[] payload = new byte[300];
+            Arrays.fill(payload, (byte) (i + 1));
+            FrameCodec.encode(i, i * 150L, payload, 0, payload.length, frame, 0);
+            wire.write(frame, 0, frame.length);
+            if (i > 0) {
+                audio.write(payload, 0, payload.length);
+            }
+        }
+        // Joined in the middle of the first frame
+        byte[] sent = wire.toByteArray();
+        Thread sender = serve(Arrays.copyOfRange(sent, 100, sent.length));
+        ingest.start();
+
+        CollectingConsumer disk = new CollectingConsumer(0);
+        CaptureSession session = new CaptureSession(ingest, 4, 1024, 2000);
+        FrameDecoder frames = session.detectFraming(Concealment.SILENCE, 1000);
+        session.addConsumer("disk", disk);
+        session.start();
+
+        assertTrue(session.awaitTermination(20_000));
+        sender.join();
+
+        assertNull(session.getFailure());
+        assertSame(frames, session.getFrameDecoder());
+        assertArrayEquals(audio.toByteArray(), disk.bytes.toByteArray());
+        assertEquals(49, frames.getFrames());
+    }
+
+    @Test
+    public void detectFraming_takesRawPcmAsAudio() throws Exception {
+        // Longer than the bytes held back to tell
+        byte[] sent = new byte[3 * CaptureSession.PROBE_BYTES];
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = (byte) (i * 7 + 3);
+        }
+        Thread sender = serve(sent);
+        ingest.start();
+
+        CollectingConsumer disk = new CollectingConsumer(0);
+        CaptureSession session = new CaptureSession(ingest, 4, 1024, 2000);
+        session.detectFraming(Concealment.SILENCE, 1000);
+        session.addConsumer("disk", disk);
+        session.start();
+
+        assertTrue(session.awaitTermination(20_000));
+        sender.join();
+
+        assertNull(session.getFailure());
+        assertNull(session.getFrameDecoder());
+        assertArrayEquals(sent, disk.bytes.toByteArray());
+    }
+
+    @Test
+    public void detectFraming_takesAShortRawStreamAsAudio() throws Exception {
+        // Ends before enough arrived to tell
+        byte[] sent = new byte[5000];
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = (byte) (i * 7 + 3);
+        }
+        Thread sender = serve(sent);
+        ingest.start();
+
+        CollectingConsumer disk = new CollectingConsumer(0);
+        CaptureSession session = new CaptureSession(ingest, 4, 1024, 2000);
+        session.detectFraming(Concealment.SILENCE, 1000);
+        session.addConsumer("disk", disk);
+        session.start();
+
+        assertTrue(session.awaitTermination(20_000));
+        sender.join();
+
+        assertNull(session.getFailure());
+        assertNull(session.getFrameDecoder());
+        assertArrayEquals(sent, disk.bytes.toByteArray());
+        assertEquals(session.getPooledChunks(), session.getFreeChunks());
+    }
+
+    @Test
+    public void voiceActivity_keepsSilenceFromVoicedOnlyConsumers() throws Exception {
+        // Half a second of tone between a second of silence on each side, at 16 kHz
+        int rate = 16_000;
+        byte[] sent = new byte[2 * (rate + rate / 2 + rate)];
+        for (int i = rate; i < rate + rate / 2; i++) {
+            short sample = (short) (8000 * Math.sin(2 * Math.PI * 200 * i / rate));
+            sent[2 * i] = (byte) sample;
+            sent[2 * i + 1] = (byte) (sample >> 8);
+        }
+        Thread sender = serve(sent);
+        ingest.start();
+
+        CollectingConsumer all = new CollectingConsumer(0);
+        CollectingConsumer voiced = new CollectingConsumer(0);
+        CaptureSession session = new CaptureSession(ingest, 4, 1024, 2000);
+        session.useVoiceActivity(new VoiceActivityDetector(rate, 256, 100));
+        session.addConsumer("all", all);
+        session.addConsumer("voiced", voiced, 4, DropPolicy.BLOCK, true);
+        session.start();
+
+        assertTrue(session.awaitTermination(20_000));
+        sender.join();
+
+        assertNull(session.getFailure());
+        assertArrayEquals(sent, all.bytes.toByteArray());
+        // The tone and its hangover, up to a chunk either side
+        int voicedBytes = voiced.bytes.size();
+        assertTrue("voiced " + voicedBytes, voicedBytes >= rate && voicedBytes <= rate + 2 * rate / 10 + 2 * 1024);
+        assertEquals(sent.length - voicedBytes, session.getSilentBytes());
+        // The last chunk is a partial one
+        assertEquals((session.getSilentBytes() + 1023) / 1024, session.getSilentChunks());
+        assertEquals(session.getPooledChunks(), session.getFreeChunks());
+    }
+
+    @Test
+    public void silentStream_timesOut() throws Exception {
+        ingest.start();
+        CaptureSession session = new CaptureSession(ingest, 2, 1024, 200);
+        session.addConsumer("disk", new CollectingConsumer(0));
+        session.start();
+
+        assertTrue(session.awaitTermination(5000));
+        assertTrue(session.isTimedOut());
+    }
+
+    private Thread serve(final byte[] data) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket peer = server.accept();
+                    OutputStream out = peer.getOutputStream();
+                    out.write(data);
+                    peer.close();
+                } catch (SocketException e) {
+                    // Capture ended before taking everything
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static class FailingConsumer implements ChunkConsumer {
+        @Override
+        public void accept(AudioChunk chunk) throws IOException {
+            throw new IOException("disk full");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class CollectingConsumer implements ChunkConsumer {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final long delayMs;
+        volatile boolean closed;
+
+        CollectingConsumer(long delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public void accept(AudioChunk chunk) {
+            bytes.write(chunk.getData(), 0, chunk.getLength());
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
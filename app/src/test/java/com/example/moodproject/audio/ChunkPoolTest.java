@@ -0,0 +1,186 @@
+package com.example.moodproject.audio;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ChunkPoolTest {
+
+    @Test
+    public void chunks_returnToPoolOnLastRelease() throws Exception {
+        ChunkPool pool = new ChunkPool(3, 64);
+        AudioChunk first = pool.tryAcquire();
+        AudioChunk second = pool.tryAcquire();
+        AudioChunk third = pool.tryAcquire();
+        assertNotNull(third);
+        assertNull(pool.tryAcquire());
+        assertNull(pool.acquire(20));
+        assertEquals(1, pool.getExhaustedCount());
+
+        second.retain();
+        second.release();
+        assertEquals(0, pool.getAvailable());
+        second.release();
+        assertEquals(1, pool.getAvailable());
+        assertSame(second, pool.tryAcquire());
+
+        first.release();
+        second.release();
+        third.release();
+        assertEquals(3, pool.getAvailable());
+        try {
+            third.release();
+            fail("Released twice");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void acquire_wakesWhenAChunkIsReleased() throws Exception {
+        final ChunkPool pool = new ChunkPool(1, 64);
+        final AudioChunk held = pool.tryAcquire();
+        final AtomicReference<AudioChunk> acquired = new AtomicReference<>();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acquired.set(pool.acquire(60_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiter.start();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (pool.getExhaustedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        held.release();
+        // Woken by the release, long before the timeout
+        waiter.join(5_000);
+        assertSame(held, acquired.get());
+    }
+
+    @Test
+    public void exhaustion_isCountedFromEveryThread() throws Exception {
+        final ChunkPool pool = new ChunkPool(1, 64);
+        AudioChunk held = pool.tryAcquire();
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 100_000; i++) {
+                            pool.acquire(0);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(200_000, pool.getExhaustedCount());
+        held.release();
+    }
+
+    @Test
+    public void reusedChunk_startsEmpty() {
+        ChunkPool pool = new ChunkPool(1, 64);
+        AudioChunk chunk = pool.tryAcquire();
+        chunk.length = 10;
+        chunk.sequence = 5;
+        chunk.seal();
+        chunk.release();
+        chunk = pool.tryAcquire();
+        assertEquals(0, chunk.getLength());
+        assertEquals(0, chunk.getSequence());
+        assertEquals(32, chunk.getSamples().limit());
+    }
+
+    @Test
+    public void views_readLittleEndianSamplesWithoutCopying() {
+        ChunkPool pool = new ChunkPool(1, 16);
+        AudioChunk chunk = pool.tryAcquire();
+        short[] values = {0, 1, -1, 32767, -32768, 1234};
+        for (int i = 0; i < values.length; i++) {
+            chunk.data[2 * i] = (byte) values[i];
+            chunk.data[2 * i + 1] = (byte) (values[i] >> 8);
+        }
+        chunk.length = 2 * values.length;
+        chunk.seal();
+
+        ShortBuffer samples = chunk.getSamples();
+        assertEquals(values.length, samples.limit());
+        assertTrue(samples.isReadOnly());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], samples.get(i));
+        }
+        // Same memory: a later write shows through the view
+        chunk.data[0] = 7;
+        assertEquals(7, samples.get(0));
+        chunk.data[0] = 0;
+
+        short[] shorts = new short[10];
+        assertEquals(4, chunk.copySamples(2, shorts, 1, 8));
+        assertEquals(-1, shorts[1]);
+        assertEquals(1234, shorts[4]);
+
+        float[] floats = new float[values.length];
+        assertEquals(values.length, chunk.copySamples(0, floats, 0, 100));
+        assertEquals(-1f, floats[4], 0f);
+        assertEquals(32767 / 32768f, floats[3], 0f);
+
+        FloatBuffer buffer = FloatBuffer.allocate(3);
+        assertEquals(3, chunk.copySamples(3, buffer, 10));
+        assertEquals(0, buffer.remaining());
+        assertEquals(-1f, buffer.get(1), 0f);
+    }
+
+    @Test
+    public void concurrentAcquireAndRelease_neverHandsOutAChunkTwice() throws Exception {
+        final ChunkPool pool = new ChunkPool(3, 8);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50_000; i++) {
+                            AudioChunk chunk = pool.acquire(1000);
+                            // Owned exclusively while held: nobody else may have written it
+                            chunk.data[0] = (byte) i;
+                            chunk.length = 1;
+                            Thread.yield();
+                            if (chunk.data[0] != (byte) i || chunk.length != 1) {
+                                throw new AssertionError("Chunk shared between holders");
+                            }
+                            chunk.release();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertEquals(3, pool.getAvailable());
+    }
+}
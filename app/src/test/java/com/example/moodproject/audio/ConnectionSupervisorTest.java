@@ -0,0 +1,190 @@
+package com.example.moodproject.audio;
+
+import com.example.moodproject.protocol.Concealment;
+import com.example.moodproject.sim.DeviceSimulator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConnectionSupervisorTest {
+
+    private final List<ConnectionSupervisor> supervisors = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (ConnectionSupervisor supervisor : supervisors) {
+            supervisor.close();
+        }
+    }
+
+    @Test
+    public void droppedConnections_areBridgedWithinOneSession() throws Exception {
+        DeviceSimulator.Options options = new DeviceSimulator.Options();
+        options.speed = 10;
+        options.disconnectAfterMs = 150;
+        try (DeviceSimulator simulator = new DeviceSimulator(options)) {
+            ConnectionSupervisor supervisor = supervise(connector(simulator), 1000);
+            supervisor.setBackoff(10, 50, 5000);
+            supervisor.start();
+            assertTrue(supervisor.awaitConnection(2000));
+
+            long maxBytes = DeviceSimulator.SAMPLE_RATE * 2 * 5;
+            GapCollector collector = new GapCollector();
+            CaptureSession session = new CaptureSession(supervisor, 8, 4096, 2000, maxBytes);
+            session.useFraming(Concealment.SILENCE, DeviceSimulator.SAMPLE_RATE);
+            session.addConsumer("collect", collector);
+            session.start();
+            assertTrue(session.awaitTermination(10_000));
+
+            assertNull(session.getFailure());
+            assertFalse(session.isTimedOut());
+            assertEquals(maxBytes, collector.bytes);
+            assertTrue(supervisor.getReconnectCount() > 0);
+            assertTrue(session.getGapCount() > 0);
+            assertEquals(session.getGapBytes(), collector.gapBytes);
+            assertTrue(supervisor.getReconnectTimes().getCount() > 0);
+            assertTrue(supervisor.getFirstByteTimes().getCount() > 1);
+        }
+    }
+
+    @Test
+    public void noConnection_givesUpWithFailure() throws Exception {
+        ConnectionSupervisor supervisor = supervise(new ConnectionSupervisor.Connector() {
+            @Override
+            public Socket connect() throws IOException {
+                throw new ConnectException("refused");
+            }
+        }, 1000);
+        supervisor.setBackoff(5, 20, 200);
+        supervisor.start();
+
+        assertFalse(supervisor.awaitConnection(2000));
+        assertFalse(supervisor.isRunning());
+        assertTrue(supervisor.getFailedAttempts() > 1);
+        assertNotNull(supervisor.getFailure());
+        try {
+            supervisor.read(new byte[64], 0, 64, 100);
+            fail("read after giving up");
+        } catch (IOException e) {
+            assertSame(supervisor.getFailure(), e);
+        }
+    }
+
+    @Test
+    public void silentConnection_isReplaced() throws Exception {
+        DeviceSimulator.Options options = new DeviceSimulator.Options();
+        options.speed = 10;
+        options.stallIntervalMs = 100;
+        options.stallMs = 10_000;
+        try (DeviceSimulator simulator = new DeviceSimulator(options)) {
+            ConnectionSupervisor supervisor = supervise(connector(simulator), 300);
+            supervisor.setBackoff(10, 50, 5000);
+            supervisor.start();
+            assertTrue(supervisor.awaitConnection(2000));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (supervisor.getReconnectCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(supervisor.getReconnectCount() > 0);
+            assertTrue(simulator.getConnections() > 1);
+        }
+    }
+
+    @Test
+    public void interruptRead_releasesReaderDuringOutage() throws Exception {
+        DeviceSimulator.Options options = new DeviceSimulator.Options();
+        options.speed = 10;
+        options.disconnectAfterMs = 100;
+        try (final DeviceSimulator simulator = new DeviceSimulator(options)) {
+            // Only the first attempt gets through, so the outage lasts
+            final ConnectionSupervisor.Connector first = connector(simulator);
+            final ConnectionSupervisor supervisor = supervise(new ConnectionSupervisor.Connector() {
+                private boolean connected;
+
+                @Override
+                public Socket connect() throws IOException {
+                    if (connected) {
+                        throw new ConnectException("refused");
+                    }
+                    connected = true;
+                    return first.connect();
+                }
+            }, 1000);
+            supervisor.setBackoff(10, 50, 60_000);
+            supervisor.start();
+            assertTrue(supervisor.awaitConnection(2000));
+
+            final long[] result = new long[] {Long.MIN_VALUE};
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[4096];
+                    try {
+                        int bytesRead;
+                        while ((bytesRead = supervisor.read(buffer, 0, buffer.length, 200)) >= 0) {
+                            // drain until released
+                        }
+                        result[0] = bytesRead;
+                    } catch (Exception e) {
+                        result[0] = Long.MAX_VALUE;
+                    }
+                }
+            });
+            reader.start();
+            Thread.sleep(500);
+            assertTrue(reader.isAlive());
+
+            supervisor.interruptRead();
+            reader.join(2000);
+            assertFalse(reader.isAlive());
+            assertEquals(-1, result[0]);
+            assertTrue(supervisor.isRunning());
+        }
+    }
+
+    private ConnectionSupervisor supervise(ConnectionSupervisor.Connector connector, int staleTimeoutMs) {
+        ConnectionSupervisor supervisor = new ConnectionSupervisor(connector, 64 * 1024, 200, staleTimeoutMs,
+                DeviceSimulator.SAMPLE_RATE);
+        supervisors.add(supervisor);
+        return supervisor;
+    }
+
+    private static ConnectionSupervisor.Connector connector(final DeviceSimulator simulator) {
+        return new ConnectionSupervisor.Connector() {
+            @Override
+            public Socket connect() throws IOException {
+                return new Socket(InetAddress.getLoopbackAddress(), simulator.getPort());
+            }
+        };
+    }
+
+    private static class GapCollector implements ChunkConsumer {
+        long bytes;
+        long gapBytes;
+
+        @Override
+        public void accept(AudioChunk chunk) {
+            bytes += chunk.getLength();
+            gapBytes += chunk.getGapBytes();
+            // The gap is where the chunk says, as silence
+            assertTrue(chunk.getGapOffset() + chunk.getGapBytes() <= chunk.getLength());
+            for (int i = chunk.getGapOffset(); i < chunk.getGapOffset() + chunk.getGapBytes(); i++) {
+                assertEquals(0, chunk.getData()[i]);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.moodproject.audio;
+
+import com.example.moodproject.protocol.Concealment;
+import com.example.moodproject.protocol.FrameCodec;
+import com.example.moodproject.protocol.FrameDecoder;
+import com.example.moodproject.protocol.ReorderWindow;
+import com.example.moodproject.sim.DatagramDeviceSimulator;
+import com.example.moodproject.sim.DeviceSimulator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DatagramIngestTest {
+
+    private static final int FRAME_BYTES = FrameCodec.HEADER_BYTES + 512 * 2;
+
+    private final List<DatagramIngest> ingests = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (DatagramIngest ingest : ingests) {
+            ingest.stop();
+        }
+    }
+
+    @Test
+    public void lossAndReordering_areRepairedInCapture() throws Exception {
+        DatagramDeviceSimulator.Options options = new DatagramDeviceSimulator.Options();
+        options.speed = 10;
+        options.lossRate = 0.05;
+        options.reorderRate = 0.1;
+        try (DatagramDeviceSimulator simulator = new DatagramDeviceSimulator(options)) {
+            DatagramIngest ingest = ingest(simulator.getAddress());
+            ingest.start();
+            assertTrue(ingest.awaitData(2000));
+
+            long maxBytes = DeviceSimulator.SAMPLE_RATE * 2 * 3;
+            Collector collector = new Collector();
+            CaptureSession session = new CaptureSession(ingest, 8, 4096, 2000, maxBytes);
+            FrameDecoder frames = session.useFraming(Concealment.INTERPOLATE, DeviceSimulator.SAMPLE_RATE);
+            session.addConsumer("collect", collector);
+            session.start();
+            assertTrue(session.awaitTermination(10_000));
+
+            assertNull(session.getFailure());
+            assertFalse(session.isTimedOut());
+            // Every lost frame is concealed, so the timeline is complete
+            assertEquals(maxBytes, collector.bytes);
+            assertTrue(frames.getLostFrames() > 0);
+            assertTrue(frames.getLostFrames() <= simulator.getFramesLost());
+            assertTrue(frames.getConcealedSamples() > 0);
+            assertEquals(0, frames.getDiscontinuities());
+            // The reorder window put swapped frames back before the decoder saw them
+            ReorderWindow window = ingest.getReorderWindow();
+            assertTrue(window.getReorderedFrames() > 0);
+            assertEquals(0, frames.getReorderedFrames());
+            assertEquals(0, window.getCorruptFrames());
+            assertEquals(0, ingest.getOverflowFrames());
+        }
+    }
+
+    @Test
+    public void resubscribing_restartsTheStream() throws Exception {
+        DatagramDeviceSimulator.Options options = new DatagramDeviceSimulator.Options();
+        options.speed = 10;
+        try (DatagramDeviceSimulator simulator = new DatagramDeviceSimulator(options)) {
+            DatagramIngest first = ingest(simulator.getAddress());
+            first.start();
+            assertTrue(first.awaitData(2000));
+
+            // The device streams to whoever subscribed last
+            DatagramIngest second = ingest(simulator.getAddress());
+            second.start();
+            assertTrue(second.awaitData(2000));
+            long firstBytes = first.getTotalBytes();
+            Thread.sleep(200);
+            assertTrue(first.getTotalBytes() - firstBytes < 4 * FRAME_BYTES);
+            assertTrue(second.getTotalBytes() > 0);
+            assertEquals(0, second.getReorderWindow().getSkippedFrames());
+        }
+    }
+
+    @Test
+    public void noDevice_isNotConnected() throws Exception {
+        InetSocketAddress nobody;
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            nobody = new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+        }
+        DatagramIngest ingest = ingest(nobody);
+        ingest.start();
+
+        assertFalse(ingest.awaitData(300));
+        // Datagrams are connectionless: it keeps subscribing in case the device turns up
+        assertTrue(ingest.isRunning());
+        assertEquals(0, ingest.read(new byte[64], 0, 64, 50));
+
+        ingest.stop();
+        assertEquals(-1, ingest.read(new byte[64], 0, 64, 1000));
+    }
+
+    private DatagramIngest ingest(InetSocketAddress device) {
+        DatagramIngest ingest = new DatagramIngest(device, 64 * 1024, 500, 8, 30);
+        ingests.add(ingest);
+        return ingest;
+    }
+
+    private static class Collector implements ChunkConsumer {
+        long bytes;
+
+        @Override
+        public void accept(AudioChunk chunk) {
+            bytes += chunk.getLength();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.moodproject.audio;
+
+import com.example.moodproject.dsp.FeatureExtractor;
+import com.example.moodproject.dsp.MfccExtractor;
+import com.example.moodproject.dsp.MoodClassifier;
+import com.example.moodproject.dsp.MoodModel;
+import com.example.moodproject.dsp.MoodModelWriter;
+import com.example.moodproject.dsp.MoodWindow;
+import com.example.moodproject.dsp.PolyphaseResampler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FeatureAnalyzerTest {
+
+    private static final int RATE = 16000;
+    private static final int FRAME = 512;
+    private static final int HOP = 256;
+    private static final int SECONDS = 5;
+
+    @Test
+    public void chunkSize_doesNotChangeTheWindows() throws Exception {
+        byte[] pcm = audio(RATE, SECONDS);
+        List<float[]> reference = windows(pcm, pcm.length, null);
+        // About one window per second; the last second is a few frames short of one
+        assertEquals(SECONDS - 1, reference.size());
+        for (int chunk : new int[]{2, 3, 511, 4096, 16384}) {
+            List<float[]> actual = windows(pcm, chunk, null);
+            assertEquals("chunk " + chunk, reference.size(), actual.size());
+            for (int i = 0; i < reference.size(); i++) {
+                assertArrayEquals("chunk " + chunk + ", window " + i, reference.get(i), actual.get(i), 0);
+            }
+        }
+    }
+
+    @Test
+    public void chunkSize_doesNotChangeResampledWindows() throws Exception {
+        byte[] pcm = audio(48000, SECONDS);
+        List<float[]> reference = windows(pcm, pcm.length, new PolyphaseResampler(48000, RATE));
+        assertEquals(SECONDS - 1, reference.size());
+        List<float[]> actual = windows(pcm, 960, new PolyphaseResampler(48000, RATE));
+        assertEquals(reference.size(), actual.size());
+        for (int i = 0; i < reference.size(); i++) {
+            assertArrayEquals("window " + i, reference.get(i), actual.get(i), 0);
+        }
+    }
+
+    @Test
+    public void batchedScoring_countsTheSameMoodsAsOneWindowAtATime() throws Exception {
+        byte[] pcm = audio(RATE, 30);
+        FeatureAnalyzer live = analyzer(1);
+        List<float[]> windows = collect(live);
+        live.offer(pcm, 0, pcm.length);
+        float[] vectors = new float[windows.size() * live.getWindowVectorSize()];
+        for (int i = 0; i < windows.size(); i++) {
+            System.arraycopy(windows.get(i), 0, vectors, i * live.getWindowVectorSize(), live.getWindowVectorSize());
+        }
+
+        // More windows than one batch, and not a whole number of batches
+        FeatureAnalyzer batched = analyzer(8);
+        batched.scoreWindows(vectors, 0, windows.size());
+        assertTrue(windows.size() > 8 && windows.size() % 8 != 0);
+        assertEquals(live.getWindowCount(), batched.getWindowCount());
+        assertEquals(live.getDominantMood(), batched.getDominantMood());
+        assertEquals(live.getDominantMoodShare(), batched.getDominantMoodShare());
+        assertEquals(live.getLatestMood(), batched.getLatestMood());
+        float[] expected = new float[2];
+        float[] actual = new float[2];
+        assertTrue(live.copyLatestProbabilities(expected));
+        assertTrue(batched.copyLatestProbabilities(actual));
+        assertArrayEquals(expected, actual, 1e-6f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowedExtractors_mustShareTheirFrames() throws Exception {
+        new FeatureAnalyzer(new FeatureExtractor(RATE, FRAME, HOP), new MfccExtractor(RATE, FRAME, HOP / 2),
+                new MoodClassifier(model(), 1), MoodWindow.framesFor(RATE, HOP, 1000));
+    }
+
+    // Window vectors from offering pcm chunk bytes at a time
+    private static List<float[]> windows(byte[] pcm, int chunk, PolyphaseResampler resampler) throws Exception {
+        FeatureAnalyzer analyzer = analyzer(1);
+        if (resampler != null) {
+            analyzer.useResampler(resampler);
+        }
+        List<float[]> windows = collect(analyzer);
+        for (int offset = 0; offset < pcm.length; offset += chunk) {
+            analyzer.offer(pcm, offset, Math.min(chunk, pcm.length - offset));
+        }
+        assertEquals(windows.size(), analyzer.getWindowCount());
+        return windows;
+    }
+
+    private static FeatureAnalyzer analyzer(int batch) throws Exception {
+        return new FeatureAnalyzer(new FeatureExtractor(RATE, FRAME, HOP), new MfccExtractor(RATE, FRAME, HOP),
+                new MoodClassifier(model(), batch), MoodWindow.framesFor(RATE, HOP, 1000));
+    }
+
+    // Copies of the window vectors analyzer scores, as it scores them
+    private static List<float[]> collect(FeatureAnalyzer analyzer) {
+        final List<float[]> windows = new ArrayList<>();
+        analyzer.setWindowListener(new FeatureAnalyzer.WindowListener() {
+            @Override
+            public void onWindow(float[] vector, int offset, int length) {
+                windows.add(Arrays.copyOfRange(vector, offset, offset + length));
+            }
+        });
+        return windows;
+    }
+
+    // A gliding tone over noise, so every window differs
+    private static byte[] audio(int rate, int seconds) {
+        Random random = new Random(5);
+        byte[] pcm = new byte[rate * seconds * 2];
+        double phase = 0;
+        for (int i = 0; i < pcm.length / 2; i++) {
+            phase += 2 * Math.PI * (200 + 400.0 * i / rate) / rate;
+            int sample = (int) (8000 * Math.sin(phase) + 1000 * random.nextGaussian());
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    // A linear model over mood windows with fixed random weights
+    private static MoodModel model() throws Exception {
+        String[] labels = {"calm", "happy"};
+        int inputs = MoodWindow.vectorSize(13);
+        Random random = new Random(8);
+        float[] inverseStd = new float[inputs];
+        float[][] weights = new float[labels.length][inputs];
+        for (int i = 0; i < inputs; i++) {
+            inverseStd[i] = 0.1f;
+            for (int j = 0; j < labels.length; j++) {
+                weights[j][i] = (float) random.nextGaussian();
+            }
+        }
+        return MoodModel.parse(new MoodModelWriter(labels, new float[inputs], inverseStd)
+                .addLayer(weights, new float[labels.length], MoodModel.ACTIVATION_LINEAR)
+                .toBuffer());
+    }
+}
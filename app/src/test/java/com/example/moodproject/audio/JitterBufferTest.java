@@ -0,0 +1,124 @@
+package com.example.moodproject.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays synthetic arrival timings against {@link JitterBuffer}.
+ */
+public class JitterBufferTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final long MS = 1_000_000L;
+    // 10 ms of 16-bit mono audio
+    private static final int PERIOD_BYTES = SAMPLE_RATE / 100 * 2;
+
+    @Test
+    public void steadyArrivals_playWithoutUnderruns() {
+        JitterBuffer buffer = new JitterBuffer(SAMPLE_RATE, 2, 40, 500);
+        simulate(buffer, 10, 1, 0, 5000);
+
+        assertEquals(0, buffer.getUnderruns());
+        assertEquals(0, buffer.getOverruns());
+        assertTrue(buffer.getJitterMs() < 1);
+        assertEquals(40, buffer.getTargetDepthMs(), 0.5);
+        // Audio waits roughly the target depth between arrival and playout
+        assertTrue(buffer.getLatencyMs() >= 30 && buffer.getLatencyMs() <= 60);
+    }
+
+    @Test
+    public void burstyArrivals_deepenTheBuffer() {
+        JitterBuffer buffer = new JitterBuffer(SAMPLE_RATE, 2, 20, 500);
+        // Wi-Fi style delivery: 8 periods at once every 80 ms
+        simulate(buffer, 80, 8, 0, 10_000);
+
+        assertTrue(buffer.getTargetDepthMs() >= 80);
+        // Once adapted, playback runs clean: only a few underruns during warm-up
+        long warmUpUnderruns = buffer.getUnderruns();
+        simulateMore(buffer, 80, 8, 10_000, 20_000);
+        assertEquals(warmUpUnderruns, buffer.getUnderruns());
+    }
+
+    @Test
+    public void stall_underrunsAndRecovers() {
+        JitterBuffer buffer = new JitterBuffer(SAMPLE_RATE, 2, 40, 500);
+        double before = buffer.getTargetDepthMs();
+        // Sender goes quiet for 300 ms in the middle of the run
+        simulate(buffer, 10, 1, 300, 3000);
+
+        assertEquals(1, buffer.getUnderruns());
+        assertTrue(buffer.getTargetDepthMs() > before);
+        // The backlog delivered after the stall is trimmed instead of adding latency
+        assertTrue(buffer.getOverruns() >= 1);
+        assertTrue(buffer.getLatencyMs() < 200);
+        assertTrue(buffer.isPlaying());
+    }
+
+    @Test
+    public void buffering_outputsSilence() {
+        JitterBuffer buffer = new JitterBuffer(SAMPLE_RATE, 2, 40, 500);
+        byte[] data = filled(PERIOD_BYTES, (byte) 5);
+        buffer.write(data, 0, data.length, 0);
+
+        byte[] out = filled(PERIOD_BYTES, (byte) 9);
+        assertEquals(0, buffer.read(out, 0, out.length, MS));
+        assertArrayEquals(new byte[PERIOD_BYTES], out);
+        assertEquals(0, buffer.getUnderruns());
+    }
+
+    @Test
+    public void flood_dropsOldestAudio() {
+        JitterBuffer buffer = new JitterBuffer(SAMPLE_RATE, 2, 20, 100);
+        byte[] data = new byte[PERIOD_BYTES];
+        for (int i = 0; i < 100; i++) {
+            buffer.write(data, 0, data.length, i * MS);
+        }
+        assertTrue(buffer.getOverruns() > 0);
+        assertTrue(buffer.getBufferedMs() <= 200.5);
+    }
+
+    // Deliver `perBurst` periods every `intervalMs`, skipping deliveries during a
+    // stall at the midpoint, while reading one period every 10 ms
+    private static void simulate(JitterBuffer buffer, int intervalMs, int perBurst, int stallMs, int durationMs) {
+        byte[] data = filled(PERIOD_BYTES, (byte) 1);
+        byte[] out = new byte[PERIOD_BYTES];
+        int stallStart = durationMs / 2;
+        int pending = 0;
+        for (int t = 0; t < durationMs; t++) {
+            if (t % intervalMs == 0) {
+                pending += perBurst;
+            }
+            boolean stalled = t >= stallStart && t < stallStart + stallMs;
+            if (!stalled) {
+                for (; pending > 0; pending--) {
+                    buffer.write(data, 0, data.length, t * MS);
+                }
+            }
+            if (t % 10 == 5) {
+                buffer.read(out, 0, out.length, t * MS);
+            }
+        }
+    }
+
+    private static void simulateMore(JitterBuffer buffer, int intervalMs, int perBurst, int fromMs, int toMs) {
+        byte[] data = filled(PERIOD_BYTES, (byte) 1);
+        byte[] out = new byte[PERIOD_BYTES];
+        for (int t = fromMs; t < toMs; t++) {
+            if (t % intervalMs == 0) {
+                for (int i = 0; i < perBurst; i++) {
+                    buffer.write(data, 0, data.length, t * MS);
+                }
+            }
+            if (t % 10 == 5) {
+                buffer.read(out, 0, out.length, t * MS);
+            }
+        }
+    }
+
+    private static byte[] filled(int length, byte value) {
+        byte[] data = new byte[length];
+        java.util.Arrays.fill(data, value);
+        return data;
+    }
+}
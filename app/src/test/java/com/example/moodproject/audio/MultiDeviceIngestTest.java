@@ -0,0 +1,161 @@
+package com.example.moodproject.audio;
+
+import com.example.moodproject.metrics.MetricsRegistry;
+import com.example.moodproject.sim.DeviceSimulator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link MultiDeviceIngest} against several simulated ESP32 streams on loopback.
+ */
+public class MultiDeviceIngestTest {
+
+    // The synthetic audio loops after 42 frames of 1024 samples
+    private static final int STREAM_BYTES = 42 * 1024 * 2;
+
+    private MultiDeviceIngest ingest;
+    private DeviceSimulator simulator;
+
+    @After
+    public void tearDown() throws Exception {
+        if (ingest != null) {
+            ingest.stop();
+        }
+        if (simulator != null) {
+            simulator.close();
+        }
+    }
+
+    @Test
+    public void manyDevices_areReadWholeOnOneThread() throws Exception {
+        simulator = rawSimulator();
+        MetricsRegistry metrics = new MetricsRegistry();
+        ingest = new MultiDeviceIngest(16 * 1024, 500, 2000);
+        ingest.setMetrics(metrics);
+        ingest.start();
+        List<MultiDeviceIngest.Device> devices = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            devices.add(ingest.connect("esp" + i, address()));
+        }
+
+        byte[][] received = new byte[devices.size()][STREAM_BYTES];
+        int[] filled = new int[devices.size()];
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        boolean done = false;
+        while (!done) {
+            assertTrue("streams incomplete", System.nanoTime() < deadline);
+            done = true;
+            for (int i = 0; i < devices.size(); i++) {
+                if (filled[i] < STREAM_BYTES) {
+                    int n = devices.get(i).read(received[i], filled[i], STREAM_BYTES - filled[i], 1);
+                    assertTrue(n >= 0);
+                    filled[i] += n;
+                    done &= filled[i] == STREAM_BYTES;
+                }
+            }
+        }
+
+        byte[] expected = Arrays.copyOf(DeviceSimulator.synthesize(DeviceSimulator.SAMPLE_RATE), STREAM_BYTES);
+        for (int i = 0; i < devices.size(); i++) {
+            assertArrayEquals(expected, received[i]);
+            assertTrue(devices.get(i).isConnected());
+            assertNull(devices.get(i).getFailure());
+        }
+        assertEquals(1, countThreads("MultiDeviceIngest"));
+        assertTrue(metrics.snapshot().contains("ingest.esp15.bytes "));
+
+        devices.get(0).close();
+        assertFalse(metrics.snapshot().contains("ingest.esp0."));
+        assertEquals(15, ingest.getDevices().size());
+    }
+
+    @Test
+    public void fullRing_pausesOnlyThatDevice() throws Exception {
+        simulator = rawSimulator();
+        ingest = new MultiDeviceIngest(4096, 500, 2000);
+        ingest.start();
+        MultiDeviceIngest.Device reading = ingest.connect("reading", address());
+        MultiDeviceIngest.Device idle = ingest.connect("idle", address());
+
+        byte[] expected = Arrays.copyOf(DeviceSimulator.synthesize(DeviceSimulator.SAMPLE_RATE), STREAM_BYTES);
+        assertArrayEquals(expected, readFully(reading, STREAM_BYTES));
+        assertTrue(idle.getPauseCount() > 0);
+        assertEquals(4096, idle.getBufferedBytes());
+
+        // Nothing was lost while the idle device was held back
+        assertArrayEquals(expected, readFully(idle, STREAM_BYTES));
+    }
+
+    @Test
+    public void refusedConnection_failsOnlyThatDevice() throws Exception {
+        simulator = rawSimulator();
+        ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        InetSocketAddress refusing = new InetSocketAddress(InetAddress.getLoopbackAddress(), closed.getLocalPort());
+        closed.close();
+
+        ingest = new MultiDeviceIngest(16 * 1024, 500, 2000);
+        ingest.start();
+        MultiDeviceIngest.Device missing = ingest.connect("missing", refusing);
+        MultiDeviceIngest.Device present = ingest.connect("present", address());
+
+        try {
+            missing.read(new byte[16], 0, 16, 2000);
+            fail("Read from a refused connection");
+        } catch (IOException expected) {
+            assertFalse(missing.isRunning());
+        }
+        readFully(present, 1024);
+
+        ingest.stop();
+        byte[] rest = new byte[64 * 1024];
+        while (present.read(rest, 0, rest.length, 2000) > 0) {
+            // Drain what was buffered before the stop
+        }
+        assertEquals(-1, present.read(rest, 0, rest.length, 2000));
+        assertNull(present.getFailure());
+    }
+
+    private static DeviceSimulator rawSimulator() throws IOException {
+        DeviceSimulator.Options options = new DeviceSimulator.Options();
+        options.speed = 20;
+        options.burstFrames = 4;
+        options.framed = false;
+        return new DeviceSimulator(options);
+    }
+
+    private InetSocketAddress address() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), simulator.getPort());
+    }
+
+    private static byte[] readFully(MultiDeviceIngest.Device device, int length) throws Exception {
+        byte[] received = new byte[length];
+        int total = 0;
+        while (total < length) {
+            int n = device.read(received, total, length - total, 2000);
+            assertTrue("stream ended early at " + total, n > 0);
+            total += n;
+        }
+        return received;
+    }
+
+    private static int countThreads(String name) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
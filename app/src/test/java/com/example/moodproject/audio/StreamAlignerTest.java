@@ -0,0 +1,126 @@
+package com.example.moodproject.audio;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StreamAlignerTest {
+
+    private static final int RATE = 44100;
+    private static final int CHUNK = 512;
+    private static final int WINDOW = 1024;
+
+    @Test
+    public void devicesStartedApart_lineUpOnTheHostClock() throws Exception {
+        short[] signal = noise(3 * RATE, 1);
+        StreamAligner aligner = new StreamAligner(2, RATE, WINDOW, 1 << 18, 100);
+        Random delays = new Random(2);
+        long base = System.nanoTime() - 60_000_000_000L;
+        // Device 1 connected 0.3 s after device 0, so its sample 0 is device 0's sample 13230
+        int late = 13230;
+        feed(aligner, 0, signal, 0, signal.length - late, base, delays);
+        feed(aligner, 1, signal, late, signal.length - late, base + 300_000_000L, delays);
+        aligner.finish(0);
+        aligner.finish(1);
+
+        long offsets = aligner.getOffsetNs(1) - aligner.getOffsetNs(0);
+        assertEquals(300_000_000L, offsets, 1_000_000L);
+
+        short[][] window = new short[2][WINDOW];
+        int windows = 0;
+        int matched = 0;
+        while (aligner.read(window, 1000) > 0) {
+            windows++;
+            // Device 1 has nothing for the first 0.3 s and device 0 nothing for the
+            // last; in between both carry the same audio
+            if (windows > late / WINDOW + 1 && windows < (signal.length - late) / WINDOW) {
+                assertTrue("window " + windows + " misaligned", sameWithin(window[0], window[1], 1));
+                matched++;
+            }
+        }
+        assertTrue("matched " + matched, matched >= (signal.length - 2 * late) / WINDOW - 2);
+        assertTrue(aligner.getMissingSamples(1) >= late - WINDOW);
+        assertEquals(0, aligner.getLostSamples(0));
+        assertEquals(-1, aligner.read(window, 0));
+    }
+
+    @Test
+    public void silentDevice_isFilledOnceOverdue() throws Exception {
+        StreamAligner aligner = new StreamAligner(2, RATE, WINDOW, 1 << 16, 50);
+        short[] signal = noise(8 * WINDOW, 3);
+        // Recorded a second ago, so every window is already overdue for device 1
+        feed(aligner, 0, signal, 0, signal.length, System.nanoTime() - 1_000_000_000L, new Random(4));
+
+        short[][] window = new short[2][WINDOW];
+        for (int i = 0; i < 8; i++) {
+            assertEquals(WINDOW, aligner.read(window, 1000));
+            assertTrue(isSilent(window[1]));
+            assertFalse(isSilent(window[0]));
+        }
+        assertEquals(8 * WINDOW, aligner.getMissingSamples(1));
+        assertEquals(0, aligner.getMissingSamples(0));
+
+        aligner.finish(0);
+        aligner.finish(1);
+        assertEquals(-1, aligner.read(window, 1000));
+    }
+
+    @Test
+    public void read_waitsForAudioThenTimesOut() throws Exception {
+        StreamAligner aligner = new StreamAligner(1, RATE, WINDOW, 1 << 12, 50);
+        long start = System.nanoTime();
+        assertEquals(0, aligner.read(new short[1][WINDOW], 100));
+        assertTrue(System.nanoTime() - start >= 90_000_000L);
+    }
+
+    // Send samples [from, from + count) of signal as a device that started at startNs,
+    // each chunk arriving 2 to 20 ms after it was recorded
+    private static void feed(StreamAligner aligner, int device, short[] signal, int from, int count,
+                             long startNs, Random delays) {
+        byte[] pcm = new byte[2 * CHUNK];
+        for (int sample = 0; sample + CHUNK <= count; sample += CHUNK) {
+            for (int i = 0; i < CHUNK; i++) {
+                short value = signal[from + sample + i];
+                pcm[2 * i] = (byte) value;
+                pcm[2 * i + 1] = (byte) (value >> 8);
+            }
+            long delayNs = sample % (20 * CHUNK) == 0 ? 2_000_000L : 2_000_000L + delays.nextInt(18_000_000);
+            long arrivalNs = startNs + Math.round((sample + CHUNK) * 1e9 / RATE) + delayNs;
+            aligner.write(device, sample, pcm, 0, pcm.length, arrivalNs);
+        }
+    }
+
+    private static short[] noise(int samples, long seed) {
+        Random random = new Random(seed);
+        short[] signal = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            signal[i] = (short) (random.nextInt(20000) - 10000);
+        }
+        return signal;
+    }
+
+    private static boolean isSilent(short[] window) {
+        for (short sample : window) {
+            if (sample != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Equal up to a shift of at most maxShift samples
+    private static boolean sameWithin(short[] a, short[] b, int maxShift) {
+        for (int shift = -maxShift; shift <= maxShift; shift++) {
+            boolean same = true;
+            for (int i = maxShift; i < a.length - maxShift && same; i++) {
+                same = a[i] == b[i + shift];
+            }
+            if (same) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.moodproject.audio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link StreamIngest} against a loopback server standing in for the ESP32.
+ */
+public class StreamIngestTest {
+
+    private ServerSocket server;
+    private Socket client;
+    private StreamIngest ingest;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (ingest != null) {
+            ingest.stop();
+        }
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void loopbackStream_isReadInOrder() throws Exception {
+        final byte[] sent = new byte[200_000];
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = (byte) (i * 31);
+        }
+        Thread sender = serve(sent, 4096, 0, true);
+
+        ingest = new StreamIngest(client, 16 * 1024, 200);
+        ingest.start();
+
+        byte[] received = new byte[sent.length];
+        int total = 0;
+        while (total < received.length) {
+            int n = ingest.read(received, total, received.length - total, 2000);
+            assertTrue("stream ended early at " + total, n > 0);
+            total += n;
+        }
+        sender.join();
+
+        assertArrayEquals(sent, received);
+        assertEquals(-1, ingest.read(received, 0, received.length, 2000));
+        assertEquals(sent.length, ingest.getTotalBytes());
+        assertNull(ingest.getFailure());
+    }
+
+    @Test
+    public void silentSender_countsStalls() throws Exception {
+        Thread sender = serve(new byte[1024], 1024, 300, false);
+
+        ingest = new StreamIngest(client, 4096, 50);
+        ingest.start();
+
+        byte[] received = new byte[1024];
+        int n = ingest.read(received, 0, received.length, 2000);
+        sender.join();
+
+        assertTrue(n > 0);
+        assertTrue("stalls: " + ingest.getStallCount(), ingest.getStallCount() >= 2);
+    }
+
+    @Test
+    public void read_timesOutWithoutData() throws Exception {
+        ingest = new StreamIngest(client, 4096, 20);
+        ingest.start();
+
+        long start = System.nanoTime();
+        assertEquals(0, ingest.read(new byte[16], 0, 16, 100));
+        assertTrue(System.nanoTime() - start >= 90_000_000L);
+        assertTrue(ingest.isRunning());
+    }
+
+    // Accept one connection and write data in chunks after an optional delay
+    private Thread serve(final byte[] data, final int chunk, final long delayMs, final boolean closeAfter) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket peer = server.accept();
+                    Thread.sleep(delayMs);
+                    OutputStream out = peer.getOutputStream();
+                    for (int offset = 0; offset < data.length; offset += chunk) {
+                        out.write(data, offset, Math.min(chunk, data.length - offset));
+                    }
+                    out.flush();
+                    if (closeAfter) {
+                        peer.close();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
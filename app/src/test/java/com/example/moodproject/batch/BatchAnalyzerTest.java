@@ -0,0 +1,246 @@
+package com.example.moodproject.batch;
+
+import com.example.moodproject.audio.FeatureAnalyzer;
+import com.example.moodproject.dsp.MoodModel;
+import com.example.moodproject.dsp.MoodModelWriter;
+import com.example.moodproject.dsp.MoodWindow;
+import com.example.moodproject.dsp.VoiceActivityDetector;
+import com.example.moodproject.store.FeatureCache;
+import com.example.moodproject.store.RecordingEntry;
+import com.example.moodproject.store.RecordingStore;
+import com.example.moodproject.store.RecordingWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchAnalyzerTest {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int RECORDINGS = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parallelRun_storesTheSameMoodsAsASerialOne() throws Exception {
+        MoodModel model = model();
+        File serialDirectory = folder.newFolder();
+        File parallelDirectory = folder.newFolder();
+        fill(serialDirectory);
+        fill(parallelDirectory);
+
+        BatchAnalyzer serial = run(serialDirectory, BatchAnalysisJob.factory(model), 1);
+        BatchAnalyzer parallel = run(parallelDirectory, BatchAnalysisJob.factory(model), 4);
+        assertEquals(RECORDINGS, serial.getAnalyzedCount());
+        assertEquals(RECORDINGS, parallel.getAnalyzedCount());
+        assertEquals(0, parallel.getFailedCount());
+        assertTrue(parallel.getFilesPerSecond() > 0);
+        assertTrue(parallel.getRealTimeFactor() > 1);
+
+        // Moods reach the index and the record headers, so they survive a rebuild too
+        RecordingStore serialStore = RecordingStore.open(serialDirectory);
+        RecordingStore parallelStore = RecordingStore.open(parallelDirectory);
+        new File(parallelDirectory, "recordings.idx").delete();
+        for (int i = 0; i < RECORDINGS; i++) {
+            RecordingEntry expected = serialStore.get(i);
+            RecordingEntry actual = parallelStore.get(i);
+            assertTrue(expected.mood >= 0);
+            assertTrue(expected.moodShare > 0);
+            assertEquals(expected.mood, actual.mood);
+            assertEquals(expected.moodShare, actual.moodShare);
+        }
+        parallelStore.close();
+        serialStore.close();
+
+        RecordingStore rebuilt = RecordingStore.open(parallelDirectory);
+        assertTrue(rebuilt.wasRebuilt());
+        RecordingStore reference = RecordingStore.open(serialDirectory);
+        for (int i = 0; i < RECORDINGS; i++) {
+            assertEquals(reference.get(i).mood, rebuilt.get(i).mood);
+        }
+        rebuilt.close();
+        reference.close();
+    }
+
+    @Test
+    public void stoppedRun_resumesWithoutRepeatingWork() throws Exception {
+        File directory = folder.newFolder();
+        fill(directory);
+        final AtomicInteger created = new AtomicInteger();
+        final BatchAnalyzer.Factory analysis = BatchAnalysisJob.factory(model());
+        final BatchAnalyzer[] batch = new BatchAnalyzer[1];
+        BatchAnalyzer.Factory counting = new BatchAnalyzer.Factory() {
+            @Override
+            public FeatureAnalyzer createAnalyzer(int sampleRate) {
+                if (created.incrementAndGet() == 3) {
+                    batch[0].stop();
+                }
+                return analysis.createAnalyzer(sampleRate);
+            }
+
+            @Override
+            public VoiceActivityDetector createDetector(int sampleRate) {
+                return analysis.createDetector(sampleRate);
+            }
+        };
+
+        RecordingStore store = RecordingStore.open(directory);
+        Checkpoint checkpoint = Checkpoint.open(new File(directory, BatchAnalysisJob.CHECKPOINT_FILE), "run 1");
+        batch[0] = new BatchAnalyzer(store, counting, checkpoint, 1);
+        assertFalse(batch[0].run());
+        assertEquals(3, batch[0].getAnalyzedCount());
+        checkpoint.close();
+        store.close();
+
+        store = RecordingStore.open(directory);
+        checkpoint = Checkpoint.open(new File(directory, BatchAnalysisJob.CHECKPOINT_FILE), "run 1");
+        assertTrue(checkpoint.isResumed());
+        assertEquals(3, checkpoint.getDoneCount());
+        batch[0] = new BatchAnalyzer(store, counting, checkpoint, 2);
+        assertTrue(batch[0].run());
+        assertEquals(3, batch[0].getSkippedCount());
+        assertEquals(RECORDINGS - 3, batch[0].getAnalyzedCount());
+        assertEquals(RECORDINGS, created.get());
+        assertEquals(RECORDINGS, checkpoint.getDoneCount());
+        checkpoint.close();
+
+        // A new model means every recording is scored again
+        checkpoint = Checkpoint.open(new File(directory, BatchAnalysisJob.CHECKPOINT_FILE), "run 2");
+        assertFalse(checkpoint.isResumed());
+        assertEquals(0, checkpoint.getDoneCount());
+        checkpoint.close();
+        store.close();
+    }
+
+    @Test
+    public void failedRecording_isRetriedNextRun() throws Exception {
+        File directory = folder.newFolder();
+        fill(directory);
+        final BatchAnalyzer.Factory analysis = BatchAnalysisJob.factory(model());
+        final AtomicInteger created = new AtomicInteger();
+        BatchAnalyzer.Factory failingOnce = new BatchAnalyzer.Factory() {
+            @Override
+            public FeatureAnalyzer createAnalyzer(int sampleRate) {
+                if (created.incrementAndGet() == 2) {
+                    throw new IllegalStateException("out of memory, say");
+                }
+                return analysis.createAnalyzer(sampleRate);
+            }
+
+            @Override
+            public VoiceActivityDetector createDetector(int sampleRate) {
+                return analysis.createDetector(sampleRate);
+            }
+        };
+
+        RecordingStore store = RecordingStore.open(directory);
+        File checkpointFile = new File(directory, BatchAnalysisJob.CHECKPOINT_FILE);
+        Checkpoint checkpoint = Checkpoint.open(checkpointFile, "run");
+        BatchAnalyzer batch = new BatchAnalyzer(store, failingOnce, checkpoint, 3);
+        assertTrue(batch.run());
+        assertEquals(1, batch.getFailedCount());
+        assertEquals("out of memory, say", batch.getFirstFailure().getMessage());
+        assertEquals(RECORDINGS - 1, checkpoint.getDoneCount());
+        checkpoint.close();
+
+        checkpoint = Checkpoint.open(checkpointFile, "run");
+        batch = new BatchAnalyzer(store, failingOnce, checkpoint, 3);
+        assertTrue(batch.run());
+        assertEquals(1, batch.getAnalyzedCount());
+        assertEquals(0, batch.getFailedCount());
+        assertEquals(RECORDINGS, checkpoint.getDoneCount());
+        checkpoint.close();
+        store.close();
+    }
+
+    @Test
+    public void rerunWithCache_scoresCachedFeaturesToTheSameMoods() throws Exception {
+        MoodModel model = model();
+        File referenceDirectory = folder.newFolder();
+        File directory = folder.newFolder();
+        fill(referenceDirectory);
+        fill(directory);
+        run(referenceDirectory, BatchAnalysisJob.factory(model), 2);
+
+        FeatureCache cache = FeatureCache.open(new File(directory, FeatureCache.DIRECTORY), 1024 * 1024, 1024 * 1024);
+        RecordingStore store = RecordingStore.open(directory);
+        for (String runKey : new String[] {"model 1", "model 2"}) {
+            Checkpoint checkpoint = Checkpoint.open(new File(directory, BatchAnalysisJob.CHECKPOINT_FILE), runKey);
+            BatchAnalyzer batch = new BatchAnalyzer(store, BatchAnalysisJob.factory(model), checkpoint, 2);
+            batch.useCache(cache);
+            assertTrue(batch.run());
+            checkpoint.close();
+            assertEquals(RECORDINGS, batch.getAnalyzedCount());
+            assertEquals(runKey.equals("model 1") ? 0 : RECORDINGS, batch.getCachedCount());
+        }
+        assertEquals(RECORDINGS, cache.getMisses());
+        assertEquals(1.0 / 2, cache.getHitRate(), 1e-9);
+
+        RecordingStore reference = RecordingStore.open(referenceDirectory);
+        for (int i = 0; i < RECORDINGS; i++) {
+            assertEquals(reference.get(i).mood, store.get(i).mood);
+            assertEquals(reference.get(i).moodShare, store.get(i).moodShare);
+        }
+        reference.close();
+        store.close();
+    }
+
+    private static BatchAnalyzer run(File directory, BatchAnalyzer.Factory factory, int threads) throws Exception {
+        RecordingStore store = RecordingStore.open(directory);
+        Checkpoint checkpoint = Checkpoint.open(new File(directory, BatchAnalysisJob.CHECKPOINT_FILE), "run");
+        BatchAnalyzer batch = new BatchAnalyzer(store, factory, checkpoint, threads);
+        assertTrue(batch.run());
+        checkpoint.close();
+        store.close();
+        return batch;
+    }
+
+    // Recordings of one to four seconds, each a voice at its own pitch with pauses
+    private static void fill(File directory) throws Exception {
+        RecordingStore store = RecordingStore.open(directory);
+        Random random = new Random(4);
+        for (int r = 0; r < RECORDINGS; r++) {
+            int samples = SAMPLE_RATE * (1 + r % 4) + random.nextInt(SAMPLE_RATE / 2);
+            double pitch = 100 + 40 * r;
+            byte[] audio = new byte[2 * samples];
+            for (int i = 0; i < samples; i++) {
+                double t = (double) i / SAMPLE_RATE;
+                double envelope = Math.max(0, Math.sin(2 * Math.PI * 1.5 * t));
+                double voice = Math.sin(2 * Math.PI * pitch * t) + 0.5 * Math.sin(2 * Math.PI * 2 * pitch * t);
+                short sample = (short) (envelope * 6000 * voice + random.nextGaussian() * 30);
+                audio[2 * i] = (byte) sample;
+                audio[2 * i + 1] = (byte) (sample >> 8);
+            }
+            RecordingWriter writer = store.begin(1, 1000L * (r + 1), SAMPLE_RATE);
+            writer.write(audio, 0, audio.length);
+            writer.close();
+        }
+        store.close();
+    }
+
+    // A linear model over mood windows with fixed random weights
+    private static MoodModel model() throws Exception {
+        String[] labels = {"calm", "happy", "sad"};
+        int inputs = MoodWindow.vectorSize(13);
+        Random random = new Random(8);
+        float[] mean = new float[inputs];
+        float[] inverseStd = new float[inputs];
+        float[][] weights = new float[labels.length][inputs];
+        for (int i = 0; i < inputs; i++) {
+            inverseStd[i] = 0.1f;
+            for (int j = 0; j < labels.length; j++) {
+                weights[j][i] = (float) random.nextGaussian();
+            }
+        }
+        return MoodModel.parse(new MoodModelWriter(labels, mean, inverseStd)
+                .addLayer(weights, new float[labels.length], MoodModel.ACTIVATION_LINEAR)
+                .toBuffer());
+    }
+}
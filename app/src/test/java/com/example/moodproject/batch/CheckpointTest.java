@@ -0,0 +1,78 @@
+package com.example.moodproject.batch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void records_surviveReopening() throws Exception {
+        File file = new File(folder.getRoot(), "run.ckpt");
+        Checkpoint checkpoint = Checkpoint.open(file, "features v1");
+        assertFalse(checkpoint.isResumed());
+        checkpoint.markDone(1, 1000);
+        checkpoint.markDone(1, 2000);
+        checkpoint.markDone(1, 2000);
+        checkpoint.close();
+
+        checkpoint = Checkpoint.open(file, "features v1");
+        assertTrue(checkpoint.isResumed());
+        assertEquals(2, checkpoint.getDoneCount());
+        assertTrue(checkpoint.isDone(1, 1000));
+        assertTrue(checkpoint.isDone(1, 2000));
+        assertFalse(checkpoint.isDone(2, 1000));
+        checkpoint.close();
+    }
+
+    @Test
+    public void recordCutShort_isDroppedAndAppendingCarriesOn() throws Exception {
+        File file = new File(folder.getRoot(), "run.ckpt");
+        Checkpoint checkpoint = Checkpoint.open(file, "features v1");
+        checkpoint.markDone(7, 1000);
+        checkpoint.close();
+        // The process died halfway through writing the next record
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[11]);
+        }
+
+        checkpoint = Checkpoint.open(file, "features v1");
+        assertEquals(1, checkpoint.getDoneCount());
+        checkpoint.markDone(7, 2000);
+        checkpoint.close();
+
+        checkpoint = Checkpoint.open(file, "features v1");
+        assertEquals(2, checkpoint.getDoneCount());
+        assertTrue(checkpoint.isDone(7, 2000));
+        checkpoint.close();
+    }
+
+    @Test
+    public void otherRunOrForeignFile_startsOver() throws Exception {
+        File file = new File(folder.getRoot(), "run.ckpt");
+        Checkpoint checkpoint = Checkpoint.open(file, "features v1");
+        checkpoint.markDone(1, 1000);
+        checkpoint.close();
+
+        checkpoint = Checkpoint.open(file, "features v2");
+        assertFalse(checkpoint.isResumed());
+        assertFalse(checkpoint.isDone(1, 1000));
+        checkpoint.close();
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("not a checkpoint".getBytes("UTF-8"));
+        }
+        checkpoint = Checkpoint.open(file, "features v2");
+        assertFalse(checkpoint.isResumed());
+        assertEquals(0, checkpoint.getDoneCount());
+        checkpoint.close();
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.moodproject.metrics;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void buckets_coverEveryValueWithBoundedError() {
+        int previous = -1;
+        for (long value = 0; value < 1_000_000; value += 1 + value / 50) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue(bucket >= previous);
+            previous = bucket;
+            long upper = Histogram.upperBound(bucket);
+            assertTrue(upper >= value);
+            assertTrue(upper - value <= value / 16);
+            assertEquals(bucket, Histogram.bucketOf(upper));
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles_areWithinOneBucketOfExact() {
+        Random random = new Random(1);
+        Histogram histogram = new Histogram();
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal-ish latencies around 200 us with a long tail
+            values[i] = (long) (200_000 * Math.exp(random.nextGaussian()));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double fraction : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            long exact = values[(int) Math.ceil(fraction * values.length) - 1];
+            long estimate = histogram.getPercentile(fraction);
+            assertTrue(fraction + ": " + estimate + " vs " + exact, estimate >= exact && estimate <= exact * 17 / 16);
+        }
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length - 1], histogram.getPercentile(1));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void concurrentRecording_losesNothing() throws Exception {
+        final Histogram histogram = new Histogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100_000; i++) {
+                        histogram.record(thread * 1000 + i % 100);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400_000, histogram.getCount());
+        assertEquals(3099, histogram.getMax());
+    }
+
+    @Test
+    public void recording_allocatesNothing() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long id = Thread.currentThread().getId();
+        Histogram histogram = new Histogram();
+        Counter counter = new Counter();
+        // Warm up so the JIT has compiled the hot path before measuring
+        for (int i = 0; i < 200_000; i++) {
+            histogram.record(i);
+            counter.increment();
+        }
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 1_000_000; i++) {
+            histogram.record(i * 31L);
+            counter.increment();
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        // Only the measurement itself may allocate a little
+        assertTrue(allocated < 1024);
+    }
+}
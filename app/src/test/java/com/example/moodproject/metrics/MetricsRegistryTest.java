@@ -0,0 +1,73 @@
+package com.example.moodproject.metrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void metrics_areSharedByName() {
+        MetricsRegistry registry = new MetricsRegistry();
+        assertSame(registry.counter("a"), registry.counter("a"));
+        assertSame(registry.histogram("b"), registry.histogram("b"));
+        try {
+            registry.gauge("a");
+            fail("Counter reused as a gauge");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void snapshot_listsEveryMetricByName() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("store.bytes").add(42);
+        registry.gauge("queue.depth").set(3);
+        final long[] source = {7};
+        registry.gauge("ingest.rate", new Gauge.Reader() {
+            @Override
+            public long read() {
+                return source[0];
+            }
+        });
+        Histogram latency = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            latency.record(i * 1000L);
+        }
+        registry.register("disk.write.ns", latency);
+        source[0] = 9;
+
+        String snapshot = registry.snapshot();
+        assertEquals("disk.write.ns n=100 mean=50.5us p50=51us p99=100us max=100us\n"
+                + "ingest.rate 9\n"
+                + "queue.depth 3\n"
+                + "store.bytes 42\n", snapshot);
+
+        registry.remove("queue.depth");
+        assertFalse(registry.snapshot().contains("queue.depth"));
+    }
+
+    @Test
+    public void writeSnapshot_replacesTheFile() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("recordings");
+        File file = new File(folder.getRoot(), "metrics.txt");
+        registry.writeSnapshot(file);
+        counter.increment();
+        registry.writeSnapshot(file);
+
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(text.startsWith("# "));
+        assertTrue(text.endsWith("recordings 1\n"));
+        assertFalse(new File(folder.getRoot(), "metrics.txt.tmp").exists());
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.moodproject.pipeline;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class BoundedQueueTest {
+
+    @Test
+    public void queue_isFifoAndBounded() {
+        BoundedQueue<Integer> queue = new BoundedQueue<>(5);
+        assertEquals(8, queue.capacity());
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(8));
+        assertEquals(8, queue.size());
+        assertEquals(0, (int) queue.poll());
+        assertTrue(queue.offer(8));
+        for (int i = 1; i <= 8; i++) {
+            assertEquals(i, (int) queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void producerEvictingWhileConsumerTakes_losesAndRepeatsNothing() throws Exception {
+        final int count = 1_000_000;
+        final BoundedQueue<Long> queue = new BoundedQueue<>(64);
+        final AtomicLong evicted = new AtomicLong();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Drop-oldest producer: takes from the head itself when the queue is full
+                for (long i = 0; i < count; i++) {
+                    while (!queue.offer(i)) {
+                        if (queue.poll() != null) {
+                            evicted.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        long consumed = 0;
+        long last = -1;
+        while (producer.isAlive() || !queue.isEmpty()) {
+            Long item = queue.poll();
+            if (item == null) {
+                Thread.yield();
+                continue;
+            }
+            assertTrue("out of order: " + item + " after " + last, item > last);
+            last = item;
+            consumed++;
+        }
+        producer.join();
+
+        assertEquals(count - 1, last);
+        assertEquals(count, consumed + evicted.get());
+    }
+}
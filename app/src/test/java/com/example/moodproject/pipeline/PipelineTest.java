@@ -0,0 +1,430 @@
+package com.example.moodproject.pipeline;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PipelineTest {
+
+    @Test
+    public void items_flowThroughStagesInOrder() throws Exception {
+        final int count = 500_000;
+        Pipeline pipeline = new Pipeline("test");
+        Pipeline.Node<Integer> source = pipeline.source("source", new CountingSource(count));
+        Pipeline.Node<Integer> doubled = pipeline.stage("double", source, new Pipeline.Stage<Integer, Integer>() {
+            @Override
+            public void process(Integer item, Pipeline.Outlet<Integer> out) throws InterruptedException {
+                out.emit(item * 2);
+            }
+
+            @Override
+            public void finish(Pipeline.Outlet<Integer> out) {
+            }
+        }, 256, DropPolicy.BLOCK);
+        CheckingSink first = new CheckingSink(2);
+        CheckingSink second = new CheckingSink(2);
+        pipeline.sink("first", doubled, first, 256, DropPolicy.BLOCK);
+        pipeline.sink("second", doubled, second, 256, DropPolicy.BLOCK);
+
+        pipeline.start();
+        assertTrue(pipeline.awaitTermination(60_000));
+
+        assertNull(pipeline.getFailure());
+        assertEquals(count, first.received);
+        assertEquals(count, second.received);
+        assertTrue(first.closed && second.closed);
+        assertEquals(count, pipeline.getNode("double").getProcessed());
+        assertEquals(0, pipeline.getNode("first").getDropped());
+    }
+
+    @Test
+    public void block_holdsBackUpstreamInsteadOfDropping() throws Exception {
+        Pipeline pipeline = new Pipeline("test");
+        Pipeline.Node<Integer> source = pipeline.source("source", new CountingSource(200));
+        CheckingSink slow = new CheckingSink(1) {
+            @Override
+            public void accept(Integer item) throws Exception {
+                super.accept(item);
+                Thread.sleep(1);
+            }
+        };
+        pipeline.sink("slow", source, slow, 2, DropPolicy.BLOCK);
+        pipeline.start();
+        assertTrue(pipeline.awaitTermination(20_000));
+
+        assertEquals(200, slow.received);
+        Pipeline.Node<?> node = pipeline.getNode("slow");
+        assertEquals(0, node.getDropped());
+        assertTrue(node.getWaits() > 0);
+        assertTrue(node.getBlockedNs() > 0);
+    }
+
+    @Test
+    public void idleStages_parkUntilAnItemArrives() throws Exception {
+        final BlockingQueue<Integer> feed = new LinkedBlockingQueue<>();
+        Pipeline pipeline = new Pipeline("test");
+        Pipeline.Node<Integer> source = pipeline.source("source", new Pipeline.Source<Integer>() {
+            @Override
+            public boolean produce(Pipeline.Outlet<Integer> out) throws InterruptedException {
+                int item = feed.take();
+                if (item < 0) {
+                    return false;
+                }
+                out.emit(item);
+                return true;
+            }
+        });
+        CheckingSink sink = new CheckingSink(1);
+        pipeline.sink("sink", source, sink, 4, DropPolicy.BLOCK);
+        pipeline.start();
+
+        // Parked without a timeout, not polling
+        Thread thread = pipeline.getNode("sink").thread;
+        awaitState(thread, Thread.State.WAITING);
+        for (int i = 0; i < 3; i++) {
+            feed.put(i);
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (sink.received <= i && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(i + 1, sink.received);
+            awaitState(thread, Thread.State.WAITING);
+        }
+
+        // Closing the queue wakes it too
+        feed.put(-1);
+        assertTrue(pipeline.awaitTermination(5_000));
+        assertTrue(sink.closed);
+    }
+
+    @Test
+    public void dropOldest_keepsLatestItems() throws Exception {
+        List<Integer> received = runWithStalledSink(DropPolicy.DROP_OLDEST, 100, 4);
+        assertEquals(asList(0, 96, 97, 98, 99), received);
+    }
+
+    @Test
+    public void dropNewest_keepsQueuedItems() throws Exception {
+        List<Integer> received = runWithStalledSink(DropPolicy.DROP_NEWEST, 100, 4);
+        assertEquals(asList(0, 1, 2, 3, 4), received);
+    }
+
+    @Test
+    public void failingDropStage_doesNotBlockOthers() throws Exception {
+        Pipeline pipeline = new Pipeline("test");
+        Pipeline.Node<Integer> source = pipeline.source("source", new CountingSource(10_000));
+        CheckingSink good = new CheckingSink(1);
+        FailingSink bad = new FailingSink(10);
+        pipeline.sink("bad", source, bad, 4, DropPolicy.DROP_NEWEST);
+        pipeline.sink("good", source, good, 4, DropPolicy.BLOCK);
+        pipeline.start();
+        assertTrue(pipeline.awaitTermination(20_000));
+
+        assertEquals(10_000, good.received);
+        assertEquals(10, bad.received);
+        assertTrue(bad.closed);
+        assertEquals("disk full", pipeline.getFailure().getMessage());
+        assertSame(pipeline.getFailure(), pipeline.getNode("bad").getFailure());
+    }
+
+    @Test
+    public void failingBlockStage_stopsTheSources() throws Exception {
+        Pipeline pipeline = new Pipeline("test");
+        // Would run for a long time if nothing stopped it
+        Pipeline.Node<Integer> source = pipeline.source("source", new CountingSource(Integer.MAX_VALUE));
+        CheckingSink good = new CheckingSink(1);
+        FailingSink bad = new FailingSink(10);
+        pipeline.sink("bad", source, bad, 4, DropPolicy.BLOCK);
+        pipeline.sink("good", source, good, 4, DropPolicy.BLOCK);
+        pipeline.start();
+        assertTrue(pipeline.awaitTermination(20_000));
+
+        assertEquals(10, bad.received);
+        assertTrue(bad.closed && good.closed);
+        assertEquals("disk full", pipeline.getFailure().getMessage());
+        // The others still got everything produced before the sources stopped
+        assertEquals(pipeline.getNode("source").getEmitted(), good.received);
+    }
+
+    @Test
+    public void stop_drainsQueuesAndRunsFinish() throws Exception {
+        Pipeline pipeline = new Pipeline("test");
+        Pipeline.Node<Integer> source = pipeline.source("source", new CountingSource(Integer.MAX_VALUE));
+        // Emits a -1 marker when finishing, after every item it was given
+        Pipeline.Node<Integer> stage = pipeline.stage("stage", source, new Pipeline.Stage<Integer, Integer>() {
+            @Override
+            public void process(Integer item, Pipeline.Outlet<Integer> out) throws InterruptedException {
+                out.emit(item);
+            }
+
+            @Override
+            public void finish(Pipeline.Outlet<Integer> out) throws InterruptedException {
+                out.emit(-1);
+            }
+        }, 64, DropPolicy.BLOCK);
+        final List<Integer> tail = Collections.synchronizedList(new ArrayList<Integer>());
+        CheckingSink sink = new CheckingSink(1) {
+            @Override
+            public void accept(Integer item) throws Exception {
+                if (item < 0) {
+                    tail.add(item);
+                } else {
+                    super.accept(item);
+                }
+            }
+        };
+        pipeline.sink("sink", stage, sink, 64, DropPolicy.BLOCK);
+        pipeline.start();
+        Thread.sleep(50);
+        pipeline.stop();
+        assertTrue(pipeline.awaitTermination(20_000));
+
+        assertFalse(pipeline.isRunning());
+        assertEquals(pipeline.getNode("source").getEmitted(), sink.received);
+        assertTrue(sink.received > 0);
+        assertEquals(asList(-1), tail);
+        assertTrue(sink.closed);
+    }
+
+    @Test
+    public void cancel_abandonsQueuedItemsButClosesSinks() throws Exception {
+        Pipeline pipeline = new Pipeline("test");
+        Pipeline.Node<Integer> source = pipeline.source("source", new CountingSource(Integer.MAX_VALUE));
+        final CountDownLatch started = new CountDownLatch(1);
+        CheckingSink slow = new CheckingSink(1) {
+            @Override
+            public void accept(Integer item) throws Exception {
+                super.accept(item);
+                started.countDown();
+                Thread.sleep(5);
+            }
+        };
+        pipeline.sink("slow", source, slow, 1024, DropPolicy.BLOCK);
+        pipeline.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        pipeline.cancel();
+        assertTrue(pipeline.awaitTermination(5_000));
+
+        assertTrue(slow.closed);
+        assertTrue(pipeline.isCancelled());
+        assertNull(pipeline.getFailure());
+        assertTrue(slow.received < pipeline.getNode("source").getEmitted());
+    }
+
+    @Test
+    public void refCountedItems_areReleasedOnEveryPath() throws Exception {
+        final AtomicInteger outstanding = new AtomicInteger();
+        Pipeline pipeline = new Pipeline("test");
+        Pipeline.Node<Counted> source = pipeline.source("source", new Pipeline.Source<Counted>() {
+            private int produced;
+
+            @Override
+            public boolean produce(Pipeline.Outlet<Counted> out) throws InterruptedException {
+                Counted item = new Counted(outstanding, produced++);
+                out.emit(item);
+                item.release();
+                return produced < 5000;
+            }
+        });
+        // One sink of each kind: keeps everything, drops under load, and fails
+        Pipeline.Sink<Counted> slow = new Pipeline.Sink<Counted>() {
+            @Override
+            public void accept(Counted item) {
+                Thread.yield();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        pipeline.sink("block", source, slow, 8, DropPolicy.BLOCK);
+        pipeline.sink("oldest", source, slow, 2, DropPolicy.DROP_OLDEST);
+        pipeline.sink("newest", source, slow, 2, DropPolicy.DROP_NEWEST);
+        pipeline.sink("failing", source, new Pipeline.Sink<Counted>() {
+            @Override
+            public void accept(Counted item) throws IOException {
+                if (item.value == 100) {
+                    throw new IOException("broken");
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 8, DropPolicy.BLOCK);
+        pipeline.start();
+        assertTrue(pipeline.awaitTermination(20_000));
+
+        assertEquals("broken", pipeline.getFailure().getMessage());
+        assertEquals(0, outstanding.get());
+    }
+
+    @Test
+    public void wiring_isFixedOnceStarted() {
+        Pipeline pipeline = new Pipeline("test");
+        Pipeline.Node<Integer> source = pipeline.source("source", new CountingSource(0));
+        try {
+            pipeline.sink("source", source, new CheckingSink(1), 1, DropPolicy.BLOCK);
+            fail("Duplicate name accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        pipeline.start();
+        try {
+            pipeline.sink("late", source, new CheckingSink(1), 1, DropPolicy.BLOCK);
+            fail("Stage added after start");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    // The sink stalls on the first item until the source has emitted everything,
+    // so what it gets afterwards is decided by the drop policy alone
+    private static List<Integer> runWithStalledSink(DropPolicy policy, final int count, int capacity) throws Exception {
+        final CountDownLatch taken = new CountDownLatch(1);
+        final CountDownLatch produced = new CountDownLatch(1);
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+        Pipeline pipeline = new Pipeline("test");
+        Pipeline.Node<Integer> source = pipeline.source("source", new Pipeline.Source<Integer>() {
+            @Override
+            public boolean produce(Pipeline.Outlet<Integer> out) throws InterruptedException {
+                out.emit(0);
+                taken.await();
+                for (int i = 1; i < count; i++) {
+                    out.emit(i);
+                }
+                produced.countDown();
+                return false;
+            }
+        });
+        pipeline.sink("sink", source, new Pipeline.Sink<Integer>() {
+            @Override
+            public void accept(Integer item) throws InterruptedException {
+                received.add(item);
+                taken.countDown();
+                produced.await();
+            }
+
+            @Override
+            public void close() {
+            }
+        }, capacity, policy);
+        pipeline.start();
+        assertTrue(pipeline.awaitTermination(10_000));
+        assertEquals(count - received.size(), pipeline.getNode("sink").getDropped());
+        return received;
+    }
+
+    // Counts live references across all items
+    private static class Counted implements RefCounted {
+        private final AtomicInteger outstanding;
+        private final AtomicInteger references = new AtomicInteger(1);
+        final int value;
+
+        Counted(AtomicInteger outstanding, int value) {
+            this.outstanding = outstanding;
+            this.value = value;
+            outstanding.incrementAndGet();
+        }
+
+        @Override
+        public void retain() {
+            references.incrementAndGet();
+            outstanding.incrementAndGet();
+        }
+
+        @Override
+        public void release() {
+            if (references.decrementAndGet() < 0) {
+                throw new IllegalStateException("Released too often");
+            }
+            outstanding.decrementAndGet();
+        }
+    }
+
+    private static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (thread.getState() != state && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(state, thread.getState());
+    }
+
+    private static List<Integer> asList(Integer... values) {
+        List<Integer> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    private static class CountingSource implements Pipeline.Source<Integer> {
+        private final int count;
+        private int next;
+
+        CountingSource(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public boolean produce(Pipeline.Outlet<Integer> out) throws InterruptedException {
+            if (next >= count) {
+                return false;
+            }
+            out.emit(next++);
+            return true;
+        }
+    }
+
+    // Takes failAfter items, in whatever order, then fails
+    private static class FailingSink implements Pipeline.Sink<Integer> {
+        private final int failAfter;
+        volatile int received;
+        volatile boolean closed;
+
+        FailingSink(int failAfter) {
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void accept(Integer item) throws Exception {
+            if (received == failAfter) {
+                throw new IOException("disk full");
+            }
+            received++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    // Checks items arrive as 0, step, 2 * step, ...
+    private static class CheckingSink implements Pipeline.Sink<Integer> {
+        private final int step;
+        volatile int received;
+        volatile boolean closed;
+
+        CheckingSink(int step) {
+            this.step = step;
+        }
+
+        @Override
+        public void accept(Integer item) throws Exception {
+            assertEquals(received * step, (int) item);
+            received++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
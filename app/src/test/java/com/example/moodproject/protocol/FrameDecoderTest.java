@@ -0,0 +1,304 @@
+package com.example.moodproject.protocol;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+
+    @Test
+    public void crc32c_matchesJdk() {
+        Random random = new Random(1);
+        for (int length = 0; length < 300; length++) {
+            byte[] data = new byte[length + 3];
+            random.nextBytes(data);
+            CRC32C expected = new CRC32C();
+            expected.update(data, 3, length);
+            assertEquals((int) expected.getValue(), Crc32c.compute(data, 3, length));
+            // Split anywhere, continuing gives the same result
+            int split = length / 3;
+            assertEquals((int) expected.getValue(),
+                    Crc32c.update(Crc32c.compute(data, 3, split), data, 3 + split, length - split));
+        }
+    }
+
+    @Test
+    public void frames_decodeToTheSameAudioHoweverTheStreamIsCut() throws Exception {
+        Random random = new Random(2);
+        for (int round = 0; round < 50; round++) {
+            Stream stream = new Stream(random);
+            for (int i = 0; i < 40; i++) {
+                stream.frame(random.nextInt(600) * 2);
+            }
+            Collector out = new Collector();
+            FrameDecoder decoder = new FrameDecoder(out, Concealment.SILENCE, 10_000);
+            feedInRandomReads(decoder, stream.bytes.toByteArray(), random);
+
+            assertArrayEquals(stream.audio.toByteArray(), out.bytes.toByteArray());
+            assertEquals(40, decoder.getFrames());
+            assertEquals(0, decoder.getLostFrames() + decoder.getCorruptFrames() + decoder.getSkippedBytes()
+                    + decoder.getConcealedSamples() + decoder.getDiscontinuities());
+        }
+    }
+
+    @Test
+    public void wholeFrames_areDeliveredWithoutCopying() throws Exception {
+        Stream stream = new Stream(new Random(3));
+        stream.frame(200);
+        stream.frame(200);
+        final byte[] wire = stream.bytes.toByteArray();
+        final int[] calls = new int[1];
+        FrameDecoder decoder = new FrameDecoder(new FrameDecoder.PayloadSink() {
+            @Override
+            public void write(byte[] src, int offset, int length) {
+                assertSame(wire, src);
+                assertEquals(FrameCodec.HEADER_BYTES + calls[0] * (FrameCodec.HEADER_BYTES + 200), offset);
+                calls[0]++;
+            }
+        }, Concealment.SILENCE, 0);
+        decoder.decode(wire, 0, wire.length);
+        assertEquals(2, calls[0]);
+    }
+
+    @Test
+    public void lostFrames_areConcealedOnTheSampleClock() throws Exception {
+        Stream stream = new Stream(new Random(4));
+        stream.constantFrame(4, (short) 100);
+        stream.skip(2, 4);
+        stream.constantFrame(4, (short) 400);
+
+        Collector silence = new Collector();
+        FrameDecoder decoder = new FrameDecoder(silence, Concealment.SILENCE, 100);
+        byte[] wire = stream.bytes.toByteArray();
+        decoder.decode(wire, 0, wire.length);
+        assertArrayEquals(new short[]{100, 100, 100, 100, 0, 0, 0, 0, 0, 0, 0, 0, 400, 400, 400, 400},
+                silence.samples());
+        assertEquals(2, decoder.getLostFrames());
+        assertEquals(8, decoder.getConcealedSamples());
+        assertEquals(0.5, decoder.getLossRate(), 1e-9);
+
+        Collector line = new Collector();
+        new FrameDecoder(line, Concealment.INTERPOLATE, 100).decode(wire, 0, wire.length);
+        assertArrayEquals(new short[]{100, 100, 100, 100, 133, 166, 200, 233, 266, 300, 333, 366, 400, 400, 400, 400},
+                line.samples());
+
+        // Too long to conceal: the audio runs on without a fill
+        Collector none = new Collector();
+        FrameDecoder strict = new FrameDecoder(none, Concealment.SILENCE, 7);
+        strict.decode(wire, 0, wire.length);
+        assertEquals(8, none.samples().length);
+        assertEquals(1, strict.getDiscontinuities());
+    }
+
+    @Test
+    public void lateAndDuplicateFrames_areCountedButNotPlayed() throws Exception {
+        Stream stream = new Stream(new Random(5));
+        byte[] f0 = stream.frame(8);
+        byte[] f1 = stream.frame(8);
+        byte[] f2 = stream.frame(8);
+        byte[] f3 = stream.frame(8);
+        Collector out = new Collector();
+        FrameDecoder decoder = new FrameDecoder(out, Concealment.SILENCE, 100);
+        for (byte[] frame : new byte[][]{f0, f2, f1, f2, f3, f0}) {
+            decoder.decode(frame, 0, frame.length);
+        }
+
+        assertEquals(6, decoder.getFrames());
+        assertEquals(0, decoder.getLostFrames());
+        assertEquals(1, decoder.getReorderedFrames());
+        assertEquals(2, decoder.getDuplicateFrames());
+        assertEquals(0, decoder.getLossRate(), 0);
+        // f1's place was filled with silence when f2 arrived
+        assertEquals(4 * 8, out.bytes.size());
+        assertEquals(4, decoder.getConcealedSamples());
+    }
+
+    @Test
+    public void restartedSender_isADiscontinuity() throws Exception {
+        Stream first = new Stream(new Random(6));
+        first.skip(1000, 100);
+        first.frame(100);
+        first.frame(100);
+        Stream restarted = new Stream(new Random(7));
+        restarted.frame(100);
+
+        Collector out = new Collector();
+        FrameDecoder decoder = new FrameDecoder(out, Concealment.SILENCE, 100_000);
+        byte[] wire = first.bytes.toByteArray();
+        decoder.decode(wire, 0, wire.length);
+        wire = restarted.bytes.toByteArray();
+        decoder.decode(wire, 0, wire.length);
+
+        assertEquals(1, decoder.getDiscontinuities());
+        assertEquals(0, decoder.getLostFrames());
+        assertEquals(0, decoder.getConcealedSamples());
+        assertEquals(300, out.bytes.size());
+        assertEquals(50, decoder.getNextSampleTime());
+    }
+
+    // Corrupt random frames of a long stream in random ways. Whatever happens, the
+    // decoder must neither fail nor lose its place on the sender's timeline, and every
+    // frame it lets through must be one that was sent intact.
+    @Test
+    public void corruptedStream_fuzz() throws Exception {
+        Random random = new Random(8);
+        for (int round = 0; round < 200; round++) {
+            Stream stream = new Stream(random);
+            ByteArrayOutputStream wire = new ByteArrayOutputStream();
+            int count = 30 + random.nextInt(30);
+            int damaged = 0;
+            for (int i = 0; i < count; i++) {
+                byte[] frame = stream.frame(2 + random.nextInt(300) * 2);
+                // The first frame stays intact so the timeline has a start
+                if (i > 0 && random.nextInt(4) == 0) {
+                    frame = damage(frame, random);
+                    damaged++;
+                }
+                wire.write(frame, 0, frame.length);
+                if (random.nextInt(10) == 0) {
+                    byte[] garbage = new byte[random.nextInt(40)];
+                    random.nextBytes(garbage);
+                    wire.write(garbage, 0, garbage.length);
+                }
+            }
+            // Enough intact audio after the last damage to finish any frame it appeared to start
+            for (int i = 0; i < 16; i++) {
+                byte[] frame = stream.frame(600);
+                wire.write(frame, 0, frame.length);
+                count++;
+            }
+
+            Collector out = new Collector();
+            FrameDecoder decoder = new FrameDecoder(out, Concealment.SILENCE, Long.MAX_VALUE);
+            feedInRandomReads(decoder, wire.toByteArray(), random);
+
+            assertEquals(stream.sampleTime * 2, out.bytes.size());
+            assertEquals(stream.sampleTime, decoder.getNextSampleTime());
+            assertEquals(count, decoder.getFrames() + decoder.getLostFrames());
+            assertTrue(decoder.getLostFrames() <= damaged);
+            assertEquals(0, decoder.getDiscontinuities() + decoder.getReorderedFrames() + decoder.getDuplicateFrames());
+            // Audio either matches what was sent or is concealment
+            byte[] sent = stream.audio.toByteArray();
+            byte[] received = out.bytes.toByteArray();
+            for (int i = 0; i < sent.length; i++) {
+                assertTrue(received[i] == sent[i] || received[i] == 0);
+            }
+        }
+    }
+
+    @Test
+    public void steadyStateDecoding_keepsEveryFrame() throws Exception {
+        Stream stream = new Stream(new Random(9));
+        for (int i = 0; i < 200; i++) {
+            stream.frame(2048);
+        }
+        byte[] wire = stream.bytes.toByteArray();
+        FrameDecoder decoder = new FrameDecoder(new FrameDecoder.PayloadSink() {
+            @Override
+            public void write(byte[] src, int offset, int length) {
+            }
+        }, Concealment.SILENCE, 0);
+        // Restarts every pass; reads of 4096 bytes split most frames. CaptureBenchmark
+        // measures the throughput of this loop.
+        int passes = 200;
+        for (int i = 0; i < passes; i++) {
+            for (int offset = 0; offset < wire.length; offset += 4096) {
+                decoder.decode(wire, offset, Math.min(4096, wire.length - offset));
+            }
+        }
+        assertEquals(passes * 200L, decoder.getFrames());
+    }
+
+    private static byte[] damage(byte[] frame, Random random) {
+        switch (random.nextInt(4)) {
+            case 0: // flip a bit anywhere
+                frame[random.nextInt(frame.length)] ^= (byte) (1 << random.nextInt(8));
+                return frame;
+            case 1: // truncate
+                return Arrays.copyOf(frame, random.nextInt(frame.length));
+            case 2: // overwrite a run with noise
+                int start = random.nextInt(frame.length);
+                for (int i = start; i < Math.min(frame.length, start + 8); i++) {
+                    frame[i] = (byte) random.nextInt();
+                }
+                return frame;
+            default: // lose it entirely
+                return new byte[0];
+        }
+    }
+
+    private static void feedInRandomReads(FrameDecoder decoder, byte[] wire, Random random) throws Exception {
+        int offset = 0;
+        while (offset < wire.length) {
+            int length = Math.min(wire.length - offset, 1 + random.nextInt(random.nextBoolean() ? 16 : 4096));
+            decoder.decode(wire, offset, length);
+            offset += length;
+        }
+    }
+
+    // Builds a framed stream and the audio in it
+    private static class Stream {
+        final Random random;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        int sequence;
+        long sampleTime;
+
+        Stream(Random random) {
+            this.random = random;
+        }
+
+        byte[] frame(int payloadBytes) {
+            byte[] payload = new byte[payloadBytes];
+            random.nextBytes(payload);
+            return frame(payload);
+        }
+
+        byte[] constantFrame(int samples, short value) {
+            byte[] payload = new byte[samples * 2];
+            for (int i = 0; i < samples; i++) {
+                payload[2 * i] = (byte) value;
+                payload[2 * i + 1] = (byte) (value >> 8);
+            }
+            return frame(payload);
+        }
+
+        byte[] frame(byte[] payload) {
+            byte[] frame = new byte[FrameCodec.HEADER_BYTES + payload.length];
+            FrameCodec.encode(sequence++, sampleTime, payload, 0, payload.length, frame, 0);
+            sampleTime += payload.length / 2;
+            bytes.write(frame, 0, frame.length);
+            audio.write(payload, 0, payload.length);
+            return frame;
+        }
+
+        // Frames the sender made but never sent
+        void skip(int frames, int samplesEach) {
+            sequence += frames;
+            sampleTime += (long) frames * samplesEach;
+        }
+    }
+
+    private static class Collector implements FrameDecoder.PayloadSink {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public void write(byte[] src, int offset, int length) {
+            bytes.write(src, offset, length);
+        }
+
+        short[] samples() {
+            byte[] data = bytes.toByteArray();
+            short[] samples = new short[data.length / 2];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (short) ((data[2 * i] & 0xff) | (data[2 * i + 1] << 8));
+            }
+            return samples;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.moodproject.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReorderWindowTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void framesInOrder_passStraightThrough() throws Exception {
+        Sequences out = new Sequences();
+        ReorderWindow window = new ReorderWindow(out, 4, 30 * MS);
+        for (int sequence = 0; sequence < 10; sequence++) {
+            accept(window, 0, sequence);
+        }
+        assertEquals(list(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), out.sequences);
+        assertEquals(10, window.getFrames());
+        assertEquals(0, window.getMaxHeld());
+        assertEquals(Long.MAX_VALUE, window.nextDeadlineNs());
+    }
+
+    @Test
+    public void framesOutOfOrder_areDeliveredInOrder() throws Exception {
+        Sequences out = new Sequences();
+        ReorderWindow window = new ReorderWindow(out, 4, 30 * MS);
+        for (int sequence : new int[]{0, 2, 3, 1, 5, 4}) {
+            accept(window, 0, sequence);
+        }
+        assertEquals(list(0, 1, 2, 3, 4, 5), out.sequences);
+        assertEquals(2, window.getReorderedFrames());
+        assertEquals(2, window.getMaxHeld());
+        assertEquals(0, window.getSkippedFrames());
+    }
+
+    @Test
+    public void missingFrame_isGivenUpOnAfterTheDelay() throws Exception {
+        Sequences out = new Sequences();
+        ReorderWindow window = new ReorderWindow(out, 8, 30 * MS);
+        accept(window, 0, 0);
+        accept(window, 5 * MS, 2);
+        accept(window, 10 * MS, 3);
+        assertEquals(list(0), out.sequences);
+        assertEquals(35 * MS, window.nextDeadlineNs());
+
+        window.expire(34 * MS);
+        assertEquals(list(0), out.sequences);
+        window.expire(35 * MS);
+        assertEquals(list(0, 2, 3), out.sequences);
+        assertEquals(1, window.getSkippedFrames());
+
+        // Too late now
+        accept(window, 40 * MS, 1);
+        assertEquals(1, window.getLateFrames());
+        assertEquals(list(0, 2, 3), out.sequences);
+    }
+
+    @Test
+    public void frameTooFarAhead_pushesTheWindowOn() throws Exception {
+        Sequences out = new Sequences();
+        ReorderWindow window = new ReorderWindow(out, 4, 1000 * MS);
+        accept(window, 0, 0);
+        accept(window, 0, 2);
+        accept(window, 0, 3);
+        accept(window, 0, 6);
+        // 1 is skipped for 2 and 3 to go out; 4 and 5 are still waited for
+        assertEquals(list(0, 2, 3), out.sequences);
+        assertEquals(1, window.getSkippedFrames());
+        assertEquals(1, window.getHeldFrames());
+
+        window.releaseAll();
+        assertEquals(list(0, 2, 3, 6), out.sequences);
+        assertEquals(3, window.getSkippedFrames());
+    }
+
+    @Test
+    public void duplicateAndCorruptFrames_areDropped() throws Exception {
+        Sequences out = new Sequences();
+        ReorderWindow window = new ReorderWindow(out, 4, 30 * MS);
+        accept(window, 0, 0);
+        accept(window, 0, 2);
+        accept(window, 0, 2);
+        accept(window, 0, 0);
+        byte[] corrupt = frame(1);
+        corrupt[FrameCodec.HEADER_BYTES] ^= 1;
+        window.accept(corrupt, 0, corrupt.length, 0);
+        accept(window, 0, 1);
+
+        assertEquals(list(0, 1, 2), out.sequences);
+        assertEquals(1, window.getDuplicateFrames());
+        assertEquals(1, window.getLateFrames());
+        assertEquals(1, window.getCorruptFrames());
+    }
+
+    @Test
+    public void severalFramesInOneDatagram_areAllAccepted() throws Exception {
+        Sequences out = new Sequences();
+        ReorderWindow window = new ReorderWindow(out, 4, 30 * MS);
+        byte[] datagram = new byte[3 * (FrameCodec.HEADER_BYTES + 8)];
+        int length = 0;
+        for (int sequence : new int[]{1, 0, 2}) {
+            byte[] frame = frame(sequence);
+            System.arraycopy(frame, 0, datagram, length, frame.length);
+            length += frame.length;
+        }
+        window.accept(datagram, 0, length, 0);
+        // The first frame seen sets where the sequence starts
+        assertEquals(list(1, 2), out.sequences);
+        assertEquals(1, window.getLateFrames());
+    }
+
+    @Test
+    public void sequenceJumpingBack_isARestart() throws Exception {
+        Sequences out = new Sequences();
+        ReorderWindow window = new ReorderWindow(out, 4, 30 * MS);
+        for (int sequence = 100; sequence < 103; sequence++) {
+            accept(window, 0, sequence);
+        }
+        accept(window, 0, 104);
+        accept(window, 0, 0);
+        accept(window, 0, 1);
+
+        assertEquals(list(100, 101, 102, 104, 0, 1), out.sequences);
+        assertEquals(1, window.getRestarts());
+        assertEquals(1, window.getSkippedFrames());
+    }
+
+    @Test
+    public void sequenceWrapping_keepsOrder() throws Exception {
+        Sequences out = new Sequences();
+        ReorderWindow window = new ReorderWindow(out, 4, 30 * MS);
+        for (int sequence : new int[]{Integer.MAX_VALUE - 1, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE + 1}) {
+            accept(window, 0, sequence);
+        }
+        assertEquals(list(Integer.MAX_VALUE - 1, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE + 1),
+                out.sequences);
+        assertEquals(0, window.getRestarts());
+    }
+
+    private static void accept(ReorderWindow window, long nowNs, int sequence) throws Exception {
+        byte[] frame = frame(sequence);
+        window.accept(frame, 0, frame.length, nowNs);
+    }
+
+    private static byte[] frame(int sequence) {
+        byte[] payload = new byte[8];
+        payload[0] = (byte) sequence;
+        byte[] frame = new byte[FrameCodec.HEADER_BYTES + payload.length];
+        FrameCodec.encode(sequence, sequence * 4L, payload, 0, payload.length, frame, 0);
+        return frame;
+    }
+
+    private static List<Integer> list(int... sequences) {
+        List<Integer> list = new ArrayList<>();
+        for (int sequence : sequences) {
+            list.add(sequence);
+        }
+        return list;
+    }
+
+    private static class Sequences implements ReorderWindow.FrameSink {
+        final List<Integer> sequences = new ArrayList<>();
+
+        @Override
+        public void write(byte[] src, int offset, int length) {
+            assertTrue(FrameCodec.verify(src, offset, length));
+            sequences.add(FrameCodec.getInt(src, offset + FrameCodec.SEQUENCE_OFFSET));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.moodproject.sim;
+
+import com.example.moodproject.metrics.Counter;
+import com.example.moodproject.metrics.Histogram;
+import com.example.moodproject.pipeline.DropPolicy;
+import com.example.moodproject.pipeline.Pipeline;
+import com.example.moodproject.protocol.Concealment;
+import com.example.moodproject.protocol.FrameCodec;
+import com.example.moodproject.protocol.FrameDecoder;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Throughput benchmarks for the pieces every captured chunk passes through: frame
+ * decoding, the pipeline's queue hops and metrics recording. Run with
+ * {@code ./gradlew :app:benchmark}; the unit tests only check what these measure
+ * stays correct, the numbers come from here.
+ */
+public class CaptureBenchmark {
+
+    private static final long WARM_UP_NS = 1_000_000_000L;
+    private static final long MEASURE_NS = 2_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        benchmarkFrameDecoder();
+        benchmarkPipeline();
+        benchmarkHistogram();
+    }
+
+    private static void benchmarkFrameDecoder() {
+        Random random = new Random(9);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] payload = new byte[2048];
+        byte[] frame = new byte[FrameCodec.HEADER_BYTES + payload.length];
+        for (int i = 0; i < 200; i++) {
+            random.nextBytes(payload);
+            FrameCodec.encode(i, i * payload.length / 2L, payload, 0, payload.length, frame, 0);
+            stream.write(frame, 0, frame.length);
+        }
+        final byte[] wire = stream.toByteArray();
+        final FrameDecoder decoder = new FrameDecoder(new FrameDecoder.PayloadSink() {
+            @Override
+            public void write(byte[] src, int offset, int length) {
+            }
+        }, Concealment.SILENCE, 0);
+        double perSecond = measure(new Runnable() {
+            @Override
+            public void run() {
+                // Reads of 4096 bytes split most frames
+                try {
+                    for (int offset = 0; offset < wire.length; offset += 4096) {
+                        decoder.decode(wire, offset, Math.min(4096, wire.length - offset));
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        System.out.printf("FrameDecoder, 2048 byte payloads in 4096 byte reads  %,8.0f MB/s%n",
+                perSecond * wire.length / 1e6);
+    }
+
+    private static void benchmarkPipeline() throws Exception {
+        final int count = 2_000_000;
+        for (int run = 0; run < 2; run++) {
+            Pipeline pipeline = new Pipeline("benchmark");
+            Pipeline.Node<Integer> source = pipeline.source("source", new Pipeline.Source<Integer>() {
+                private int next;
+
+                @Override
+                public boolean produce(Pipeline.Outlet<Integer> out) throws InterruptedException {
+                    if (next >= count) {
+                        return false;
+                    }
+                    out.emit(next++);
+                    return true;
+                }
+            });
+            Pipeline.Node<Integer> doubled = pipeline.stage("double", source, new Pipeline.Stage<Integer, Integer>() {
+                @Override
+                public void process(Integer item, Pipeline.Outlet<Integer> out) throws InterruptedException {
+                    out.emit(item * 2);
+                }
+
+                @Override
+                public void finish(Pipeline.Outlet<Integer> out) {
+                }
+            }, 256, DropPolicy.BLOCK);
+            pipeline.sink("first", doubled, new NullSink(), 256, DropPolicy.BLOCK);
+            pipeline.sink("second", doubled, new NullSink(), 256, DropPolicy.BLOCK);
+
+            long start = System.nanoTime();
+            pipeline.start();
+            pipeline.awaitTermination(Long.MAX_VALUE);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            // The first run warms up
+            if (run == 1) {
+                System.out.printf("Pipeline, source -> stage -> 2 sinks, queues of 256  %,10.0f items/s%n",
+                        count / seconds);
+            }
+        }
+    }
+
+    private static void benchmarkHistogram() {
+        final Histogram histogram = new Histogram();
+        final Counter counter = new Counter();
+        final long[] value = new long[1];
+        Runnable record = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 1000; i++) {
+                    histogram.record(value[0]++ * 31);
+                    counter.increment();
+                }
+            }
+        };
+        long allocatedBefore = allocatedBytes();
+        double perSecond = measure(record) * 1000;
+        long allocated = allocatedBytes() - allocatedBefore;
+        System.out.printf("Histogram record + counter increment  %6.1f ns  (%d bytes allocated in %,d records)%n",
+                1e9 / perSecond, allocated, histogram.getCount());
+    }
+
+    // Bytes this thread has allocated, or 0 where the JVM does not say
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Calls per second of task, after a warm up
+    private static double measure(Runnable task) {
+        long end = System.nanoTime() + WARM_UP_NS;
+        while (System.nanoTime() < end) {
+            task.run();
+        }
+        long runs = 0;
+        long start = System.nanoTime();
+        end = start + MEASURE_NS;
+        while (System.nanoTime() < end) {
+            task.run();
+            runs++;
+        }
+        return runs * 1e9 / (System.nanoTime() - start);
+    }
+
+    private static class NullSink implements Pipeline.Sink<Integer> {
+        @Override
+        public void accept(Integer item) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
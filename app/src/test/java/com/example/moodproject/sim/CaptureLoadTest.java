@@ -0,0 +1,418 @@
+package com.example.moodproject.sim;
+
+import com.example.moodproject.audio.AudioChunk;
+import com.example.moodproject.audio.CaptureSession;
+import com.example.moodproject.audio.ChunkConsumer;
+import com.example.moodproject.audio.DatagramIngest;
+import com.example.moodproject.audio.FeatureAnalyzer;
+import com.example.moodproject.audio.IngestSource;
+import com.example.moodproject.audio.MultiDeviceIngest;
+import com.example.moodproject.audio.StreamIngest;
+import com.example.moodproject.dsp.FeatureExtractor;
+import com.example.moodproject.metrics.Histogram;
+import com.example.moodproject.pipeline.DropPolicy;
+import com.example.moodproject.protocol.Concealment;
+import com.example.moodproject.protocol.FrameDecoder;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Load harness for the capture path: the {@link DeviceSimulator} streams framed audio
+ * at 1x to 50x real time into the same StreamIngest, CaptureSession and consumers the
+ * Dashboard uses, and each run reports throughput, capture-to-consumer latency
+ * percentiles and the JVM-wide allocation rate while streaming.
+ *
+ * <p>Skipped in normal test runs; run it with {@code ./gradlew :app:loadTest}. Speeds
+ * and clients come from {@code -Pmoodproject.loadTest.speeds=1,5,10,25,50} and
+ * {@code -Pmoodproject.loadTest.clients=1,4}, the measured time per run from
+ * {@code -Pmoodproject.loadTest.seconds=2}.
+ *
+ * <p>A second run compares ingest alone for many devices at real time, a StreamIngest
+ * thread per device against one MultiDeviceIngest selector thread, by the CPU time the
+ * ingest threads use; device counts come from {@code -Pmoodproject.loadTest.devices=4,16,32}.
+ *
+ * <p>A third compares the transports at real time under packet loss: TCP, where a lost
+ * frame is retransmitted {@link #RETRANSMIT_MS} later and holds back the frames behind
+ * it, against UDP through the {@link DatagramDeviceSimulator}, where it is concealed.
+ * Loss rates come from {@code -Pmoodproject.loadTest.loss=0,0.01,0.05}.
+ */
+public class CaptureLoadTest {
+
+    private static final int CHUNK_BYTES = 4096;
+    private static final int CHUNK_COUNT = 32;
+    private static final int ANALYZER_QUEUE_CHUNKS = 16;
+    private static final long WARM_UP_MS = 500;
+    // Wi-Fi TCP stacks do not retransmit sooner than this
+    private static final long RETRANSMIT_MS = 200;
+    private static final int DATAGRAM_FRAME_SAMPLES = 512;
+
+    @Test
+    public void captureUnderLoad() throws Exception {
+        assumeTrue("Run with ./gradlew :app:loadTest", Boolean.getBoolean("moodproject.loadTest"));
+        long measureMs = (long) (Double.parseDouble(System.getProperty("moodproject.loadTest.seconds", "2")) * 1000);
+        String[] speeds = System.getProperty("moodproject.loadTest.speeds", "1,5,10,25,50").split(",");
+        String[] clients = System.getProperty("moodproject.loadTest.clients", "1,4").split(",");
+
+        System.out.println("speed clients   audio x   p50 ms   p99 ms   max ms  lost  dropped  alloc B/s  B/chunk");
+        for (String clientCount : clients) {
+            for (String speed : speeds) {
+                run(Double.parseDouble(speed.trim()), Integer.parseInt(clientCount.trim()), measureMs);
+            }
+        }
+    }
+
+    @Test
+    public void ingestUnderLoad() throws Exception {
+        assumeTrue("Run with ./gradlew :app:loadTest", Boolean.getBoolean("moodproject.loadTest"));
+        long measureMs = (long) (Double.parseDouble(System.getProperty("moodproject.loadTest.seconds", "2")) * 1000);
+        String[] deviceCounts = System.getProperty("moodproject.loadTest.devices", "4,16,32").split(",");
+
+        System.out.println("devices  ingest     threads   audio x   CPU ms/s  stalls");
+        for (String deviceCount : deviceCounts) {
+            int devices = Integer.parseInt(deviceCount.trim());
+            ingest(devices, false, measureMs);
+            ingest(devices, true, measureMs);
+        }
+    }
+
+    @Test
+    public void transportUnderLoss() throws Exception {
+        assumeTrue("Run with ./gradlew :app:loadTest", Boolean.getBoolean("moodproject.loadTest"));
+        long measureMs = (long) (Double.parseDouble(System.getProperty("moodproject.loadTest.seconds", "2")) * 1000);
+        String[] lossRates = System.getProperty("moodproject.loadTest.loss", "0,0.01,0.05").split(",");
+
+        System.out.println(" loss  transport   p50 ms   p99 ms   max ms  lost  concealed ms");
+        for (String lossRate : lossRates) {
+            transport(false, Double.parseDouble(lossRate.trim()), measureMs);
+            transport(true, Double.parseDouble(lossRate.trim()), measureMs);
+        }
+    }
+
+    // When the audio at a sample time was "recorded" by a simulator
+    private interface Clock {
+        long dueTimeNs(long sampleTime);
+    }
+
+    // Capture at real time, in frames of the same size over either transport
+    private static void transport(boolean datagrams, double lossRate, long measureMs) throws Exception {
+        if (datagrams) {
+            DatagramDeviceSimulator.Options options = new DatagramDeviceSimulator.Options();
+            options.frameSamples = DATAGRAM_FRAME_SAMPLES;
+            options.lossRate = lossRate;
+            try (final DatagramDeviceSimulator simulator = new DatagramDeviceSimulator(options)) {
+                DatagramIngest ingest = new DatagramIngest(simulator.getAddress(), 64 * 1024, 500, 8, 30);
+                ingest.start();
+                try {
+                    measureTransport("UDP", lossRate, ingest, new Clock() {
+                        @Override
+                        public long dueTimeNs(long sampleTime) {
+                            return simulator.dueTimeNs(sampleTime);
+                        }
+                    }, measureMs);
+                } finally {
+                    ingest.stop();
+                }
+            }
+        } else {
+            DeviceSimulator.Options options = new DeviceSimulator.Options();
+            options.frameSamples = DATAGRAM_FRAME_SAMPLES;
+            options.lossRate = lossRate;
+            options.retransmitMs = RETRANSMIT_MS;
+            try (final DeviceSimulator simulator = new DeviceSimulator(options)) {
+                final long connectedNs = System.nanoTime();
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), simulator.getPort());
+                StreamIngest ingest = new StreamIngest(socket, 64 * 1024, 500);
+                ingest.start();
+                try {
+                    measureTransport("TCP", lossRate, ingest, new Clock() {
+                        @Override
+                        public long dueTimeNs(long sampleTime) {
+                            return simulator.dueTimeNs(connectedNs, sampleTime);
+                        }
+                    }, measureMs);
+                } finally {
+                    ingest.stop();
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    private static void measureTransport(String transport, double lossRate, IngestSource source,
+                                         final Clock clock, long measureMs) throws Exception {
+        final Histogram latency = new Histogram();
+        CaptureSession session = new CaptureSession(source, CHUNK_COUNT, CHUNK_BYTES, 5000);
+        FrameDecoder frames = session.useFraming(Concealment.INTERPOLATE, DeviceSimulator.SAMPLE_RATE);
+        session.addConsumer("measure", new ChunkConsumer() {
+            @Override
+            public void accept(AudioChunk chunk) {
+                long lastSample = (chunk.getStartByte() + chunk.getLength()) / 2 - 1;
+                latency.record(System.nanoTime() - clock.dueTimeNs(lastSample));
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        session.start();
+        try {
+            Thread.sleep(WARM_UP_MS);
+            latency.reset();
+            long lostBefore = frames.getLostFrames();
+            long concealedBefore = frames.getConcealedSamples();
+            Thread.sleep(measureMs);
+            assertNull(session.getFailure());
+            assertTrue("No audio arrived over " + transport, latency.getCount() > 0);
+
+            System.out.println(String.format(Locale.US, "%4.0f%%  %-9s %8.2f %8.2f %8.2f %5d %13d",
+                    lossRate * 100, transport,
+                    latency.getPercentile(0.5) / 1e6, latency.getPercentile(0.99) / 1e6, latency.getMax() / 1e6,
+                    frames.getLostFrames() - lostBefore,
+                    (frames.getConcealedSamples() - concealedBefore) * 1000 / DeviceSimulator.SAMPLE_RATE));
+        } finally {
+            session.stop();
+            session.awaitTermination(5000);
+        }
+    }
+
+    // Drain every device from this thread as an undemanding reader would and measure the
+    // CPU time of the threads that do the ingest
+    private static void ingest(int deviceCount, boolean selector, long measureMs) throws Exception {
+        DeviceSimulator.Options options = new DeviceSimulator.Options();
+        options.burstFrames = 2;
+        List<Socket> sockets = new ArrayList<>();
+        List<StreamIngest> ingests = new ArrayList<>();
+        List<IngestSource> sources = new ArrayList<>();
+        MultiDeviceIngest multi = null;
+        try (DeviceSimulator simulator = new DeviceSimulator(options)) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), simulator.getPort());
+            if (selector) {
+                multi = new MultiDeviceIngest(64 * 1024, 500, 5000);
+                multi.start();
+                for (int i = 0; i < deviceCount; i++) {
+                    sources.add(multi.connect("esp" + i, address));
+                }
+            } else {
+                for (int i = 0; i < deviceCount; i++) {
+                    Socket socket = new Socket(address.getAddress(), address.getPort());
+                    sockets.add(socket);
+                    StreamIngest ingest = new StreamIngest(socket, 64 * 1024, 500);
+                    ingest.start();
+                    ingests.add(ingest);
+                    sources.add(ingest);
+                }
+            }
+            String threadName = selector ? "MultiDeviceIngest" : "StreamIngest";
+            byte[] buffer = new byte[64 * 1024];
+            drain(sources, buffer, WARM_UP_MS);
+
+            long[] threads = threadIds(threadName);
+            long cpuBefore = cpuTimeNs(threads);
+            long startNs = System.nanoTime();
+            long bytes = drain(sources, buffer, measureMs);
+            double seconds = (System.nanoTime() - startNs) / 1e9;
+            long cpuNs = cpuTimeNs(threads) - cpuBefore;
+
+            long stalls = 0;
+            if (multi != null) {
+                for (MultiDeviceIngest.Device device : multi.getDevices()) {
+                    stalls += device.getStallCount();
+                }
+            } else {
+                for (StreamIngest ingest : ingests) {
+                    stalls += ingest.getStallCount();
+                }
+            }
+            double realTime = bytes / 2.0 / DeviceSimulator.SAMPLE_RATE / seconds / deviceCount;
+            System.out.println(String.format(Locale.US, "%7d  %-17s %3d %9.2f %10.1f %7d",
+                    deviceCount, threadName, threads.length, realTime, cpuNs / 1e6 / seconds, stalls));
+        } finally {
+            if (multi != null) {
+                multi.stop();
+            }
+            for (StreamIngest ingest : ingests) {
+                ingest.stop();
+            }
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private static long drain(List<IngestSource> sources, byte[] buffer, long durationMs) throws Exception {
+        long bytes = 0;
+        long endNs = System.nanoTime() + durationMs * 1_000_000L;
+        while (System.nanoTime() < endNs) {
+            for (IngestSource source : sources) {
+                int n;
+                while ((n = source.read(buffer, 0, buffer.length, 0)) > 0) {
+                    bytes += n;
+                }
+            }
+            Thread.sleep(10);
+        }
+        return bytes;
+    }
+
+    private static long[] threadIds(String name) {
+        List<Long> ids = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name)) {
+                ids.add(thread.getId());
+            }
+        }
+        long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    private static long cpuTimeNs(long[] threads) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long thread : threads) {
+            total += Math.max(0, bean.getThreadCpuTime(thread));
+        }
+        return total;
+    }
+
+    private static void run(double speed, int clientCount, long measureMs) throws Exception {
+        DeviceSimulator.Options options = new DeviceSimulator.Options();
+        options.speed = speed;
+        // Shared by every client; recording is lock-free
+        Histogram latency = new Histogram();
+        List<Client> clients = new ArrayList<>();
+        try (DeviceSimulator simulator = new DeviceSimulator(options)) {
+            for (int i = 0; i < clientCount; i++) {
+                clients.add(new Client(simulator, latency));
+            }
+            Thread.sleep(WARM_UP_MS);
+
+            latency.reset();
+            for (Client client : clients) {
+                client.resetWindow();
+            }
+            long[] threads = liveThreadIds();
+            long allocatedBefore = allocatedBytes(threads);
+            long startNs = System.nanoTime();
+            Thread.sleep(measureMs);
+            long allocated = allocatedBytes(threads) - allocatedBefore;
+            double seconds = (System.nanoTime() - startNs) / 1e9;
+            long chunks = latency.getCount();
+            long bytes = 0;
+            for (Client client : clients) {
+                bytes += client.windowBytes();
+            }
+
+            long lost = 0;
+            long dropped = 0;
+            for (Client client : clients) {
+                client.stop();
+                assertNull(client.session.getFailure());
+                lost += client.frames.getLostFrames();
+                dropped += client.session.getDroppedChunks();
+            }
+            assertTrue("No audio arrived at " + speed + "x", bytes > 0);
+
+            double realTime = bytes / 2.0 / DeviceSimulator.SAMPLE_RATE / seconds / clientCount;
+            System.out.println(String.format(Locale.US, "%4.0fx %7d %9.1f %8.2f %8.2f %8.2f %5d %8d %10s %8s",
+                    speed, clientCount, realTime,
+                    latency.getPercentile(0.5) / 1e6, latency.getPercentile(0.99) / 1e6, latency.getMax() / 1e6,
+                    lost, dropped,
+                    allocated >= 0 ? String.valueOf(Math.round(allocated / seconds)) : "n/a",
+                    allocated >= 0 && chunks > 0 ? String.valueOf(allocated / chunks) : "n/a"));
+        } finally {
+            for (Client client : clients) {
+                client.stop();
+            }
+        }
+    }
+
+    // One receiving phone: the capture path as the Dashboard wires it, with the
+    // persist consumer replaced by latency measurement
+    private static class Client {
+        final Socket socket;
+        final StreamIngest ingest;
+        final CaptureSession session;
+        final FrameDecoder frames;
+        final Histogram latency;
+        volatile long bytes;
+        volatile long windowStartBytes;
+
+        Client(final DeviceSimulator simulator, final Histogram latency) throws Exception {
+            this.latency = latency;
+            final long connectedNs = System.nanoTime();
+            socket = new Socket(InetAddress.getLoopbackAddress(), simulator.getPort());
+            ingest = new StreamIngest(socket, 64 * 1024, 500);
+            session = new CaptureSession(ingest, CHUNK_COUNT, CHUNK_BYTES, 5000);
+            frames = session.useFraming(Concealment.INTERPOLATE, DeviceSimulator.SAMPLE_RATE);
+            session.addConsumer("measure", new ChunkConsumer() {
+                @Override
+                public void accept(AudioChunk chunk) {
+                    long lastSample = (chunk.getStartByte() + chunk.getLength()) / 2 - 1;
+                    latency.record(System.nanoTime() - simulator.dueTimeNs(connectedNs, lastSample));
+                    bytes += chunk.getLength();
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            FeatureAnalyzer analyzer = new FeatureAnalyzer(new FeatureExtractor(DeviceSimulator.SAMPLE_RATE, 1024, 512));
+            session.addConsumer("analyze", analyzer, ANALYZER_QUEUE_CHUNKS, DropPolicy.DROP_OLDEST);
+            ingest.start();
+            session.start();
+        }
+
+        void resetWindow() {
+            windowStartBytes = bytes;
+        }
+
+        long windowBytes() {
+            return bytes - windowStartBytes;
+        }
+
+        void stop() throws Exception {
+            session.stop();
+            ingest.stop();
+            socket.close();
+            session.awaitTermination(5000);
+        }
+    }
+
+    private static long[] liveThreadIds() {
+        Set<Thread> threads = Thread.getAllStackTraces().keySet();
+        long[] ids = new long[threads.size()];
+        int i = 0;
+        for (Thread thread : threads) {
+            ids[i++] = thread.getId();
+        }
+        return ids;
+    }
+
+    // Bytes allocated so far by these threads, or -1 where the JVM cannot tell
+    private static long allocatedBytes(long[] threads) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(threads)) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.moodproject.sim;
+
+import com.example.moodproject.audio.DatagramIngest;
+import com.example.moodproject.protocol.FrameCodec;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stands in for ESP32 firmware that streams over UDP: a client subscribes with a
+ * datagram holding {@link DatagramIngest#SUBSCRIBE_MAGIC} and gets one frame per
+ * datagram, paced by the sample clock as in {@link DeviceSimulator}. A subscription
+ * from a new address starts a new stream at sequence 0; repeating it from the same
+ * address only keeps the stream going.
+ *
+ * <p>The air is simulated on the sending side: {@link Options#lossRate} of the frames
+ * are never sent, and {@link Options#reorderRate} of them are held back and sent after
+ * the next one. Both are drawn from {@link Options#seed}, so a run can be repeated.
+ */
+public class DatagramDeviceSimulator implements AutoCloseable {
+
+    public static class Options {
+        public double speed = 1;
+        // 512 samples keep a frame within one WiFi MTU
+        public int frameSamples = 512;
+        public double lossRate;
+        public double reorderRate;
+        public long seed = 1;
+        // 16-bit little endian mono; null for a tone over noise
+        public byte[] audio;
+    }
+
+    private final Options options;
+    private final byte[] audio;
+    private final DatagramSocket socket;
+    private final Thread receiver;
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong framesLost = new AtomicLong();
+    private volatile SocketAddress subscriber;
+    private volatile Thread sender;
+    private volatile long streamStartNs;
+    private volatile boolean closed;
+
+    public DatagramDeviceSimulator(Options options) throws IOException {
+        this.options = options;
+        this.audio = options.audio != null ? options.audio : DeviceSimulator.synthesize(DeviceSimulator.SAMPLE_RATE);
+        socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receiveSubscriptions();
+            }
+        }, "DatagramDeviceSimulator");
+        receiver.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+    }
+
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    // Frames dropped on the simulated air
+    public long getFramesLost() {
+        return framesLost.get();
+    }
+
+    // System.nanoTime() at which the frame holding sampleTime was due to be sent on the
+    // current stream, i.e. when that audio was "recorded"
+    public long dueTimeNs(long sampleTime) {
+        long frameEnd = (sampleTime / options.frameSamples + 1) * options.frameSamples;
+        return streamStartNs + (long) (frameEnd * 1e9 / (DeviceSimulator.SAMPLE_RATE * options.speed));
+    }
+
+    private void receiveSubscriptions() {
+        byte[] buffer = new byte[64];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!closed) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+            } catch (IOException e) {
+                return; // closed
+            }
+            int magic = (buffer[0] & 0xff) | (buffer[1] & 0xff) << 8 | (buffer[2] & 0xff) << 16 | buffer[3] << 24;
+            if (packet.getLength() != 4 || magic != DatagramIngest.SUBSCRIBE_MAGIC) {
+                continue;
+            }
+            SocketAddress from = packet.getSocketAddress();
+            if (!from.equals(subscriber)) {
+                startStream(from);
+            }
+        }
+    }
+
+    private void startStream(final SocketAddress to) {
+        subscriber = to;
+        streamStartNs = System.nanoTime();
+        final long startNs = streamStartNs;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serve(to, startNs);
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        }, "DatagramDeviceSimulator-stream");
+        sender = thread;
+        thread.start();
+    }
+
+    private void serve(SocketAddress to, long startNs) throws IOException {
+        int payloadBytes = options.frameSamples * 2;
+        byte[] frame = new byte[FrameCodec.HEADER_BYTES + payloadBytes];
+        byte[] heldBack = new byte[frame.length];
+        boolean holding = false;
+        DatagramPacket packet = new DatagramPacket(frame, frame.length, to);
+        DatagramPacket heldPacket = new DatagramPacket(heldBack, heldBack.length, to);
+        Random air = new Random(options.seed);
+        double samplesPerNs = DeviceSimulator.SAMPLE_RATE * options.speed / 1e9;
+        long sampleTime = 0;
+        int sequence = 0;
+        int audioOffset = 0;
+
+        while (!closed && sender == Thread.currentThread()) {
+            long dueNs = startNs + (long) ((sampleTime + options.frameSamples) / samplesPerNs);
+            long now;
+            while ((now = System.nanoTime()) < dueNs) {
+                LockSupport.parkNanos(Math.min(dueNs - now, 1_000_000L));
+            }
+            if (audioOffset + payloadBytes > audio.length) {
+                audioOffset = 0;
+            }
+            FrameCodec.encode(sequence, sampleTime, audio, audioOffset, payloadBytes, frame, 0);
+            audioOffset += payloadBytes;
+            sequence++;
+            sampleTime += options.frameSamples;
+
+            if (air.nextDouble() < options.lossRate) {
+                framesLost.incrementAndGet();
+            } else if (!holding && air.nextDouble() < options.reorderRate) {
+                System.arraycopy(frame, 0, heldBack, 0, frame.length);
+                holding = true;
+            } else {
+                socket.send(packet);
+                framesSent.incrementAndGet();
+                if (holding) {
+                    socket.send(heldPacket);
+                    framesSent.incrementAndGet();
+                    holding = false;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        socket.close();
+        try {
+            receiver.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
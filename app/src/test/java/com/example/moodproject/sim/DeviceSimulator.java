@@ -0,0 +1,254 @@
+package com.example.moodproject.sim;
+
+import com.example.moodproject.protocol.FrameCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stands in for the ESP32 access point: serves 16-bit mono PCM over TCP on loopback,
+ * framed as the firmware does (or raw), to any number of clients at once. Each client
+ * gets its own stream starting at sequence 0 and sample 0.
+ *
+ * <p>Pacing follows the sample clock scaled by {@link Options#speed}, so 50 means fifty
+ * seconds of audio per second. Frames go out {@link Options#burstFrames} at a time,
+ * which mimics the WiFi stack flushing in bursts. Every {@link Options#stallIntervalMs}
+ * the device stalls for {@link Options#stallMs}; afterwards it either catches up with
+ * a burst or, with {@link Options#dropDuringStall}, skips the audio it missed (the
+ * receiver sees lost frames). {@link Options#disconnectAfterMs} closes the connection
+ * after that long, as a device leaving range would.
+ *
+ * <p>With {@link Options#lossRate} a burst is "lost on the air" that often and goes
+ * out {@link Options#retransmitMs} later, as TCP retransmits it; everything behind it
+ * waits too, which is the head-of-line blocking a datagram transport avoids.
+ *
+ * <p>The audio loops over a buffer, synthetic by default or read from a file. Serving
+ * allocates nothing per frame, so the simulator does not distort allocation figures.
+ */
+public class DeviceSimulator implements AutoCloseable {
+
+    public static final int SAMPLE_RATE = 44100;
+
+    public static class Options {
+        public double speed = 1;
+        public int frameSamples = 1024;
+        public boolean framed = true;
+        public int burstFrames = 1;
+        public long stallIntervalMs;
+        public long stallMs;
+        public boolean dropDuringStall;
+        public long disconnectAfterMs;
+        public double lossRate;
+        public long retransmitMs = 200;
+        // 16-bit little endian mono; null for a tone over noise
+        public byte[] audio;
+    }
+
+    private final Options options;
+    private final byte[] audio;
+    private final ServerSocket server;
+    private final Thread acceptor;
+    private final List<Socket> clients = new ArrayList<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private volatile boolean closed;
+
+    public DeviceSimulator(final Options options) throws IOException {
+        this.options = options;
+        this.audio = options.audio != null ? options.audio : synthesize(SAMPLE_RATE);
+        if (audio.length < options.frameSamples * 2) {
+            throw new IllegalArgumentException("Audio shorter than a frame");
+        }
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptClients();
+            }
+        }, "DeviceSimulator");
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    // System.nanoTime() at which the frame holding sampleTime was due to be sent on a
+    // connection made at connectionStartNs, i.e. when that audio was "recorded"
+    public long dueTimeNs(long connectionStartNs, long sampleTime) {
+        long frame = sampleTime / options.frameSamples;
+        long burstEnd = (frame / options.burstFrames + 1) * options.burstFrames * options.frameSamples;
+        return connectionStartNs + (long) (burstEnd * 1e9 / (SAMPLE_RATE * options.speed));
+    }
+
+    private void acceptClients() {
+        while (!closed) {
+            final Socket client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                return; // closed
+            }
+            synchronized (clients) {
+                clients.add(client);
+            }
+            final long connectedNs = System.nanoTime();
+            connections.incrementAndGet();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(client, connectedNs);
+                    } catch (IOException e) {
+                        // The client went away
+                    } finally {
+                        closeQuietly(client);
+                    }
+                }
+            }, "DeviceSimulator-client").start();
+        }
+    }
+
+    private void serve(Socket client, long connectedNs) throws IOException {
+        client.setTcpNoDelay(true);
+        OutputStream out = client.getOutputStream();
+        int payloadBytes = options.frameSamples * 2;
+        byte[] burst = new byte[options.burstFrames * (FrameCodec.HEADER_BYTES + payloadBytes)];
+        double samplesPerNs = SAMPLE_RATE * options.speed / 1e9;
+        long stallIntervalNs = options.stallIntervalMs * 1_000_000L;
+        long stallNs = options.stallMs * 1_000_000L;
+        long nextStallNs = connectedNs + stallIntervalNs;
+        long disconnectNs = options.disconnectAfterMs > 0 ? connectedNs + options.disconnectAfterMs * 1_000_000L : 0;
+        long sampleTime = 0;
+        int sequence = 0;
+        int audioOffset = 0;
+        Random loss = new Random(connectedNs);
+
+        while (!closed) {
+            // Wait until the whole burst has been "recorded"
+            long burstSamples = (long) options.burstFrames * options.frameSamples;
+            long dueNs = connectedNs + (long) ((sampleTime + burstSamples) / samplesPerNs);
+            long now;
+            while ((now = System.nanoTime()) < dueNs) {
+                LockSupport.parkNanos(Math.min(dueNs - now, 1_000_000L));
+            }
+            if (disconnectNs > 0 && now >= disconnectNs) {
+                return;
+            }
+            if (stallIntervalNs > 0 && now >= nextStallNs) {
+                LockSupport.parkNanos(stallNs);
+                nextStallNs = System.nanoTime() + stallIntervalNs;
+                if (options.dropDuringStall) {
+                    // The audio recorded meanwhile never leaves the device
+                    long skipped = (long) (stallNs * samplesPerNs) / options.frameSamples;
+                    sequence += (int) skipped;
+                    sampleTime += skipped * options.frameSamples;
+                    audioOffset = (int) ((audioOffset + skipped * payloadBytes) % audio.length);
+                    continue;
+                }
+            }
+
+            int length = 0;
+            for (int i = 0; i < options.burstFrames; i++) {
+                if (audioOffset + payloadBytes > audio.length) {
+                    audioOffset = 0;
+                }
+                if (options.framed) {
+                    length += FrameCodec.encode(sequence, sampleTime, audio, audioOffset, payloadBytes, burst, length);
+                } else {
+                    System.arraycopy(audio, audioOffset, burst, length, payloadBytes);
+                    length += payloadBytes;
+                }
+                audioOffset += payloadBytes;
+                sequence++;
+                sampleTime += options.frameSamples;
+            }
+            if (options.lossRate > 0 && loss.nextDouble() < options.lossRate) {
+                LockSupport.parkNanos(options.retransmitMs * 1_000_000L);
+            }
+            try {
+                out.write(burst, 0, length);
+            } catch (SocketException e) {
+                return;
+            }
+            bytesSent.addAndGet(length);
+        }
+    }
+
+    // Disconnect every client now, e.g. to test reconnection; new clients are still accepted
+    public void dropClients() {
+        synchronized (clients) {
+            for (Socket client : clients) {
+                closeQuietly(client);
+            }
+            clients.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        dropClients();
+        try {
+            acceptor.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 16-bit PCM from a .wav file (its header skipped) or a raw .pcm file
+    public static byte[] loadAudio(File file) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        int offset = 0;
+        if (data.length > 44 && data[0] == 'R' && data[1] == 'I' && data[2] == 'F' && data[3] == 'F') {
+            offset = 44;
+        }
+        byte[] audio = new byte[(data.length - offset) & ~1];
+        System.arraycopy(data, offset, audio, 0, audio.length);
+        return audio;
+    }
+
+    // A second of a 220 Hz tone with harmonics over quiet noise, so analysis has something to find
+    public static byte[] synthesize(int samples) {
+        Random random = new Random(1);
+        byte[] audio = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            double t = i / (double) SAMPLE_RATE;
+            double value = 0.3 * Math.sin(2 * Math.PI * 220 * t) + 0.1 * Math.sin(2 * Math.PI * 440 * t)
+                    + 0.02 * random.nextGaussian();
+            int sample = (int) Math.max(-32768, Math.min(32767, value * 32767));
+            audio[2 * i] = (byte) sample;
+            audio[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return audio;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+}
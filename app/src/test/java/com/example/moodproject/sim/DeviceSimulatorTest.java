@@ -0,0 +1,129 @@
+package com.example.moodproject.sim;
+
+import com.example.moodproject.audio.AudioChunk;
+import com.example.moodproject.audio.CaptureSession;
+import com.example.moodproject.audio.ChunkConsumer;
+import com.example.moodproject.audio.StreamIngest;
+import com.example.moodproject.protocol.Concealment;
+import com.example.moodproject.protocol.FrameDecoder;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeviceSimulatorTest {
+
+    private final List<Socket> sockets = new ArrayList<>();
+    private final List<StreamIngest> ingests = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (StreamIngest ingest : ingests) {
+            ingest.stop();
+        }
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void concurrentClients_eachGetTheWholeStream() throws Exception {
+        DeviceSimulator.Options options = new DeviceSimulator.Options();
+        options.speed = 20;
+        options.burstFrames = 4;
+        // 42 frames of 1024 samples fit the synthetic second before it loops
+        int bytes = 42 * 1024 * 2;
+        byte[] expected = Arrays.copyOf(DeviceSimulator.synthesize(DeviceSimulator.SAMPLE_RATE), bytes);
+        try (DeviceSimulator simulator = new DeviceSimulator(options)) {
+            List<CaptureSession> sessions = new ArrayList<>();
+            List<Collector> collectors = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Collector collector = new Collector();
+                CaptureSession session = connect(simulator, bytes, collector);
+                session.start();
+                sessions.add(session);
+                collectors.add(collector);
+            }
+            for (int i = 0; i < 3; i++) {
+                assertTrue(sessions.get(i).awaitTermination(10_000));
+                assertNull(sessions.get(i).getFailure());
+                assertArrayEquals(expected, collectors.get(i).bytes.toByteArray());
+                assertEquals(0, sessions.get(i).getFrameDecoder().getLostFrames());
+            }
+            assertEquals(3, simulator.getConnections());
+        }
+    }
+
+    @Test
+    public void audioMissedDuringStalls_arrivesAsLostFrames() throws Exception {
+        DeviceSimulator.Options options = new DeviceSimulator.Options();
+        options.speed = 10;
+        options.stallIntervalMs = 100;
+        options.stallMs = 50;
+        options.dropDuringStall = true;
+        try (DeviceSimulator simulator = new DeviceSimulator(options)) {
+            Collector collector = new Collector();
+            CaptureSession session = connect(simulator, 200_000, collector);
+            session.start();
+            assertTrue(session.awaitTermination(10_000));
+
+            FrameDecoder frames = session.getFrameDecoder();
+            assertTrue(frames.getLostFrames() > 0);
+            assertEquals(frames.getLostFrames() * 1024, frames.getConcealedSamples());
+            assertEquals(200_000, collector.bytes.size());
+        }
+    }
+
+    @Test
+    public void disconnect_endsTheStream() throws Exception {
+        DeviceSimulator.Options options = new DeviceSimulator.Options();
+        options.speed = 10;
+        options.disconnectAfterMs = 200;
+        try (DeviceSimulator simulator = new DeviceSimulator(options)) {
+            Collector collector = new Collector();
+            CaptureSession session = connect(simulator, Long.MAX_VALUE, collector);
+            session.start();
+            assertTrue(session.awaitTermination(10_000));
+
+            assertFalse(session.isTimedOut());
+            assertTrue(collector.closed);
+            assertTrue(collector.bytes.size() > 0);
+            assertTrue(collector.bytes.size() < 44100 * 2 * 10);
+        }
+    }
+
+    private CaptureSession connect(DeviceSimulator simulator, long maxBytes, Collector collector) throws Exception {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), simulator.getPort());
+        sockets.add(socket);
+        StreamIngest ingest = new StreamIngest(socket, 64 * 1024, 200);
+        ingests.add(ingest);
+        ingest.start();
+        CaptureSession session = new CaptureSession(ingest, 8, 4096, 2000, maxBytes);
+        session.useFraming(Concealment.SILENCE, DeviceSimulator.SAMPLE_RATE);
+        session.addConsumer("collect", collector);
+        return session;
+    }
+
+    private static class Collector implements ChunkConsumer {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        volatile boolean closed;
+
+        @Override
+        public void accept(AudioChunk chunk) {
+            bytes.write(chunk.getData(), 0, chunk.getLength());
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.moodproject.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FeatureCacheTest {
+
+    private static final int FLOATS = 100;
+    // Memory an entry of FLOATS takes, overhead included, and its file size
+    private static final int MEMORY_ENTRY_BYTES = 200 + 4 * FLOATS;
+    private static final int FILE_ENTRY_BYTES = 8 + 4 * FLOATS;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void memoryTier_evictsLeastRecentlyUsedPastItsByteBound() throws Exception {
+        FeatureCache cache = FeatureCache.open(folder.newFolder(), 3 * MEMORY_ENTRY_BYTES, Long.MAX_VALUE);
+        cache.put("a", features(1));
+        cache.put("b", features(2));
+        cache.put("c", features(3));
+        assertEquals(1f, cache.get("a")[0], 0);
+        cache.put("d", features(4));
+
+        assertEquals(3 * MEMORY_ENTRY_BYTES, cache.getMemoryBytes());
+        assertEquals(1, cache.getMemoryEvictions());
+        assertEquals(2f, cache.get("b")[0], 0); // gone from memory, not from disk
+        assertEquals(1, cache.getDiskHits());
+        assertEquals(1, cache.getMemoryHits());
+        assertNull(cache.get("e"));
+        assertEquals(2.0 / 3, cache.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void entries_surviveReopeningAndOtherConfigsMiss() throws Exception {
+        File directory = folder.newFolder();
+        ByteBuffer stored = ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+        String key = FeatureCache.key(stored, "features v1 16000/512/256");
+        FeatureCache cache = FeatureCache.open(directory, 1024 * 1024, 1024 * 1024);
+        cache.put(key, features(5));
+
+        cache = FeatureCache.open(directory, 1024 * 1024, 1024 * 1024);
+        assertEquals(FILE_ENTRY_BYTES, cache.getDiskBytes());
+        assertArrayEquals(features(5), cache.get(key), 0);
+        assertEquals(1, cache.getDiskHits());
+        assertEquals(key, FeatureCache.key(stored, "features v1 16000/512/256"));
+        assertEquals(4, stored.remaining());
+
+        assertNull(cache.get(FeatureCache.key(stored, "features v2 16000/512/256")));
+        assertNull(cache.get(FeatureCache.key(ByteBuffer.wrap(new byte[] {1, 2, 3, 5}),
+                "features v1 16000/512/256")));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void damagedEntry_isDiscarded() throws Exception {
+        File directory = folder.newFolder();
+        FeatureCache cache = FeatureCache.open(directory, 1024 * 1024, 1024 * 1024);
+        cache.put("a", features(1));
+        File file = new File(directory, "a.feat");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[FILE_ENTRY_BYTES / 2]);
+        }
+
+        cache = FeatureCache.open(directory, 1024 * 1024, 1024 * 1024);
+        assertNull(cache.get("a"));
+        assertFalse(file.exists());
+        assertEquals(0, cache.getDiskBytes());
+    }
+
+    @Test
+    public void diskTier_dropsEntriesUsedLongestAgoPastItsBound() throws Exception {
+        File directory = folder.newFolder();
+        FeatureCache cache = FeatureCache.open(directory, 1024 * 1024, 3 * FILE_ENTRY_BYTES);
+        cache.put("a", features(1));
+        cache.put("b", features(2));
+        cache.put("c", features(3));
+        long now = System.currentTimeMillis();
+        new File(directory, "a.feat").setLastModified(now - 30_000);
+        new File(directory, "b.feat").setLastModified(now - 20_000);
+        new File(directory, "c.feat").setLastModified(now - 10_000);
+
+        // Reading a from disk makes it the most recently used
+        cache = FeatureCache.open(directory, 1024 * 1024, 3 * FILE_ENTRY_BYTES);
+        assertNotNull(cache.get("a"));
+        cache.put("d", features(4));
+
+        assertEquals(2, cache.getDiskEvictions());
+        assertEquals(2 * FILE_ENTRY_BYTES, cache.getDiskBytes());
+        assertTrue(new File(directory, "a.feat").exists());
+        assertFalse(new File(directory, "b.feat").exists());
+        assertFalse(new File(directory, "c.feat").exists());
+        assertTrue(new File(directory, "d.feat").exists());
+    }
+
+    @Test
+    public void collector_concatenatesWindows() {
+        FeatureCache.Collector collector = new FeatureCache.Collector();
+        float[] window = new float[3];
+        for (int i = 0; i < 5; i++) {
+            window[0] = i;
+            window[1] = i + 0.5f;
+            window[2] = -i;
+            collector.onWindow(window, 0, window.length);
+        }
+        float[] features = collector.toArray();
+        assertEquals(15, features.length);
+        assertEquals(4f, features[12], 0);
+        assertEquals(4.5f, features[13], 0);
+        assertEquals(-4f, features[14], 0);
+    }
+
+    private static float[] features(int seed) {
+        float[] features = new float[FLOATS];
+        for (int i = 0; i < FLOATS; i++) {
+            features[i] = seed + i * 0.25f;
+        }
+        return features;
+    }
+}
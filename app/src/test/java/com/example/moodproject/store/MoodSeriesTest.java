@@ -0,0 +1,148 @@
+package com.example.moodproject.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MoodSeriesTest {
+
+    // Midnight UTC, 1 March 2024
+    private static final long START = 1_709_251_200_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rollups_sumTheRawPointsAtEveryResolution() throws Exception {
+        MoodSeries series = MoodSeries.open(folder.newFolder(), 512);
+        Random random = new Random(3);
+        // Three days with a recording of 20 minutes every 5 hours, a window a second
+        for (long recording = START; recording < START + 3 * MoodSeries.DAY_MILLIS;
+                recording += 5 * MoodSeries.HOUR_MILLIS) {
+            for (int s = 0; s < 20 * 60; s++) {
+                series.append(recording + 1000L * s + random.nextInt(50), random.nextInt(4), random.nextFloat());
+            }
+        }
+        series.flush();
+
+        long end = START + 3 * MoodSeries.DAY_MILLIS;
+        List<MoodBucket> points = series.query(START, end, MoodSeries.RAW);
+        assertEquals(series.getPointCount(), points.size());
+        for (long resolution : new long[] {MoodSeries.MINUTE_MILLIS, MoodSeries.HOUR_MILLIS, MoodSeries.DAY_MILLIS}) {
+            List<MoodBucket> buckets = series.query(START, end, resolution);
+            int point = 0;
+            long total = 0;
+            for (MoodBucket bucket : buckets) {
+                assertEquals(0, bucket.startMillis % resolution);
+                assertEquals(resolution, bucket.durationMillis);
+                MoodBucket expected = new MoodBucket();
+                while (point < points.size() && points.get(point).startMillis < bucket.startMillis + resolution) {
+                    MoodBucket p = points.get(point++);
+                    assertTrue(p.startMillis >= bucket.startMillis);
+                    expected.count++;
+                    expected.scoreSum += p.scoreSum;
+                    expected.moodCounts[p.getDominantMood()]++;
+                }
+                assertEquals(expected.count, bucket.count);
+                assertEquals(expected.scoreSum, bucket.scoreSum);
+                assertArrayEquals(expected.moodCounts, bucket.moodCounts);
+                total += bucket.count;
+            }
+            assertEquals(points.size(), total);
+        }
+        assertEquals(3, series.query(START, end, MoodSeries.DAY_MILLIS).size());
+        series.close();
+    }
+
+    @Test
+    public void rawPoints_takeAboutThreeBytesEach() throws Exception {
+        File directory = folder.newFolder();
+        MoodSeries series = MoodSeries.open(directory);
+        for (int s = 0; s < 10_000; s++) {
+            series.append(START + 1000L * s, s % 3, 0.5f);
+        }
+        series.close();
+        assertEquals(3, series.getBlockCount());
+        assertTrue(series.getRawBytes() < 4 * 10_000);
+        assertEquals(series.getRawBytes(), new File(directory, MoodSeries.RAW_FILE).length());
+
+        series = MoodSeries.open(directory);
+        List<MoodBucket> points = series.query(START + 5000_000L, START + 5010_000L, MoodSeries.RAW);
+        assertEquals(10, points.size());
+        assertEquals(START + 5000_000L, points.get(0).startMillis);
+        assertEquals(5000 % 3, points.get(0).getDominantMood());
+        assertEquals(0.5f, points.get(0).getMeanScore(), 1 / 255f);
+        series.close();
+    }
+
+    @Test
+    public void reopening_carriesOnTheOpenBuckets() throws Exception {
+        File directory = folder.newFolder();
+        MoodSeries series = MoodSeries.open(directory);
+        series.append(START + 10_000, 1, 1f);
+        series.append(START + 20_000, 1, 1f);
+        series.close();
+
+        series = MoodSeries.open(directory);
+        assertEquals(2, series.getPointCount());
+        series.append(START + 30_000, 2, 0f);
+        // Before the last point, e.g. after the clock was set back: kept at the last time
+        series.append(START + 5_000, 2, 0f);
+        List<MoodBucket> minutes = series.query(START, START + MoodSeries.MINUTE_MILLIS, MoodSeries.MINUTE_MILLIS);
+        assertEquals(1, minutes.size());
+        assertEquals(4, minutes.get(0).count);
+        assertEquals(2, minutes.get(0).moodCounts[1]);
+        assertEquals(2, minutes.get(0).moodCounts[2]);
+        assertEquals(1, minutes.get(0).getDominantMood());
+        assertEquals(0.5f, minutes.get(0).getMeanScore(), 1e-6);
+
+        List<MoodBucket> points = series.query(START, START + MoodSeries.MINUTE_MILLIS, MoodSeries.RAW);
+        assertEquals(4, points.size());
+        assertEquals(START + 30_000, points.get(3).startMillis);
+        series.close();
+    }
+
+    @Test
+    public void blockCutShort_isDroppedOnOpen() throws Exception {
+        File directory = folder.newFolder();
+        MoodSeries series = MoodSeries.open(directory);
+        for (int s = 0; s < 100; s++) {
+            series.append(START + 1000L * s, 0, 0.9f);
+            if (s == 59) {
+                series.flush();
+            }
+        }
+        series.close();
+        File file = new File(directory, MoodSeries.RAW_FILE);
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.setLength(raw.length() - 5);
+        }
+
+        series = MoodSeries.open(directory);
+        assertEquals(1, series.getBlockCount());
+        assertEquals(60, series.query(START, START + MoodSeries.HOUR_MILLIS, MoodSeries.RAW).size());
+        // The rollups kept every point
+        assertEquals(100, series.query(START, START + MoodSeries.HOUR_MILLIS, MoodSeries.HOUR_MILLIS).get(0).count);
+        series.append(START + 200_000, 1, 0.9f);
+        series.close();
+
+        series = MoodSeries.open(directory);
+        assertEquals(61, series.getPointCount());
+        series.close();
+    }
+
+    @Test
+    public void resolution_isTheFinestThatFitsTheChart() {
+        assertEquals(MoodSeries.RAW, MoodSeries.resolutionFor(0, 10 * MoodSeries.MINUTE_MILLIS, 600));
+        assertEquals(MoodSeries.MINUTE_MILLIS, MoodSeries.resolutionFor(0, 6 * MoodSeries.HOUR_MILLIS, 600));
+        assertEquals(MoodSeries.HOUR_MILLIS, MoodSeries.resolutionFor(0, 7 * MoodSeries.DAY_MILLIS, 600));
+        assertEquals(MoodSeries.DAY_MILLIS, MoodSeries.resolutionFor(0, 365 * MoodSeries.DAY_MILLIS, 600));
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.moodproject.store;
+
+import com.example.moodproject.audio.LiveMonitor;
+import com.example.moodproject.metrics.Histogram;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RecordingPlayerTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int PERIOD = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void wholeRecording_playsInOrder() throws Exception {
+        for (boolean compress : new boolean[] {false, true}) {
+            RecordingStore store = RecordingStore.open(folder.newFolder(), 1 << 20, 1024, 60_000, compress);
+            byte[] audio = voice(3 * SAMPLE_RATE + 77);
+            RecordingAudio recording = store(store, audio);
+            assertEquals(compress, recording.isCompressed());
+
+            CollectingOutput output = new CollectingOutput(0);
+            Histogram startTimes = new Histogram();
+            RecordingPlayer player = new RecordingPlayer(recording, output, PERIOD, 4);
+            player.setStartTimer(startTimes);
+            player.start(0);
+
+            assertTrue(player.awaitCompletion(10_000));
+            assertNull(player.getFailure());
+            assertTrue(player.isFinished());
+            assertFalse(player.isRunning());
+            assertArrayEquals(audio, output.bytes.toByteArray());
+            assertEquals(recording.getSampleCount(), player.getPosition());
+            assertEquals(1, output.starts);
+            assertEquals(1, output.stops);
+            assertTrue(player.getStartLatencyNs() >= 0);
+            assertEquals(1, startTimes.getCount());
+            store.close();
+        }
+    }
+
+    @Test
+    public void seek_continuesFromTheNewPositionWithoutStaleAudio() throws Exception {
+        RecordingStore store = RecordingStore.open(folder.newFolder(), 1 << 20, 1024, 60_000, false);
+        // Every sample holds its own index, so each write tells where it came from
+        short[] samples = new short[20_000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) i;
+        }
+        RecordingAudio recording = store(store, toBytes(samples));
+
+        final Histogram startTimes = new Histogram();
+        final RecordingPlayer[] player = new RecordingPlayer[1];
+        CollectingOutput output = new CollectingOutput(1) {
+            @Override
+            public void write(byte[] data, int offset, int length) {
+                super.write(data, offset, length);
+                if (writes.size() == 40) {
+                    player[0].seek(1000); // back to near the start
+                }
+            }
+        };
+        player[0] = new RecordingPlayer(recording, output, PERIOD, 8);
+        player[0].setStartTimer(startTimes);
+        player[0].start(5000);
+
+        assertTrue(player[0].awaitCompletion(20_000));
+        assertTrue(player[0].isFinished());
+        List<short[]> writes = output.writes;
+        assertEquals(5000, writes.get(0)[0]);
+        // Up to the seek, one run from 5000; the period being written when it came is the last of it
+        for (int i = 0; i < 40; i++) {
+            assertEquals(5000 + i * PERIOD, writes.get(i)[0]);
+        }
+        // Then a run from 1000 to the end, with none of the read-ahead from before
+        int expected = 1000;
+        for (int i = 40; i < writes.size(); i++) {
+            short[] write = writes.get(i);
+            for (short sample : write) {
+                assertEquals("write " + i, expected++, sample);
+            }
+        }
+        assertEquals(samples.length, expected);
+        assertEquals(2, startTimes.getCount());
+        store.close();
+    }
+
+    @Test
+    public void stop_endsPlaybackEarly() throws Exception {
+        RecordingStore store = RecordingStore.open(folder.newFolder());
+        RecordingAudio recording = store(store, voice(10 * SAMPLE_RATE));
+        CollectingOutput output = new CollectingOutput(2);
+        RecordingPlayer player = new RecordingPlayer(recording, output, PERIOD, 4);
+        player.start(0);
+        Thread.sleep(50);
+        player.stop();
+
+        assertTrue(player.awaitCompletion(5000));
+        assertFalse(player.isFinished());
+        assertTrue(player.getPosition() < recording.getSampleCount());
+        assertEquals(1, output.stops);
+        store.close();
+    }
+
+    @Test
+    public void steadyState_allocatesNothing() throws Exception {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        RecordingStore store = RecordingStore.open(folder.newFolder());
+        // A minute of compressed audio; the player holds only its read-ahead of it
+        RecordingAudio recording = store(store, voice(60 * SAMPLE_RATE));
+        final long[] allocated = new long[2];
+        final long[] before = new long[2];
+        final long[] ids = new long[2];
+        CollectingOutput output = new CollectingOutput(0) {
+            @Override
+            public void write(byte[] data, int offset, int length) {
+                // Counts only, so the output itself allocates nothing
+                int count = writes.size() + 1;
+                writes.add(null);
+                if (count == 50) {
+                    ids[0] = Thread.currentThread().getId();
+                    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                        if (thread.getName().equals("RecordingPlayer-read")) {
+                            ids[1] = thread.getId();
+                        }
+                    }
+                } else if (count == 60) {
+                    before[0] = threads.getThreadAllocatedBytes(ids[0]);
+                    before[1] = threads.getThreadAllocatedBytes(ids[1]);
+                } else if (count == 1000) {
+                    allocated[0] = threads.getThreadAllocatedBytes(ids[0]) - before[0];
+                    allocated[1] = threads.getThreadAllocatedBytes(ids[1]) - before[1];
+                }
+            }
+        };
+        output.writes = new ArrayList<>(2000);
+        RecordingPlayer player = new RecordingPlayer(recording, output, PERIOD, 4);
+        player.start(0);
+
+        assertTrue(player.awaitCompletion(20_000));
+        assertTrue(player.isFinished());
+        assertEquals(4 * 2 * PERIOD, player.getBufferBytes());
+        assertTrue("player thread allocated " + allocated[0], allocated[0] < 1024);
+        assertTrue("reader thread allocated " + allocated[1], allocated[1] < 1024);
+        store.close();
+    }
+
+    private static RecordingAudio store(RecordingStore store, byte[] audio) throws Exception {
+        RecordingWriter writer = store.begin(1, 1_000, SAMPLE_RATE);
+        writer.write(audio, 0, audio.length);
+        writer.close();
+        return store.openAudio(store.get(store.getCount() - 1));
+    }
+
+    // Noise shaped into syllables, roughly what the store holds
+    private static byte[] voice(int samples) {
+        Random random = new Random(5);
+        short[] out = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * 4 * i / SAMPLE_RATE);
+            out[i] = (short) (envelope * (3000 * Math.sin(2 * Math.PI * 180 * i / SAMPLE_RATE)
+                    + random.nextGaussian() * 300));
+        }
+        return toBytes(out);
+    }
+
+    private static byte[] toBytes(short[] samples) {
+        byte[] bytes = new byte[2 * samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            bytes[2 * i] = (byte) samples[i];
+            bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        return bytes;
+    }
+
+    // Keeps what is written, taking delayMs per write like a device output would
+    private static class CollectingOutput implements LiveMonitor.AudioOutput {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        List<short[]> writes = new ArrayList<>();
+        final long delayMs;
+        volatile int starts;
+        volatile int stops;
+
+        CollectingOutput(long delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public void start() {
+            starts++;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            bytes.write(data, offset, length);
+            short[] samples = new short[length / 2];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (short) ((data[offset + 2 * i] & 0xff) | (data[offset + 2 * i + 1] << 8));
+            }
+            writes.add(samples);
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void stop() {
+            stops++;
+        }
+
+        @Override
+        public double getLatencyMs() {
+            return delayMs;
+        }
+    }
+}
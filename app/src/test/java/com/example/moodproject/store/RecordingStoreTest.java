@@ -0,0 +1,414 @@
+package com.example.moodproject.store;
+
+import com.example.moodproject.DataBase;
+import com.example.moodproject.dsp.LosslessEncoder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RecordingStoreTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordings_areIndexedAndReadableAfterReopen() throws Exception {
+        File directory = folder.newFolder("store");
+        RecordingStore store = RecordingStore.open(directory);
+        byte[] first = pattern(16_000, 1);
+        byte[] second = pattern(8_000, 2);
+        store(store, 7, 10_000, first, 2, 800);
+        store(store, 7, 20_000, second, RecordingEntry.NO_MOOD, 0);
+        store.close();
+
+        store = RecordingStore.open(directory);
+        assertEquals(2, store.getCount());
+        assertFalse(store.wasRebuilt());
+        RecordingEntry entry = store.get(0);
+        assertEquals(7, entry.sessionId);
+        assertEquals(10_000, entry.startMillis);
+        assertEquals(1000, entry.durationMs);
+        assertEquals(2, entry.mood);
+        assertEquals(800, entry.moodShare);
+        assertArrayEquals(first, read(store.openAudio(entry)));
+        assertArrayEquals(second, read(store.openAudio(store.get(1))));
+        store.close();
+    }
+
+    @Test
+    public void query_returnsOverlappingRecordingsInOrder() throws Exception {
+        RecordingStore store = RecordingStore.open(folder.newFolder("store"));
+        byte[] oneSecond = pattern(2 * SAMPLE_RATE, 3);
+        // Starts arrive out of order to exercise sorted insertion
+        long[] starts = {5_000, 1_000, 9_000, 3_000, 7_000};
+        for (long start : starts) {
+            store(store, 1, start, oneSecond, RecordingEntry.NO_MOOD, 0);
+        }
+
+        assertStarts(store.query(0, 100_000), 1_000, 3_000, 5_000, 7_000, 9_000);
+        // [3500, 7000) overlaps the recordings starting at 3000 and 5000
+        assertStarts(store.query(3_500, 7_000), 3_000, 5_000);
+        assertStarts(store.query(4_000, 5_000));
+        assertStarts(store.query(9_999, 20_000), 9_000);
+        assertNotNull(store.find(1, 7_000));
+        assertNull(store.find(2, 7_000));
+        store.close();
+    }
+
+    @Test
+    public void outOfOrderInserts_growTheIndexAndSurviveReopening() throws Exception {
+        File directory = folder.newFolder("store");
+        RecordingStore store = RecordingStore.open(directory);
+        // Newest first, past the index's initial capacity
+        for (int i = 300; i > 0; i--) {
+            store(store, i, i * 1_000L, pattern(200, i), RecordingEntry.NO_MOOD, 0);
+        }
+        store.close();
+
+        store = RecordingStore.open(directory);
+        assertFalse(store.wasRebuilt());
+        assertEquals(300, store.getCount());
+        for (int i = 0; i < 300; i++) {
+            RecordingEntry entry = store.get(i);
+            assertEquals((i + 1) * 1_000L, entry.startMillis);
+            assertEquals(i + 1, entry.sessionId);
+        }
+        assertFalse(new File(directory, "recordings.idx.tmp").exists());
+        store.close();
+    }
+
+    @Test
+    public void query_matchesLinearScanOnThousandsOfRecordings() throws Exception {
+        RecordingStore store = RecordingStore.open(folder.newFolder("store"));
+        Random random = new Random(9);
+        List<long[]> spans = new ArrayList<>();
+        long start = 0;
+        for (int i = 0; i < 2000; i++) {
+            start += random.nextInt(5_000);
+            int samples = 1 + random.nextInt(SAMPLE_RATE * 3);
+            store(store, i, start, new byte[2 * samples], RecordingEntry.NO_MOOD, 0);
+            spans.add(new long[] {start, start + samples * 1000L / SAMPLE_RATE});
+        }
+        assertEquals(2000, store.getCount());
+
+        for (int q = 0; q < 200; q++) {
+            long from = random.nextInt((int) start);
+            long to = from + random.nextInt(20_000);
+            List<RecordingEntry> found = store.query(from, to);
+            int expected = 0;
+            for (long[] span : spans) {
+                if (span[0] < to && (span[1] > from || span[0] >= from)) {
+                    expected++;
+                }
+            }
+            assertEquals("query " + from + ".." + to, expected, found.size());
+        }
+        store.close();
+    }
+
+    @Test
+    public void crashDuringRecording_isRecoveredOnOpen() throws Exception {
+        File directory = folder.newFolder("store");
+        RecordingStore store = RecordingStore.open(directory, 1 << 20, 1024, 60_000, false);
+        store(store, 1, 1_000, pattern(4000, 4), RecordingEntry.NO_MOOD, 0);
+        RecordingWriter writer = store.begin(1, 2_000, SAMPLE_RATE);
+        byte[] partial = pattern(3001, 5);
+        writer.write(partial, 0, partial.length);
+        writer.flush();
+        // The app dies here: no close(), so the record stays open
+        store.close();
+
+        store = RecordingStore.open(directory);
+        assertEquals(1, store.getRecoveredCount());
+        assertEquals(2, store.getCount());
+        RecordingEntry recovered = store.get(1);
+        assertEquals(2_000, recovered.startMillis);
+        assertEquals(3000, recovered.dataBytes);
+        byte[] audio = read(store.openAudio(recovered));
+        for (int i = 0; i < audio.length; i++) {
+            assertEquals(partial[i], audio[i]);
+        }
+
+        // New recordings append after the repaired one
+        store(store, 1, 3_000, pattern(100, 6), RecordingEntry.NO_MOOD, 0);
+        assertEquals(3, store.getCount());
+        store.close();
+    }
+
+    @Test
+    public void crashDuringCompressedRecording_keepsWholeBlocks() throws Exception {
+        File directory = folder.newFolder("store");
+        RecordingStore store = RecordingStore.open(directory, 1 << 20, 1024, 60_000);
+        RecordingWriter writer = store.begin(1, 2_000, SAMPLE_RATE);
+        assertTrue(writer.isCompressed());
+        // Two and a half encoder blocks; only the finished blocks reach the segment
+        byte[] partial = tone(LosslessEncoder.DEFAULT_BLOCK_SIZE * 5 / 2);
+        writer.write(partial, 0, partial.length);
+        writer.flush();
+        store.close();
+
+        store = RecordingStore.open(directory);
+        assertEquals(1, store.getRecoveredCount());
+        RecordingEntry recovered = store.get(0);
+        assertEquals(RecordingEntry.CODEC_LOSSLESS, recovered.codec);
+        assertEquals(2 * LosslessEncoder.DEFAULT_BLOCK_SIZE, recovered.sampleCount);
+        byte[] audio = read(store.openAudio(recovered));
+        assertEquals(4 * LosslessEncoder.DEFAULT_BLOCK_SIZE, audio.length);
+        for (int i = 0; i < audio.length; i++) {
+            assertEquals(partial[i], audio[i]);
+        }
+        store.close();
+    }
+
+    @Test
+    public void compressedAndPcmRecordings_readBackTheSame() throws Exception {
+        File directory = folder.newFolder("store");
+        byte[] audio = tone(3 * SAMPLE_RATE);
+        RecordingStore store = RecordingStore.open(directory, 1 << 20, 1024, 60_000, false);
+        store(store, 1, 1_000, audio, RecordingEntry.NO_MOOD, 0);
+        store.close();
+        store = RecordingStore.open(directory);
+        store(store, 1, 5_000, audio, RecordingEntry.NO_MOOD, 0);
+
+        RecordingEntry pcm = store.get(0);
+        RecordingEntry compressed = store.get(1);
+        assertEquals(RecordingEntry.CODEC_PCM, pcm.codec);
+        assertEquals(RecordingEntry.CODEC_LOSSLESS, compressed.codec);
+        assertEquals(pcm.sampleCount, compressed.sampleCount);
+        assertEquals(pcm.durationMs, compressed.durationMs);
+        assertTrue("stored " + compressed.dataBytes, compressed.dataBytes * 2 < pcm.dataBytes);
+        assertArrayEquals(audio, read(store.openAudio(pcm)));
+        assertArrayEquals(audio, read(store.openAudio(compressed)));
+
+        // Reads can start anywhere
+        RecordingAudio reader = store.openAudio(compressed);
+        short[] samples = new short[100];
+        assertEquals(100, reader.read(12_345, samples, 0, 100));
+        for (int i = 0; i < 100; i++) {
+            int at = 2 * (12_345 + i);
+            assertEquals((short) ((audio[at] & 0xff) | audio[at + 1] << 8), samples[i]);
+        }
+        store.close();
+    }
+
+    @Test
+    public void silence_keepsTheTimelineInBothCodecs() throws Exception {
+        File directory = folder.newFolder("store");
+        byte[] audio = tone(SAMPLE_RATE);
+        byte[] expected = new byte[audio.length + 2 * 5 * SAMPLE_RATE + audio.length];
+        System.arraycopy(audio, 0, expected, 0, audio.length);
+        System.arraycopy(audio, 0, expected, expected.length - audio.length, audio.length);
+
+        RecordingStore store = RecordingStore.open(directory, 1 << 20, 1024, 60_000, false);
+        storeWithSilence(store, 1_000, audio, 5 * SAMPLE_RATE);
+        store.close();
+        store = RecordingStore.open(directory);
+        RecordingWriter writer = storeWithSilence(store, 9_000, audio, 5 * SAMPLE_RATE);
+        assertEquals(5 * SAMPLE_RATE, writer.getSilentSamples());
+
+        RecordingEntry pcm = store.get(0);
+        RecordingEntry compressed = store.get(1);
+        assertEquals(7000, pcm.durationMs);
+        assertEquals(7000, compressed.durationMs);
+        assertArrayEquals(expected, read(store.openAudio(pcm)));
+        assertArrayEquals(expected, read(store.openAudio(compressed)));
+        // Five seconds of silence cost one marker block
+        byte[] audioOnly = new byte[2 * audio.length];
+        System.arraycopy(audio, 0, audioOnly, 0, audio.length);
+        System.arraycopy(audio, 0, audioOnly, audio.length, audio.length);
+        store(store, 1, 20_000, audioOnly, RecordingEntry.NO_MOOD, 0);
+        assertTrue("stored " + compressed.dataBytes, compressed.dataBytes < store.get(2).dataBytes + 100);
+        store.close();
+    }
+
+    @Test
+    public void lostIndex_isRebuiltFromSegments() throws Exception {
+        File directory = folder.newFolder("store");
+        RecordingStore store = RecordingStore.open(directory, 10_000, 1024, 60_000);
+        for (int i = 0; i < 6; i++) {
+            store(store, 3, i * 10_000L, pattern(6000, i), i % 4, 500);
+        }
+        store.close();
+        // Small segments force a roll every couple of recordings
+        assertTrue(new File(directory, "segment-000003.seg").exists());
+
+        try (RandomAccessFile index = new RandomAccessFile(new File(directory, RecordingStore.INDEX_FILE), "rw")) {
+            index.setLength(3); // corrupt
+        }
+        store = RecordingStore.open(directory);
+        assertTrue(store.wasRebuilt());
+        assertEquals(6, store.getCount());
+        for (int i = 0; i < 6; i++) {
+            RecordingEntry entry = store.get(i);
+            assertEquals(i * 10_000L, entry.startMillis);
+            assertEquals(i % 4, entry.mood);
+            assertArrayEquals(pattern(6000, i), read(store.openAudio(entry)));
+        }
+        store.close();
+    }
+
+    @Test
+    public void gapMarks_surviveAnIndexRebuild() throws Exception {
+        File directory = folder.newFolder("store");
+        byte[] audio = tone(SAMPLE_RATE / 2);
+        RecordingStore store = RecordingStore.open(directory);
+        store(store, 1, 1_000, audio, RecordingEntry.NO_MOOD, 0);
+        RecordingWriter writer = store.begin(1, 5_000, SAMPLE_RATE);
+        writer.write(audio, 0, audio.length);
+        // Two adjacent gaps are one outage
+        writer.writeGap(SAMPLE_RATE / 4);
+        writer.writeGap(SAMPLE_RATE / 4);
+        writer.write(audio, 0, audio.length);
+        writer.writeGap(2 * SAMPLE_RATE);
+        writer.write(audio, 0, audio.length);
+        writer.close();
+        assertEquals(2500, store.get(1).gapMs);
+        assertEquals(0, store.get(0).gapMs);
+        store.close();
+
+        assertTrue(new File(directory, "recordings.idx").delete());
+        store = RecordingStore.open(directory);
+        assertTrue(store.wasRebuilt());
+        RecordingEntry entry = store.get(1);
+        assertEquals(2500, entry.gapMs);
+        assertEquals(4000, entry.durationMs);
+        List<RecordingGap> gaps = store.getGaps(entry);
+        assertEquals(2, gaps.size());
+        assertEquals(SAMPLE_RATE / 2, gaps.get(0).sampleOffset);
+        assertEquals(SAMPLE_RATE / 2, gaps.get(0).samples);
+        assertEquals(3 * SAMPLE_RATE / 2, gaps.get(1).sampleOffset);
+        assertEquals(2 * SAMPLE_RATE, gaps.get(1).samples);
+        assertTrue(store.getGaps(store.get(0)).isEmpty());
+        store.close();
+    }
+
+    @Test
+    public void manyGapMarks_areAllReadBack() throws Exception {
+        RecordingStore store = RecordingStore.open(folder.newFolder("store"));
+        byte[] audio = tone(SAMPLE_RATE / 100);
+        for (int recording = 0; recording < 2; recording++) {
+            RecordingWriter writer = store.begin(1, 1_000 + recording, SAMPLE_RATE);
+            // More marks than are queued before a write
+            for (int i = 0; i < 150; i++) {
+                writer.write(audio, 0, audio.length);
+                writer.writeGap(SAMPLE_RATE / 100);
+            }
+            writer.close();
+        }
+        for (int recording = 0; recording < 2; recording++) {
+            List<RecordingGap> gaps = store.getGaps(store.get(recording));
+            assertEquals(150, gaps.size());
+            for (int i = 0; i < gaps.size(); i++) {
+                assertEquals((2 * i + 1) * SAMPLE_RATE / 100, gaps.get(i).sampleOffset);
+                assertEquals(SAMPLE_RATE / 100, gaps.get(i).samples);
+            }
+        }
+        store.close();
+    }
+
+    @Test
+    public void emptyRecording_isNotIndexed() throws Exception {
+        RecordingStore store = RecordingStore.open(folder.newFolder("store"));
+        store.begin(1, 1_000, SAMPLE_RATE).close();
+        assertEquals(0, store.getCount());
+        try {
+            store.begin(1, 2_000, SAMPLE_RATE);
+            store.begin(1, 3_000, SAMPLE_RATE);
+            fail("Two recordings open at once");
+        } catch (IllegalStateException expected) {
+        }
+        store.close();
+    }
+
+    @Test
+    public void legacyFiles_areImportedOnce() throws Exception {
+        File legacy = folder.newFolder("legacy");
+        byte[] pcm = pattern(4000, 7);
+        File pcmFile = new File(legacy, "ESP32_Recording_123456.pcm");
+        try (FileOutputStream out = new FileOutputStream(pcmFile)) {
+            out.write(pcm);
+        }
+
+        DataBase dataBase = new DataBase(folder.newFolder("db"));
+        assertTrue(dataBase.importLegacyRecording(pcmFile, SAMPLE_RATE));
+        assertTrue(dataBase.importLegacyRecording(pcmFile, SAMPLE_RATE));
+        assertFalse(dataBase.importLegacyRecording(new File(legacy, "notes.txt"), SAMPLE_RATE));
+        assertFalse(dataBase.importLegacyRecording(new File(legacy, "ESP32_Recording_654321.wav"), SAMPLE_RATE));
+
+        List<RecordingEntry> entries = dataBase.getRecordings(0, Long.MAX_VALUE);
+        assertEquals(1, entries.size());
+        assertEquals(123456, entries.get(0).startMillis);
+        assertEquals(250, entries.get(0).durationMs);
+        assertArrayEquals(pcm, read(dataBase.openAudio(entries.get(0))));
+        dataBase.close();
+    }
+
+    private static void store(RecordingStore store, long session, long start, byte[] audio,
+                              int mood, int share) throws Exception {
+        RecordingWriter writer = store.begin(session, start, SAMPLE_RATE);
+        for (int offset = 0; offset < audio.length; offset += 999) {
+            writer.write(audio, offset, Math.min(999, audio.length - offset));
+        }
+        writer.setMood(mood, share);
+        writer.close();
+    }
+
+    private static RecordingWriter storeWithSilence(RecordingStore store, long start, byte[] audio,
+                                                    int silentSamples) throws Exception {
+        RecordingWriter writer = store.begin(1, start, SAMPLE_RATE);
+        writer.write(audio, 0, audio.length);
+        writer.writeSilence(silentSamples);
+        writer.write(audio, 0, audio.length);
+        writer.close();
+        return writer;
+    }
+
+    private static void assertStarts(List<RecordingEntry> entries, long... starts) {
+        assertEquals(starts.length, entries.size());
+        for (int i = 0; i < starts.length; i++) {
+            assertEquals(starts[i], entries.get(i).startMillis);
+        }
+    }
+
+    private static byte[] read(RecordingAudio audio) throws Exception {
+        short[] samples = new short[(int) audio.getSampleCount()];
+        int position = 0;
+        while (position < samples.length) {
+            // Odd sized reads cross block boundaries
+            position += audio.read(position, samples, position, Math.min(777, samples.length - position));
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(2 * samples.length).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asShortBuffer().put(samples);
+        return bytes.array();
+    }
+
+    // A quiet, slowly varying signal that compresses well
+    private static byte[] tone(int samples) {
+        Random random = new Random(11);
+        ByteBuffer bytes = ByteBuffer.allocate(2 * samples).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < samples; i++) {
+            bytes.putShort((short) (2000 * Math.sin(i * 0.05) + random.nextInt(9) - 4));
+        }
+        return bytes.array();
+    }
+
+    private static byte[] pattern(int length, int seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
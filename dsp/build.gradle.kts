@@ -0,0 +1,22 @@
+// Pure Java audio analysis, kept free of Android dependencies so it can be
+// tested and benchmarked on any JVM
+plugins {
+    `java-library`
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
+
+// Throughput benchmarks: ./gradlew :dsp:benchmark
+tasks.register<JavaExec>("benchmark") {
+    description = "Runs the DSP throughput benchmarks."
+    group = "verification"
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("com.example.moodproject.dsp.DspBenchmark")
+}
@@ -0,0 +1,78 @@
+package com.example.moodproject.dsp;
+
+// MSB-first bit reader over a byte array, the counterpart of BitWriter.
+// Reading past the end throws IllegalStateException.
+final class BitReader {
+
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    // Left aligned: the next bit to read is the top bit
+    private long accumulator;
+    private int available;
+
+    void reset(byte[] data, int offset, int length) {
+        buffer = data;
+        position = offset;
+        limit = offset + length;
+        accumulator = 0;
+        available = 0;
+    }
+
+    private void refill() {
+        while (available <= 56 && position < limit) {
+            accumulator |= (buffer[position++] & 0xFFL) << (56 - available);
+            available += 8;
+        }
+    }
+
+    // Read `bits` bits as an unsigned value, bits <= 32
+    int read(int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        if (available < bits) {
+            refill();
+            if (available < bits) {
+                throw new IllegalStateException("Read past end of block");
+            }
+        }
+        int value = (int) (accumulator >>> (64 - bits));
+        accumulator <<= bits;
+        available -= bits;
+        return value;
+    }
+
+    int readSigned(int bits) {
+        int value = read(bits);
+        return (value << (32 - bits)) >> (32 - bits);
+    }
+
+    // Count zero bits up to and including the terminating one
+    int readUnary() {
+        int count = 0;
+        while (true) {
+            if (available == 0) {
+                refill();
+                if (available == 0) {
+                    throw new IllegalStateException("Read past end of block");
+                }
+            }
+            if (accumulator == 0) {
+                count += available;
+                available = 0;
+                continue;
+            }
+            int zeros = Long.numberOfLeadingZeros(accumulator);
+            count += zeros;
+            accumulator = zeros == 63 ? 0 : accumulator << (zeros + 1);
+            available -= zeros + 1;
+            return count;
+        }
+    }
+
+    int readRice(int k) {
+        int high = readUnary();
+        return (high << k) | read(k);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.moodproject.dsp;
+
+import java.util.Arrays;
+
+// MSB-first bit packer over a growable byte array, used by the lossless encoder.
+final class BitWriter {
+
+    private byte[] buffer;
+    private int position;
+    private long accumulator;
+    private int pending;
+
+    BitWriter(int initialBytes) {
+        buffer = new byte[Math.max(16, initialBytes)];
+    }
+
+    // Start writing at a byte offset, keeping what is before it
+    void reset(int bytePosition) {
+        position = bytePosition;
+        accumulator = 0;
+        pending = 0;
+    }
+
+    // Write the low `bits` bits of value, bits <= 32
+    void write(int value, int bits) {
+        if (bits == 0) {
+            return;
+        }
+        accumulator = (accumulator << bits) | (value & (0xFFFFFFFFL >>> (32 - bits)));
+        pending += bits;
+        while (pending >= 8) {
+            pending -= 8;
+            put((byte) (accumulator >>> pending));
+        }
+    }
+
+    // `count` zero bits followed by a one
+    void writeUnary(int count) {
+        while (count >= 32) {
+            write(0, 32);
+            count -= 32;
+        }
+        write(1, count + 1);
+    }
+
+    // Rice code of a non-negative value with parameter k
+    void writeRice(int value, int k) {
+        writeUnary(value >>> k);
+        write(value, k);
+    }
+
+    // Pad to a byte boundary with zeros; returns the byte length written so far
+    int finish() {
+        if (pending > 0) {
+            put((byte) (accumulator << (8 - pending)));
+            pending = 0;
+        }
+        return position;
+    }
+
+    void putByte(int index, int value) {
+        buffer[index] = (byte) value;
+    }
+
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    private void put(byte value) {
+        if (position == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[position++] = value;
+    }
+}
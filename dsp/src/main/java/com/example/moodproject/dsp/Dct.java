@@ -0,0 +1,62 @@
+package com.example.moodproject.dsp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Orthonormal DCT-II keeping the first `outputs` coefficients, as used for MFCCs.
+// The cosine table is built once per size and shared.
+public final class Dct {
+
+    private static final Map<Long, Dct> CACHE = new HashMap<>();
+
+    private final int inputs;
+    private final int outputs;
+    // outputs x inputs, row major
+    private final float[] table;
+
+    public static Dct get(int inputs, int outputs) {
+        if (outputs <= 0 || outputs > inputs) {
+            throw new IllegalArgumentException("Need 0 < outputs <= inputs: " + outputs + " of " + inputs);
+        }
+        long key = ((long) inputs << 32) | outputs;
+        synchronized (CACHE) {
+            Dct dct = CACHE.get(key);
+            if (dct == null) {
+                dct = new Dct(inputs, outputs);
+                CACHE.put(key, dct);
+            }
+            return dct;
+        }
+    }
+
+    private Dct(int inputs, int outputs) {
+        this.inputs = inputs;
+        this.outputs = outputs;
+        table = new float[inputs * outputs];
+        for (int k = 0; k < outputs; k++) {
+            double scale = Math.sqrt((k == 0 ? 1.0 : 2.0) / inputs);
+            for (int n = 0; n < inputs; n++) {
+                table[k * inputs + n] = (float) (scale * Math.cos(Math.PI / inputs * (n + 0.5) * k));
+            }
+        }
+    }
+
+    public void apply(float[] input, float[] output) {
+        for (int k = 0; k < outputs; k++) {
+            int row = k * inputs;
+            float sum = 0;
+            for (int n = 0; n < inputs; n++) {
+                sum += table[row + n] * input[n];
+            }
+            output[k] = sum;
+        }
+    }
+
+    public int getInputs() {
+        return inputs;
+    }
+
+    public int getOutputs() {
+        return outputs;
+    }
+}
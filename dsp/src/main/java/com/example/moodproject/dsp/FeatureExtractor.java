@@ -0,0 +1,202 @@
+package com.example.moodproject.dsp;
+
+// Streaming extractor for the per-frame features the mood model works on.
+// PCM can be pushed in chunks of any size; samples are collected into overlapping
+// frames of frameSize with a step of hopSize, and a listener gets the features of
+// each completed frame. Every buffer is allocated in the constructor, so steady
+// state processing allocates nothing.
+public class FeatureExtractor {
+
+    // Bump whenever the features computed here change, so stored results can be invalidated
+    public static final int VERSION = 1;
+
+    private static final float ROLLOFF_FRACTION = 0.85f;
+    // Pitch search range, threshold of the YIN dip, and the level below which a frame is treated as silence
+    private static final int MIN_PITCH_HZ = 75;
+    private static final int MAX_PITCH_HZ = 1000;
+    private static final float YIN_THRESHOLD = 0.15f;
+    private static final float SILENCE_RMS = 0.005f;
+
+    private final int sampleRate;
+    private final int frameSize;
+    private final int hopSize;
+    private final float binHz;
+
+    private final FrameSlicer slicer;
+    private final float[] frame;
+
+    // Spectrum
+    private final RealFft fft;
+    private final float[] window;
+    private final float[] spectrum;
+    private final float[] magnitude;
+    private final float[] previousMagnitude;
+    private boolean hasPrevious;
+
+    // Pitch
+    private final int minLag;
+    private final int maxLag;
+    private final float[] difference;
+
+    private final MoodFeatures features = new MoodFeatures();
+
+    public FeatureExtractor(int sampleRate, int frameSize, int hopSize) {
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.binHz = (float) sampleRate / frameSize;
+
+        slicer = new FrameSlicer(frameSize, hopSize);
+        frame = slicer.getFrame();
+        fft = RealFft.forSize(frameSize);
+        window = Windows.hann(frameSize);
+        spectrum = new float[frameSize];
+        magnitude = new float[frameSize / 2 + 1];
+        previousMagnitude = new float[frameSize / 2 + 1];
+
+        minLag = Math.max(2, sampleRate / MAX_PITCH_HZ);
+        maxLag = Math.min(sampleRate / MIN_PITCH_HZ, frameSize / 2);
+        difference = new float[maxLag + 2];
+    }
+
+    // Push 16-bit little endian mono PCM. A trailing odd byte is kept for the next call.
+    public void process(byte[] pcm, int offset, int length, FeatureListener listener) {
+        while (length > 0) {
+            int used = slicer.write(pcm, offset, length);
+            offset += used;
+            length -= used;
+            completeFrame(listener);
+        }
+    }
+
+    // Push samples already decoded to shorts
+    public void process(short[] samples, int offset, int length, FeatureListener listener) {
+        while (length > 0) {
+            int used = slicer.write(samples, offset, length);
+            offset += used;
+            length -= used;
+            completeFrame(listener);
+        }
+    }
+
+    // Forget buffered samples, e.g. at the start of a new recording
+    public void reset() {
+        slicer.reset();
+        hasPrevious = false;
+    }
+
+    private void completeFrame(FeatureListener listener) {
+        if (slicer.isFrameReady()) {
+            analyze();
+            listener.onFeatures(features);
+            slicer.advance();
+        }
+    }
+
+    private void analyze() {
+        features.frameIndex = slicer.getFrameIndex();
+
+        double energy = 0;
+        int crossings = 0;
+        for (int i = 0; i < frameSize; i++) {
+            energy += frame[i] * frame[i];
+            if (i > 0 && (frame[i] >= 0) != (frame[i - 1] >= 0)) {
+                crossings++;
+            }
+        }
+        features.rms = (float) Math.sqrt(energy / frameSize);
+        features.zeroCrossingRate = (float) crossings / (frameSize - 1);
+
+        computeSpectrum();
+        analyzeSpectrum();
+        features.pitch = features.rms < SILENCE_RMS ? 0 : estimatePitch();
+    }
+
+    private void computeSpectrum() {
+        for (int i = 0; i < frameSize; i++) {
+            spectrum[i] = frame[i] * window[i];
+        }
+        fft.forward(spectrum);
+        fft.magnitude(spectrum, magnitude);
+    }
+
+    private void analyzeSpectrum() {
+        double weighted = 0;
+        double total = 0;
+        double energy = 0;
+        double flux = 0;
+        for (int k = 0; k < magnitude.length; k++) {
+            float m = magnitude[k];
+            weighted += k * m;
+            total += m;
+            energy += m * m;
+            if (hasPrevious) {
+                float rise = m - previousMagnitude[k];
+                if (rise > 0) {
+                    flux += rise * rise;
+                }
+            }
+        }
+        features.spectralCentroid = total > 0 ? (float) (weighted / total) * binHz : 0;
+        features.spectralFlux = (float) Math.sqrt(flux);
+
+        double limit = energy * ROLLOFF_FRACTION;
+        double cumulative = 0;
+        int rolloffBin = 0;
+        while (rolloffBin < magnitude.length - 1) {
+            cumulative += magnitude[rolloffBin] * magnitude[rolloffBin];
+            if (cumulative >= limit) {
+                break;
+            }
+            rolloffBin++;
+        }
+        features.spectralRolloff = energy > 0 ? rolloffBin * binHz : 0;
+
+        System.arraycopy(magnitude, 0, previousMagnitude, 0, magnitude.length);
+        hasPrevious = true;
+    }
+
+    // YIN: cumulative mean normalized difference, first dip under the threshold,
+    // refined with parabolic interpolation
+    private float estimatePitch() {
+        int window = frameSize - maxLag;
+        double runningSum = 0;
+        difference[0] = 1;
+        for (int lag = 1; lag <= maxLag; lag++) {
+            double sum = 0;
+            for (int j = 0; j < window; j++) {
+                float delta = frame[j] - frame[j + lag];
+                sum += delta * delta;
+            }
+            runningSum += sum;
+            difference[lag] = runningSum > 0 ? (float) (sum * lag / runningSum) : 1;
+        }
+
+        for (int lag = minLag; lag < maxLag; lag++) {
+            if (difference[lag] < YIN_THRESHOLD) {
+                while (lag + 1 < maxLag && difference[lag + 1] < difference[lag]) {
+                    lag++;
+                }
+                float before = difference[lag - 1];
+                float at = difference[lag];
+                float after = difference[lag + 1];
+                float denominator = before - 2 * at + after;
+                float shift = denominator != 0 ? 0.5f * (before - after) / denominator : 0;
+                return sampleRate / (lag + shift);
+            }
+        }
+        return 0;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.moodproject.dsp;
+
+// Called on the processing thread once per completed frame
+public interface FeatureListener {
+
+    void onFeatures(MoodFeatures features);
+}
@@ -0,0 +1,121 @@
+package com.example.moodproject.dsp;
+
+import java.util.Arrays;
+
+// Cuts a stream of 16-bit little endian PCM chunks into overlapping float frames.
+// Only one frame of samples is held; after a frame is used, advance() keeps the
+// overlap and the next write() continues from there. Chunks may split samples.
+//
+//   while (length > 0) {
+//       int used = slicer.write(pcm, offset, length);
+//       offset += used;
+//       length -= used;
+//       if (slicer.isFrameReady()) {
+//           analyze(slicer.getFrame());
+//           slicer.advance();
+//       }
+//   }
+public class FrameSlicer {
+
+    private final int frameSize;
+    private final int hopSize;
+    private final float[] frame;
+    private int filled;
+    private int pendingByte = -1;
+    private long frameIndex;
+
+    public FrameSlicer(int frameSize, int hopSize) {
+        if (frameSize <= 0 || hopSize <= 0 || hopSize > frameSize) {
+            throw new IllegalArgumentException("Need 0 < hop <= frame: frame " + frameSize + ", hop " + hopSize);
+        }
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.frame = new float[frameSize];
+    }
+
+    // Take bytes until a frame is complete or the input runs out. Returns the bytes consumed.
+    public int write(byte[] pcm, int offset, int length) {
+        if (filled == frameSize) {
+            return 0;
+        }
+        int start = offset;
+        int end = offset + length;
+        if (pendingByte >= 0 && offset < end) {
+            frame[filled++] = (short) (pendingByte | (pcm[offset] << 8)) * Pcm16.SCALE;
+            pendingByte = -1;
+            offset++;
+        }
+        int samples = Math.min((end - offset) / Pcm16.BYTES_PER_SAMPLE, frameSize - filled);
+        Pcm16.toFloat(pcm, offset, frame, filled, samples);
+        filled += samples;
+        offset += samples * Pcm16.BYTES_PER_SAMPLE;
+        if (filled < frameSize && end - offset == 1) {
+            pendingByte = pcm[offset] & 0xff;
+            offset++;
+        }
+        return offset - start;
+    }
+
+    // Take decoded samples until a frame is complete. Returns the samples consumed.
+    public int write(short[] samples, int offset, int length) {
+        int count = Math.min(length, frameSize - filled);
+        for (int i = 0; i < count; i++) {
+            frame[filled++] = samples[offset + i] * Pcm16.SCALE;
+        }
+        return count;
+    }
+
+    public boolean isFrameReady() {
+        return filled == frameSize;
+    }
+
+    // The current frame, valid while isFrameReady(); callers may read but not keep it
+    public float[] getFrame() {
+        return frame;
+    }
+
+    // Index of the current frame within the stream
+    public long getFrameIndex() {
+        return frameIndex;
+    }
+
+    // Drop the oldest hop of samples after a frame has been used
+    public void advance() {
+        System.arraycopy(frame, hopSize, frame, 0, frameSize - hopSize);
+        filled = frameSize - hopSize;
+        frameIndex++;
+    }
+
+    // Move on past samples the caller never had, e.g. audio dropped under load, as if
+    // they were silence. Frames that would have been complete by the end of them are
+    // skipped; the next frame is the first that reaches past them, holding whatever
+    // audio from before them it overlaps and zeros for the rest.
+    public void skip(long samples) {
+        if (samples <= 0) {
+            return;
+        }
+        long end = frameIndex * hopSize + filled + samples;
+        long next = Math.max(frameIndex, Math.floorDiv(end - frameSize, (long) hopSize) + 1);
+        // Samples of the current frame the next one still overlaps
+        int kept = (int) Math.max(0, Math.min(filled, frameIndex * hopSize + filled - next * hopSize));
+        System.arraycopy(frame, filled - kept, frame, 0, kept);
+        filled = (int) (end - next * hopSize);
+        Arrays.fill(frame, kept, filled, 0);
+        frameIndex = next;
+        pendingByte = -1;
+    }
+
+    public void reset() {
+        filled = 0;
+        pendingByte = -1;
+        frameIndex = 0;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+}
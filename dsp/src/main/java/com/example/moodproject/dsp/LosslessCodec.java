@@ -0,0 +1,47 @@
+package com.example.moodproject.dsp;
+
+// Block format shared by LosslessEncoder and LosslessDecoder: a FLAC-style lossless
+// codec for 16-bit mono PCM. A stream is a sequence of independent blocks, so any
+// block can be decoded on its own and a seek table can be rebuilt by hopping from
+// header to header.
+//
+// Block header, 8 bytes little endian:
+//   u16 sync "LB", u16 sample count, u32 payload bytes
+// Payload, MSB-first bits:
+//   2 bits type: verbatim, fixed predictor, LPC or constant
+//   verbatim: 16 bits per sample
+//   constant: one 16 bit sample repeated for the whole block
+//   fixed:    3 bits order (0..4), warm-up samples, residual
+//   LPC:      5 bits order - 1, 4 bits precision - 1, 5 bits shift,
+//             quantized coefficients, warm-up samples, residual
+// Residual: 4 bits partition order p, then 2^p partitions each with a 5 bit Rice
+// parameter followed by its zigzag encoded residuals. The first partition is
+// short by the predictor order, whose samples are stored as warm-up.
+public final class LosslessCodec {
+
+    public static final int HEADER_BYTES = 8;
+    public static final int MAX_BLOCK_SIZE = 65535;
+    public static final int MAX_LPC_ORDER = 32;
+
+    static final int SYNC = 0x424C; // "LB" read little endian
+
+    static final int TYPE_VERBATIM = 0;
+    static final int TYPE_FIXED = 1;
+    static final int TYPE_LPC = 2;
+    static final int TYPE_CONSTANT = 3;
+
+    static final int MAX_FIXED_ORDER = 4;
+    static final int MAX_PARTITION_ORDER = 8;
+    static final int MAX_RICE_PARAMETER = 30;
+
+    private LosslessCodec() {
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.moodproject.dsp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Random access decoder for a stream of lossless blocks (format in LosslessCodec).
+// Opening hops from header to header to build a seek table of block offsets and
+// first sample numbers; read() then decodes only the blocks a request touches and
+// keeps the last one decoded, so sequential reads decode each block once.
+// Works on any buffer, typically a memory-mapped region of a recording.
+public class LosslessDecoder {
+
+    private final ByteBuffer data;
+    private final int blockCount;
+    private final long[] blockOffsets;
+    // firstSamples[i] is the first sample of block i; the extra last entry is the total
+    private final long[] firstSamples;
+
+    // Cursor for copying out payloads, kept so decoding allocates nothing
+    private final ByteBuffer view;
+    private final BitReader reader = new BitReader();
+    private byte[] payload = new byte[0];
+    private final int[] coefficients = new int[LosslessCodec.MAX_LPC_ORDER];
+    private int[] decoded = new int[0];
+    private int decodedBlock = -1;
+    private int decodedSamples;
+
+    // The buffer's remaining bytes must hold whole blocks, e.g. as checked by scan()
+    public LosslessDecoder(ByteBuffer data) throws IOException {
+        this.data = data.slice();
+        view = this.data.duplicate();
+        int capacity = 16;
+        long[] offsets = new long[capacity];
+        long[] firsts = new long[capacity + 1];
+        int count = 0;
+        long samples = 0;
+        int position = 0;
+        int maxSamples = 0;
+        int maxPayload = 0;
+        int limit = this.data.limit();
+        while (position < limit) {
+            if (limit - position < LosslessCodec.HEADER_BYTES || syncAt(this.data, position) != LosslessCodec.SYNC) {
+                throw new IOException("Bad block header at byte " + position);
+            }
+            int blockSamples = samplesAt(this.data, position);
+            int payloadBytes = payloadAt(this.data, position);
+            long end = (long) position + LosslessCodec.HEADER_BYTES + payloadBytes;
+            if (blockSamples == 0 || payloadBytes < 0 || end > limit) {
+                throw new IOException("Bad block at byte " + position);
+            }
+            if (count == capacity) {
+                capacity *= 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                firsts = Arrays.copyOf(firsts, capacity + 1);
+            }
+            offsets[count] = position;
+            firsts[count] = samples;
+            count++;
+            samples += blockSamples;
+            maxSamples = Math.max(maxSamples, blockSamples);
+            maxPayload = Math.max(maxPayload, payloadBytes);
+            position = (int) end;
+        }
+        firsts[count] = samples;
+        // Sized for the largest block up front, so reading never grows them
+        payload = new byte[maxPayload];
+        decoded = new int[maxSamples];
+        blockCount = count;
+        blockOffsets = offsets;
+        firstSamples = firsts;
+    }
+
+    // Length in bytes of the complete blocks at the start of buffer, e.g. to find where a
+    // stream cut short by a crash ends. The buffer position is not changed.
+    public static long scan(ByteBuffer buffer, long[] samplesOut) {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        long samples = 0;
+        while (limit - position >= LosslessCodec.HEADER_BYTES && syncAt(buffer, position) == LosslessCodec.SYNC) {
+            int payloadBytes = payloadAt(buffer, position);
+            long end = (long) position + LosslessCodec.HEADER_BYTES + payloadBytes;
+            if (samplesAt(buffer, position) == 0 || payloadBytes < 0 || end > limit) {
+                break;
+            }
+            samples += samplesAt(buffer, position);
+            position = (int) end;
+        }
+        if (samplesOut != null) {
+            samplesOut[0] = samples;
+        }
+        return position - buffer.position();
+    }
+
+    // Copy up to length samples starting at sample `position`. Returns the number
+    // copied, 0 at or past the end.
+    public int read(long position, short[] dst, int offset, int length) throws IOException {
+        int copied = 0;
+        while (copied < length && position < getSampleCount()) {
+            int block = blockOf(position);
+            decodeBlock(block);
+            int from = (int) (position - firstSamples[block]);
+            int count = Math.min(length - copied, decodedSamples - from);
+            for (int i = 0; i < count; i++) {
+                dst[offset + copied + i] = (short) decoded[from + i];
+            }
+            copied += count;
+            position += count;
+        }
+        return copied;
+    }
+
+    // Decode one whole block into dst; returns its sample count
+    public int readBlock(int block, short[] dst, int offset) throws IOException {
+        decodeBlock(block);
+        for (int i = 0; i < decodedSamples; i++) {
+            dst[offset + i] = (short) decoded[i];
+        }
+        return decodedSamples;
+    }
+
+    // Block holding sample `position`, by binary search of the seek table
+    public int blockOf(long position) {
+        int index = Arrays.binarySearch(firstSamples, 0, blockCount, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private void decodeBlock(int block) throws IOException {
+        if (block == decodedBlock) {
+            return;
+        }
+        int position = (int) blockOffsets[block];
+        int n = samplesAt(data, position);
+        int length = payloadAt(data, position);
+        if (payload.length < length) {
+            payload = new byte[length];
+        }
+        if (decoded.length < n) {
+            decoded = new int[n];
+        }
+        view.position(position + LosslessCodec.HEADER_BYTES);
+        view.get(payload, 0, length);
+        reader.reset(payload, 0, length);
+
+        decodedBlock = -1;
+        try {
+            decodePayload(n);
+        } catch (IllegalStateException e) {
+            throw new IOException("Corrupt block " + block, e);
+        }
+        decodedBlock = block;
+        decodedSamples = n;
+    }
+
+    private void decodePayload(int n) throws IOException {
+        int[] x = decoded;
+        int type = reader.read(2);
+        if (type == LosslessCodec.TYPE_VERBATIM) {
+            for (int i = 0; i < n; i++) {
+                x[i] = reader.readSigned(16);
+            }
+            return;
+        }
+        if (type == LosslessCodec.TYPE_CONSTANT) {
+            Arrays.fill(x, 0, n, reader.readSigned(16));
+            return;
+        }
+
+        int order;
+        int shift = 0;
+        if (type == LosslessCodec.TYPE_FIXED) {
+            order = reader.read(3);
+            if (order > LosslessCodec.MAX_FIXED_ORDER) {
+                throw new IOException("Bad fixed order " + order);
+            }
+        } else if (type == LosslessCodec.TYPE_LPC) {
+            order = reader.read(5) + 1;
+            int precision = reader.read(4) + 1;
+            shift = reader.read(5);
+            for (int j = 0; j < order; j++) {
+                coefficients[j] = reader.readSigned(precision);
+            }
+        } else {
+            throw new IOException("Unknown block type " + type);
+        }
+        if (order > n) {
+            throw new IOException("Predictor order " + order + " exceeds block of " + n);
+        }
+        for (int i = 0; i < order; i++) {
+            x[i] = reader.readSigned(16);
+        }
+        readResidual(n, order);
+
+        if (type == LosslessCodec.TYPE_FIXED) {
+            restoreFixed(order, n);
+        } else {
+            for (int i = order; i < n; i++) {
+                long sum = 0;
+                for (int j = 0; j < order; j++) {
+                    sum += (long) coefficients[j] * x[i - 1 - j];
+                }
+                x[i] += (int) (sum >> shift);
+            }
+        }
+    }
+
+    // Residuals are written into decoded[order..n) and turned into samples in place
+    private void readResidual(int n, int order) throws IOException {
+        int partitionOrder = reader.read(4);
+        int partitions = 1 << partitionOrder;
+        int size = n >> partitionOrder;
+        if (size << partitionOrder != n || size < order) {
+            throw new IOException("Bad partition order " + partitionOrder);
+        }
+        for (int p = 0; p < partitions; p++) {
+            int k = reader.read(5);
+            int start = p == 0 ? order : p * size;
+            int end = (p + 1) * size;
+            for (int i = start; i < end; i++) {
+                decoded[i] = LosslessCodec.unzigzag(reader.readRice(k));
+            }
+        }
+    }
+
+    private void restoreFixed(int order, int n) {
+        int[] x = decoded;
+        switch (order) {
+            case 0:
+                break;
+            case 1:
+                for (int i = 1; i < n; i++) {
+                    x[i] += x[i - 1];
+                }
+                break;
+            case 2:
+                for (int i = 2; i < n; i++) {
+                    x[i] += 2 * x[i - 1] - x[i - 2];
+                }
+                break;
+            case 3:
+                for (int i = 3; i < n; i++) {
+                    x[i] += 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+                }
+                break;
+            default:
+                for (int i = 4; i < n; i++) {
+                    x[i] += 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+                }
+                break;
+        }
+    }
+
+    private static int syncAt(ByteBuffer buffer, int position) {
+        return (buffer.get(position) & 0xff) | (buffer.get(position + 1) & 0xff) << 8;
+    }
+
+    private static int samplesAt(ByteBuffer buffer, int position) {
+        return (buffer.get(position + 2) & 0xff) | (buffer.get(position + 3) & 0xff) << 8;
+    }
+
+    private static int payloadAt(ByteBuffer buffer, int position) {
+        return (buffer.get(position + 4) & 0xff) | (buffer.get(position + 5) & 0xff) << 8
+                | (buffer.get(position + 6) & 0xff) << 16 | (buffer.get(position + 7) & 0xff) << 24;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public long getSampleCount() {
+        return firstSamples[blockCount];
+    }
+
+    // First sample of a block; getFirstSample(getBlockCount()) is the total
+    public long getFirstSample(int block) {
+        return firstSamples[block];
+    }
+}
@@ -0,0 +1,481 @@
+package com.example.moodproject.dsp;
+
+import java.io.IOException;
+
+// Incremental lossless encoder for 16-bit mono PCM (format in LosslessCodec).
+// Chunks of any size are collected into fixed-size blocks; each full block is
+// encoded and handed to the sink straight away, so memory stays at one block.
+//
+// Blocks of one repeated value, such as digital silence, are stored as a single
+// sample. Otherwise the encoder tries the fixed polynomial predictors and one LPC
+// predictor (Levinson-Durbin on the Welch windowed autocorrelation, order picked
+// from the prediction error), Rice codes the residual with the best partitioning
+// and keeps whichever is smallest, falling back to verbatim samples.
+public class LosslessEncoder {
+
+    public interface BlockSink {
+        // data[0..length) is one encoded block of `samples` samples, valid only during the call
+        void onBlock(byte[] data, int length, int samples) throws IOException;
+    }
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    public static final int DEFAULT_LPC_ORDER = 12;
+
+    private static final int LPC_PRECISION = 14;
+
+    private final int blockSize;
+    private final int maxLpcOrder;
+    private final BlockSink sink;
+
+    private final int[] block;
+    private final int[] residual;
+    private final double[] windowed;
+    private final double[] autocorrelation;
+    private final double[][] lpc;
+    private final double[] lpcError;
+    private final int[] quantized;
+    private final int[] chosenQuantized;
+    private final long[] partitionSums = new long[1 << LosslessCodec.MAX_PARTITION_ORDER];
+    private final BitWriter writer;
+
+    private int filled;
+    private int pendingByte = -1;
+    private long samplesIn;
+    private long silentSamples;
+    private long bytesOut;
+    private long blocks;
+
+    public LosslessEncoder(BlockSink sink) {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_LPC_ORDER, sink);
+    }
+
+    public LosslessEncoder(int blockSize, int maxLpcOrder, BlockSink sink) {
+        if (blockSize <= 0 || blockSize > LosslessCodec.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size out of range: " + blockSize);
+        }
+        if (maxLpcOrder < 0 || maxLpcOrder > LosslessCodec.MAX_LPC_ORDER) {
+            throw new IllegalArgumentException("LPC order out of range: " + maxLpcOrder);
+        }
+        this.blockSize = blockSize;
+        this.maxLpcOrder = maxLpcOrder;
+        this.sink = sink;
+        block = new int[blockSize];
+        residual = new int[blockSize];
+        windowed = new double[blockSize];
+        autocorrelation = new double[maxLpcOrder + 1];
+        lpc = new double[maxLpcOrder + 1][maxLpcOrder + 1];
+        lpcError = new double[maxLpcOrder + 1];
+        quantized = new int[maxLpcOrder + 1];
+        chosenQuantized = new int[maxLpcOrder + 1];
+        // Room for a verbatim block, which bounds every other encoding we keep
+        writer = new BitWriter(LosslessCodec.HEADER_BYTES + 2 * blockSize + 8);
+    }
+
+    // Push 16-bit little endian PCM of any length; chunks may split samples
+    public void write(byte[] pcm, int offset, int length) throws IOException {
+        int end = offset + length;
+        if (pendingByte >= 0 && offset < end) {
+            append((short) (pendingByte | (pcm[offset] << 8)));
+            pendingByte = -1;
+            offset++;
+        }
+        while (end - offset >= 2) {
+            int samples = Math.min((end - offset) / 2, blockSize - filled);
+            for (int i = 0; i < samples; i++, offset += 2) {
+                block[filled + i] = (short) ((pcm[offset] & 0xff) | (pcm[offset + 1] << 8));
+            }
+            filled += samples;
+            samplesIn += samples;
+            if (filled == blockSize) {
+                encodeBlock();
+            }
+        }
+        if (offset < end) {
+            pendingByte = pcm[offset] & 0xff;
+        }
+    }
+
+    public void write(short[] samples, int offset, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            append(samples[offset + i]);
+        }
+    }
+
+    private void append(short sample) throws IOException {
+        block[filled++] = sample;
+        samplesIn++;
+        if (filled == blockSize) {
+            encodeBlock();
+        }
+    }
+
+    // Encode the final partial block. A dangling odd byte is dropped.
+    public void finish() throws IOException {
+        if (filled > 0) {
+            encodeBlock();
+        }
+        pendingByte = -1;
+    }
+
+    // Append a run of digital silence as run-length markers: the block in progress is
+    // closed early and the run goes out as constant blocks of up to MAX_BLOCK_SIZE
+    // samples, 11 bytes each. A dangling odd byte is dropped.
+    public void writeSilence(long samples) throws IOException {
+        if (filled > 0) {
+            encodeBlock();
+        }
+        pendingByte = -1;
+        while (samples > 0) {
+            int n = (int) Math.min(samples, LosslessCodec.MAX_BLOCK_SIZE);
+            writer.reset(LosslessCodec.HEADER_BYTES);
+            writer.write(LosslessCodec.TYPE_CONSTANT, 2);
+            writer.write(0, 16);
+            emit(n);
+            samplesIn += n;
+            silentSamples += n;
+            samples -= n;
+        }
+    }
+
+    private void encodeBlock() throws IOException {
+        int n = filled;
+        if (isConstant(n)) {
+            writer.reset(LosslessCodec.HEADER_BYTES);
+            writer.write(LosslessCodec.TYPE_CONSTANT, 2);
+            writer.write(block[0], 16);
+            emit(n);
+            return;
+        }
+        long verbatimBits = 2 + 16L * n;
+
+        // Fixed polynomial predictors
+        int bestType = LosslessCodec.TYPE_VERBATIM;
+        int bestOrder = 0;
+        long bestBits = verbatimBits;
+        for (int order = 0; order <= Math.min(LosslessCodec.MAX_FIXED_ORDER, n - 1); order++) {
+            fixedResidual(order, n);
+            long bits = 2 + 3 + 16L * order + residualBits(n, order, false);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestType = LosslessCodec.TYPE_FIXED;
+                bestOrder = order;
+            }
+        }
+
+        // One LPC predictor at the order the prediction error suggests
+        int lpcOrder = Math.min(maxLpcOrder, n - 1);
+        int shift = 0;
+        if (lpcOrder > 0 && analyze(n, lpcOrder)) {
+            int order = pickOrder(n, lpcOrder);
+            shift = quantize(lpc[order], order);
+            if (shift >= 0) {
+                lpcResidual(quantized, order, shift, n);
+                long bits = 2 + 5 + 4 + 5 + (long) LPC_PRECISION * order + 16L * order + residualBits(n, order, false);
+                if (bits < bestBits) {
+                    bestBits = bits;
+                    bestType = LosslessCodec.TYPE_LPC;
+                    bestOrder = order;
+                    System.arraycopy(quantized, 0, chosenQuantized, 0, order);
+                }
+            }
+        }
+
+        writer.reset(LosslessCodec.HEADER_BYTES);
+        writer.write(bestType, 2);
+        if (bestType == LosslessCodec.TYPE_VERBATIM) {
+            for (int i = 0; i < n; i++) {
+                writer.write(block[i], 16);
+            }
+        } else {
+            if (bestType == LosslessCodec.TYPE_FIXED) {
+                writer.write(bestOrder, 3);
+                fixedResidual(bestOrder, n);
+            } else {
+                writer.write(bestOrder - 1, 5);
+                writer.write(LPC_PRECISION - 1, 4);
+                writer.write(shift, 5);
+                for (int j = 0; j < bestOrder; j++) {
+                    writer.write(chosenQuantized[j], LPC_PRECISION);
+                }
+                lpcResidual(chosenQuantized, bestOrder, shift, n);
+            }
+            for (int i = 0; i < bestOrder; i++) {
+                writer.write(block[i], 16);
+            }
+            residualBits(n, bestOrder, true);
+        }
+        emit(n);
+    }
+
+    // Finish the payload in the writer, fill in the header and pass the block on
+    private void emit(int n) throws IOException {
+        int length = writer.finish();
+
+        byte[] out = writer.getBuffer();
+        int payload = length - LosslessCodec.HEADER_BYTES;
+        writer.putByte(0, LosslessCodec.SYNC);
+        writer.putByte(1, LosslessCodec.SYNC >>> 8);
+        writer.putByte(2, n);
+        writer.putByte(3, n >>> 8);
+        writer.putByte(4, payload);
+        writer.putByte(5, payload >>> 8);
+        writer.putByte(6, payload >>> 16);
+        writer.putByte(7, payload >>> 24);
+
+        bytesOut += length;
+        blocks++;
+        filled = 0;
+        sink.onBlock(out, length, n);
+    }
+
+    private boolean isConstant(int n) {
+        int first = block[0];
+        for (int i = 1; i < n; i++) {
+            if (block[i] != first) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void fixedResidual(int order, int n) {
+        int[] x = block;
+        for (int i = order; i < n; i++) {
+            int r;
+            switch (order) {
+                case 0:
+                    r = x[i];
+                    break;
+                case 1:
+                    r = x[i] - x[i - 1];
+                    break;
+                case 2:
+                    r = x[i] - 2 * x[i - 1] + x[i - 2];
+                    break;
+                case 3:
+                    r = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                    break;
+                default:
+                    r = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                    break;
+            }
+            residual[i] = r;
+        }
+    }
+
+    private void lpcResidual(int[] coefficients, int order, int shift, int n) {
+        int[] x = block;
+        for (int i = order; i < n; i++) {
+            long sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += (long) coefficients[j] * x[i - 1 - j];
+            }
+            residual[i] = x[i] - (int) (sum >> shift);
+        }
+    }
+
+    // Autocorrelation of the windowed block and Levinson-Durbin for orders 1..maxOrder.
+    // Returns false for silent blocks.
+    private boolean analyze(int n, int maxOrder) {
+        // Welch window
+        double center = (n - 1) / 2.0;
+        for (int i = 0; i < n; i++) {
+            double d = (i - center) / (center + 1);
+            windowed[i] = (1 - d * d) * block[i];
+        }
+        for (int lag = 0; lag <= maxOrder; lag++) {
+            double sum = 0;
+            for (int i = lag; i < n; i++) {
+                sum += windowed[i] * windowed[i - lag];
+            }
+            autocorrelation[lag] = sum;
+        }
+        if (autocorrelation[0] <= 0) {
+            return false;
+        }
+
+        double error = autocorrelation[0];
+        lpcError[0] = error;
+        for (int order = 1; order <= maxOrder; order++) {
+            double[] previous = lpc[order - 1];
+            double[] current = lpc[order];
+            double reflection = autocorrelation[order];
+            for (int j = 0; j < order - 1; j++) {
+                reflection -= previous[j] * autocorrelation[order - 1 - j];
+            }
+            reflection /= error;
+            for (int j = 0; j < order - 1; j++) {
+                current[j] = previous[j] - reflection * previous[order - 2 - j];
+            }
+            current[order - 1] = reflection;
+            error *= 1 - reflection * reflection;
+            if (error <= 0) {
+                error = 1e-12;
+            }
+            lpcError[order] = error;
+        }
+        return true;
+    }
+
+    // Order with the lowest estimated size: residual bits from the error plus coefficient overhead
+    private int pickOrder(int n, int maxOrder) {
+        // Residual variance is the signal variance scaled by the normalised prediction error
+        double variance = variance(n);
+        int best = 1;
+        double bestBits = Double.MAX_VALUE;
+        for (int order = 1; order <= maxOrder; order++) {
+            double residualVariance = lpcError[order] / lpcError[0] * variance;
+            double perSample = Math.max(0, 0.5 * Math.log(residualVariance) / Math.log(2));
+            double bits = perSample * (n - order) + order * (LPC_PRECISION + 16);
+            if (bits < bestBits) {
+                bestBits = bits;
+                best = order;
+            }
+        }
+        return best;
+    }
+
+    private double variance(int n) {
+        double sum = 0;
+        double squares = 0;
+        for (int i = 0; i < n; i++) {
+            sum += block[i];
+            squares += (double) block[i] * block[i];
+        }
+        double mean = sum / n;
+        return Math.max(1, squares / n - mean * mean);
+    }
+
+    // Quantize to LPC_PRECISION bits with error feedback. Returns the shift, or -1
+    // if the coefficients are too large to represent.
+    private int quantize(double[] coefficients, int order) {
+        double max = 0;
+        for (int j = 0; j < order; j++) {
+            max = Math.max(max, Math.abs(coefficients[j]));
+        }
+        if (max == 0 || Double.isNaN(max)) {
+            return -1;
+        }
+        int integerBits = Math.getExponent(max) + 1;
+        int shift = Math.min(31, LPC_PRECISION - 1 - integerBits);
+        if (shift < 0) {
+            return -1;
+        }
+        int limit = (1 << (LPC_PRECISION - 1)) - 1;
+        double error = 0;
+        for (int j = 0; j < order; j++) {
+            error += coefficients[j] * (1 << shift);
+            long q = Math.round(error);
+            q = Math.max(-limit - 1, Math.min(limit, q));
+            quantized[j] = (int) q;
+            error -= q;
+        }
+        return shift;
+    }
+
+    // Bits for the residual[order..n) at the best partition order. When write is set the
+    // residual is emitted with those choices instead.
+    private long residualBits(int n, int order, boolean write) {
+        int maxPartitionOrder = 0;
+        while (maxPartitionOrder < LosslessCodec.MAX_PARTITION_ORDER
+                && (n & ((2 << maxPartitionOrder) - 1)) == 0
+                && (n >> (maxPartitionOrder + 1)) > order) {
+            maxPartitionOrder++;
+        }
+
+        // Sums of the zigzag values per partition at the finest order
+        int partitions = 1 << maxPartitionOrder;
+        int partitionSize = n >> maxPartitionOrder;
+        for (int p = 0; p < partitions; p++) {
+            int start = p == 0 ? order : p * partitionSize;
+            int end = (p + 1) * partitionSize;
+            long sum = 0;
+            for (int i = start; i < end; i++) {
+                sum += LosslessCodec.zigzag(residual[i]);
+            }
+            partitionSums[p] = sum;
+        }
+
+        long bestBits = Long.MAX_VALUE;
+        int bestPartitionOrder = 0;
+        for (int partitionOrder = maxPartitionOrder; partitionOrder >= 0; partitionOrder--) {
+            int count = 1 << partitionOrder;
+            int size = n >> partitionOrder;
+            long bits = 4;
+            for (int p = 0; p < count; p++) {
+                int samples = p == 0 ? size - order : size;
+                bits += 5 + riceBits(partitionSums[p], samples);
+            }
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestPartitionOrder = partitionOrder;
+            }
+            // Merge neighbours for the next coarser order
+            for (int p = 0; p < count / 2; p++) {
+                partitionSums[p] = partitionSums[2 * p] + partitionSums[2 * p + 1];
+            }
+        }
+        if (!write) {
+            return bestBits;
+        }
+
+        // Recompute the sums at the chosen order and write
+        int count = 1 << bestPartitionOrder;
+        int size = n >> bestPartitionOrder;
+        writer.write(bestPartitionOrder, 4);
+        for (int p = 0; p < count; p++) {
+            int start = p == 0 ? order : p * size;
+            int end = (p + 1) * size;
+            long sum = 0;
+            for (int i = start; i < end; i++) {
+                sum += LosslessCodec.zigzag(residual[i]);
+            }
+            int k = riceParameter(sum, end - start);
+            writer.write(k, 5);
+            for (int i = start; i < end; i++) {
+                writer.writeRice(LosslessCodec.zigzag(residual[i]), k);
+            }
+        }
+        return bestBits;
+    }
+
+    // Estimated Rice bits for `samples` values summing to sum
+    private static long riceBits(long sum, int samples) {
+        if (samples <= 0) {
+            return 0;
+        }
+        int k = riceParameter(sum, samples);
+        return (long) samples * (k + 1) + (sum >> k);
+    }
+
+    private static int riceParameter(long sum, int samples) {
+        if (samples <= 0 || sum < samples) {
+            return 0;
+        }
+        // Optimal k is about log2 of the mean
+        int k = 63 - Long.numberOfLeadingZeros(sum / samples);
+        return Math.min(LosslessCodec.MAX_RICE_PARAMETER, k);
+    }
+
+    public long getSamplesIn() {
+        return samplesIn;
+    }
+
+    // Samples written with writeSilence()
+    public long getSilentSamples() {
+        return silentSamples;
+    }
+
+    // Encoded bytes handed to the sink, headers included
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public long getBlockCount() {
+        return blocks;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+}
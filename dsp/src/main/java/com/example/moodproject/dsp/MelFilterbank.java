@@ -0,0 +1,102 @@
+package com.example.moodproject.dsp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Triangular filters spaced evenly on the HTK mel scale, applied to a power spectrum.
+// Each filter only stores the bins it covers. Filterbanks are immutable and cached
+// per configuration.
+public final class MelFilterbank {
+
+    private static final Map<String, MelFilterbank> CACHE = new HashMap<>();
+
+    private final int bands;
+    private final int[] firstBin;
+    private final float[][] weights;
+
+    public static MelFilterbank get(int sampleRate, int fftSize, int bands, float minHz, float maxHz) {
+        String key = sampleRate + "/" + fftSize + "/" + bands + "/" + minHz + "/" + maxHz;
+        synchronized (CACHE) {
+            MelFilterbank filterbank = CACHE.get(key);
+            if (filterbank == null) {
+                filterbank = new MelFilterbank(sampleRate, fftSize, bands, minHz, maxHz);
+                CACHE.put(key, filterbank);
+            }
+            return filterbank;
+        }
+    }
+
+    private MelFilterbank(int sampleRate, int fftSize, int bands, float minHz, float maxHz) {
+        if (bands <= 0 || minHz < 0 || maxHz <= minHz || maxHz > sampleRate / 2f) {
+            throw new IllegalArgumentException("Bad mel range: " + bands + " bands, " + minHz + ".." + maxHz + " Hz");
+        }
+        this.bands = bands;
+        firstBin = new int[bands];
+        weights = new float[bands][];
+
+        // bands + 2 edge frequencies, equally spaced in mel
+        double minMel = hzToMel(minHz);
+        double maxMel = hzToMel(maxHz);
+        double[] edges = new double[bands + 2];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = melToHz(minMel + (maxMel - minMel) * i / (bands + 1));
+        }
+
+        double binHz = (double) sampleRate / fftSize;
+        int bins = fftSize / 2 + 1;
+        for (int band = 0; band < bands; band++) {
+            double left = edges[band];
+            double center = edges[band + 1];
+            double right = edges[band + 2];
+            int first = Math.max(0, (int) Math.ceil(left / binHz));
+            int last = Math.min(bins - 1, (int) Math.floor(right / binHz));
+            if (last < first) {
+                // Narrower than a bin: use the nearest bin so no band is empty
+                first = Math.min(bins - 1, (int) Math.round(center / binHz));
+                last = first;
+            }
+            float[] w = new float[last - first + 1];
+            for (int bin = first; bin <= last; bin++) {
+                double hz = bin * binHz;
+                double value = hz <= center ? (hz - left) / (center - left) : (right - hz) / (right - center);
+                w[bin - first] = (float) Math.max(0, value);
+            }
+            if (last == first) {
+                w[0] = 1;
+            }
+            firstBin[band] = first;
+            weights[band] = w;
+        }
+    }
+
+    // Mel band energies from a power spectrum of fftSize / 2 + 1 bins
+    public void apply(float[] power, float[] energies) {
+        for (int band = 0; band < bands; band++) {
+            float[] w = weights[band];
+            int first = firstBin[band];
+            float sum = 0;
+            for (int i = 0; i < w.length; i++) {
+                sum += w[i] * power[first + i];
+            }
+            energies[band] = sum;
+        }
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    // Weight of the filter for band at the given FFT bin, 0 outside the triangle
+    public float weight(int band, int bin) {
+        int index = bin - firstBin[band];
+        return index >= 0 && index < weights[band].length ? weights[band][index] : 0;
+    }
+
+    public static double hzToMel(double hz) {
+        return 2595 * Math.log10(1 + hz / 700);
+    }
+
+    public static double melToHz(double mel) {
+        return 700 * (Math.pow(10, mel / 2595) - 1);
+    }
+}
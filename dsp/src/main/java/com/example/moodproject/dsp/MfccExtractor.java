@@ -0,0 +1,102 @@
+package com.example.moodproject.dsp;
+
+// Streaming log-mel / MFCC stage. Incoming PCM chunks are sliced into overlapping
+// Hann windowed frames; each frame goes through the real FFT, the cached mel
+// filterbank, a log and the cached DCT. Results are written into arrays owned by
+// the extractor and handed to the listener, so nothing is allocated per frame.
+public class MfccExtractor {
+
+    // Floor for mel energies before the log, about -100 dB
+    private static final float LOG_FLOOR = 1e-10f;
+
+    private final FrameSlicer slicer;
+    private final RealFft fft;
+    private final float[] window;
+    private final MelFilterbank filterbank;
+    private final Dct dct;
+
+    private final float[] spectrum;
+    private final float[] power;
+    private final float[] logMel;
+    private final float[] mfcc;
+
+    // 40 bands from 20 Hz to 8 kHz and 13 coefficients, the common speech setup
+    public MfccExtractor(int sampleRate, int frameSize, int hopSize) {
+        this(sampleRate, frameSize, hopSize, 40, 13, 20, Math.min(8000, sampleRate / 2f));
+    }
+
+    public MfccExtractor(int sampleRate, int frameSize, int hopSize, int melBands, int coefficients,
+                         float minHz, float maxHz) {
+        slicer = new FrameSlicer(frameSize, hopSize);
+        fft = RealFft.forSize(frameSize);
+        window = Windows.hann(frameSize);
+        filterbank = MelFilterbank.get(sampleRate, frameSize, melBands, minHz, maxHz);
+        dct = Dct.get(melBands, coefficients);
+
+        spectrum = new float[frameSize];
+        power = new float[frameSize / 2 + 1];
+        logMel = new float[melBands];
+        mfcc = new float[coefficients];
+    }
+
+    // Push 16-bit little endian mono PCM of any length
+    public void process(byte[] pcm, int offset, int length, MfccListener listener) {
+        while (length > 0) {
+            int used = slicer.write(pcm, offset, length);
+            offset += used;
+            length -= used;
+            if (slicer.isFrameReady()) {
+                analyze(listener);
+                slicer.advance();
+            }
+        }
+    }
+
+    public void process(short[] samples, int offset, int length, MfccListener listener) {
+        while (length > 0) {
+            int used = slicer.write(samples, offset, length);
+            offset += used;
+            length -= used;
+            if (slicer.isFrameReady()) {
+                analyze(listener);
+                slicer.advance();
+            }
+        }
+    }
+
+    public void reset() {
+        slicer.reset();
+    }
+
+    private void analyze(MfccListener listener) {
+        float[] frame = slicer.getFrame();
+        for (int i = 0; i < spectrum.length; i++) {
+            spectrum[i] = frame[i] * window[i];
+        }
+        fft.forward(spectrum);
+        fft.power(spectrum, power);
+
+        filterbank.apply(power, logMel);
+        for (int band = 0; band < logMel.length; band++) {
+            logMel[band] = (float) Math.log(Math.max(logMel[band], LOG_FLOOR));
+        }
+        dct.apply(logMel, mfcc);
+        listener.onMfcc(slicer.getFrameIndex(), logMel, mfcc);
+    }
+
+    public int getMelBands() {
+        return logMel.length;
+    }
+
+    public int getCoefficients() {
+        return mfcc.length;
+    }
+
+    public int getFrameSize() {
+        return slicer.getFrameSize();
+    }
+
+    public int getHopSize() {
+        return slicer.getHopSize();
+    }
+}
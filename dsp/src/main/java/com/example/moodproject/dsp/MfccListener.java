@@ -0,0 +1,7 @@
+package com.example.moodproject.dsp;
+
+// Called once per frame with arrays owned by the extractor; copy values to keep them
+public interface MfccListener {
+
+    void onMfcc(long frameIndex, float[] logMel, float[] mfcc);
+}
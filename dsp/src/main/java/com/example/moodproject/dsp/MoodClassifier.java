@@ -0,0 +1,134 @@
+package com.example.moodproject.dsp;
+
+import java.nio.ByteBuffer;
+
+// Scores window vectors with a MoodModel. Work is done a batch at a time: each
+// int8 weight row is copied out of the mapped model once and applied to every
+// vector in the batch before moving on, so the weights are streamed once per
+// batch rather than once per vector. All scratch space is allocated up front;
+// one instance per thread.
+public class MoodClassifier {
+
+    private final MoodModel model;
+    private final int maxBatch;
+    private final ByteBuffer[] weightViews;
+    private final byte[] row;
+    private float[] current;
+    private float[] next;
+
+    public MoodClassifier(MoodModel model, int maxBatch) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxBatch);
+        }
+        this.model = model;
+        this.maxBatch = maxBatch;
+        weightViews = new ByteBuffer[model.getLayerCount()];
+        int widestInput = 0;
+        for (int l = 0; l < weightViews.length; l++) {
+            weightViews[l] = model.getLayer(l).weights.duplicate();
+            widestInput = Math.max(widestInput, model.getLayer(l).inputs);
+        }
+        row = new byte[widestInput];
+        current = new float[maxBatch * model.getWidestLayer()];
+        next = new float[maxBatch * model.getWidestLayer()];
+    }
+
+    // Score one vector; probabilities receives one value per label
+    public int classify(float[] vector, float[] probabilities) {
+        classify(vector, 0, 1, probabilities, 0);
+        return argMax(probabilities, 0, model.getLabelCount());
+    }
+
+    // Score `count` vectors stored back to back in vectors from vectorOffset.
+    // Probabilities for vector i are written at probabilitiesOffset + i * labels.
+    public void classify(float[] vectors, int vectorOffset, int count, float[] probabilities, int probabilitiesOffset) {
+        int inputs = model.getInputs();
+        int labels = model.getLabelCount();
+        for (int start = 0; start < count; start += maxBatch) {
+            int batch = Math.min(maxBatch, count - start);
+            normalise(vectors, vectorOffset + start * inputs, batch);
+            int width = inputs;
+            for (int l = 0; l < weightViews.length; l++) {
+                width = applyLayer(l, batch);
+            }
+            for (int b = 0; b < batch; b++) {
+                softmax(current, b * width, probabilities, probabilitiesOffset + (start + b) * labels, labels);
+            }
+        }
+    }
+
+    private void normalise(float[] vectors, int offset, int batch) {
+        int inputs = model.getInputs();
+        float[] mean = model.getMean();
+        float[] inverseStd = model.getInverseStd();
+        for (int b = 0; b < batch; b++) {
+            int src = offset + b * inputs;
+            int dst = b * inputs;
+            for (int i = 0; i < inputs; i++) {
+                current[dst + i] = (vectors[src + i] - mean[i]) * inverseStd[i];
+            }
+        }
+    }
+
+    // Apply layer l to the batch in `current`, leaving the result in `current`
+    private int applyLayer(int l, int batch) {
+        MoodModel.Layer layer = model.getLayer(l);
+        ByteBuffer weights = weightViews[l];
+        int inputs = layer.inputs;
+        int outputs = layer.outputs;
+        boolean relu = layer.activation == MoodModel.ACTIVATION_RELU;
+        weights.clear();
+        for (int o = 0; o < outputs; o++) {
+            weights.get(row, 0, inputs);
+            float scale = layer.scales[o];
+            float bias = layer.bias[o];
+            for (int b = 0; b < batch; b++) {
+                int base = b * inputs;
+                float sum = 0;
+                for (int i = 0; i < inputs; i++) {
+                    sum += row[i] * current[base + i];
+                }
+                float value = sum * scale + bias;
+                next[b * outputs + o] = relu && value < 0 ? 0 : value;
+            }
+        }
+        float[] swap = current;
+        current = next;
+        next = swap;
+        return outputs;
+    }
+
+    private static void softmax(float[] logits, int from, float[] dst, int to, int count) {
+        float max = logits[from];
+        for (int i = 1; i < count; i++) {
+            max = Math.max(max, logits[from + i]);
+        }
+        float sum = 0;
+        for (int i = 0; i < count; i++) {
+            float e = (float) Math.exp(logits[from + i] - max);
+            dst[to + i] = e;
+            sum += e;
+        }
+        for (int i = 0; i < count; i++) {
+            dst[to + i] /= sum;
+        }
+    }
+
+    public static int argMax(float[] values, int offset, int count) {
+        int best = 0;
+        for (int i = 1; i < count; i++) {
+            if (values[offset + i] > values[offset + best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    public MoodModel getModel() {
+        return model;
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.moodproject.dsp;
+
+// Per-frame features produced by FeatureExtractor. One instance is reused for
+// every frame, so listeners must copy values they want to keep.
+public final class MoodFeatures {
+
+    // Index of the frame within the stream, starting at 0
+    public long frameIndex;
+    // Root mean square of the samples, 0..1
+    public float rms;
+    // Fraction of adjacent sample pairs that change sign
+    public float zeroCrossingRate;
+    // Magnitude weighted mean frequency in Hz
+    public float spectralCentroid;
+    // Frequency in Hz below which 85% of the spectral energy lies
+    public float spectralRolloff;
+    // Positive spectral change since the previous frame
+    public float spectralFlux;
+    // Fundamental frequency in Hz, 0 when the frame is unvoiced
+    public float pitch;
+
+    public void copyFrom(MoodFeatures other) {
+        frameIndex = other.frameIndex;
+        rms = other.rms;
+        zeroCrossingRate = other.zeroCrossingRate;
+        spectralCentroid = other.spectralCentroid;
+        spectralRolloff = other.spectralRolloff;
+        spectralFlux = other.spectralFlux;
+        pitch = other.pitch;
+    }
+
+    @Override
+    public String toString() {
+        return "MoodFeatures{frame=" + frameIndex + ", rms=" + rms + ", zcr=" + zeroCrossingRate
+                + ", centroid=" + spectralCentroid + ", rolloff=" + spectralRolloff
+                + ", flux=" + spectralFlux + ", pitch=" + pitch + "}";
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.moodproject.dsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+// A small feed-forward mood classifier with int8 weights, memory-mapped from a
+// compact binary file. Weights stay in the mapped region and are read in place,
+// so loading costs one header parse regardless of model size. Immutable and safe
+// to share between threads; scoring state lives in MoodClassifier.
+//
+// File layout, all little endian:
+//   int magic "MOOD", int version, int inputs, int layers, int labels
+//   labels:    short byteLength + UTF-8 bytes each
+//   normalise: float[inputs] mean, float[inputs] inverse std
+//   per layer: int inputs, int outputs, int activation,
+//              float[outputs] row scales, float[outputs] bias,
+//              byte[outputs * inputs] weights row major, zero padded to 4 bytes
+// A weight's real value is weight * scale of its output row. The last layer's
+// outputs are the label logits.
+public final class MoodModel {
+
+    static final int MAGIC = 0x444F4F4D; // "MOOD" read little endian
+    static final int VERSION = 1;
+
+    public static final int ACTIVATION_LINEAR = 0;
+    public static final int ACTIVATION_RELU = 1;
+
+    private final int inputs;
+    private final String[] labels;
+    private final float[] mean;
+    private final float[] inverseStd;
+    private final Layer[] layers;
+    private final int widestLayer;
+
+    static final class Layer {
+        final int inputs;
+        final int outputs;
+        final int activation;
+        final float[] scales;
+        final float[] bias;
+        // Slice of the mapped file, outputs x inputs int8
+        final ByteBuffer weights;
+
+        Layer(int inputs, int outputs, int activation, float[] scales, float[] bias, ByteBuffer weights) {
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.activation = activation;
+            this.scales = scales;
+            this.bias = bias;
+            this.weights = weights;
+        }
+    }
+
+    public static MoodModel load(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed
+            return map(channel, 0, channel.size());
+        }
+    }
+
+    // Map a model stored inside a larger file, e.g. an uncompressed APK asset
+    public static MoodModel map(FileChannel channel, long offset, long length) throws IOException {
+        return parse(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+    }
+
+    // Parse a model from any buffer; used for mapped files and in-memory models alike
+    public static MoodModel parse(ByteBuffer buffer) throws IOException {
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a mood model");
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported mood model version " + version);
+            }
+            int inputs = in.getInt();
+            int layerCount = in.getInt();
+            int labelCount = in.getInt();
+            if (inputs <= 0 || layerCount <= 0 || labelCount <= 0) {
+                throw new IOException("Bad model dimensions");
+            }
+
+            String[] labels = new String[labelCount];
+            for (int i = 0; i < labelCount; i++) {
+                byte[] utf8 = new byte[in.getShort() & 0xFFFF];
+                in.get(utf8);
+                labels[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+            float[] mean = readFloats(in, inputs);
+            float[] inverseStd = readFloats(in, inputs);
+
+            Layer[] layers = new Layer[layerCount];
+            int previousOutputs = inputs;
+            for (int l = 0; l < layerCount; l++) {
+                int layerInputs = in.getInt();
+                int outputs = in.getInt();
+                int activation = in.getInt();
+                if (layerInputs != previousOutputs || outputs <= 0
+                        || (activation != ACTIVATION_LINEAR && activation != ACTIVATION_RELU)) {
+                    throw new IOException("Bad layer " + l + ": " + layerInputs + "x" + outputs);
+                }
+                float[] scales = readFloats(in, outputs);
+                float[] bias = readFloats(in, outputs);
+                int weightBytes = layerInputs * outputs;
+                ByteBuffer weights = in.slice();
+                weights.limit(weightBytes);
+                in.position(in.position() + padded(weightBytes));
+                layers[l] = new Layer(layerInputs, outputs, activation, scales, bias, weights);
+                previousOutputs = outputs;
+            }
+            if (previousOutputs != labelCount) {
+                throw new IOException("Model has " + previousOutputs + " outputs for " + labelCount + " labels");
+            }
+            return new MoodModel(inputs, labels, mean, inverseStd, layers);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException, IllegalArgumentException from a short or corrupt file
+            throw new IOException("Truncated or corrupt mood model", e);
+        }
+    }
+
+    private MoodModel(int inputs, String[] labels, float[] mean, float[] inverseStd, Layer[] layers) {
+        this.inputs = inputs;
+        this.labels = labels;
+        this.mean = mean;
+        this.inverseStd = inverseStd;
+        this.layers = layers;
+        int widest = inputs;
+        for (Layer layer : layers) {
+            widest = Math.max(widest, layer.outputs);
+        }
+        this.widestLayer = widest;
+    }
+
+    private static float[] readFloats(ByteBuffer in, int count) {
+        float[] values = new float[count];
+        in.asFloatBuffer().get(values);
+        in.position(in.position() + 4 * count);
+        return values;
+    }
+
+    static int padded(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+
+    public int getInputs() {
+        return inputs;
+    }
+
+    public int getLabelCount() {
+        return labels.length;
+    }
+
+    public String getLabel(int index) {
+        return labels[index];
+    }
+
+    public int getLayerCount() {
+        return layers.length;
+    }
+
+    Layer getLayer(int index) {
+        return layers[index];
+    }
+
+    float[] getMean() {
+        return mean;
+    }
+
+    float[] getInverseStd() {
+        return inverseStd;
+    }
+
+    int getWidestLayer() {
+        return widestLayer;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.moodproject.dsp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Builds a MoodModel file from float weights, e.g. exported from training.
+// Each output row is quantized symmetrically to int8 with its own scale
+// (max |w| / 127), which keeps the error per row below half a step.
+public class MoodModelWriter {
+
+    private final int inputs;
+    private final String[] labels;
+    private final float[] mean;
+    private final float[] inverseStd;
+    private final List<float[][]> weights = new ArrayList<>();
+    private final List<float[]> biases = new ArrayList<>();
+    private final List<Integer> activations = new ArrayList<>();
+    private int lastOutputs;
+
+    // Input i is normalised as (x - mean[i]) * inverseStd[i] before the first layer
+    public MoodModelWriter(String[] labels, float[] mean, float[] inverseStd) {
+        if (mean.length != inverseStd.length) {
+            throw new IllegalArgumentException("Mean and scale lengths differ");
+        }
+        this.inputs = mean.length;
+        this.labels = labels.clone();
+        this.mean = mean.clone();
+        this.inverseStd = inverseStd.clone();
+        this.lastOutputs = inputs;
+    }
+
+    // weights[output][input]; layers are applied in the order they are added
+    public MoodModelWriter addLayer(float[][] layerWeights, float[] bias, int activation) {
+        if (layerWeights.length != bias.length) {
+            throw new IllegalArgumentException("Need one bias per output row");
+        }
+        for (float[] row : layerWeights) {
+            if (row.length != lastOutputs) {
+                throw new IllegalArgumentException("Layer expects " + lastOutputs + " inputs, row has " + row.length);
+            }
+        }
+        weights.add(layerWeights);
+        biases.add(bias.clone());
+        activations.add(activation);
+        lastOutputs = layerWeights.length;
+        return this;
+    }
+
+    public ByteBuffer toBuffer() {
+        if (weights.isEmpty() || lastOutputs != labels.length) {
+            throw new IllegalStateException("Last layer must have one output per label");
+        }
+        byte[][] encodedLabels = new byte[labels.length][];
+        int size = 20 + 8 * inputs;
+        for (int i = 0; i < labels.length; i++) {
+            encodedLabels[i] = labels[i].getBytes(StandardCharsets.UTF_8);
+            size += 2 + encodedLabels[i].length;
+        }
+        for (float[][] layer : weights) {
+            size += 12 + 8 * layer.length + MoodModel.padded(layer.length * layer[0].length);
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MoodModel.MAGIC).putInt(MoodModel.VERSION)
+                .putInt(inputs).putInt(weights.size()).putInt(labels.length);
+        for (byte[] label : encodedLabels) {
+            out.putShort((short) label.length).put(label);
+        }
+        putFloats(out, mean);
+        putFloats(out, inverseStd);
+
+        for (int l = 0; l < weights.size(); l++) {
+            float[][] layer = weights.get(l);
+            int outputs = layer.length;
+            int layerInputs = layer[0].length;
+            out.putInt(layerInputs).putInt(outputs).putInt(activations.get(l));
+
+            float[] scales = new float[outputs];
+            for (int o = 0; o < outputs; o++) {
+                float max = 0;
+                for (float w : layer[o]) {
+                    max = Math.max(max, Math.abs(w));
+                }
+                scales[o] = max > 0 ? max / 127f : 1f;
+            }
+            putFloats(out, scales);
+            putFloats(out, biases.get(l));
+            for (int o = 0; o < outputs; o++) {
+                for (float w : layer[o]) {
+                    out.put((byte) Math.max(-127, Math.min(127, Math.round(w / scales[o]))));
+                }
+            }
+            out.position(out.position() + MoodModel.padded(outputs * layerInputs) - outputs * layerInputs);
+        }
+        out.flip();
+        return out;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer buffer = toBuffer();
+        out.write(buffer.array(), 0, buffer.limit());
+    }
+
+    public void writeTo(File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            writeTo(out);
+        }
+    }
+
+    private static void putFloats(ByteBuffer out, float[] values) {
+        for (float value : values) {
+            out.putFloat(value);
+        }
+    }
+}
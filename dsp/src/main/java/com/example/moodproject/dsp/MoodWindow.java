@@ -0,0 +1,127 @@
+package com.example.moodproject.dsp;
+
+import java.util.Arrays;
+
+// Summarises the frames of one analysis window (typically one second) into the
+// fixed-length vector the mood classifier scores: mean and standard deviation of
+// every frame feature and MFCC coefficient, plus the fraction of voiced frames.
+// Frames from FeatureExtractor and MfccExtractor are added separately; the window
+// is complete once both have delivered framesPerWindow frames.
+public class MoodWindow implements FeatureListener, MfccListener {
+
+    // rms, zero crossings, centroid, rolloff, flux, pitch
+    private static final int FRAME_FEATURES = 6;
+
+    private final int framesPerWindow;
+    private final int coefficients;
+    private final double[] featureSum = new double[FRAME_FEATURES];
+    private final double[] featureSquares = new double[FRAME_FEATURES];
+    private final double[] mfccSum;
+    private final double[] mfccSquares;
+    private int featureFrames;
+    private int mfccFrames;
+    private int voicedFrames;
+
+    public MoodWindow(int framesPerWindow, int coefficients) {
+        if (framesPerWindow <= 0) {
+            throw new IllegalArgumentException("Window needs at least one frame: " + framesPerWindow);
+        }
+        this.framesPerWindow = framesPerWindow;
+        this.coefficients = coefficients;
+        mfccSum = new double[coefficients];
+        mfccSquares = new double[coefficients];
+    }
+
+    // Frames per window for the given hop, rounded to the nearest frame
+    public static int framesFor(int sampleRate, int hopSize, int windowMs) {
+        return Math.max(1, Math.round((float) sampleRate * windowMs / 1000 / hopSize));
+    }
+
+    // Length of the vector produced for a given number of MFCC coefficients
+    public static int vectorSize(int coefficients) {
+        return 2 * FRAME_FEATURES + 1 + 2 * coefficients;
+    }
+
+    @Override
+    public void onFeatures(MoodFeatures features) {
+        if (featureFrames == framesPerWindow) {
+            return; // window full, waiting for the MFCC side
+        }
+        add(0, features.rms);
+        add(1, features.zeroCrossingRate);
+        add(2, features.spectralCentroid);
+        add(3, features.spectralRolloff);
+        add(4, features.spectralFlux);
+        if (features.pitch > 0) {
+            add(5, features.pitch);
+            voicedFrames++;
+        }
+        featureFrames++;
+    }
+
+    @Override
+    public void onMfcc(long frameIndex, float[] logMel, float[] mfcc) {
+        if (mfccFrames == framesPerWindow) {
+            return;
+        }
+        for (int i = 0; i < coefficients; i++) {
+            mfccSum[i] += mfcc[i];
+            mfccSquares[i] += mfcc[i] * mfcc[i];
+        }
+        mfccFrames++;
+    }
+
+    private void add(int index, float value) {
+        featureSum[index] += value;
+        featureSquares[index] += value * value;
+    }
+
+    public boolean isComplete() {
+        return featureFrames == framesPerWindow && mfccFrames == framesPerWindow;
+    }
+
+    // Write the window's vector into dst at offset and start the next window.
+    // Pitch statistics only cover voiced frames.
+    public void drainTo(float[] dst, int offset) {
+        int out = offset;
+        for (int i = 0; i < FRAME_FEATURES; i++) {
+            int count = i == 5 ? voicedFrames : featureFrames;
+            out = putStats(dst, out, featureSum[i], featureSquares[i], count);
+        }
+        dst[out++] = featureFrames > 0 ? (float) voicedFrames / featureFrames : 0;
+        for (int i = 0; i < coefficients; i++) {
+            out = putStats(dst, out, mfccSum[i], mfccSquares[i], mfccFrames);
+        }
+        reset();
+    }
+
+    private static int putStats(float[] dst, int out, double sum, double squares, int count) {
+        if (count == 0) {
+            dst[out] = 0;
+            dst[out + 1] = 0;
+        } else {
+            double mean = sum / count;
+            dst[out] = (float) mean;
+            dst[out + 1] = (float) Math.sqrt(Math.max(0, squares / count - mean * mean));
+        }
+        return out + 2;
+    }
+
+    public void reset() {
+        Arrays.fill(featureSum, 0);
+        Arrays.fill(featureSquares, 0);
+        Arrays.fill(mfccSum, 0);
+        Arrays.fill(mfccSquares, 0);
+        featureFrames = 0;
+        mfccFrames = 0;
+        voicedFrames = 0;
+    }
+
+    public int getFramesPerWindow() {
+        return framesPerWindow;
+    }
+
+    public int getVectorSize() {
+        return vectorSize(coefficients);
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.moodproject.dsp;
+
+// Conversions for 16-bit little endian PCM into caller-owned arrays
+public final class Pcm16 {
+
+    public static final int BYTES_PER_SAMPLE = 2;
+    public static final float SCALE = 1f / 32768f;
+
+    private Pcm16() {
+    }
+
+    // Decode `samples` values starting at src[offset] into dst as floats in [-1, 1)
+    public static void toFloat(byte[] src, int offset, float[] dst, int dstOffset, int samples) {
+        for (int i = 0; i < samples; i++) {
+            int index = offset + i * BYTES_PER_SAMPLE;
+            dst[dstOffset + i] = (short) ((src[index] & 0xff) | (src[index + 1] << 8)) * SCALE;
+        }
+    }
+
+    public static void toShort(byte[] src, int offset, short[] dst, int dstOffset, int samples) {
+        for (int i = 0; i < samples; i++) {
+            int index = offset + i * BYTES_PER_SAMPLE;
+            dst[dstOffset + i] = (short) ((src[index] & 0xff) | (src[index + 1] << 8));
+        }
+    }
+
+    public static short sampleAt(byte[] src, int offset) {
+        return (short) ((src[offset] & 0xff) | (src[offset + 1] << 8));
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.moodproject.dsp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Streaming sample rate conversion by a rational ratio L/M (44.1 kHz to 16 kHz is
+// 160/441). Conceptually the input is upsampled by L, low-pass filtered and decimated
+// by M; the polyphase form only computes the outputs that are kept, each a dot
+// product of one of the L filter phases with the most recent input samples.
+//
+// The prototype filter is a Kaiser windowed sinc. The passband ends at
+// passbandFraction of the lower Nyquist frequency and the stopband starts at that
+// Nyquist frequency, so nothing above the output band can alias into it. Taps follow
+// from the attenuation and transition width (Kaiser's formula). Filter banks are
+// immutable and cached per configuration.
+//
+// Input of any size is accepted; the last taps of history carry over to the next
+// call. Every buffer is allocated in the constructor, so processing allocates nothing.
+public class PolyphaseResampler {
+
+    public static final float DEFAULT_PASSBAND = 0.8f;
+    public static final float DEFAULT_ATTENUATION_DB = 80;
+
+    // Input samples handled per pass before the history is moved down
+    private static final int BLOCK = 1024;
+
+    private static final Map<String, FilterBank> CACHE = new HashMap<>();
+
+    private final int inputRate;
+    private final int outputRate;
+    private final FilterBank bank;
+    private final int up;
+    private final int down;
+    private final int taps;
+    private final float[][] phases;
+    private final float[] history;
+
+    private int filled;
+    // Index in history of the newest sample the next output uses, and that output's phase
+    private int position;
+    private int phase;
+    private int pendingByte = -1;
+    private long samplesOut;
+
+    public PolyphaseResampler(int inputRate, int outputRate) {
+        this(inputRate, outputRate, DEFAULT_PASSBAND, DEFAULT_ATTENUATION_DB);
+    }
+
+    public PolyphaseResampler(int inputRate, int outputRate, float passbandFraction, float attenuationDb) {
+        if (inputRate <= 0 || outputRate <= 0) {
+            throw new IllegalArgumentException("Bad rates: " + inputRate + " -> " + outputRate);
+        }
+        if (passbandFraction <= 0 || passbandFraction >= 1 || attenuationDb < 20) {
+            throw new IllegalArgumentException("Bad filter: passband " + passbandFraction + ", " + attenuationDb + " dB");
+        }
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        bank = FilterBank.get(inputRate, outputRate, passbandFraction, attenuationDb);
+        up = bank.up;
+        down = bank.down;
+        taps = bank.taps;
+        phases = bank.phases;
+        history = new float[taps - 1 + BLOCK];
+        reset();
+    }
+
+    // Most outputs `inputSamples` more input can produce
+    public int maxOutput(int inputSamples) {
+        return (int) (((long) inputSamples * up + down - 1) / down) + 1;
+    }
+
+    // Resample floats; out needs room for maxOutput(length). Returns the samples written.
+    public int process(float[] in, int offset, int length, float[] out, int outOffset) {
+        int start = outOffset;
+        while (length > 0) {
+            int count = Math.min(length, history.length - filled);
+            System.arraycopy(in, offset, history, filled, count);
+            filled += count;
+            offset += count;
+            length -= count;
+            outOffset = drain(out, outOffset);
+        }
+        return outOffset - start;
+    }
+
+    // Resample 16-bit little endian PCM into out, rounded and clipped; out needs room
+    // for 2 * maxOutput(length / 2 + 1) bytes. A trailing odd byte is kept for the next
+    // call. Returns the bytes written.
+    public int process(byte[] pcm, int offset, int length, byte[] out, int outOffset) {
+        int start = outOffset;
+        int end = offset + length;
+        if (pendingByte >= 0 && offset < end) {
+            history[filled++] = (short) (pendingByte | (pcm[offset] << 8)) * Pcm16.SCALE;
+            pendingByte = -1;
+            offset++;
+            outOffset = drain(out, outOffset);
+        }
+        while (end - offset >= Pcm16.BYTES_PER_SAMPLE) {
+            int count = Math.min((end - offset) / Pcm16.BYTES_PER_SAMPLE, history.length - filled);
+            Pcm16.toFloat(pcm, offset, history, filled, count);
+            filled += count;
+            offset += count * Pcm16.BYTES_PER_SAMPLE;
+            outOffset = drain(out, outOffset);
+        }
+        if (offset < end) {
+            pendingByte = pcm[offset] & 0xff;
+        }
+        return outOffset - start;
+    }
+
+    // Every output the history allows, then drop the history no later output needs
+    private int drain(float[] out, int outOffset) {
+        while (position < filled) {
+            out[outOffset++] = dot(phases[phase], position - taps + 1);
+            advance();
+        }
+        compact();
+        return outOffset;
+    }
+
+    private int drain(byte[] out, int outOffset) {
+        while (position < filled) {
+            int sample = Math.round(dot(phases[phase], position - taps + 1) * 32768f);
+            sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+            out[outOffset++] = (byte) sample;
+            out[outOffset++] = (byte) (sample >> 8);
+            advance();
+        }
+        compact();
+        return outOffset;
+    }
+
+    private float dot(float[] coefficients, int from) {
+        float sum = 0;
+        for (int k = 0; k < taps; k++) {
+            sum += coefficients[k] * history[from + k];
+        }
+        return sum;
+    }
+
+    private void advance() {
+        phase += down;
+        position += phase / up;
+        phase %= up;
+        samplesOut++;
+    }
+
+    private void compact() {
+        int oldest = Math.min(position - taps + 1, filled);
+        if (oldest > 0) {
+            System.arraycopy(history, oldest, history, 0, filled - oldest);
+            filled -= oldest;
+            position -= oldest;
+        }
+    }
+
+    // Forget the stream so far; the next input starts after silence
+    public void reset() {
+        Arrays.fill(history, 0);
+        filled = taps - 1;
+        position = taps - 1;
+        phase = 0;
+        pendingByte = -1;
+        samplesOut = 0;
+    }
+
+    public int getInputRate() {
+        return inputRate;
+    }
+
+    public int getOutputRate() {
+        return outputRate;
+    }
+
+    // Filter taps per output sample
+    public int getTaps() {
+        return taps;
+    }
+
+    // Group delay of the filter, in output samples
+    public double getDelay() {
+        return (bank.length - 1) / 2.0 / down;
+    }
+
+    public long getSamplesOut() {
+        return samplesOut;
+    }
+
+    // The ratio reduced to lowest terms, up/down
+    public int getUp() {
+        return up;
+    }
+
+    public int getDown() {
+        return down;
+    }
+
+    // Polyphase decomposition of the prototype low-pass, phases stored in the order
+    // they meet the history so the inner loop runs forward
+    static final class FilterBank {
+
+        final int up;
+        final int down;
+        final int taps;
+        final int length;
+        final float[][] phases;
+
+        static FilterBank get(int inputRate, int outputRate, float passbandFraction, float attenuationDb) {
+            String key = inputRate + "/" + outputRate + "/" + passbandFraction + "/" + attenuationDb;
+            synchronized (CACHE) {
+                FilterBank bank = CACHE.get(key);
+                if (bank == null) {
+                    bank = new FilterBank(inputRate, outputRate, passbandFraction, attenuationDb);
+                    CACHE.put(key, bank);
+                }
+                return bank;
+            }
+        }
+
+        private FilterBank(int inputRate, int outputRate, float passbandFraction, float attenuationDb) {
+            int gcd = gcd(inputRate, outputRate);
+            up = outputRate / gcd;
+            down = inputRate / gcd;
+
+            // Band edges in Hz, then Kaiser's estimate of the taps each phase needs
+            double nyquist = Math.min(inputRate, outputRate) / 2.0;
+            double passHz = passbandFraction * nyquist;
+            double transitionHz = nyquist - passHz;
+            int estimate = (int) Math.ceil((attenuationDb - 8) * inputRate / (2.285 * 2 * Math.PI * transitionHz));
+            // Each output must still see every input sample it steps over
+            taps = Math.max(estimate, (down + up - 1) / up + 1);
+            length = taps * up;
+
+            double beta = attenuationDb > 50 ? 0.1102 * (attenuationDb - 8.7)
+                    : 0.5842 * Math.pow(attenuationDb - 21, 0.4) + 0.07886 * (attenuationDb - 21);
+            // Cutoff midway through the transition band, relative to the upsampled rate
+            double cutoff = (passHz + nyquist) / 2 / ((double) inputRate * up);
+            double center = (length - 1) / 2.0;
+            double[] prototype = new double[length];
+            double sum = 0;
+            for (int n = 0; n < length; n++) {
+                double t = n - center;
+                double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+                double ratio = 2 * t / (length - 1);
+                double window = bessel0(beta * Math.sqrt(Math.max(0, 1 - ratio * ratio))) / bessel0(beta);
+                prototype[n] = sinc * window;
+                sum += prototype[n];
+            }
+            // Unity gain at DC after upsampling by `up`
+            double gain = up / sum;
+
+            phases = new float[up][taps];
+            for (int p = 0; p < up; p++) {
+                for (int k = 0; k < taps; k++) {
+                    // phases[p][taps - 1 - k] multiplies the input k samples back
+                    phases[p][taps - 1 - k] = (float) (prototype[p + k * up] * gain);
+                }
+            }
+        }
+
+        private static int gcd(int a, int b) {
+            while (b != 0) {
+                int t = a % b;
+                a = b;
+                b = t;
+            }
+            return a;
+        }
+
+        // Modified Bessel function of the first kind, order 0, by its power series
+        private static double bessel0(double x) {
+            double sum = 1;
+            double term = 1;
+            double half = x / 2;
+            for (int k = 1; k < 50; k++) {
+                term *= half / k;
+                double square = term * term;
+                sum += square;
+                if (square < sum * 1e-16) {
+                    break;
+                }
+            }
+            return sum;
+        }
+    }
+}
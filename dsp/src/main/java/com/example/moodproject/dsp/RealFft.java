@@ -0,0 +1,183 @@
+package com.example.moodproject.dsp;
+
+// In-place FFT of real float frames for power-of-two sizes from MIN_SIZE to MAX_SIZE.
+// A size-n real transform runs as an n/2 point complex FFT followed by a split step,
+// using twiddle and bit-reversal tables built once per size and shared by every caller.
+//
+// Packed spectrum layout after forward(), as in most real FFT libraries:
+//   data[0] = Re X[0] (DC), data[1] = Re X[n/2] (Nyquist),
+//   data[2k] = Re X[k], data[2k + 1] = Im X[k] for 0 < k < n/2
+public final class RealFft {
+
+    public static final int MIN_SIZE = 256;
+    public static final int MAX_SIZE = 4096;
+
+    private static final RealFft[] CACHE = new RealFft[Integer.numberOfTrailingZeros(MAX_SIZE) + 1];
+
+    private final int size;
+    private final int half;
+    // cos/sin(2 pi k / size) for 0 <= k <= size / 2
+    private final float[] cos;
+    private final float[] sin;
+    // Bit reversal swaps for the size / 2 point complex FFT, as index pairs
+    private final int[] swaps;
+
+    // Shared instance for the size; instances are immutable and thread safe
+    public static RealFft forSize(int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two in "
+                    + MIN_SIZE + ".." + MAX_SIZE + ": " + size);
+        }
+        int index = Integer.numberOfTrailingZeros(size);
+        synchronized (CACHE) {
+            if (CACHE[index] == null) {
+                CACHE[index] = new RealFft(size);
+            }
+            return CACHE[index];
+        }
+    }
+
+    private RealFft(int size) {
+        this.size = size;
+        this.half = size / 2;
+        cos = new float[half + 1];
+        sin = new float[half + 1];
+        for (int k = 0; k <= half; k++) {
+            double angle = 2 * Math.PI * k / size;
+            cos[k] = (float) Math.cos(angle);
+            sin[k] = (float) Math.sin(angle);
+        }
+
+        int bits = Integer.numberOfTrailingZeros(half);
+        int count = 0;
+        int[] pairs = new int[half];
+        for (int i = 0; i < half; i++) {
+            int j = Integer.reverse(i) >>> (32 - bits);
+            if (j > i) {
+                pairs[count++] = i;
+                pairs[count++] = j;
+            }
+        }
+        swaps = new int[count];
+        System.arraycopy(pairs, 0, swaps, 0, count);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Transform size real samples into the packed spectrum, in place
+    public void forward(float[] data) {
+        complexFft(data, -1);
+
+        // Split the n/2 point result into the spectrum of the real input
+        float dc = data[0] + data[1];
+        float nyquist = data[0] - data[1];
+        data[0] = dc;
+        data[1] = nyquist;
+        for (int k = 1; k <= half / 2; k++) {
+            int a = 2 * k;
+            int b = 2 * (half - k);
+            float evenRe = 0.5f * (data[a] + data[b]);
+            float evenIm = 0.5f * (data[a + 1] - data[b + 1]);
+            float oddRe = 0.5f * (data[a + 1] + data[b + 1]);
+            float oddIm = -0.5f * (data[a] - data[b]);
+            // T = W^k * odd with W = e^(-2 pi i / n)
+            float wr = cos[k];
+            float wi = -sin[k];
+            float tRe = wr * oddRe - wi * oddIm;
+            float tIm = wr * oddIm + wi * oddRe;
+            data[a] = evenRe + tRe;
+            data[a + 1] = evenIm + tIm;
+            data[b] = evenRe - tRe;
+            data[b + 1] = -(evenIm - tIm);
+        }
+    }
+
+    // Transform a packed spectrum back into size real samples, in place
+    public void inverse(float[] data) {
+        float dc = data[0];
+        float nyquist = data[1];
+        data[0] = 0.5f * (dc + nyquist);
+        data[1] = 0.5f * (dc - nyquist);
+        for (int k = 1; k <= half / 2; k++) {
+            int a = 2 * k;
+            int b = 2 * (half - k);
+            float evenRe = 0.5f * (data[a] + data[b]);
+            float evenIm = 0.5f * (data[a + 1] - data[b + 1]);
+            float tRe = 0.5f * (data[a] - data[b]);
+            float tIm = 0.5f * (data[a + 1] + data[b + 1]);
+            // odd = T * conj(W^k), then Z[k] = even + i * odd
+            float wr = cos[k];
+            float wi = sin[k];
+            float oddRe = tRe * wr - tIm * wi;
+            float oddIm = tRe * wi + tIm * wr;
+            data[a] = evenRe - oddIm;
+            data[a + 1] = evenIm + oddRe;
+            data[b] = evenRe + oddIm;
+            data[b + 1] = -evenIm + oddRe;
+        }
+
+        complexFft(data, 1);
+        float scale = 1f / half;
+        for (int i = 0; i < size; i++) {
+            data[i] *= scale;
+        }
+    }
+
+    // |X[k]|^2 for 0 <= k <= size / 2 from a packed spectrum
+    public void power(float[] packed, float[] power) {
+        power[0] = packed[0] * packed[0];
+        power[half] = packed[1] * packed[1];
+        for (int k = 1; k < half; k++) {
+            float re = packed[2 * k];
+            float im = packed[2 * k + 1];
+            power[k] = re * re + im * im;
+        }
+    }
+
+    // |X[k]| for 0 <= k <= size / 2 from a packed spectrum
+    public void magnitude(float[] packed, float[] magnitude) {
+        magnitude[0] = Math.abs(packed[0]);
+        magnitude[half] = Math.abs(packed[1]);
+        for (int k = 1; k < half; k++) {
+            float re = packed[2 * k];
+            float im = packed[2 * k + 1];
+            magnitude[k] = (float) Math.sqrt(re * re + im * im);
+        }
+    }
+
+    // Radix-2 decimation in time over size / 2 interleaved complex values.
+    // sign -1 is the forward transform, +1 the unscaled inverse.
+    private void complexFft(float[] data, int sign) {
+        for (int i = 0; i < swaps.length; i += 2) {
+            int a = 2 * swaps[i];
+            int b = 2 * swaps[i + 1];
+            float re = data[a];
+            float im = data[a + 1];
+            data[a] = data[b];
+            data[a + 1] = data[b + 1];
+            data[b] = re;
+            data[b + 1] = im;
+        }
+
+        for (int span = 2; span <= half; span <<= 1) {
+            int halfSpan = span >> 1;
+            int step = size / span;
+            for (int k = 0; k < halfSpan; k++) {
+                float wr = cos[k * step];
+                float wi = sign * sin[k * step];
+                for (int start = k; start < half; start += span) {
+                    int a = 2 * start;
+                    int b = 2 * (start + halfSpan);
+                    float tRe = wr * data[b] - wi * data[b + 1];
+                    float tIm = wr * data[b + 1] + wi * data[b];
+                    data[b] = data[a] - tRe;
+                    data[b + 1] = data[a + 1] - tIm;
+                    data[a] += tRe;
+                    data[a + 1] += tIm;
+                }
+            }
+        }
+    }
+}
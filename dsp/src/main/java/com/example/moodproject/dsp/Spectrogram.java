@@ -0,0 +1,115 @@
+package com.example.moodproject.dsp;
+
+// Rolling spectrogram of a 16-bit little endian PCM stream: every hopSize samples, a
+// Hann windowed FFT of the last fftSize samples becomes one column of `rows` levels,
+// ready to be drawn as pixels. Rows split the spectrum into log spaced bands from
+// MIN_HZ up to Nyquist, lowest first, so speech gets most of the rows; each takes the
+// loudest bin in its band. Levels run from 0 at floorDb to 255 at a full scale sine.
+// Chunks may split samples; nothing is allocated after construction.
+public class Spectrogram {
+
+    // Called on the processing thread once per column; levels are reused
+    public interface ColumnListener {
+        void onColumn(long column, byte[] levels);
+    }
+
+    public static final float MIN_HZ = 50;
+
+    private final int sampleRate;
+    private final int rows;
+    private final float floorDb;
+    private final FrameSlicer slicer;
+    private final RealFft fft;
+    private final float[] window;
+    private final float[] spectrum;
+    private final float[] power;
+    // First FFT bin of each row; bandStart[rows] is one past the last bin used
+    private final int[] bandStart;
+    private final byte[] levels;
+    // Power of a full scale sine's peak bin, after the window
+    private final float fullScalePower;
+
+    public Spectrogram(int sampleRate, int fftSize, int hopSize, int rows, float floorDb) {
+        if (rows <= 0 || rows > fftSize / 2 || floorDb >= 0) {
+            throw new IllegalArgumentException("Need 0 < rows <= " + fftSize / 2 + " and floor below 0 dB: "
+                    + rows + " rows, " + floorDb + " dB");
+        }
+        this.sampleRate = sampleRate;
+        this.rows = rows;
+        this.floorDb = floorDb;
+        slicer = new FrameSlicer(fftSize, hopSize);
+        fft = RealFft.forSize(fftSize);
+        window = Windows.hann(fftSize);
+        spectrum = new float[fftSize];
+        power = new float[fftSize / 2 + 1];
+        levels = new byte[rows];
+        float amplitude = fftSize / 4f;
+        fullScalePower = amplitude * amplitude;
+
+        // Log spaced band edges, each band at least one bin wide, ending at Nyquist
+        int half = fftSize / 2;
+        float binHz = (float) sampleRate / fftSize;
+        double ratio = Math.log(sampleRate / 2.0 / MIN_HZ);
+        bandStart = new int[rows + 1];
+        for (int r = 0; r <= rows; r++) {
+            int bin = (int) Math.round(MIN_HZ * Math.exp(ratio * r / rows) / binHz);
+            bandStart[r] = Math.min(half - rows + r + 1, Math.max(bin, r == 0 ? 1 : bandStart[r - 1] + 1));
+        }
+    }
+
+    // Push PCM. A trailing odd byte is kept for the next call.
+    public void process(byte[] pcm, int offset, int length, ColumnListener listener) {
+        while (length > 0) {
+            int used = slicer.write(pcm, offset, length);
+            offset += used;
+            length -= used;
+            if (slicer.isFrameReady()) {
+                column(listener);
+                slicer.advance();
+            }
+        }
+    }
+
+    private void column(ColumnListener listener) {
+        float[] frame = slicer.getFrame();
+        for (int i = 0; i < spectrum.length; i++) {
+            spectrum[i] = frame[i] * window[i];
+        }
+        fft.forward(spectrum);
+        fft.power(spectrum, power);
+        for (int r = 0; r < rows; r++) {
+            float loudest = 0;
+            for (int k = bandStart[r]; k < bandStart[r + 1]; k++) {
+                loudest = Math.max(loudest, power[k]);
+            }
+            float db = loudest > 0 ? 10 * (float) Math.log10(loudest / fullScalePower) : floorDb;
+            int level = Math.round((db - floorDb) / -floorDb * 255);
+            levels[r] = (byte) Math.max(0, Math.min(255, level));
+        }
+        listener.onColumn(slicer.getFrameIndex(), levels);
+    }
+
+    // Move on past samples the caller never had, as if they were silence; the columns
+    // that would have ended within them are counted but not computed or reported
+    public void skip(long samples) {
+        slicer.skip(samples);
+    }
+
+    public void reset() {
+        slicer.reset();
+    }
+
+    // Columns reported or skipped so far
+    public long getColumnCount() {
+        return slicer.getFrameIndex();
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    // Frequency the band of row starts at
+    public float getRowHz(int row) {
+        return (float) bandStart[row] * sampleRate / spectrum.length;
+    }
+}
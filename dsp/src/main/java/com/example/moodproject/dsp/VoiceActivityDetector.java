@@ -0,0 +1,209 @@
+package com.example.moodproject.dsp;
+
+import java.util.Arrays;
+
+// Streaming voice activity detection, cheap enough to run on every sample ahead of the
+// analysis and storage stages. PCM is cut into back to back frames of frameSize, and a
+// frame is voice when its level stands out from the noise floor and its spectrum is not
+// flat like noise:
+//
+//   level >= MIN_LEVEL_DB, and either level >= floor + LOUD_MARGIN_DB, or
+//   level >= floor + MARGIN_DB with spectral flatness (geometric over arithmetic mean
+//   of the power spectrum, 150 Hz to 4 kHz) at most MAX_FLATNESS
+//
+// The power spectrum is smoothed over frames before flatness is taken; the flatness
+// of a single short frame of noise scatters too widely to compare with a threshold.
+//
+// The noise floor starts at FLOOR_START_DB, so speech from the first frame is found,
+// follows quieter frames down at once and creeps up by FLOOR_RISE_DB_PER_S, so steady
+// background noise or hum becomes the floor within seconds. After the last voice frame the detector stays active for the hangover, so
+// pauses between words and trailing consonants are kept with the speech around them.
+//
+// Every buffer is allocated in the constructor; processing allocates nothing.
+public class VoiceActivityDetector {
+
+    public static final int DEFAULT_HANGOVER_MS = 300;
+
+    private static final float MIN_LEVEL_DB = -55;
+    private static final float MARGIN_DB = 9;
+    private static final float LOUD_MARGIN_DB = 18;
+    private static final float MAX_FLATNESS = 0.4f;
+    private static final float FLOOR_START_DB = -50;
+    private static final float FLOOR_MIN_DB = -70;
+    private static final float FLOOR_RISE_DB_PER_S = 3;
+    private static final float SILENT_DB = -100;
+    private static final int BAND_LOW_HZ = 150;
+    private static final int BAND_HIGH_HZ = 4000;
+    private static final float POWER_EPSILON = 1e-12f;
+    private static final float SPECTRUM_SMOOTHING = 0.5f;
+
+    private final int frameSize;
+    private final int hangoverFrames;
+    private final float floorRiseDb;
+    private final FrameSlicer slicer;
+    private final float[] frame;
+    private final RealFft fft;
+    private final float[] window;
+    private final float[] spectrum;
+    private final float[] power;
+    private final float[] smoothed;
+    private final int bandLow;
+    private final int bandHigh;
+
+    private float floorDb = FLOOR_START_DB;
+    private int hangoverLeft;
+    private boolean active;
+    private float levelDb = SILENT_DB;
+    private float flatness = 1;
+    private long frames;
+    private long activeFrames;
+    private long speechFrames;
+
+    public VoiceActivityDetector(int sampleRate) {
+        this(sampleRate, 512, DEFAULT_HANGOVER_MS);
+    }
+
+    // frameSize must be a power of two the RealFft supports
+    public VoiceActivityDetector(int sampleRate, int frameSize, int hangoverMs) {
+        this.frameSize = frameSize;
+        this.hangoverFrames = (int) Math.ceil((double) hangoverMs * sampleRate / 1000 / frameSize);
+        this.floorRiseDb = FLOOR_RISE_DB_PER_S * frameSize / sampleRate;
+        slicer = new FrameSlicer(frameSize, frameSize);
+        frame = slicer.getFrame();
+        fft = RealFft.forSize(frameSize);
+        window = Windows.hann(frameSize);
+        spectrum = new float[frameSize];
+        power = new float[frameSize / 2 + 1];
+        smoothed = new float[frameSize / 2 + 1];
+        float binHz = (float) sampleRate / frameSize;
+        bandLow = Math.max(1, Math.round(BAND_LOW_HZ / binHz));
+        bandHigh = Math.max(bandLow + 1, Math.min(frameSize / 2, Math.round(BAND_HIGH_HZ / binHz)));
+    }
+
+    // Push 16-bit little endian mono PCM; a trailing odd byte is kept for the next call.
+    // Returns true if any frame completed here was active (voice or hangover), or, when
+    // none completed, if the last frame was.
+    public boolean process(byte[] pcm, int offset, int length) {
+        boolean any = false;
+        boolean completed = false;
+        while (length > 0) {
+            int used = slicer.write(pcm, offset, length);
+            offset += used;
+            length -= used;
+            if (slicer.isFrameReady()) {
+                completed = true;
+                any |= classifyFrame();
+                slicer.advance();
+            }
+        }
+        return completed ? any : active;
+    }
+
+    private boolean classifyFrame() {
+        float energy = 0;
+        for (int i = 0; i < frameSize; i++) {
+            energy += frame[i] * frame[i];
+            spectrum[i] = frame[i] * window[i];
+        }
+        energy /= frameSize;
+        levelDb = energy > 0 ? Math.max(SILENT_DB, (float) (10 * Math.log10(energy))) : SILENT_DB;
+
+        floorDb = Math.max(FLOOR_MIN_DB, Math.min(levelDb, floorDb + floorRiseDb));
+        flatness = spectralFlatness();
+
+        float above = levelDb - floorDb;
+        boolean speech = levelDb >= MIN_LEVEL_DB
+                && (above >= LOUD_MARGIN_DB || above >= MARGIN_DB && flatness <= MAX_FLATNESS);
+
+        if (speech) {
+            hangoverLeft = hangoverFrames;
+            speechFrames++;
+            active = true;
+        } else if (hangoverLeft > 0) {
+            hangoverLeft--;
+            active = true;
+        } else {
+            active = false;
+        }
+        frames++;
+        if (active) {
+            activeFrames++;
+        }
+        return active;
+    }
+
+    private float spectralFlatness() {
+        fft.forward(spectrum);
+        fft.power(spectrum, power);
+        double logSum = 0;
+        double sum = 0;
+        for (int k = bandLow; k < bandHigh; k++) {
+            smoothed[k] += SPECTRUM_SMOOTHING * (power[k] - smoothed[k]);
+            float p = smoothed[k] + POWER_EPSILON;
+            logSum += Math.log(p);
+            sum += p;
+        }
+        int bins = bandHigh - bandLow;
+        return (float) (Math.exp(logSum / bins) / (sum / bins));
+    }
+
+    // Forget the stream so far, e.g. for a new recording
+    public void reset() {
+        slicer.reset();
+        floorDb = FLOOR_START_DB;
+        hangoverLeft = 0;
+        active = false;
+        levelDb = SILENT_DB;
+        flatness = 1;
+        Arrays.fill(smoothed, 0);
+        frames = 0;
+        activeFrames = 0;
+        speechFrames = 0;
+    }
+
+    // State after the last complete frame
+    public boolean isActive() {
+        return active;
+    }
+
+    public float getLevelDb() {
+        return levelDb;
+    }
+
+    public float getNoiseFloorDb() {
+        return floorDb;
+    }
+
+    // Flatness of the smoothed spectrum after the last frame; near 1 for white noise,
+    // near 0 for a pure tone
+    public float getFlatness() {
+        return flatness;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    // Frames passed on as active, hangover included
+    public long getActiveFrames() {
+        return activeFrames;
+    }
+
+    // Frames judged voice on their own
+    public long getSpeechFrames() {
+        return speechFrames;
+    }
+
+    public double getActiveFraction() {
+        return frames > 0 ? (double) activeFrames / frames : 0;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    // Frames voice is held for after it stops
+    public int getHangoverFrames() {
+        return hangoverFrames;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.moodproject.dsp;
+
+// Reduces a stream of 16-bit little endian PCM to one min/max pair per display column
+// of samplesPerColumn samples, as it arrives. Drawing the pair as a vertical line per
+// pixel shows every peak the samples had, at a cost of one compare per sample and
+// nothing per pixel beyond the column itself, however many samples a pixel covers.
+// Chunks may split samples; nothing is allocated after construction.
+public class WaveformDecimator {
+
+    // Called on the processing thread once per completed column
+    public interface EnvelopeListener {
+        void onEnvelope(long column, short min, short max);
+    }
+
+    private final int samplesPerColumn;
+    private int filled;
+    private int min = Short.MAX_VALUE;
+    private int max = Short.MIN_VALUE;
+    private int pendingByte = -1;
+    private long column;
+
+    public WaveformDecimator(int samplesPerColumn) {
+        if (samplesPerColumn <= 0) {
+            throw new IllegalArgumentException("Bad samples per column " + samplesPerColumn);
+        }
+        this.samplesPerColumn = samplesPerColumn;
+    }
+
+    // Columns for sampleRate audio shown visibleMs wide across columns
+    public static int samplesPerColumn(int sampleRate, long visibleMs, int columns) {
+        return (int) Math.max(1, (long) sampleRate * visibleMs / 1000 / columns);
+    }
+
+    // Push PCM. A trailing odd byte is kept for the next call.
+    public void process(byte[] pcm, int offset, int length, EnvelopeListener listener) {
+        int end = offset + length;
+        if (pendingByte >= 0 && offset < end) {
+            add((short) (pendingByte | (pcm[offset] << 8)), listener);
+            pendingByte = -1;
+            offset++;
+        }
+        for (; offset + 1 < end; offset += Pcm16.BYTES_PER_SAMPLE) {
+            int sample = (short) ((pcm[offset] & 0xff) | (pcm[offset + 1] << 8));
+            if (sample < min) {
+                min = sample;
+            }
+            if (sample > max) {
+                max = sample;
+            }
+            if (++filled == samplesPerColumn) {
+                complete(listener);
+            }
+        }
+        if (offset < end) {
+            pendingByte = pcm[offset] & 0xff;
+        }
+    }
+
+    private void add(int sample, EnvelopeListener listener) {
+        min = Math.min(min, sample);
+        max = Math.max(max, sample);
+        if (++filled == samplesPerColumn) {
+            complete(listener);
+        }
+    }
+
+    private void complete(EnvelopeListener listener) {
+        listener.onEnvelope(column++, (short) min, (short) max);
+        filled = 0;
+        min = Short.MAX_VALUE;
+        max = Short.MIN_VALUE;
+    }
+
+    // Move on past samples the caller never had, e.g. audio dropped under load, as if
+    // they were silence: columns that would have ended within them are not reported but
+    // still counted, and the column they end in goes on from there
+    public void skip(long samples) {
+        if (samples <= 0) {
+            return;
+        }
+        long position = column * samplesPerColumn + filled + samples;
+        long next = position / samplesPerColumn;
+        if (next > column) {
+            column = next;
+            min = Short.MAX_VALUE;
+            max = Short.MIN_VALUE;
+        }
+        filled = (int) (position % samplesPerColumn);
+        if (filled > 0) {
+            min = Math.min(min, 0);
+            max = Math.max(max, 0);
+        }
+        pendingByte = -1;
+    }
+
+    public void reset() {
+        filled = 0;
+        min = Short.MAX_VALUE;
+        max = Short.MIN_VALUE;
+        pendingByte = -1;
+        column = 0;
+    }
+
+    public int getSamplesPerColumn() {
+        return samplesPerColumn;
+    }
+
+    // Columns completed so far
+    public long getColumnCount() {
+        return column;
+    }
+}
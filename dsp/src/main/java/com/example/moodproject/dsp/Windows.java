@@ -0,0 +1,28 @@
+package com.example.moodproject.dsp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Window tables built once per size and shared. The returned arrays are read-only by convention.
+public final class Windows {
+
+    private static final Map<Integer, float[]> HANN = new HashMap<>();
+
+    private Windows() {
+    }
+
+    // Periodic Hann window, the usual choice for overlapping analysis frames
+    public static float[] hann(int size) {
+        synchronized (HANN) {
+            float[] window = HANN.get(size);
+            if (window == null) {
+                window = new float[size];
+                for (int i = 0; i < size; i++) {
+                    window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / size));
+                }
+                HANN.put(size, window);
+            }
+            return window;
+        }
+    }
+}
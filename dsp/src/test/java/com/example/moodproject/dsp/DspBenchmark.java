@@ -0,0 +1,424 @@
+package com.example.moodproject.dsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Throughput benchmarks for the analysis path, run with {@code ./gradlew :dsp:benchmark}.
+ * Results are printed relative to what continuous 44.1 kHz capture needs. Recorded
+ * audio (.wav or raw 16-bit .pcm files) passed with {@code --args} is added to the
+ * codec benchmark.
+ */
+public class DspBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final long WARM_UP_NS = 1_000_000_000L;
+    private static final long MEASURE_NS = 2_000_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        benchmarkFft();
+        benchmarkFeatureExtractor();
+        benchmarkMfcc();
+        benchmarkClassifier();
+        benchmarkCodec(args);
+        benchmarkVoiceActivity();
+        benchmarkResampler();
+        benchmarkScope();
+    }
+
+    private static void benchmarkFft() {
+        System.out.println("RealFft forward, in place");
+        Random random = new Random(1);
+        for (int size = RealFft.MIN_SIZE; size <= RealFft.MAX_SIZE; size <<= 1) {
+            final RealFft fft = RealFft.forSize(size);
+            final float[] source = new float[size];
+            for (int i = 0; i < size; i++) {
+                source[i] = random.nextFloat() - 0.5f;
+            }
+            final float[] data = new float[size];
+            double perSecond = measure(new Runnable() {
+                @Override
+                public void run() {
+                    System.arraycopy(source, 0, data, 0, source.length);
+                    fft.forward(data);
+                }
+            });
+            // Frames per second needed at 50% overlap
+            double needed = SAMPLE_RATE / (size / 2.0);
+            System.out.printf("  n=%4d  %,10.0f transforms/s  %,8.0fx real time%n", size, perSecond, perSecond / needed);
+        }
+    }
+
+    private static void benchmarkFeatureExtractor() {
+        final byte[] pcm = oneSecondOfVoice();
+        final FeatureExtractor extractor = new FeatureExtractor(SAMPLE_RATE, 1024, 512);
+        final FeatureListener listener = new FeatureListener() {
+            @Override
+            public void onFeatures(MoodFeatures features) {
+            }
+        };
+        double perSecond = measure(new Runnable() {
+            @Override
+            public void run() {
+                extractor.process(pcm, 0, pcm.length, listener);
+            }
+        });
+        System.out.printf("FeatureExtractor (1024/512)  %,8.1fx real time%n", perSecond);
+    }
+
+    private static void benchmarkMfcc() {
+        final byte[] pcm = oneSecondOfVoice();
+        final MfccExtractor extractor = new MfccExtractor(SAMPLE_RATE, 1024, 512);
+        final MfccListener listener = new MfccListener() {
+            @Override
+            public void onMfcc(long frameIndex, float[] logMel, float[] mfcc) {
+            }
+        };
+        double perSecond = measure(new Runnable() {
+            @Override
+            public void run() {
+                extractor.process(pcm, 0, pcm.length, listener);
+            }
+        });
+        System.out.printf("MfccExtractor (1024/512, 40 mel, 13 cc)  %,8.1fx real time%n", perSecond);
+    }
+
+    private static void benchmarkClassifier() {
+        Random random = new Random(3);
+        int inputs = MoodWindow.vectorSize(13);
+        float[] mean = new float[inputs];
+        float[] inverseStd = new float[inputs];
+        Arrays.fill(inverseStd, 1);
+        MoodModel model;
+        try {
+            model = MoodModel.parse(new MoodModelWriter(new String[] {"calm", "happy", "sad", "angry"}, mean, inverseStd)
+                    .addLayer(randomMatrix(random, 64, inputs), new float[64], MoodModel.ACTIVATION_RELU)
+                    .addLayer(randomMatrix(random, 4, 64), new float[4], MoodModel.ACTIVATION_LINEAR)
+                    .toBuffer());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        System.out.println("MoodClassifier " + inputs + "-64-4, int8 weights");
+        for (final int batch : new int[] {1, 8, 32}) {
+            final MoodClassifier classifier = new MoodClassifier(model, batch);
+            final float[] vectors = new float[batch * inputs];
+            for (int i = 0; i < vectors.length; i++) {
+                vectors[i] = (float) random.nextGaussian();
+            }
+            final float[] probabilities = new float[batch * 4];
+            double perSecond = measure(new Runnable() {
+                @Override
+                public void run() {
+                    classifier.classify(vectors, 0, batch, probabilities, 0);
+                }
+            });
+            System.out.printf("  batch %2d  %8.2f us per window%n", batch, 1e6 / (perSecond * batch));
+        }
+    }
+
+    private static void benchmarkCodec(String[] files) throws IOException {
+        System.out.println("Lossless codec, 4096 sample blocks, LPC order <= 12");
+        Random random = new Random(4);
+        codecRun("voice-like", LosslessCodecTest.voice(SAMPLE_RATE * 5, random));
+        codecRun("white noise", LosslessCodecTest.noise(SAMPLE_RATE * 5, 32767, random));
+        codecRun("quiet noise", LosslessCodecTest.noise(SAMPLE_RATE * 5, 40, random));
+        codecRun("silence", new short[SAMPLE_RATE * 5]);
+        for (String name : files) {
+            codecRun(new File(name).getName(), readRecording(new File(name)));
+        }
+    }
+
+    private static void codecRun(String name, short[] signal) throws IOException {
+        final byte[] pcm = LosslessCodecTest.toPcm(signal);
+        final byte[] encoded = LosslessCodecTest.encode(signal, LosslessEncoder.DEFAULT_BLOCK_SIZE,
+                LosslessEncoder.DEFAULT_LPC_ORDER, 4096);
+        final LosslessEncoder.BlockSink discard = new LosslessEncoder.BlockSink() {
+            @Override
+            public void onBlock(byte[] data, int length, int samples) {
+            }
+        };
+        final double seconds = (double) signal.length / SAMPLE_RATE;
+        double encodes = measure(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    LosslessEncoder encoder = new LosslessEncoder(discard);
+                    encoder.write(pcm, 0, pcm.length);
+                    encoder.finish();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        final LosslessDecoder decoder = new LosslessDecoder(ByteBuffer.wrap(encoded));
+        final short[] out = new short[signal.length];
+        double decodes = measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int block = 0; block < decoder.getBlockCount(); block++) {
+                    try {
+                        decoder.readBlock(block, out, (int) decoder.getFirstSample(block));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        });
+        System.out.printf("  %-16s ratio %5.2f  %5.2f bits/sample  encode %,7.0fx  decode %,7.0fx real time%n",
+                name, (double) pcm.length / encoded.length, encoded.length * 8.0 / signal.length,
+                encodes * seconds, decodes * seconds);
+    }
+
+    // A minute of speech bursts over quiet room noise, cut into 4096 byte chunks as in
+    // capture: what voice activity detection costs, and what it saves analysis and storage
+    private static void benchmarkVoiceActivity() throws IOException {
+        final int chunkBytes = 4096;
+        final byte[] pcm = LosslessCodecTest.toPcm(conversation(60, new Random(5)));
+        final VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        double perSecond = measure(new Runnable() {
+            @Override
+            public void run() {
+                vad.reset();
+                for (int offset = 0; offset < pcm.length; offset += chunkBytes) {
+                    vad.process(pcm, offset, Math.min(chunkBytes, pcm.length - offset));
+                }
+            }
+        });
+        System.out.printf("VoiceActivityDetector (512 frames)  %,8.1fx real time%n", perSecond * 60);
+
+        vad.reset();
+        final boolean[] voiced = new boolean[(pcm.length + chunkBytes - 1) / chunkBytes];
+        int voicedChunks = 0;
+        for (int c = 0; c < voiced.length; c++) {
+            int offset = c * chunkBytes;
+            voiced[c] = vad.process(pcm, offset, Math.min(chunkBytes, pcm.length - offset));
+            voicedChunks += voiced[c] ? 1 : 0;
+        }
+
+        // Both extractors, as the analyzer runs them; quiet frames already skip the pitch search
+        final FeatureExtractor extractor = new FeatureExtractor(SAMPLE_RATE, 1024, 512);
+        final MfccExtractor mfcc = new MfccExtractor(SAMPLE_RATE, 1024, 512);
+        final FeatureListener listener = new FeatureListener() {
+            @Override
+            public void onFeatures(MoodFeatures features) {
+            }
+        };
+        final MfccListener mfccListener = new MfccListener() {
+            @Override
+            public void onMfcc(long frameIndex, float[] logMel, float[] mfcc) {
+            }
+        };
+        double allRuns = measure(new Runnable() {
+            @Override
+            public void run() {
+                extractor.process(pcm, 0, pcm.length, listener);
+                mfcc.process(pcm, 0, pcm.length, mfccListener);
+            }
+        });
+        double voicedRuns = measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int c = 0; c < voiced.length; c++) {
+                    if (voiced[c]) {
+                        int offset = c * chunkBytes;
+                        int length = Math.min(chunkBytes, pcm.length - offset);
+                        extractor.process(pcm, offset, length, listener);
+                        mfcc.process(pcm, offset, length, mfccListener);
+                    }
+                }
+            }
+        });
+
+        final long[] bytes = new long[1];
+        LosslessEncoder.BlockSink count = new LosslessEncoder.BlockSink() {
+            @Override
+            public void onBlock(byte[] data, int length, int samples) {
+                bytes[0] += length;
+            }
+        };
+        LosslessEncoder plain = new LosslessEncoder(count);
+        plain.write(pcm, 0, pcm.length);
+        plain.finish();
+        long plainBytes = bytes[0];
+        bytes[0] = 0;
+        LosslessEncoder markers = new LosslessEncoder(count);
+        for (int c = 0; c < voiced.length; c++) {
+            int offset = c * chunkBytes;
+            int length = Math.min(chunkBytes, pcm.length - offset);
+            if (voiced[c]) {
+                markers.write(pcm, offset, length);
+            } else {
+                markers.writeSilence(length / 2);
+            }
+        }
+        markers.finish();
+
+        System.out.printf("  %d%% of chunks voiced, analysis %.1f -> %.1f ms per minute, "
+                        + "stored %,d -> %,d bytes (pcm %,d)%n",
+                voicedChunks * 100 / voiced.length, 1000 / allRuns, 1000 / voicedRuns,
+                plainBytes, bytes[0], pcm.length);
+    }
+
+    // The resampler on its own, then analysis at 44.1 kHz against resampling to 16 kHz and
+    // analysing there with frames of about the same length
+    private static void benchmarkResampler() {
+        final byte[] pcm = oneSecondOfVoice();
+        System.out.println("PolyphaseResampler, 4096 byte chunks");
+        for (final int[] rates : new int[][] {{44100, 16000}, {44100, 22050}, {48000, 16000}, {16000, 44100}}) {
+            final PolyphaseResampler resampler = new PolyphaseResampler(rates[0], rates[1]);
+            final byte[] out = new byte[2 * resampler.maxOutput(4096 / 2 + 1)];
+            double perSecond = measure(new Runnable() {
+                @Override
+                public void run() {
+                    for (int offset = 0; offset < pcm.length; offset += 4096) {
+                        resampler.process(pcm, offset, Math.min(4096, pcm.length - offset), out, 0);
+                    }
+                }
+            });
+            System.out.printf("  %5d -> %5d  %3d taps  %,8.1fx real time%n",
+                    rates[0], rates[1], resampler.getTaps(), perSecond * SAMPLE_RATE / rates[0]);
+        }
+
+        final FeatureListener features = new FeatureListener() {
+            @Override
+            public void onFeatures(MoodFeatures features) {
+            }
+        };
+        final MfccListener mfccs = new MfccListener() {
+            @Override
+            public void onMfcc(long frameIndex, float[] logMel, float[] mfcc) {
+            }
+        };
+        final FeatureExtractor fullExtractor = new FeatureExtractor(SAMPLE_RATE, 1024, 512);
+        final MfccExtractor fullMfcc = new MfccExtractor(SAMPLE_RATE, 1024, 512);
+        double full = measure(new Runnable() {
+            @Override
+            public void run() {
+                fullExtractor.process(pcm, 0, pcm.length, features);
+                fullMfcc.process(pcm, 0, pcm.length, mfccs);
+            }
+        });
+        final PolyphaseResampler resampler = new PolyphaseResampler(SAMPLE_RATE, 16000);
+        final byte[] resampled = new byte[2 * resampler.maxOutput(4096 / 2 + 1)];
+        final FeatureExtractor extractor = new FeatureExtractor(16000, 512, 256);
+        final MfccExtractor mfcc = new MfccExtractor(16000, 512, 256);
+        double decimated = measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int offset = 0; offset < pcm.length; offset += 4096) {
+                    int length = resampler.process(pcm, offset, Math.min(4096, pcm.length - offset), resampled, 0);
+                    extractor.process(resampled, 0, length, features);
+                    mfcc.process(resampled, 0, length, mfccs);
+                }
+            }
+        });
+        System.out.printf("  analysis at 44.1 kHz (1024/512) %.2f ms, resampled to 16 kHz (512/256) %.2f ms "
+                + "per second of audio%n", 1000 / full, 1000 / decimated);
+    }
+
+    // Waveform envelope and spectrogram columns for a 10 s scope 512 columns wide, in
+    // capture sized chunks, against drawing every sample
+    private static void benchmarkScope() {
+        final byte[] pcm = oneSecondOfVoice();
+        int samplesPerColumn = WaveformDecimator.samplesPerColumn(SAMPLE_RATE, 10_000, 512);
+        final WaveformDecimator decimator = new WaveformDecimator(samplesPerColumn);
+        final Spectrogram spectrogram = new Spectrogram(SAMPLE_RATE, 1024, samplesPerColumn, 64, -90);
+        final WaveformDecimator.EnvelopeListener envelopes = new WaveformDecimator.EnvelopeListener() {
+            @Override
+            public void onEnvelope(long column, short min, short max) {
+            }
+        };
+        final Spectrogram.ColumnListener columns = new Spectrogram.ColumnListener() {
+            @Override
+            public void onColumn(long column, byte[] levels) {
+            }
+        };
+        double envelope = measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int offset = 0; offset < pcm.length; offset += 4096) {
+                    decimator.process(pcm, offset, Math.min(4096, pcm.length - offset), envelopes);
+                }
+            }
+        });
+        double spectrum = measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int offset = 0; offset < pcm.length; offset += 4096) {
+                    spectrogram.process(pcm, offset, Math.min(4096, pcm.length - offset), columns);
+                }
+            }
+        });
+        System.out.printf("Scope, %d samples per column: envelope %.3f ms, spectrogram (1024, 64 rows) %.3f ms "
+                        + "per second of audio; %d columns per frame instead of %,d samples%n",
+                samplesPerColumn, 1000 / envelope, 1000 / spectrum, 512, SAMPLE_RATE * 10);
+    }
+
+    // Speech-like bursts of 1 to 3 s, 2 to 6 s apart, over quiet noise
+    private static short[] conversation(int seconds, Random random) {
+        short[] out = LosslessCodecTest.noise(seconds * SAMPLE_RATE, 60, random);
+        int at = 2 * SAMPLE_RATE;
+        while (at < out.length) {
+            int length = Math.min(out.length - at, (1 + random.nextInt(3)) * SAMPLE_RATE);
+            short[] voice = LosslessCodecTest.voice(length, random);
+            for (int i = 0; i < length; i++) {
+                out[at + i] += voice[i];
+            }
+            at += length + (2 + random.nextInt(5)) * SAMPLE_RATE;
+        }
+        return out;
+    }
+
+    // Samples of a mono 16-bit .wav (canonical 44 byte header) or raw .pcm file
+    private static short[] readRecording(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int start = file.getName().endsWith(".wav") ? 44 : 0;
+        short[] samples = new short[(bytes.length - start) / 2];
+        ByteBuffer.wrap(bytes, start, samples.length * 2).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+        return samples;
+    }
+
+    private static float[][] randomMatrix(Random random, int rows, int columns) {
+        float[][] matrix = new float[rows][columns];
+        for (float[] row : matrix) {
+            for (int c = 0; c < columns; c++) {
+                row[c] = (float) random.nextGaussian() / (float) Math.sqrt(columns);
+            }
+        }
+        return matrix;
+    }
+
+    // One second of a 180 Hz tone with noise, 16-bit little endian
+    static byte[] oneSecondOfVoice() {
+        byte[] pcm = new byte[SAMPLE_RATE * 2];
+        Random random = new Random(2);
+        for (int i = 0; i < SAMPLE_RATE; i++) {
+            short value = (short) (8000 * Math.sin(2 * Math.PI * 180 * i / SAMPLE_RATE) + random.nextInt(1000));
+            pcm[2 * i] = (byte) value;
+            pcm[2 * i + 1] = (byte) (value >> 8);
+        }
+        return pcm;
+    }
+
+    // Runs the task repeatedly and returns completed runs per second
+    static double measure(Runnable task) {
+        long end = System.nanoTime() + WARM_UP_NS;
+        while (System.nanoTime() < end) {
+            task.run();
+        }
+        long runs = 0;
+        long start = System.nanoTime();
+        end = start + MEASURE_NS;
+        while (System.nanoTime() < end) {
+            task.run();
+            runs++;
+        }
+        return runs * 1e9 / (System.nanoTime() - start);
+    }
+}
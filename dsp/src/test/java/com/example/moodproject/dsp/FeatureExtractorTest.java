@@ -0,0 +1,125 @@
+package com.example.moodproject.dsp;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FeatureExtractorTest {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    @Test
+    public void sine_givesPitchCentroidAndEnergy() {
+        byte[] pcm = sine(220, 0.5, SAMPLE_RATE);
+        FeatureExtractor extractor = new FeatureExtractor(SAMPLE_RATE, 1024, 512);
+        List<MoodFeatures> frames = collect(extractor, pcm, pcm.length);
+
+        assertEquals((SAMPLE_RATE - 1024) / 512 + 1, frames.size());
+        MoodFeatures last = frames.get(frames.size() - 1);
+        assertEquals(220, last.pitch, 2);
+        assertEquals(0.5 / Math.sqrt(2), last.rms, 0.01);
+        assertEquals(2 * 220.0 / SAMPLE_RATE, last.zeroCrossingRate, 0.002);
+        assertEquals(220, last.spectralCentroid, 60);
+        assertTrue(last.spectralRolloff < 400);
+        // A steady tone barely changes between frames
+        assertTrue(last.spectralFlux < frames.get(0).spectralCentroid);
+    }
+
+    @Test
+    public void silence_isUnvoiced() {
+        byte[] pcm = new byte[SAMPLE_RATE];
+        FeatureExtractor extractor = new FeatureExtractor(SAMPLE_RATE, 1024, 512);
+        for (MoodFeatures features : collect(extractor, pcm, pcm.length)) {
+            assertEquals(0, features.rms, 0);
+            assertEquals(0, features.pitch, 0);
+            assertEquals(0, features.spectralCentroid, 0);
+        }
+    }
+
+    @Test
+    public void chunkBoundaries_doNotChangeFeatures() {
+        byte[] pcm = sine(330, 0.3, SAMPLE_RATE / 2);
+        List<MoodFeatures> whole = collect(new FeatureExtractor(SAMPLE_RATE, 1024, 256), pcm, pcm.length);
+        // Odd chunk sizes split samples across calls
+        List<MoodFeatures> chunked = collect(new FeatureExtractor(SAMPLE_RATE, 1024, 256), pcm, 333);
+
+        assertEquals(whole.size(), chunked.size());
+        for (int i = 0; i < whole.size(); i++) {
+            assertEquals(whole.get(i).toString(), chunked.get(i).toString());
+        }
+    }
+
+    @Test
+    public void steadyState_allocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        byte[] pcm = sine(200, 0.4, SAMPLE_RATE);
+        FeatureExtractor extractor = new FeatureExtractor(SAMPLE_RATE, 1024, 512);
+        CountingListener listener = new CountingListener();
+        extractor.process(pcm, 0, pcm.length, listener); // warm up
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int offset = 0; offset < pcm.length; offset += 4096) {
+            extractor.process(pcm, offset, Math.min(4096, pcm.length - offset), listener);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(listener.frames > 80);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void runsFasterThanRealTime() {
+        byte[] pcm = sine(180, 0.4, SAMPLE_RATE * 10);
+        FeatureExtractor extractor = new FeatureExtractor(SAMPLE_RATE, 1024, 512);
+        CountingListener listener = new CountingListener();
+        extractor.process(pcm, 0, pcm.length, listener); // warm up
+
+        long start = System.nanoTime();
+        extractor.process(pcm, 0, pcm.length, listener);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double realTimeFactor = 10 / seconds;
+        // Loose bound so slow CI machines pass; DspBenchmark measures the real factor
+        assertTrue("only " + realTimeFactor + "x real time", realTimeFactor > 5);
+    }
+
+    static byte[] sine(double frequency, double amplitude, int samples) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            short value = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+            pcm[2 * i] = (byte) value;
+            pcm[2 * i + 1] = (byte) (value >> 8);
+        }
+        return pcm;
+    }
+
+    private static List<MoodFeatures> collect(FeatureExtractor extractor, byte[] pcm, int chunk) {
+        final List<MoodFeatures> frames = new ArrayList<>();
+        FeatureListener listener = new FeatureListener() {
+            @Override
+            public void onFeatures(MoodFeatures features) {
+                MoodFeatures copy = new MoodFeatures();
+                copy.copyFrom(features);
+                frames.add(copy);
+            }
+        };
+        for (int offset = 0; offset < pcm.length; offset += chunk) {
+            extractor.process(pcm, offset, Math.min(chunk, pcm.length - offset), listener);
+        }
+        return frames;
+    }
+
+    private static class CountingListener implements FeatureListener {
+        int frames;
+
+        @Override
+        public void onFeatures(MoodFeatures features) {
+            frames++;
+        }
+    }
+}
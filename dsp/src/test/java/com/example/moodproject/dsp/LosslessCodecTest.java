@@ -0,0 +1,250 @@
+package com.example.moodproject.dsp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LosslessCodecTest {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    @Test
+    public void roundTrip_isExactForAllSignalShapes() throws IOException {
+        Random random = new Random(1);
+        short[][] signals = {
+                voice(SAMPLE_RATE, random),
+                noise(SAMPLE_RATE / 2, 32767, random),
+                new short[10_000],
+                square(12_345),
+                extremes(9_000, random),
+                new short[] {42},
+        };
+        for (short[] signal : signals) {
+            for (int blockSize : new int[] {4096, 1000, 1}) {
+                byte[] encoded = encode(signal, blockSize, 12, 333);
+                assertArrayEquals("block size " + blockSize, signal, decodeAll(encoded, signal.length));
+            }
+        }
+    }
+
+    @Test
+    public void chunking_doesNotChangeTheStream() throws IOException {
+        short[] signal = voice(SAMPLE_RATE / 2, new Random(2));
+        byte[] whole = encode(signal, 4096, 12, signal.length * 2);
+        byte[] oddChunks = encode(signal, 4096, 12, 777);
+        assertArrayEquals(whole, oddChunks);
+    }
+
+    @Test
+    public void compression_fitsTheSignal() throws IOException {
+        Random random = new Random(3);
+        short[] voice = voice(SAMPLE_RATE * 2, random);
+        short[] silence = new short[SAMPLE_RATE];
+        short[] noise = noise(SAMPLE_RATE, 32767, random);
+
+        double voiceRatio = ratio(voice);
+        double silenceRatio = ratio(silence);
+        double noiseRatio = ratio(noise);
+        assertTrue("voice ratio " + voiceRatio, voiceRatio > 2);
+        assertTrue("silence ratio " + silenceRatio, silenceRatio > 100);
+        // Incompressible input falls back to verbatim blocks with a small header
+        assertTrue("noise ratio " + noiseRatio, noiseRatio > 0.99);
+    }
+
+    @Test
+    public void randomAccess_matchesTheSource() throws IOException {
+        short[] signal = voice(SAMPLE_RATE, new Random(4));
+        LosslessDecoder decoder = new LosslessDecoder(ByteBuffer.wrap(encode(signal, 4096, 12, 4096)));
+        assertEquals(signal.length, decoder.getSampleCount());
+        assertEquals((signal.length + 4095) / 4096, decoder.getBlockCount());
+        assertEquals(3, decoder.blockOf(3 * 4096));
+        assertEquals(2, decoder.blockOf(3 * 4096 - 1));
+
+        Random random = new Random(5);
+        short[] buffer = new short[5000];
+        for (int i = 0; i < 100; i++) {
+            int position = random.nextInt(signal.length);
+            int length = random.nextInt(buffer.length);
+            int read = decoder.read(position, buffer, 0, length);
+            assertEquals(Math.min(length, signal.length - position), read);
+            for (int j = 0; j < read; j++) {
+                assertEquals(signal[position + j], buffer[j]);
+            }
+        }
+        assertEquals(0, decoder.read(signal.length, buffer, 0, 10));
+    }
+
+    @Test
+    public void scan_stopsAtTheLastCompleteBlock() throws IOException {
+        short[] signal = voice(20_000, new Random(6));
+        byte[] encoded = encode(signal, 4096, 12, 4096);
+        LosslessDecoder full = new LosslessDecoder(ByteBuffer.wrap(encoded));
+        long fourBlocks = 0;
+        for (int b = 0; b < 4; b++) {
+            fourBlocks += blockBytes(encoded, full, b);
+        }
+
+        long[] samples = new long[1];
+        ByteBuffer cut = ByteBuffer.wrap(encoded, 0, (int) fourBlocks + 10);
+        assertEquals(fourBlocks, LosslessDecoder.scan(cut, samples));
+        assertEquals(4 * 4096, samples[0]);
+        assertEquals(encoded.length, LosslessDecoder.scan(ByteBuffer.wrap(encoded), samples));
+        assertEquals(signal.length, samples[0]);
+    }
+
+    @Test
+    public void corruptInput_failsWithIOException() {
+        short[] signal = voice(8192, new Random(7));
+        Random random = new Random(8);
+        byte[] encoded;
+        try {
+            encoded = encode(signal, 4096, 12, 4096);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        short[] out = new short[signal.length];
+        for (int trial = 0; trial < 500; trial++) {
+            byte[] damaged = encoded.clone();
+            int flips = 1 + random.nextInt(4);
+            for (int f = 0; f < flips; f++) {
+                damaged[random.nextInt(damaged.length)] ^= (byte) (1 << random.nextInt(8));
+            }
+            try {
+                LosslessDecoder decoder = new LosslessDecoder(ByteBuffer.wrap(damaged));
+                decoder.read(0, out, 0, (int) Math.min(out.length, decoder.getSampleCount()));
+            } catch (IOException expected) {
+                // detected
+            }
+        }
+    }
+
+    @Test
+    public void silenceMarkers_decodeAsZerosBetweenAudio() throws IOException {
+        short[] voice = voice(5000, new Random(9));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LosslessEncoder encoder = new LosslessEncoder(new LosslessEncoder.BlockSink() {
+            @Override
+            public void onBlock(byte[] data, int length, int samples) {
+                out.write(data, 0, length);
+            }
+        });
+        byte[] pcm = toPcm(voice);
+        encoder.write(pcm, 0, pcm.length);
+        // A run longer than one block, and one cutting a block in progress short
+        encoder.writeSilence(100_000);
+        encoder.write(pcm, 0, 1001);
+        encoder.writeSilence(300);
+        encoder.write(pcm, 0, pcm.length);
+        encoder.finish();
+
+        int total = voice.length + 100_000 + 500 + 300 + voice.length;
+        assertEquals(total, encoder.getSamplesIn());
+        assertEquals(100_300, encoder.getSilentSamples());
+        short[] expected = new short[total];
+        System.arraycopy(voice, 0, expected, 0, voice.length);
+        System.arraycopy(voice, 0, expected, voice.length + 100_000, 500);
+        System.arraycopy(voice, 0, expected, total - voice.length, voice.length);
+        assertArrayEquals(expected, decodeAll(out.toByteArray(), total));
+
+        // The silence costs a few bytes per 65535 samples
+        byte[] audioOnly = encode(voice, 4096, 12, 4096);
+        assertTrue("encoded " + out.size(), out.size() < 3 * audioOnly.length);
+    }
+
+    private static long blockBytes(byte[] encoded, LosslessDecoder decoder, int block) {
+        int offset = 0;
+        for (int b = 0; b < block; b++) {
+            offset += LosslessCodec.HEADER_BYTES + payloadBytes(encoded, offset);
+        }
+        return LosslessCodec.HEADER_BYTES + payloadBytes(encoded, offset);
+    }
+
+    private static int payloadBytes(byte[] encoded, int offset) {
+        return (encoded[offset + 4] & 0xff) | (encoded[offset + 5] & 0xff) << 8
+                | (encoded[offset + 6] & 0xff) << 16 | (encoded[offset + 7] & 0xff) << 24;
+    }
+
+    private static double ratio(short[] signal) throws IOException {
+        return signal.length * 2.0 / encode(signal, 4096, 12, 4096).length;
+    }
+
+    // Encode via the byte[] path in chunks of chunkBytes
+    static byte[] encode(short[] signal, int blockSize, int lpcOrder, int chunkBytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LosslessEncoder encoder = new LosslessEncoder(blockSize, lpcOrder, new LosslessEncoder.BlockSink() {
+            @Override
+            public void onBlock(byte[] data, int length, int samples) {
+                out.write(data, 0, length);
+            }
+        });
+        byte[] pcm = toPcm(signal);
+        for (int offset = 0; offset < pcm.length; offset += chunkBytes) {
+            encoder.write(pcm, offset, Math.min(chunkBytes, pcm.length - offset));
+        }
+        encoder.finish();
+        assertEquals(signal.length, encoder.getSamplesIn());
+        assertEquals(out.size(), encoder.getBytesOut());
+        return out.toByteArray();
+    }
+
+    private static short[] decodeAll(byte[] encoded, int samples) throws IOException {
+        LosslessDecoder decoder = new LosslessDecoder(ByteBuffer.wrap(encoded));
+        assertEquals(samples, decoder.getSampleCount());
+        short[] out = new short[samples];
+        assertEquals(samples, decoder.read(0, out, 0, samples));
+        return out;
+    }
+
+    static byte[] toPcm(short[] samples) {
+        byte[] pcm = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            pcm[2 * i] = (byte) samples[i];
+            pcm[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        return pcm;
+    }
+
+    // Harmonic tone with vibrato and a little noise, roughly like a voiced recording
+    static short[] voice(int samples, Random random) {
+        short[] out = new short[samples];
+        double phase = 0;
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            phase += 2 * Math.PI * (180 + 15 * Math.sin(2 * Math.PI * 5 * t)) / SAMPLE_RATE;
+            double value = 6000 * Math.sin(phase) + 2500 * Math.sin(2 * phase) + 1200 * Math.sin(3 * phase)
+                    + random.nextGaussian() * 20;
+            out[i] = (short) Math.round(value);
+        }
+        return out;
+    }
+
+    static short[] noise(int samples, int amplitude, Random random) {
+        short[] out = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            out[i] = (short) (random.nextInt(2 * amplitude + 1) - amplitude);
+        }
+        return out;
+    }
+
+    private static short[] square(int samples) {
+        short[] out = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            out[i] = (i / 50) % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+        }
+        return out;
+    }
+
+    // Full-scale jumps between the limits stress residual range
+    private static short[] extremes(int samples, Random random) {
+        short[] out = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            out[i] = random.nextBoolean() ? Short.MAX_VALUE : Short.MIN_VALUE;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.moodproject.dsp;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MfccExtractorTest {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    @Test
+    public void filterbank_trianglesCoverTheRange() {
+        MelFilterbank filterbank = MelFilterbank.get(SAMPLE_RATE, 1024, 40, 20, 8000);
+        assertSame(filterbank, MelFilterbank.get(SAMPLE_RATE, 1024, 40, 20, 8000));
+
+        int previousPeak = -1;
+        for (int band = 0; band < 40; band++) {
+            int peak = 0;
+            float sum = 0;
+            for (int bin = 0; bin <= 512; bin++) {
+                float w = filterbank.weight(band, bin);
+                assertTrue(w >= 0 && w <= 1);
+                sum += w;
+                if (w > filterbank.weight(band, peak)) {
+                    peak = bin;
+                }
+            }
+            assertTrue("band " + band + " is empty", sum > 0);
+            assertTrue("band peaks must rise", peak >= previousPeak);
+            previousPeak = peak;
+        }
+        assertEquals(0, filterbank.weight(39, 512), 0);
+        assertEquals(1000, MelFilterbank.melToHz(MelFilterbank.hzToMel(1000)), 1e-6);
+    }
+
+    @Test
+    public void dct_isOrthonormal() {
+        Dct dct = Dct.get(40, 40);
+        float[] constant = new float[40];
+        Arrays.fill(constant, 2);
+        float[] out = new float[40];
+        dct.apply(constant, out);
+
+        assertEquals(2 * Math.sqrt(40), out[0], 1e-4);
+        for (int k = 1; k < 40; k++) {
+            assertEquals(0, out[k], 1e-4);
+        }
+
+        // Energy is preserved for any input
+        float[] input = new float[40];
+        double energy = 0;
+        for (int i = 0; i < 40; i++) {
+            input[i] = (float) Math.sin(i * 0.7) + i * 0.01f;
+            energy += input[i] * input[i];
+        }
+        dct.apply(input, out);
+        double transformed = 0;
+        for (float v : out) {
+            transformed += v * v;
+        }
+        assertEquals(energy, transformed, 1e-3);
+    }
+
+    @Test
+    public void tone_peaksInItsMelBand() {
+        MfccExtractor extractor = new MfccExtractor(SAMPLE_RATE, 1024, 512);
+        final float[] lastLogMel = new float[extractor.getMelBands()];
+        extractor.process(FeatureExtractorTest.sine(1000, 0.5, SAMPLE_RATE / 4), 0, SAMPLE_RATE / 2,
+                new MfccListener() {
+                    @Override
+                    public void onMfcc(long frameIndex, float[] logMel, float[] mfcc) {
+                        System.arraycopy(logMel, 0, lastLogMel, 0, logMel.length);
+                    }
+                });
+
+        MelFilterbank filterbank = MelFilterbank.get(SAMPLE_RATE, 1024, 40, 20, 8000);
+        int loudest = 0;
+        for (int band = 1; band < lastLogMel.length; band++) {
+            if (lastLogMel[band] > lastLogMel[loudest]) {
+                loudest = band;
+            }
+        }
+        int toneBin = Math.round(1000f * 1024 / SAMPLE_RATE);
+        assertTrue(filterbank.weight(loudest, toneBin) > 0.3f);
+    }
+
+    @Test
+    public void matchesReferenceComputation() {
+        byte[] pcm = FeatureExtractorTest.sine(440, 0.3, 2048);
+        for (int i = 0; i < pcm.length; i += 7) {
+            pcm[i] ^= 0x55; // add some broadband content
+        }
+        List<float[]> frames = collect(new MfccExtractor(SAMPLE_RATE, 1024, 512), pcm, pcm.length);
+        assertEquals(3, frames.size());
+
+        // Straightforward double precision version of the same pipeline for frame 1
+        float[] frame = new float[1024];
+        Pcm16.toFloat(pcm, 512 * 2, frame, 0, 1024);
+        double[] power = new double[513];
+        for (int k = 0; k <= 512; k++) {
+            double re = 0;
+            double im = 0;
+            for (int t = 0; t < 1024; t++) {
+                double x = frame[t] * (0.5 - 0.5 * Math.cos(2 * Math.PI * t / 1024));
+                re += x * Math.cos(2 * Math.PI * k * t / 1024);
+                im -= x * Math.sin(2 * Math.PI * k * t / 1024);
+            }
+            power[k] = re * re + im * im;
+        }
+        MelFilterbank filterbank = MelFilterbank.get(SAMPLE_RATE, 1024, 40, 20, 8000);
+        double[] logMel = new double[40];
+        for (int band = 0; band < 40; band++) {
+            double sum = 0;
+            for (int bin = 0; bin <= 512; bin++) {
+                sum += filterbank.weight(band, bin) * power[bin];
+            }
+            logMel[band] = Math.log(Math.max(sum, 1e-10));
+        }
+        for (int k = 0; k < 13; k++) {
+            double sum = 0;
+            for (int n = 0; n < 40; n++) {
+                sum += logMel[n] * Math.cos(Math.PI / 40 * (n + 0.5) * k);
+            }
+            double expected = sum * Math.sqrt((k == 0 ? 1.0 : 2.0) / 40);
+            assertEquals("c" + k, expected, frames.get(1)[k], 1e-2);
+        }
+    }
+
+    @Test
+    public void chunkedInput_givesSameFrames() {
+        byte[] pcm = FeatureExtractorTest.sine(523, 0.4, SAMPLE_RATE / 3);
+        List<float[]> whole = collect(new MfccExtractor(SAMPLE_RATE, 512, 128), pcm, pcm.length);
+        List<float[]> chunked = collect(new MfccExtractor(SAMPLE_RATE, 512, 128), pcm, 101);
+
+        assertEquals(whole.size(), chunked.size());
+        for (int i = 0; i < whole.size(); i++) {
+            assertArrayEquals(whole.get(i), chunked.get(i), 0);
+        }
+    }
+
+    @Test
+    public void steadyState_allocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        byte[] pcm = FeatureExtractorTest.sine(300, 0.4, SAMPLE_RATE);
+        MfccExtractor extractor = new MfccExtractor(SAMPLE_RATE, 1024, 512);
+        MfccListener listener = new MfccListener() {
+            @Override
+            public void onMfcc(long frameIndex, float[] logMel, float[] mfcc) {
+            }
+        };
+        extractor.process(pcm, 0, pcm.length, listener);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int offset = 0; offset < pcm.length; offset += 4096) {
+            extractor.process(pcm, offset, Math.min(4096, pcm.length - offset), listener);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static List<float[]> collect(MfccExtractor extractor, byte[] pcm, int chunk) {
+        final List<float[]> frames = new ArrayList<>();
+        MfccListener listener = new MfccListener() {
+            @Override
+            public void onMfcc(long frameIndex, float[] logMel, float[] mfcc) {
+                assertEquals(frames.size(), frameIndex);
+                frames.add(mfcc.clone());
+            }
+        };
+        for (int offset = 0; offset < pcm.length; offset += chunk) {
+            extractor.process(pcm, offset, Math.min(chunk, pcm.length - offset), listener);
+        }
+        return frames;
+    }
+}
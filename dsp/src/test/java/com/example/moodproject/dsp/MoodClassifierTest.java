@@ -0,0 +1,236 @@
+package com.example.moodproject.dsp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MoodClassifierTest {
+
+    private static final String[] LABELS = {"calm", "happy", "sad", "angry"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mappedModel_matchesFloatReference() throws IOException {
+        Random random = new Random(3);
+        int inputs = MoodWindow.vectorSize(13);
+        ReferenceModel reference = new ReferenceModel(random, inputs, 32, LABELS.length);
+        File file = folder.newFile("mood.bin");
+        reference.writer().writeTo(file);
+
+        MoodModel model = MoodModel.load(file);
+        assertEquals(inputs, model.getInputs());
+        assertEquals(2, model.getLayerCount());
+        assertEquals("angry", model.getLabel(3));
+
+        MoodClassifier classifier = new MoodClassifier(model, 1);
+        float[] probabilities = new float[LABELS.length];
+        int agree = 0;
+        for (int n = 0; n < 200; n++) {
+            float[] vector = reference.randomVector(random);
+            int label = classifier.classify(vector, probabilities);
+            double[] expected = reference.probabilities(vector);
+
+            float total = 0;
+            for (int i = 0; i < LABELS.length; i++) {
+                assertEquals(expected[i], probabilities[i], 0.03);
+                total += probabilities[i];
+            }
+            assertEquals(1, total, 1e-5);
+            if (label == MoodClassifier.argMax(toFloats(expected), 0, LABELS.length)) {
+                agree++;
+            }
+        }
+        // int8 rounding may flip near ties, nothing more
+        assertTrue("agreement " + agree, agree >= 190);
+    }
+
+    @Test
+    public void batch_matchesSingleVectors() throws IOException {
+        Random random = new Random(4);
+        int inputs = 20;
+        ReferenceModel reference = new ReferenceModel(random, inputs, 16, LABELS.length);
+        MoodModel model = MoodModel.parse(reference.writer().toBuffer());
+
+        int count = 37; // not a multiple of the batch size
+        float[] vectors = new float[count * inputs];
+        for (int n = 0; n < count; n++) {
+            System.arraycopy(reference.randomVector(random), 0, vectors, n * inputs, inputs);
+        }
+        float[] batched = new float[count * LABELS.length];
+        new MoodClassifier(model, 8).classify(vectors, 0, count, batched, 0);
+
+        MoodClassifier single = new MoodClassifier(model, 1);
+        float[] vector = new float[inputs];
+        float[] probabilities = new float[LABELS.length];
+        for (int n = 0; n < count; n++) {
+            System.arraycopy(vectors, n * inputs, vector, 0, inputs);
+            single.classify(vector, probabilities);
+            for (int i = 0; i < LABELS.length; i++) {
+                assertEquals(probabilities[i], batched[n * LABELS.length + i], 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void corruptModel_isRejected() throws IOException {
+        ByteBuffer valid = new ReferenceModel(new Random(5), 8, 4, LABELS.length).writer().toBuffer();
+
+        ByteBuffer truncated = valid.duplicate();
+        truncated.limit(valid.limit() - 10);
+        try {
+            MoodModel.parse(truncated);
+            fail("Truncated model accepted");
+        } catch (IOException expected) {
+        }
+
+        ByteBuffer wrongMagic = ByteBuffer.allocate(valid.limit());
+        wrongMagic.put(valid.duplicate()).flip();
+        wrongMagic.put(0, (byte) 'X');
+        try {
+            MoodModel.parse(wrongMagic);
+            fail("Bad magic accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void oneSecondWindow_scoresWellUnderAMillisecond() throws IOException {
+        Random random = new Random(6);
+        int inputs = MoodWindow.vectorSize(13);
+        ReferenceModel reference = new ReferenceModel(random, inputs, 64, LABELS.length);
+        MoodClassifier classifier = new MoodClassifier(MoodModel.parse(reference.writer().toBuffer()), 1);
+        float[] vector = reference.randomVector(random);
+        float[] probabilities = new float[LABELS.length];
+
+        for (int i = 0; i < 20_000; i++) {
+            classifier.classify(vector, probabilities);
+        }
+        int runs = 20_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            classifier.classify(vector, probabilities);
+        }
+        double microsPerWindow = (System.nanoTime() - start) / 1e3 / runs;
+        assertTrue(microsPerWindow + " us per window", microsPerWindow < 1000);
+    }
+
+    @Test
+    public void window_summarisesFrames() {
+        MoodWindow window = new MoodWindow(4, 2);
+        MoodFeatures features = new MoodFeatures();
+        float[] mfcc = new float[2];
+        for (int i = 0; i < 4; i++) {
+            features.rms = i;           // 0 1 2 3
+            features.pitch = i % 2 == 0 ? 0 : 200;
+            window.onFeatures(features);
+            assertFalse(window.isComplete());
+            mfcc[0] = 5;
+            mfcc[1] = i;
+            window.onMfcc(i, null, mfcc);
+        }
+        assertTrue(window.isComplete());
+        // Extra frames wait for the next window
+        window.onFeatures(features);
+
+        float[] vector = new float[window.getVectorSize()];
+        window.drainTo(vector, 0);
+        assertEquals(1.5, vector[0], 1e-6);                  // rms mean
+        assertEquals(Math.sqrt(1.25), vector[1], 1e-6);      // rms std
+        assertEquals(200, vector[10], 1e-6);                 // voiced pitch mean
+        assertEquals(0, vector[11], 1e-6);
+        assertEquals(0.5, vector[12], 1e-6);                 // voiced fraction
+        assertEquals(5, vector[13], 1e-6);
+        assertEquals(0, vector[14], 1e-6);
+        assertEquals(1.5, vector[15], 1e-6);
+        assertFalse(window.isComplete());
+    }
+
+    private static float[] toFloats(double[] values) {
+        float[] result = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (float) values[i];
+        }
+        return result;
+    }
+
+    // Float two layer MLP used both to build the quantized file and as the reference
+    private static class ReferenceModel {
+        final float[] mean;
+        final float[] inverseStd;
+        final float[][] hidden;
+        final float[] hiddenBias;
+        final float[][] output;
+        final float[] outputBias;
+
+        ReferenceModel(Random random, int inputs, int hiddenUnits, int labels) {
+            mean = new float[inputs];
+            inverseStd = new float[inputs];
+            for (int i = 0; i < inputs; i++) {
+                mean[i] = random.nextFloat() * 100;
+                inverseStd[i] = 1f / (1 + random.nextFloat() * 50);
+            }
+            hidden = randomMatrix(random, hiddenUnits, inputs, 1 / (float) Math.sqrt(inputs));
+            hiddenBias = randomMatrix(random, 1, hiddenUnits, 0.1f)[0];
+            output = randomMatrix(random, labels, hiddenUnits, 2 / (float) Math.sqrt(hiddenUnits));
+            outputBias = randomMatrix(random, 1, labels, 0.1f)[0];
+        }
+
+        MoodModelWriter writer() {
+            return new MoodModelWriter(LABELS, mean, inverseStd)
+                    .addLayer(hidden, hiddenBias, MoodModel.ACTIVATION_RELU)
+                    .addLayer(output, outputBias, MoodModel.ACTIVATION_LINEAR);
+        }
+
+        float[] randomVector(Random random) {
+            float[] vector = new float[mean.length];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = mean[i] + (float) random.nextGaussian() / inverseStd[i];
+            }
+            return vector;
+        }
+
+        double[] probabilities(float[] vector) {
+            double[] h = new double[hidden.length];
+            for (int o = 0; o < hidden.length; o++) {
+                double sum = hiddenBias[o];
+                for (int i = 0; i < vector.length; i++) {
+                    sum += hidden[o][i] * (vector[i] - mean[i]) * inverseStd[i];
+                }
+                h[o] = Math.max(0, sum);
+            }
+            double[] p = new double[output.length];
+            double total = 0;
+            for (int o = 0; o < output.length; o++) {
+                double sum = outputBias[o];
+                for (int i = 0; i < h.length; i++) {
+                    sum += output[o][i] * h[i];
+                }
+                p[o] = Math.exp(sum);
+                total += p[o];
+            }
+            for (int o = 0; o < p.length; o++) {
+                p[o] /= total;
+            }
+            return p;
+        }
+
+        private static float[][] randomMatrix(Random random, int rows, int columns, float scale) {
+            float[][] matrix = new float[rows][columns];
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < columns; c++) {
+                    matrix[r][c] = (float) random.nextGaussian() * scale;
+                }
+            }
+            return matrix;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.moodproject.dsp;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PolyphaseResamplerTest {
+
+    @Test
+    public void ratio_isReducedToLowestTerms() {
+        PolyphaseResampler resampler = new PolyphaseResampler(44100, 16000);
+        assertEquals(160, resampler.getUp());
+        assertEquals(441, resampler.getDown());
+        PolyphaseResampler third = new PolyphaseResampler(48000, 16000);
+        assertEquals(1, third.getUp());
+        assertEquals(3, third.getDown());
+    }
+
+    @Test
+    public void decimatedTone_keepsItsShape() {
+        PolyphaseResampler resampler = new PolyphaseResampler(44100, 16000);
+        float[] out = resample(resampler, sine(44100, 1000, 44100, 0.5));
+        assertEquals(16000, out.length, 1);
+        double snr = snrDb(out, 16000, 1000, settle(resampler));
+        assertTrue("snr " + snr, snr > 70);
+        assertEquals(0.5, amplitude(out, 16000, 1000, settle(resampler)), 0.001);
+    }
+
+    @Test
+    public void passband_isFlat() {
+        for (int hz : new int[] {100, 1000, 3000, 6000}) {
+            PolyphaseResampler resampler = new PolyphaseResampler(44100, 16000);
+            float[] out = resample(resampler, sine(44100, hz, 44100, 0.5));
+            double gainDb = 20 * Math.log10(amplitude(out, 16000, hz, settle(resampler)) / 0.5);
+            assertEquals(hz + " Hz", 0, gainDb, 0.01);
+        }
+    }
+
+    @Test
+    public void toneAboveTheOutputBand_doesNotAlias() {
+        // 8.5 kHz would fold to 7.5 kHz, 12 kHz to 4 kHz, 20 kHz to 4 kHz
+        for (int hz : new int[] {8500, 12_000, 20_000}) {
+            PolyphaseResampler resampler = new PolyphaseResampler(44100, 16000);
+            float[] out = resample(resampler, sine(44100, hz, 44100, 0.5));
+            double levelDb = 10 * Math.log10(power(out, settle(resampler)) / (0.5 * 0.5 / 2));
+            assertTrue(hz + " Hz leaks at " + levelDb + " dB", levelDb < -75);
+        }
+    }
+
+    @Test
+    public void whiteNoise_aliasesLittleIntoTheOutputBand() {
+        // Noise over the whole input band; only the part under 8 kHz may come through
+        Random random = new Random(1);
+        float[] noise = new float[4 * 44100];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = (float) (random.nextGaussian() * 0.1);
+        }
+        PolyphaseResampler resampler = new PolyphaseResampler(44100, 16000);
+        float[] out = resample(resampler, noise);
+        double ratio = power(out, settle(resampler)) / power(noise, 0);
+        // 8 kHz of 22.05 kHz, less the transition band from 6.4 kHz
+        assertTrue("power ratio " + ratio, ratio > 6400.0 / 22050 && ratio < 8000.0 / 22050);
+    }
+
+    @Test
+    public void otherRatios_convertTones() {
+        int[][] rates = {{16000, 44100}, {48000, 16000}, {8000, 11025}, {44100, 22050}};
+        for (int[] pair : rates) {
+            PolyphaseResampler resampler = new PolyphaseResampler(pair[0], pair[1]);
+            float[] out = resample(resampler, sine(pair[0], 440, pair[0], 0.5));
+            String name = pair[0] + " -> " + pair[1];
+            assertEquals(name, pair[1], out.length, 1);
+            double snr = snrDb(out, pair[1], 440, settle(resampler));
+            assertTrue(name + " snr " + snr, snr > 70);
+        }
+    }
+
+    @Test
+    public void chunkBoundaries_doNotChangeTheOutput() {
+        byte[] pcm = LosslessCodecTest.toPcm(LosslessCodecTest.voice(20_000, new Random(2)));
+        PolyphaseResampler whole = new PolyphaseResampler(44100, 16000);
+        byte[] expected = new byte[2 * whole.maxOutput(pcm.length / 2 + 1)];
+        int expectedLength = whole.process(pcm, 0, pcm.length, expected, 0);
+
+        for (int chunk : new int[] {1, 333, 4096, 5000}) {
+            PolyphaseResampler chunked = new PolyphaseResampler(44100, 16000);
+            byte[] out = new byte[expected.length + 8];
+            int length = 0;
+            for (int offset = 0; offset < pcm.length; offset += chunk) {
+                length += chunked.process(pcm, offset, Math.min(chunk, pcm.length - offset), out, length);
+            }
+            assertEquals("chunk " + chunk, expectedLength, length);
+            for (int i = 0; i < length; i++) {
+                assertEquals("chunk " + chunk + " byte " + i, expected[i], out[i]);
+            }
+        }
+        assertEquals(expectedLength / 2, whole.getSamplesOut());
+    }
+
+    @Test
+    public void fullScale_clipsInsteadOfWrapping() {
+        short[] square = new short[4410];
+        float[] floats = new float[square.length];
+        for (int i = 0; i < square.length; i++) {
+            square[i] = (i / 100) % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+            floats[i] = square[i] * Pcm16.SCALE;
+        }
+        byte[] pcm = LosslessCodecTest.toPcm(square);
+        PolyphaseResampler resampler = new PolyphaseResampler(44100, 16000);
+        byte[] out = new byte[2 * resampler.maxOutput(square.length)];
+        int length = resampler.process(pcm, 0, pcm.length, out, 0);
+        float[] expected = resample(new PolyphaseResampler(44100, 16000), floats);
+        assertEquals(expected.length, length / 2);
+
+        // Gibbs overshoot at each edge is held at the limits rather than wrapping round
+        int clipped = 0;
+        for (int i = 0; i < expected.length; i++) {
+            short sample = (short) ((out[2 * i] & 0xff) | (out[2 * i + 1] << 8));
+            long exact = Math.round(expected[i] * 32768.0);
+            assertEquals("sample " + i, Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, exact)), sample, 1);
+            if (exact > Short.MAX_VALUE || exact < Short.MIN_VALUE) {
+                clipped++;
+            }
+        }
+        assertTrue(clipped > 0);
+    }
+
+    @Test
+    public void steadyState_allocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        byte[] pcm = LosslessCodecTest.toPcm(LosslessCodecTest.voice(44100, new Random(3)));
+        PolyphaseResampler resampler = new PolyphaseResampler(44100, 16000);
+        byte[] out = new byte[2 * resampler.maxOutput(4096 / 2 + 1)];
+        for (int offset = 0; offset < pcm.length; offset += 4096) {
+            resampler.process(pcm, offset, Math.min(4096, pcm.length - offset), out, 0); // warm up
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int offset = 0; offset < pcm.length; offset += 4096) {
+            resampler.process(pcm, offset, Math.min(4096, pcm.length - offset), out, 0);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static float[] resample(PolyphaseResampler resampler, float[] in) {
+        float[] out = new float[resampler.maxOutput(in.length)];
+        int length = 0;
+        for (int offset = 0; offset < in.length; offset += 1000) {
+            length += resampler.process(in, offset, Math.min(1000, in.length - offset), out, length);
+        }
+        float[] trimmed = new float[length];
+        System.arraycopy(out, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    // Outputs to skip while the filter fills with the signal
+    private static int settle(PolyphaseResampler resampler) {
+        return (int) Math.ceil(2 * resampler.getDelay()) + 1;
+    }
+
+    private static float[] sine(int rate, double hz, int samples, double amplitude) {
+        float[] out = new float[samples];
+        for (int i = 0; i < samples; i++) {
+            out[i] = (float) (amplitude * Math.sin(2 * Math.PI * hz * i / rate));
+        }
+        return out;
+    }
+
+    // Least squares fit of a tone at hz to signal[from..], as {sin, cos} weights
+    private static double[] fit(float[] signal, int rate, double hz, int from) {
+        double ss = 0;
+        double cc = 0;
+        double sc = 0;
+        double ys = 0;
+        double yc = 0;
+        for (int i = from; i < signal.length; i++) {
+            double s = Math.sin(2 * Math.PI * hz * i / rate);
+            double c = Math.cos(2 * Math.PI * hz * i / rate);
+            ss += s * s;
+            cc += c * c;
+            sc += s * c;
+            ys += signal[i] * s;
+            yc += signal[i] * c;
+        }
+        double det = ss * cc - sc * sc;
+        return new double[] {(ys * cc - yc * sc) / det, (yc * ss - ys * sc) / det};
+    }
+
+    private static double amplitude(float[] signal, int rate, double hz, int from) {
+        double[] weights = fit(signal, rate, hz, from);
+        return Math.hypot(weights[0], weights[1]);
+    }
+
+    // Tone power over the power of whatever else is left
+    private static double snrDb(float[] signal, int rate, double hz, int from) {
+        double[] weights = fit(signal, rate, hz, from);
+        double tone = 0;
+        double rest = 0;
+        for (int i = from; i < signal.length; i++) {
+            double fitted = weights[0] * Math.sin(2 * Math.PI * hz * i / rate)
+                    + weights[1] * Math.cos(2 * Math.PI * hz * i / rate);
+            tone += fitted * fitted;
+            rest += (signal[i] - fitted) * (signal[i] - fitted);
+        }
+        return 10 * Math.log10(tone / rest);
+    }
+
+    private static double power(float[] signal, int from) {
+        double sum = 0;
+        for (int i = from; i < signal.length; i++) {
+            sum += signal[i] * signal[i];
+        }
+        return sum / (signal.length - from);
+    }
+}
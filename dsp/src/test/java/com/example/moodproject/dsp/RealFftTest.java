@@ -0,0 +1,130 @@
+package com.example.moodproject.dsp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link RealFft} against a naive double precision DFT for every supported size.
+ */
+public class RealFftTest {
+
+    @Test
+    public void forward_matchesNaiveDft() {
+        Random random = new Random(42);
+        for (int size = RealFft.MIN_SIZE; size <= RealFft.MAX_SIZE; size <<= 1) {
+            float[] signal = randomSignal(random, size);
+            double[][] expected = naiveDft(signal);
+
+            float[] data = signal.clone();
+            RealFft.forSize(size).forward(data);
+
+            double tolerance = 1e-5 * size;
+            assertEquals("DC, n=" + size, expected[0][0], data[0], tolerance);
+            assertEquals("Nyquist, n=" + size, expected[0][size / 2], data[1], tolerance);
+            for (int k = 1; k < size / 2; k++) {
+                assertEquals("Re " + k + ", n=" + size, expected[0][k], data[2 * k], tolerance);
+                assertEquals("Im " + k + ", n=" + size, expected[1][k], data[2 * k + 1], tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void inverse_restoresSignal() {
+        Random random = new Random(7);
+        for (int size = RealFft.MIN_SIZE; size <= RealFft.MAX_SIZE; size <<= 1) {
+            float[] signal = randomSignal(random, size);
+            float[] data = signal.clone();
+            RealFft fft = RealFft.forSize(size);
+            fft.forward(data);
+            fft.inverse(data);
+            for (int i = 0; i < size; i++) {
+                assertEquals("n=" + size + " i=" + i, signal[i], data[i], 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void power_satisfiesParseval() {
+        int size = 1024;
+        float[] signal = randomSignal(new Random(3), size);
+        double timeEnergy = 0;
+        for (float sample : signal) {
+            timeEnergy += sample * sample;
+        }
+
+        RealFft fft = RealFft.forSize(size);
+        float[] data = signal.clone();
+        fft.forward(data);
+        float[] power = new float[size / 2 + 1];
+        fft.power(data, power);
+
+        // Bins 1..n/2-1 appear twice in the full two-sided spectrum
+        double spectralEnergy = power[0] + power[size / 2];
+        for (int k = 1; k < size / 2; k++) {
+            spectralEnergy += 2 * power[k];
+        }
+        assertEquals(timeEnergy, spectralEnergy / size, timeEnergy * 1e-5);
+    }
+
+    @Test
+    public void sine_landsInItsBin() {
+        int size = 512;
+        float[] data = new float[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (float) Math.cos(2 * Math.PI * 17 * i / size);
+        }
+        RealFft fft = RealFft.forSize(size);
+        fft.forward(data);
+        float[] magnitude = new float[size / 2 + 1];
+        fft.magnitude(data, magnitude);
+
+        assertEquals(size / 2.0, magnitude[17], 1e-3);
+        assertEquals(0, magnitude[16], 1e-3);
+        assertEquals(0, magnitude[18], 1e-3);
+    }
+
+    @Test
+    public void tables_areSharedPerSize() {
+        assertSame(RealFft.forSize(2048), RealFft.forSize(2048));
+        assertSame(Windows.hann(1024), Windows.hann(1024));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedSize() {
+        RealFft.forSize(8192);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPowerOfTwo() {
+        RealFft.forSize(1000);
+    }
+
+    private static float[] randomSignal(Random random, int size) {
+        float[] signal = new float[size];
+        for (int i = 0; i < size; i++) {
+            signal[i] = (float) (random.nextGaussian() * 0.3);
+        }
+        return signal;
+    }
+
+    // Returns {re[0..n/2], im[0..n/2]}
+    private static double[][] naiveDft(float[] signal) {
+        int n = signal.length;
+        double[][] result = new double[2][n / 2 + 1];
+        for (int k = 0; k <= n / 2; k++) {
+            double re = 0;
+            double im = 0;
+            for (int t = 0; t < n; t++) {
+                double angle = 2 * Math.PI * ((long) k * t % n) / n;
+                re += signal[t] * Math.cos(angle);
+                im -= signal[t] * Math.sin(angle);
+            }
+            result[0][k] = re;
+            result[1][k] = im;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.moodproject.dsp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class SpectrogramTest {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    @Test
+    public void tone_lightsTheRowOfItsBand() {
+        Spectrogram spectrogram = new Spectrogram(SAMPLE_RATE, 1024, 861, 64, -80);
+        List<byte[]> columns = collect(spectrogram, sine(1000, 1.0, SAMPLE_RATE), 4096);
+
+        assertEquals((SAMPLE_RATE - 1024) / 861 + 1, columns.size());
+        byte[] levels = columns.get(columns.size() - 1);
+        int loudest = 0;
+        for (int r = 0; r < levels.length; r++) {
+            if ((levels[r] & 0xff) > (levels[loudest] & 0xff)) {
+                loudest = r;
+            }
+        }
+        assertTrue(spectrogram.getRowHz(loudest) <= 1000);
+        assertTrue(spectrogram.getRowHz(loudest + 1) > 1000);
+        // A full scale sine reaches the top level; far bands sit near the floor
+        assertEquals(255, levels[loudest] & 0xff, 8);
+        assertTrue((levels[levels.length - 1] & 0xff) < 64);
+    }
+
+    @Test
+    public void silence_isAtTheFloor() {
+        Spectrogram spectrogram = new Spectrogram(SAMPLE_RATE, 1024, 512, 32, -60);
+        for (byte[] levels : collect(spectrogram, new byte[SAMPLE_RATE], 1000)) {
+            for (byte level : levels) {
+                assertEquals(0, level);
+            }
+        }
+    }
+
+    @Test
+    public void rows_coverLogSpacedBandsUpToNyquist() {
+        Spectrogram spectrogram = new Spectrogram(SAMPLE_RATE, 1024, 512, 64, -80);
+        float previous = 0;
+        for (int r = 0; r < spectrogram.getRows(); r++) {
+            float hz = spectrogram.getRowHz(r);
+            assertTrue(hz > previous);
+            previous = hz;
+        }
+        assertTrue(spectrogram.getRowHz(0) < 100);
+        // Half the rows go below 1.5 kHz, where speech has most of its energy
+        assertTrue(spectrogram.getRowHz(32) < 1500);
+        assertTrue(previous > 15000);
+    }
+
+    @Test
+    public void skip_keepsLaterColumnsWhereSilenceWouldHavePutThem() {
+        byte[] before = sine(1000, 0.5, 20000);
+        byte[] after = sine(3000, 0.5, 20000);
+        // Within one hop, within one frame, and across many frames
+        for (int gap : new int[] {100, 700, 5000}) {
+            Spectrogram reference = new Spectrogram(SAMPLE_RATE, 1024, 512, 32, -80);
+            Map<Long, byte[]> expected = new TreeMap<>();
+            process(reference, before, expected);
+            process(reference, new byte[2 * gap], expected);
+            process(reference, after, expected);
+
+            Spectrogram skipping = new Spectrogram(SAMPLE_RATE, 1024, 512, 32, -80);
+            Map<Long, byte[]> actual = new TreeMap<>();
+            process(skipping, before, actual);
+            long first = skipping.getColumnCount();
+            skipping.skip(gap);
+            long resumed = skipping.getColumnCount();
+            process(skipping, after, actual);
+
+            // Columns that would have been done by the end of the gap are skipped
+            assertEquals((20000 + gap - 1024) / 512 + 1, resumed);
+            assertEquals(reference.getColumnCount(), skipping.getColumnCount());
+            for (Map.Entry<Long, byte[]> column : expected.entrySet()) {
+                if (column.getKey() >= first && column.getKey() < resumed) {
+                    assertFalse(actual.containsKey(column.getKey()));
+                } else {
+                    assertArrayEquals("gap " + gap + ", column " + column.getKey(),
+                            column.getValue(), actual.get(column.getKey()));
+                }
+            }
+        }
+    }
+
+    private static void process(Spectrogram spectrogram, byte[] pcm, final Map<Long, byte[]> columns) {
+        spectrogram.process(pcm, 0, pcm.length, new Spectrogram.ColumnListener() {
+            @Override
+            public void onColumn(long column, byte[] levels) {
+                columns.put(column, levels.clone());
+            }
+        });
+    }
+
+    private static List<byte[]> collect(Spectrogram spectrogram, byte[] pcm, int chunk) {
+        final List<byte[]> columns = new ArrayList<>();
+        Spectrogram.ColumnListener listener = new Spectrogram.ColumnListener() {
+            @Override
+            public void onColumn(long column, byte[] levels) {
+                assertEquals(columns.size(), column);
+                columns.add(levels.clone());
+            }
+        };
+        for (int offset = 0; offset < pcm.length; offset += chunk) {
+            spectrogram.process(pcm, offset, Math.min(chunk, pcm.length - offset), listener);
+        }
+        return columns;
+    }
+
+    private static byte[] sine(double hz, double amplitude, int samples) {
+        byte[] pcm = new byte[2 * samples];
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) Math.round(32767 * amplitude * Math.sin(2 * Math.PI * hz * i / SAMPLE_RATE));
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.moodproject.dsp;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VoiceActivityDetectorTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int FRAME = 512;
+    private static final int FRAME_BYTES = FRAME * 2;
+
+    @Test
+    public void speechBetweenSilence_isActiveWithHangover() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE, FRAME, 300);
+        short[] signal = concat(new short[SAMPLE_RATE], LosslessCodecTest.voice(SAMPLE_RATE, new Random(1)),
+                new short[SAMPLE_RATE]);
+        boolean[] active = frames(vad, signal);
+
+        int framesPerSecond = SAMPLE_RATE / FRAME;
+        int speechStart = firstActive(active, 0);
+        assertEquals(framesPerSecond, speechStart, 1);
+        int speechEnd = firstInactive(active, speechStart);
+        // Held for 300 ms after the voice stopped
+        int hangover = speechEnd - 2 * framesPerSecond;
+        assertTrue("hangover " + hangover, hangover >= 24 && hangover <= 28);
+        assertEquals(-1, firstActive(active, speechEnd));
+        assertEquals(speechEnd - speechStart, vad.getActiveFrames());
+        assertTrue(vad.getSpeechFrames() < vad.getActiveFrames());
+    }
+
+    @Test
+    public void speechFromTheFirstFrame_isFound() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        boolean[] active = frames(vad, LosslessCodecTest.voice(SAMPLE_RATE / 2, new Random(2)));
+        assertEquals(0, firstActive(active, 0));
+        assertEquals(-1, firstInactive(active, 0));
+    }
+
+    @Test
+    public void steadyNoise_becomesTheFloor() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        // Loud fan noise, well above the starting floor
+        short[] noise = LosslessCodecTest.noise(6 * SAMPLE_RATE, 3000, new Random(3));
+        boolean[] active = frames(vad, noise);
+
+        int settled = firstInactive(active, 0);
+        assertTrue("settled after " + settled + " frames", settled > 0 && settled < 5 * SAMPLE_RATE / FRAME);
+        assertEquals(-1, firstActive(active, settled));
+        assertEquals(vad.getLevelDb(), vad.getNoiseFloorDb(), 15);
+    }
+
+    @Test
+    public void quietVoiceOverNoise_isToldApartFromANoiseBurst() {
+        Random random = new Random(4);
+        int second = SAMPLE_RATE;
+        short[] background = LosslessCodecTest.noise(4 * second, 300, random);
+        short[] voice = scale(LosslessCodecTest.voice(second / 2, random), 0.15);
+        short[] burst = LosslessCodecTest.noise(second / 2, 1200, random);
+        // Both about 12 dB over the background: only the one with harmonics is voice
+        short[] withVoice = mix(background.clone(), voice, 2 * second);
+        short[] withBurst = mix(background.clone(), burst, 2 * second);
+
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        int voiced = count(frames(vad, withVoice));
+        assertTrue("voiced frames " + voiced, voiced > (second / 2) / FRAME);
+
+        vad.reset();
+        assertEquals(0, vad.getFrames());
+        assertEquals(0, count(frames(vad, withBurst)));
+    }
+
+    @Test
+    public void digitalSilence_isNeverActive() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        assertFalse(vad.process(new byte[SAMPLE_RATE * 2], 0, SAMPLE_RATE * 2));
+        assertEquals(SAMPLE_RATE / FRAME, vad.getFrames());
+        assertEquals(0, vad.getActiveFraction(), 0);
+    }
+
+    @Test
+    public void chunkBoundaries_doNotChangeDecisions() {
+        short[] signal = concat(new short[SAMPLE_RATE / 2], LosslessCodecTest.voice(SAMPLE_RATE / 2, new Random(5)),
+                new short[SAMPLE_RATE]);
+        byte[] pcm = LosslessCodecTest.toPcm(signal);
+        VoiceActivityDetector whole = new VoiceActivityDetector(SAMPLE_RATE);
+        whole.process(pcm, 0, pcm.length);
+        VoiceActivityDetector chunked = new VoiceActivityDetector(SAMPLE_RATE);
+        for (int offset = 0; offset < pcm.length; offset += 333) {
+            chunked.process(pcm, offset, Math.min(333, pcm.length - offset));
+        }
+        assertEquals(whole.getFrames(), chunked.getFrames());
+        assertEquals(whole.getActiveFrames(), chunked.getActiveFrames());
+        assertEquals(whole.getSpeechFrames(), chunked.getSpeechFrames());
+    }
+
+    @Test
+    public void chunkWithoutACompleteFrame_keepsTheLastDecision() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        byte[] voice = LosslessCodecTest.toPcm(LosslessCodecTest.voice(FRAME * 4, new Random(6)));
+        assertTrue(vad.process(voice, 0, FRAME_BYTES * 2));
+        assertTrue(vad.process(voice, FRAME_BYTES * 2, 100));
+        assertEquals(2, vad.getFrames());
+    }
+
+    @Test
+    public void steadyState_allocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Random random = new Random(7);
+        byte[] pcm = LosslessCodecTest.toPcm(concat(LosslessCodecTest.voice(SAMPLE_RATE, random),
+                LosslessCodecTest.noise(SAMPLE_RATE, 200, random)));
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        vad.process(pcm, 0, pcm.length); // warm up
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int offset = 0; offset < pcm.length; offset += 4096) {
+            vad.process(pcm, offset, Math.min(4096, pcm.length - offset));
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    // Decision for each frame, fed one frame at a time
+    private static boolean[] frames(VoiceActivityDetector vad, short[] signal) {
+        byte[] pcm = LosslessCodecTest.toPcm(signal);
+        boolean[] active = new boolean[pcm.length / FRAME_BYTES];
+        for (int i = 0; i < active.length; i++) {
+            active[i] = vad.process(pcm, i * FRAME_BYTES, FRAME_BYTES);
+        }
+        return active;
+    }
+
+    private static int firstActive(boolean[] active, int from) {
+        for (int i = from; i < active.length; i++) {
+            if (active[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int firstInactive(boolean[] active, int from) {
+        for (int i = from; i < active.length; i++) {
+            if (!active[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int count(boolean[] active) {
+        int count = 0;
+        for (boolean a : active) {
+            if (a) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static short[] concat(short[]... parts) {
+        int length = 0;
+        for (short[] part : parts) {
+            length += part.length;
+        }
+        short[] out = new short[length];
+        int offset = 0;
+        for (short[] part : parts) {
+            System.arraycopy(part, 0, out, offset, part.length);
+            offset += part.length;
+        }
+        return out;
+    }
+
+    private static short[] scale(short[] signal, double gain) {
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = (short) Math.round(signal[i] * gain);
+        }
+        return signal;
+    }
+
+    private static short[] mix(short[] into, short[] signal, int at) {
+        for (int i = 0; i < signal.length; i++) {
+            into[at + i] += signal[i];
+        }
+        return into;
+    }
+}
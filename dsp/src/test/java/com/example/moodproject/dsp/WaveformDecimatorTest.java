@@ -0,0 +1,130 @@
+package com.example.moodproject.dsp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WaveformDecimatorTest {
+
+    @Test
+    public void columns_holdTheMinAndMaxOfTheirSamples() {
+        short[] samples = new short[1000];
+        Random random = new Random(5);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) random.nextInt(65536);
+        }
+        WaveformDecimator decimator = new WaveformDecimator(64);
+        List<short[]> columns = collect(decimator, pcm(samples), 4096);
+
+        assertEquals(samples.length / 64, columns.size());
+        assertEquals(columns.size(), decimator.getColumnCount());
+        for (int c = 0; c < columns.size(); c++) {
+            short min = Short.MAX_VALUE;
+            short max = Short.MIN_VALUE;
+            for (int i = 64 * c; i < 64 * (c + 1); i++) {
+                min = (short) Math.min(min, samples[i]);
+                max = (short) Math.max(max, samples[i]);
+            }
+            assertEquals(c, columns.get(c)[0]);
+            assertEquals(min, columns.get(c)[1]);
+            assertEquals(max, columns.get(c)[2]);
+        }
+    }
+
+    @Test
+    public void chunkBoundaries_doNotChangeColumns() {
+        short[] samples = new short[44100];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (20000 * Math.sin(2 * Math.PI * 440 * i / 44100.0) * Math.sin(Math.PI * i / 44100.0));
+        }
+        byte[] pcm = pcm(samples);
+        int samplesPerColumn = WaveformDecimator.samplesPerColumn(44100, 1000, 512);
+        assertEquals(86, samplesPerColumn);
+        List<short[]> whole = collect(new WaveformDecimator(samplesPerColumn), pcm, pcm.length);
+        // Odd chunk sizes split samples across calls
+        List<short[]> chunked = collect(new WaveformDecimator(samplesPerColumn), pcm, 333);
+
+        assertEquals(512, whole.size());
+        assertEquals(whole.size(), chunked.size());
+        for (int i = 0; i < whole.size(); i++) {
+            assertArrayEquals(whole.get(i), chunked.get(i));
+        }
+        // The envelope follows the swell of the tone
+        assertTrue(whole.get(256)[2] > 19000);
+        assertTrue(whole.get(0)[2] < 1000);
+    }
+
+    @Test
+    public void reset_startsAFreshColumn() {
+        WaveformDecimator decimator = new WaveformDecimator(4);
+        List<short[]> columns = collect(decimator, pcm(new short[] {5, 6, 7}), 7);
+        assertTrue(columns.isEmpty());
+        decimator.reset();
+        columns = collect(decimator, pcm(new short[] {-1, 1, -2, 2}), 8);
+        assertEquals(1, columns.size());
+        assertArrayEquals(new short[] {0, -2, 2}, columns.get(0));
+    }
+
+    @Test
+    public void skip_keepsLaterColumnsWhereSilenceWouldHavePutThem() {
+        short[] before = new short[1000];
+        short[] after = new short[1000];
+        Random random = new Random(7);
+        for (int i = 0; i < before.length; i++) {
+            before[i] = (short) (1000 + random.nextInt(1000));
+            after[i] = (short) (1000 + random.nextInt(1000));
+        }
+        // Within one column, ending in the next, and across many columns
+        for (int gap : new int[] {10, 50, 500}) {
+            WaveformDecimator reference = new WaveformDecimator(64);
+            List<short[]> expected = collect(reference, pcm(before), 4096);
+            expected.addAll(collect(reference, pcm(new short[gap]), 4096));
+            expected.addAll(collect(reference, pcm(after), 4096));
+
+            WaveformDecimator skipping = new WaveformDecimator(64);
+            List<short[]> actual = collect(skipping, pcm(before), 4096);
+            long first = skipping.getColumnCount();
+            skipping.skip(gap);
+            long resumed = skipping.getColumnCount();
+            actual.addAll(collect(skipping, pcm(after), 4096));
+
+            // Columns that would have ended within the gap are skipped
+            assertEquals((before.length + gap) / 64, resumed);
+            assertEquals(reference.getColumnCount(), skipping.getColumnCount());
+            int skipped = (int) (resumed - first);
+            assertEquals(expected.size() - skipped, actual.size());
+            for (int i = 0; i < actual.size(); i++) {
+                int e = i < first ? i : i + skipped;
+                assertArrayEquals("gap " + gap + ", column " + e, expected.get(e), actual.get(i));
+            }
+        }
+    }
+
+    // Columns as {index, min, max}
+    private static List<short[]> collect(WaveformDecimator decimator, byte[] pcm, int chunk) {
+        final List<short[]> columns = new ArrayList<>();
+        WaveformDecimator.EnvelopeListener listener = new WaveformDecimator.EnvelopeListener() {
+            @Override
+            public void onEnvelope(long column, short min, short max) {
+                columns.add(new short[] {(short) column, min, max});
+            }
+        };
+        for (int offset = 0; offset < pcm.length; offset += chunk) {
+            decimator.process(pcm, offset, Math.min(chunk, pcm.length - offset), listener);
+        }
+        return columns;
+    }
+
+    private static byte[] pcm(short[] samples) {
+        byte[] pcm = new byte[2 * samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            pcm[2 * i] = (byte) samples[i];
+            pcm[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        return pcm;
+    }
+}
@@ -21,4 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "Mood Project"
 include(":app")
+include(":dsp")
  
\ No newline at end of file